@@ -28,6 +28,7 @@
 import org.xwiki.classloader.ClassLoaderManager;
 import org.xwiki.classloader.NamespaceURLClassLoader;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.util.ClassCache;
 
 /**
  * Default implementation of {@link ClassLoaderManager}.
@@ -65,6 +66,7 @@ public NamespaceURLClassLoader getURLClassLoader(String namespace, boolean creat
     {
         if (this.rootClassLoader == null && create) {
             this.rootClassLoader = new NamespaceURLClassLoader(new URI[] {}, getSystemClassLoader(), null);
+            ClassCache.retain(this.rootClassLoader);
         }
 
         NamespaceURLClassLoader wikiClassLoader = this.rootClassLoader;
@@ -75,6 +77,7 @@ public NamespaceURLClassLoader getURLClassLoader(String namespace, boolean creat
             if (wikiClassLoader == null) {
                 if (create) {
                     wikiClassLoader = new NamespaceURLClassLoader(new URI[] {}, this.rootClassLoader, namespace);
+                    ClassCache.retain(wikiClassLoader);
                     this.wikiClassLoaderMap.put(namespace, wikiClassLoader);
                 } else {
                     wikiClassLoader = this.rootClassLoader;
@@ -93,6 +96,7 @@ public void dropURLClassLoaders()
                 dropURLClassLoader(namespace);
             }
 
+            ClassCache.release(this.rootClassLoader);
             this.rootClassLoader = null;
         }
     }
@@ -101,7 +105,10 @@ public void dropURLClassLoaders()
     public void dropURLClassLoader(String namespace)
     {
         if (this.rootClassLoader != null && namespace != null) {
-            this.wikiClassLoaderMap.remove(namespace);
+            NamespaceURLClassLoader wikiClassLoader = this.wikiClassLoaderMap.remove(namespace);
+            if (wikiClassLoader != null) {
+                ClassCache.release(wikiClassLoader);
+            }
         }
     }
 }
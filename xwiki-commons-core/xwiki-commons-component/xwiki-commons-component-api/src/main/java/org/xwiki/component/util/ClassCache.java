@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe cache of values computed from a {@link Class}.
+ * <p>
+ * Cached values usually reference the class they were computed from (fields, generic types, etc.) so they must not be
+ * kept longer than the {@link ClassLoader} of this class, otherwise the class and its {@link ClassLoader} could never
+ * be garbage collected:
+ * <ul>
+ * <li>values of classes loaded by the {@link ClassLoader} of this cache or one of its parents are kept strongly since
+ * those classes can't be unloaded before the cache itself</li>
+ * <li>values of classes loaded by a {@link ClassLoader} passed to {@link #retain(ClassLoader)} (the extension
+ * {@link ClassLoader}s for example) are kept strongly until the {@link ClassLoader} is passed to
+ * {@link #release(ClassLoader)}</li>
+ * <li>values of any other class are only weakly referenced and computed again when they have been collected</li>
+ * </ul>
+ * 
+ * @param <V> the type of the cached values
+ * @version $Id$
+ * @since 4.1
+ */
+public class ClassCache<V>
+{
+    /**
+     * The {@link ClassLoader} of the cache.
+     */
+    private static final ClassLoader CLASSLOADER = ClassCache.class.getClassLoader();
+
+    /**
+     * The {@link ClassLoader}s whose classes values are kept until they are released.
+     */
+    private static final Set<ClassLoader> RETAINED =
+        Collections.newSetFromMap(new ConcurrentHashMap<ClassLoader, Boolean>());
+
+    /**
+     * All the existing caches, to remove the values of the released {@link ClassLoader}s.
+     */
+    private static final Map<ClassCache< ? >, Boolean> CACHES =
+        Collections.synchronizedMap(new WeakHashMap<ClassCache< ? >, Boolean>());
+
+    /**
+     * The values of the classes which can't be unloaded before the cache or which belong to a retained
+     * {@link ClassLoader}.
+     */
+    private final ConcurrentMap<Class< ? >, V> values = new ConcurrentHashMap<Class< ? >, V>();
+
+    /**
+     * The values of the classes which can be unloaded at any time.
+     */
+    private final Map<Class< ? >, WeakReference<V>> weakValues = new WeakHashMap<Class< ? >, WeakReference<V>>();
+
+    /**
+     * Default constructor.
+     */
+    public ClassCache()
+    {
+        CACHES.put(this, Boolean.TRUE);
+    }
+
+    /**
+     * Keep the values of the classes loaded by the passed {@link ClassLoader} until it's passed to
+     * {@link #release(ClassLoader)}.
+     * 
+     * @param classLoader the {@link ClassLoader}
+     */
+    public static void retain(ClassLoader classLoader)
+    {
+        RETAINED.add(classLoader);
+    }
+
+    /**
+     * Remove from all the caches the values of the classes loaded by the passed {@link ClassLoader}, so that it can be
+     * garbage collected.
+     * 
+     * @param classLoader the {@link ClassLoader}
+     */
+    public static void release(ClassLoader classLoader)
+    {
+        RETAINED.remove(classLoader);
+
+        List<ClassCache< ? >> caches;
+        synchronized (CACHES) {
+            caches = new ArrayList<ClassCache< ? >>(CACHES.keySet());
+        }
+        for (ClassCache< ? > cache : caches) {
+            cache.remove(classLoader);
+        }
+    }
+
+    /**
+     * @param clazz the class
+     * @return the value cached for the passed class or null if there is none
+     */
+    public V get(Class< ? > clazz)
+    {
+        if (isRetained(clazz)) {
+            return this.values.get(clazz);
+        }
+
+        synchronized (this.weakValues) {
+            WeakReference<V> reference = this.weakValues.get(clazz);
+
+            return reference != null ? reference.get() : null;
+        }
+    }
+
+    /**
+     * @param clazz the class
+     * @param value the value to associate to the passed class
+     * @return the passed value
+     */
+    public V put(Class< ? > clazz, V value)
+    {
+        if (isRetained(clazz)) {
+            this.values.put(clazz, value);
+
+            // The ClassLoader might have been released in the meantime
+            if (!isRetained(clazz)) {
+                this.values.remove(clazz);
+            }
+        } else {
+            synchronized (this.weakValues) {
+                this.weakValues.put(clazz, new WeakReference<V>(value));
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * @param clazz the class
+     * @param value the value to associate to the passed class if there is none yet
+     * @return the value now associated to the passed class
+     */
+    public V putIfAbsent(Class< ? > clazz, V value)
+    {
+        if (isRetained(clazz)) {
+            V previous = this.values.putIfAbsent(clazz, value);
+
+            // The ClassLoader might have been released in the meantime
+            if (!isRetained(clazz)) {
+                this.values.remove(clazz);
+            }
+
+            return previous != null ? previous : value;
+        }
+
+        synchronized (this.weakValues) {
+            V previous = get(clazz);
+
+            return previous != null ? previous : put(clazz, value);
+        }
+    }
+
+    /**
+     * Remove all the cached values.
+     */
+    public void clear()
+    {
+        this.values.clear();
+        synchronized (this.weakValues) {
+            this.weakValues.clear();
+        }
+    }
+
+    /**
+     * @param classLoader the {@link ClassLoader} of the classes to remove
+     */
+    private void remove(ClassLoader classLoader)
+    {
+        for (Iterator<Class< ? >> it = this.values.keySet().iterator(); it.hasNext();) {
+            if (it.next().getClassLoader() == classLoader) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param clazz the class
+     * @return true if the value of the passed class should be kept strongly
+     */
+    private static boolean isRetained(Class< ? > clazz)
+    {
+        ClassLoader classLoader = clazz.getClassLoader();
+
+        if (classLoader == null || RETAINED.contains(classLoader)) {
+            // Loaded by the bootstrap ClassLoader or by a retained ClassLoader
+            return true;
+        }
+
+        for (ClassLoader current = CLASSLOADER; current != null; current = current.getParent()) {
+            if (current == classLoader) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -27,6 +27,8 @@
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,6 +45,47 @@
  */
 public final class ReflectionUtils
 {
+    /**
+     * The fields of each class, including the fields of its superclasses.
+     */
+    private static final ClassCache<Field[]> FIELDS = new ClassCache<Field[]>();
+
+    /**
+     * The generic interfaces, superclass and type parameters of each class.
+     */
+    private static final ClassCache<ClassTypes> TYPES = new ClassCache<ClassTypes>();
+
+    /**
+     * The generic declarations of a class. {@link Class} returns a new copy of them at each call.
+     */
+    private static final class ClassTypes
+    {
+        /**
+         * @see Class#getGenericInterfaces()
+         */
+        private final Type[] interfaces;
+
+        /**
+         * @see Class#getGenericSuperclass()
+         */
+        private final Type superclass;
+
+        /**
+         * @see Class#getTypeParameters()
+         */
+        private final TypeVariable[] parameters;
+
+        /**
+         * @param clazz the class from which to extract the generic declarations
+         */
+        private ClassTypes(Class< ? > clazz)
+        {
+            this.interfaces = clazz.getGenericInterfaces();
+            this.superclass = clazz.getGenericSuperclass();
+            this.parameters = clazz.getTypeParameters();
+        }
+    }
+
     /**
      * Utility class.
      */
@@ -52,37 +95,76 @@ private ReflectionUtils()
     }
 
     /**
+     * A new collection is returned for each call but the fields it contains are cached and shared between calls so
+     * their accessibility should not be modified.
+     * 
      * @param clazz the class for which to return all fields
      * @return all fields declared by the passed class and its superclasses
      */
     public static Collection<Field> getAllFields(Class< ? > clazz)
     {
-        // Note: use a linked hash map to keep the same order as the one used to declare the fields.
-        Map<String, Field> fields = new LinkedHashMap<String, Field>();
-        Class< ? > targetClass = clazz;
-        while (targetClass != null) {
-            Field[] targetClassFields;
+        return new ArrayList<Field>(Arrays.asList(getFields(clazz)));
+    }
+
+    /**
+     * @param clazz the class for which to return all fields
+     * @return all fields declared by the passed class and its superclasses
+     */
+    private static Field[] getFields(Class< ? > clazz)
+    {
+        Field[] fields = FIELDS.get(clazz);
+
+        if (fields == null) {
+            Field[] declaredFields;
             try {
-                targetClassFields = targetClass.getDeclaredFields();
+                declaredFields = clazz.getDeclaredFields();
             } catch (NoClassDefFoundError e) {
                 // Provide a better exception message to more easily debug component loading issue.
                 // Specifically with this error message we'll known which component failed to be initialized.
-                throw new NoClassDefFoundError("Failed to get fields for class [" + targetClass.getName()
+                throw new NoClassDefFoundError("Failed to get fields for class [" + clazz.getName()
                     + "] because the class [" + e.getMessage() + "] couldn't be found in the ClassLoader.");
             }
 
-            for (Field field : targetClassFields) {
-                // Make sure that if the same field is declared in a class and its superclass
-                // only the field used in the class will be returned. Note that we need to do
-                // this check since the Field object doesn't implement the equals method using
-                // the field name.
-                if (!fields.containsKey(field.getName())) {
-                    fields.put(field.getName(), field);
+            Class< ? > superClass = clazz.getSuperclass();
+            if (superClass != null) {
+                // Note: use a linked hash map to keep the same order as the one used to declare the fields.
+                Map<String, Field> fieldMap = new LinkedHashMap<String, Field>();
+                for (Field field : declaredFields) {
+                    fieldMap.put(field.getName(), field);
+                }
+                for (Field field : getFields(superClass)) {
+                    // Make sure that if the same field is declared in a class and its superclass
+                    // only the field used in the class will be returned. Note that we need to do
+                    // this check since the Field object doesn't implement the equals method using
+                    // the field name.
+                    if (!fieldMap.containsKey(field.getName())) {
+                        fieldMap.put(field.getName(), field);
+                    }
                 }
+                fields = fieldMap.values().toArray(new Field[fieldMap.size()]);
+            } else {
+                fields = declaredFields;
             }
-            targetClass = targetClass.getSuperclass();
+
+            FIELDS.put(clazz, fields);
         }
-        return fields.values();
+
+        return fields;
+    }
+
+    /**
+     * @param clazz the class
+     * @return the generic declarations of the passed class
+     */
+    private static ClassTypes getClassTypes(Class< ? > clazz)
+    {
+        ClassTypes types = TYPES.get(clazz);
+
+        if (types == null) {
+            types = TYPES.put(clazz, new ClassTypes(clazz));
+        }
+
+        return types;
     }
 
     /**
@@ -260,7 +342,7 @@ public static Type getLastTypeGenericArgument(Type type)
     public static Type getGenericClassType(Class clazz, Class filterClass)
     {
         // Get all interfaces implemented and find the one that's a Provider with a Generic type
-        for (Type type : clazz.getGenericInterfaces()) {
+        for (Type type : getClassTypes(clazz).interfaces) {
             if (type == filterClass) {
                 return type;
             } else if (type instanceof ParameterizedType) {
@@ -303,7 +385,7 @@ public static Type[] resolveSuperArguments(Type[] parameters, Class childClass,
     {
         Map<TypeVariable, Type> typeMapping;
         if (childParameters != null) {
-            TypeVariable<Class>[] declaredChildParameters = childClass.getTypeParameters();
+            TypeVariable[] declaredChildParameters = getClassTypes(childClass).parameters;
 
             typeMapping = new HashMap<TypeVariable, Type>();
             for (int i = 0; i < declaredChildParameters.length; ++i) {
@@ -452,11 +534,13 @@ public static List<Type> getDirectTypes(Type type)
 
         List<Type> types = new LinkedList<Type>();
 
-        for (Type interfaceType : clazz.getGenericInterfaces()) {
+        ClassTypes classTypes = getClassTypes(clazz);
+
+        for (Type interfaceType : classTypes.interfaces) {
             types.add(resolveType(interfaceType, type));
         }
 
-        Type superType = clazz.getGenericSuperclass();
+        Type superType = classTypes.superclass;
         if (superType != null) {
             types.add(resolveType(superType, type));
         }
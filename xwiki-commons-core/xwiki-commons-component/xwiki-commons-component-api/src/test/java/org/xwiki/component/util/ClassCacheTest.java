@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.util;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ClassCache}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ClassCacheTest
+{
+    public static class Value
+    {
+    }
+
+    private ClassCache<Object> cache = new ClassCache<Object>();
+
+    private ClassLoader classLoader;
+
+    private Class< ? > clazz;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // A ClassLoader which is not a parent of the ClassLoader of the cache
+        URL location = getClass().getProtectionDomain().getCodeSource().getLocation();
+        this.classLoader = new URLClassLoader(new URL[] {location}, null);
+        this.clazz = this.classLoader.loadClass(Value.class.getName());
+    }
+
+    @Test
+    public void testGetFromParentClassLoader()
+    {
+        Object value = new Object();
+        this.cache.put(Value.class, value);
+
+        Assert.assertSame(value, this.cache.get(Value.class));
+        Assert.assertNull(this.cache.get(this.clazz));
+    }
+
+    @Test
+    public void testRetainedClassLoader()
+    {
+        ClassCache.retain(this.classLoader);
+        try {
+            this.cache.put(this.clazz, new Object());
+            System.gc();
+
+            Assert.assertNotNull(this.cache.get(this.clazz));
+        } finally {
+            ClassCache.release(this.classLoader);
+        }
+
+        Assert.assertNull(this.cache.get(this.clazz));
+    }
+
+    @Test
+    public void testReleasedClassLoaderIsNotRetained()
+    {
+        ClassCache.retain(this.classLoader);
+        ClassCache.release(this.classLoader);
+
+        Object value = new Object();
+        this.cache.put(this.clazz, value);
+
+        Assert.assertSame(value, this.cache.get(this.clazz));
+
+        ClassCache.release(this.classLoader);
+
+        // Values of ClassLoaders which are not retained are only weakly referenced, not removed
+        Assert.assertSame(value, this.cache.get(this.clazz));
+    }
+
+    @Test
+    public void testPutIfAbsent()
+    {
+        Object value = new Object();
+
+        Assert.assertSame(value, this.cache.putIfAbsent(Value.class, value));
+        Assert.assertSame(value, this.cache.putIfAbsent(Value.class, new Object()));
+        Assert.assertSame(value, this.cache.putIfAbsent(this.clazz, value));
+        Assert.assertSame(value, this.cache.putIfAbsent(this.clazz, new Object()));
+    }
+}
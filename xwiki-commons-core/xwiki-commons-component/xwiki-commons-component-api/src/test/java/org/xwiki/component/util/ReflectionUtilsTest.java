@@ -20,6 +20,7 @@
 package org.xwiki.component.util;
 
 import java.lang.reflect.Field;
+import java.util.Collection;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -44,6 +45,12 @@ private class TestFieldClass extends AbstractTestFieldClass
         private Object field;
     }
 
+    private class HidingTestFieldClass extends AbstractTestFieldClass
+    {
+        @SuppressWarnings("unused")
+        private Object superField;
+    }
+
     @Test
     public void testGetField() throws Exception
     {
@@ -71,4 +78,49 @@ public void testGetFieldWhenDoesntExist()
                 + TestFieldClass.class.getName() + "] or superclasses", expected.getMessage());
         }
     }
+
+    @Test
+    public void testGetAllFields()
+    {
+        Collection<Field> fields = ReflectionUtils.getAllFields(TestFieldClass.class);
+
+        Field superField = null;
+        Field field = null;
+        for (Field currentField : fields) {
+            if (currentField.getName().equals("superField")) {
+                superField = currentField;
+            } else if (currentField.getName().equals("field")) {
+                field = currentField;
+            }
+        }
+        Assert.assertNotNull(field);
+        Assert.assertSame(AbstractTestFieldClass.class, superField.getDeclaringClass());
+
+        // Calling it again should give the same result
+        Assert.assertEquals(fields, ReflectionUtils.getAllFields(TestFieldClass.class));
+    }
+
+    @Test
+    public void testGetAllFieldsReturnsCopy()
+    {
+        Collection<Field> fields = ReflectionUtils.getAllFields(TestFieldClass.class);
+        int size = fields.size();
+
+        fields.clear();
+
+        Assert.assertEquals(size, ReflectionUtils.getAllFields(TestFieldClass.class).size());
+    }
+
+    @Test
+    public void testGetAllFieldsWhenHidden()
+    {
+        int count = 0;
+        for (Field field : ReflectionUtils.getAllFields(HidingTestFieldClass.class)) {
+            if (field.getName().equals("superField")) {
+                Assert.assertSame(HidingTestFieldClass.class, field.getDeclaringClass());
+                ++count;
+            }
+        }
+        Assert.assertEquals(1, count);
+    }
 }
@@ -29,12 +29,17 @@
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.inject.Provider;
 
@@ -42,8 +47,10 @@
 import org.slf4j.LoggerFactory;
 import org.xwiki.component.descriptor.ComponentDescriptor;
 import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.component.internal.ComponentDescriptorIndex;
 import org.xwiki.component.internal.RoleHint;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ClassCache;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.component.util.ReflectionUtils;
 
@@ -90,6 +97,12 @@
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ComponentAnnotationLoader.class);
 
+    /**
+     * The roles implemented by each non parameterized type. Interfaces and abstract classes are shared by a lot of
+     * components so there is no need to look at them again for each component or each loaded extension.
+     */
+    private static final ClassCache<Set<Type>> ROLE_TYPES = new ClassCache<Set<Type>>();
+
     /**
      * Loads all components defined using annotations.
      * 
@@ -98,6 +111,23 @@
      *            {@code META-INF/components.txt})
      */
     public void initialize(ComponentManager manager, ClassLoader classLoader)
+    {
+        initialize(manager, classLoader, (ExecutorService) null);
+    }
+
+    /**
+     * Loads all components defined using annotations, creating the component descriptors in parallel. Components are
+     * still registered one after another and in the same order as with {@link #initialize(ComponentManager,
+     * ClassLoader)}, which means that priorities and overrides are resolved the same way.
+     * 
+     * @param manager the component manager to use to dynamically register components
+     * @param classLoader the classloader to use to look for the Component list declaration file (
+     *            {@code META-INF/components.txt})
+     * @param executor the executor used to create the component descriptors, null to create them in the current
+     *            thread
+     * @since 4.1
+     */
+    public void initialize(ComponentManager manager, ClassLoader classLoader, ExecutorService executor)
     {
         try {
             // Find all declared components by retrieving the list defined in COMPONENT_LIST.
@@ -118,7 +148,7 @@ public void initialize(ComponentManager manager, ClassLoader classLoader)
                     .getImplementationClassName(), 0));
             }
 
-            initialize(manager, classLoader, componentDeclarations);
+            register(manager, classLoader, componentDeclarations, executor);
         } catch (Exception e) {
             // Make sure we make the calling code fail in order to fail fast and prevent the application to start
             // if something is amiss.
@@ -149,28 +179,45 @@ public void initialize(ComponentManager manager, ClassLoader classLoader,
     public void register(ComponentManager manager, ClassLoader classLoader,
         List<ComponentDeclaration> componentDeclarations)
     {
+        register(manager, classLoader, componentDeclarations, null);
+    }
+
+    /**
+     * @param manager the component manager to use to dynamically register components
+     * @param classLoader the classloader to use to look for the Component list declaration file (
+     *            {@code META-INF/components.txt})
+     * @param componentDeclarations the declarations of components to register
+     * @param executor the executor used to create the component descriptors, null to create them in the current
+     *            thread
+     */
+    private void register(ComponentManager manager, ClassLoader classLoader,
+        List<ComponentDeclaration> componentDeclarations, ExecutorService executor)
+    {
+        // The descriptors precomputed at build time, looked for in the jar or directory of each component
+        ComponentDescriptorIndex index = new ComponentDescriptorIndex();
+
         try {
             // 2) For each component class name found, load its class and use introspection to find the necessary
             // annotations required to create a Component Descriptor.
+            List<List<ComponentDescriptor>> declarationsDescriptors =
+                getComponentsDescriptors(classLoader, componentDeclarations, index, executor);
+
             Map<RoleHint< ? >, ComponentDescriptor< ? >> descriptorMap =
                 new HashMap<RoleHint< ? >, ComponentDescriptor< ? >>();
             Map<RoleHint< ? >, Integer> priorityMap = new HashMap<RoleHint< ? >, Integer>();
 
-            for (ComponentDeclaration componentDeclaration : componentDeclarations) {
-                Class< ? > componentClass = classLoader.loadClass(componentDeclaration.getImplementationClassName());
+            for (int i = 0; i < componentDeclarations.size(); ++i) {
+                ComponentDeclaration componentDeclaration = componentDeclarations.get(i);
 
                 // Look for ComponentRole annotations and register one component per ComponentRole found
-                for (Type componentRoleType : findComponentRoleTypes(componentClass)) {
-                    for (ComponentDescriptor< ? > componentDescriptor : this.factory.createComponentDescriptors(
-                        componentClass, componentRoleType)) {
-                        // If there's already a existing role/hint in the list of descriptors then decide which one
-                        // to keep by looking at their priorities. Highest priority wins (i.e. lowest integer value).
-                        RoleHint< ? > roleHint =
-                            new RoleHint(componentDescriptor.getRoleType(), componentDescriptor.getRoleHint());
-
-                        addComponent(descriptorMap, priorityMap, roleHint, componentDescriptor, componentDeclaration,
-                            true);
-                    }
+                for (ComponentDescriptor< ? > componentDescriptor : declarationsDescriptors.get(i)) {
+                    // If there's already a existing role/hint in the list of descriptors then decide which one
+                    // to keep by looking at their priorities. Highest priority wins (i.e. lowest integer value).
+                    RoleHint< ? > roleHint =
+                        new RoleHint(componentDescriptor.getRoleType(), componentDescriptor.getRoleHint());
+
+                    addComponent(descriptorMap, priorityMap, roleHint, componentDescriptor, componentDeclaration,
+                        true);
                 }
             }
 
@@ -182,6 +229,8 @@ public void register(ComponentManager manager, ClassLoader classLoader,
             // Make sure we make the calling code fail in order to fail fast and prevent the application to start
             // if something is amiss.
             throw new RuntimeException("Failed to dynamically load components with annotations", e);
+        } finally {
+            index.close();
         }
     }
 
@@ -258,19 +307,127 @@ public List<ComponentDescriptor> getComponentsDescriptors(Class< ? > componentCl
         List<ComponentDescriptor> descriptors = new ArrayList<ComponentDescriptor>();
 
         // Look for ComponentRole annotations and register one component per ComponentRole found
-        for (Type componentRoleType : findComponentRoleTypes(componentClass)) {
+        for (Type componentRoleType : getComponentRoleTypes(componentClass, null)) {
             descriptors.addAll(this.factory.createComponentDescriptors(componentClass, componentRoleType));
         }
 
         return descriptors;
     }
 
+    /**
+     * Create the descriptors of each declared component, in parallel when an executor is provided.
+     * 
+     * @param classLoader the classloader to use to load the component implementations
+     * @param componentDeclarations the declarations of components
+     * @param index the descriptors precomputed at build time
+     * @param executor the executor used to create the component descriptors, null to create them in the current
+     *            thread
+     * @return the descriptors of each declaration, in the same order as the declarations
+     * @throws Exception when failing to create the descriptors of a component
+     */
+    private List<List<ComponentDescriptor>> getComponentsDescriptors(final ClassLoader classLoader,
+        List<ComponentDeclaration> componentDeclarations, final ComponentDescriptorIndex index,
+        ExecutorService executor) throws Exception
+    {
+        List<List<ComponentDescriptor>> descriptors =
+            new ArrayList<List<ComponentDescriptor>>(componentDeclarations.size());
+
+        if (executor == null) {
+            for (ComponentDeclaration componentDeclaration : componentDeclarations) {
+                descriptors.add(getComponentsDescriptors(
+                    classLoader.loadClass(componentDeclaration.getImplementationClassName()), index));
+            }
+        } else {
+            List<Future<List<ComponentDescriptor>>> futures =
+                new ArrayList<Future<List<ComponentDescriptor>>>(componentDeclarations.size());
+            for (final ComponentDeclaration componentDeclaration : componentDeclarations) {
+                futures.add(executor.submit(new Callable<List<ComponentDescriptor>>()
+                {
+                    @Override
+                    public List<ComponentDescriptor> call() throws Exception
+                    {
+                        return getComponentsDescriptors(
+                            classLoader.loadClass(componentDeclaration.getImplementationClassName()), index);
+                    }
+                }));
+            }
+
+            for (Future<List<ComponentDescriptor>> future : futures) {
+                try {
+                    descriptors.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    } else if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+
+                    throw e;
+                }
+            }
+        }
+
+        return descriptors;
+    }
+
+    /**
+     * @param componentClass the component implementation class
+     * @param index the descriptors precomputed at build time
+     * @return the descriptors from the index if it's up to date, the descriptors found through reflection otherwise
+     */
+    private List<ComponentDescriptor> getComponentsDescriptors(Class< ? > componentClass,
+        ComponentDescriptorIndex index)
+    {
+        try {
+            List<ComponentDescriptor> descriptors = index.getComponentDescriptors(componentClass);
+            if (descriptors != null) {
+                return descriptors;
+            }
+        } catch (Exception e) {
+            getLogger().debug("Failed to get the indexed descriptors of component [{}], using reflection",
+                componentClass.getName(), e);
+        }
+
+        return getComponentsDescriptors(componentClass);
+    }
+
     public Set<Type> findComponentRoleTypes(Class< ? > componentClass)
     {
         return findComponentRoleTypes(componentClass, null);
     }
 
     public Set<Type> findComponentRoleTypes(Class< ? > componentClass, Type[] parameters)
+    {
+        return new LinkedHashSet<Type>(getComponentRoleTypes(componentClass, parameters));
+    }
+
+    /**
+     * @param componentClass the component implementation class for which to find the component roles it implements
+     * @param parameters the actual parameters of the passed class, null if it's not parameterized
+     * @return the roles implemented by the passed class, cached when the passed class is not parameterized
+     */
+    private Set<Type> getComponentRoleTypes(Class< ? > componentClass, Type[] parameters)
+    {
+        if (parameters != null) {
+            return resolveComponentRoleTypes(componentClass, parameters);
+        }
+
+        Set<Type> types = ROLE_TYPES.get(componentClass);
+
+        if (types == null) {
+            types = ROLE_TYPES.put(componentClass,
+                Collections.unmodifiableSet(resolveComponentRoleTypes(componentClass, null)));
+        }
+
+        return types;
+    }
+
+    /**
+     * @param componentClass the component implementation class for which to find the component roles it implements
+     * @param parameters the actual parameters of the passed class, null if it's not parameterized
+     * @return the roles implemented by the passed class
+     */
+    private Set<Type> resolveComponentRoleTypes(Class< ? > componentClass, Type[] parameters)
     {
         // Note: We use a Set to ensure that we don't register duplicate roles.
         Set<Type> types = new LinkedHashSet<Type>();
@@ -308,7 +465,7 @@ public Set<Type> findComponentRoleTypes(Class< ? > componentClass, Type[] parame
                 }
 
                 // Handle superclass of interfaces
-                types.addAll(findComponentRoleTypes(interfaceClass, interfaceParameters));
+                types.addAll(getComponentRoleTypes(interfaceClass, interfaceParameters));
 
                 // Handle interfaces directly declared in the passed component class
                 if (ReflectionUtils.getDirectAnnotation(Role.class, interfaceClass) != null) {
@@ -332,11 +489,11 @@ public Set<Type> findComponentRoleTypes(Class< ? > componentClass, Type[] parame
             if (superType != null && superType != Object.class) {
                 if (superType instanceof ParameterizedType) {
                     ParameterizedType superParameterizedType = (ParameterizedType) superType;
-                    types.addAll(findComponentRoleTypes((Class) superParameterizedType.getRawType(), ReflectionUtils
+                    types.addAll(getComponentRoleTypes((Class) superParameterizedType.getRawType(), ReflectionUtils
                         .resolveSuperArguments(superParameterizedType.getActualTypeArguments(), componentClass,
                             parameters)));
                 } else if (superType instanceof Class) {
-                    types.addAll(findComponentRoleTypes((Class) superType, null));
+                    types.addAll(getComponentRoleTypes((Class) superType, null));
                 }
             }
         }
@@ -47,9 +47,24 @@
      * Load all Component Descriptor Factories implementations using the JDK's Service Loader facility. Note that we
      * cannot use Components to do this since it would be a chicken and egg issue since this factory class is used to
      * initialize Components...
+     * <p>
+     * The factories are copied in a list since a {@link ServiceLoader} can't be iterated by several threads at the same
+     * time and descriptors can be created in parallel.
      */
-    private ServiceLoader<ComponentDependencyFactory> componentDependencyFactories = ServiceLoader
-        .load(ComponentDependencyFactory.class);
+    private List<ComponentDependencyFactory> componentDependencyFactories = loadComponentDependencyFactories();
+
+    /**
+     * @return the Component Descriptor Factories implementations
+     */
+    private static List<ComponentDependencyFactory> loadComponentDependencyFactories()
+    {
+        List<ComponentDependencyFactory> factories = new ArrayList<ComponentDependencyFactory>();
+        for (ComponentDependencyFactory factory : ServiceLoader.load(ComponentDependencyFactory.class)) {
+            factories.add(factory);
+        }
+
+        return factories;
+    }
 
     /**
      * Create component descriptors for the passed component implementation class and component role class. There can be
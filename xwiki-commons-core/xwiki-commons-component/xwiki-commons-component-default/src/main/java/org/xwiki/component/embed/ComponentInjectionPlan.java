@@ -0,0 +1,297 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.embed;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.xwiki.component.descriptor.ComponentDependency;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.util.ReflectionUtils;
+
+/**
+ * Everything needed to create a component instance, resolved once from its {@link ComponentDescriptor}: the
+ * constructor to call and, for each dependency, the field to set and how to look up its value. Creating a component
+ * from a plan does not involve any reflection lookup anymore, which matters for components with a
+ * {@link org.xwiki.component.descriptor.ComponentInstantiationStrategy#PER_LOOKUP} instantiation strategy.
+ * 
+ * @param <T> the type of the component implementation
+ * @version $Id$
+ * @since 4.1
+ */
+final class ComponentInjectionPlan<T>
+{
+    /**
+     * The different ways a dependency value is looked up.
+     */
+    enum Kind
+    {
+        /**
+         * A {@link Logger} created for the component implementation.
+         */
+        LOGGER,
+
+        /**
+         * A {@link List} of all the components implementing the element role.
+         */
+        LIST,
+
+        /**
+         * A {@link Map} of all the components implementing the element role, indexed by hint.
+         */
+        MAP,
+
+        /**
+         * A {@link Provider}, either registered as a component or a default {@link GenericProvider}.
+         */
+        PROVIDER,
+
+        /**
+         * A standard component.
+         */
+        COMPONENT
+    }
+
+    /**
+     * A resolved dependency of the component.
+     */
+    static final class Injection
+    {
+        /**
+         * How to look up the value to inject.
+         */
+        private final Kind kind;
+
+        /**
+         * The role type of the dependency.
+         */
+        private final Type roleType;
+
+        /**
+         * The last generic argument of the role type, used for {@link Kind#LIST}, {@link Kind#MAP} and
+         * {@link Kind#PROVIDER}.
+         */
+        private final Type elementType;
+
+        /**
+         * The role hint of the dependency.
+         */
+        private final String roleHint;
+
+        /**
+         * The field to set, already made accessible, or null if the implementation does not have such field.
+         */
+        private final Field field;
+
+        /**
+         * @param dependency the dependency to resolve
+         * @param field the field to set, already made accessible
+         */
+        private Injection(ComponentDependency< ? > dependency, Field field)
+        {
+            this.roleType = dependency.getRoleType();
+            this.roleHint = dependency.getRoleHint();
+            this.field = field;
+
+            this.kind = ComponentInjectionPlan.getKind(this.roleType);
+            this.elementType = this.kind != Kind.COMPONENT ? ReflectionUtils.getLastTypeGenericArgument(this.roleType)
+                : null;
+        }
+
+        /**
+         * @return how to look up the value to inject
+         */
+        public Kind getKind()
+        {
+            return this.kind;
+        }
+
+        /**
+         * @return the role type of the dependency
+         */
+        public Type getRoleType()
+        {
+            return this.roleType;
+        }
+
+        /**
+         * @return the last generic argument of the role type
+         */
+        public Type getElementType()
+        {
+            return this.elementType;
+        }
+
+        /**
+         * @return the role hint of the dependency
+         */
+        public String getRoleHint()
+        {
+            return this.roleHint;
+        }
+
+        /**
+         * @param instance the component instance
+         * @param value the value to inject
+         */
+        public void inject(Object instance, Object value)
+        {
+            if (this.field != null) {
+                try {
+                    this.field.set(instance, value);
+                } catch (IllegalAccessException e) {
+                    // Can't happen since the field has been made accessible
+                    throw new RuntimeException("Failed to set field [" + this.field.getName() + "] in instance of ["
+                        + instance.getClass().getName() + "]", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The constructor of the component implementation.
+     */
+    private final Constructor<T> constructor;
+
+    /**
+     * The dependencies to inject, in the order they are declared in the descriptor.
+     */
+    private final Injection[] injections;
+
+    /**
+     * @param constructor the constructor of the component implementation, already made accessible
+     * @param injections the dependencies to inject
+     */
+    private ComponentInjectionPlan(Constructor<T> constructor, Injection[] injections)
+    {
+        this.constructor = constructor;
+        this.injections = injections;
+    }
+
+    /**
+     * @param roleType the role type of a dependency
+     * @return how to look up the value to inject
+     */
+    public static Kind getKind(Type roleType)
+    {
+        Kind kind;
+
+        Class< ? > roleClass = ReflectionUtils.getTypeClass(roleType);
+        if (roleClass.isAssignableFrom(Logger.class)) {
+            kind = Kind.LOGGER;
+        } else if (roleClass.isAssignableFrom(List.class)) {
+            kind = Kind.LIST;
+        } else if (roleClass.isAssignableFrom(Map.class)) {
+            kind = Kind.MAP;
+        } else if (roleClass.isAssignableFrom(Provider.class)) {
+            kind = Kind.PROVIDER;
+        } else {
+            kind = Kind.COMPONENT;
+        }
+
+        return kind;
+    }
+
+    /**
+     * Resolve the constructor and the fields to set for the passed component descriptor.
+     * 
+     * @param <T> the type of the component implementation
+     * @param descriptor the component descriptor
+     * @return the plan
+     * @throws NoSuchMethodException when the component implementation does not have an empty constructor
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ComponentInjectionPlan<T> create(ComponentDescriptor<T> descriptor)
+        throws NoSuchMethodException
+    {
+        Class< ? extends T> implementation = descriptor.getImplementation();
+
+        Constructor<T> constructor = (Constructor<T>) implementation.getDeclaredConstructor();
+        constructor.setAccessible(true);
+
+        Collection<ComponentDependency< ? >> dependencies = descriptor.getComponentDependencies();
+        Injection[] injections = new Injection[dependencies.size()];
+        int index = 0;
+        for (ComponentDependency< ? > dependency : dependencies) {
+            injections[index++] = new Injection(dependency, getField(implementation, dependency.getName()));
+        }
+
+        return new ComponentInjectionPlan<T>(constructor, injections);
+    }
+
+    /**
+     * Find the field to inject in the same way {@link ReflectionUtils#setFieldValue(Object, String, Object)} does.
+     * 
+     * @param implementation the component implementation
+     * @param fieldName the name of the field
+     * @return the field, made accessible, or null if it can't be found
+     */
+    private static Field getField(Class< ? > implementation, String fieldName)
+    {
+        for (Class< ? > targetClass = implementation; targetClass != null; targetClass = targetClass.getSuperclass()) {
+            for (Field field : targetClass.getDeclaredFields()) {
+                if (field.getName().equalsIgnoreCase(fieldName)) {
+                    field.setAccessible(true);
+
+                    return field;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return a new instance of the component implementation, without any dependency injected
+     * @throws Exception when the constructor fails
+     */
+    public T newInstance() throws Exception
+    {
+        try {
+            return this.constructor.newInstance();
+        } catch (InvocationTargetException e) {
+            // Behave like Class#newInstance() which rethrows the exception thrown by the constructor
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return the dependencies to inject
+     */
+    public Injection[] getInjections()
+    {
+        return this.injections;
+    }
+}
@@ -21,21 +21,23 @@
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-
-import javax.inject.Provider;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.ObjectUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.component.annotation.ComponentAnnotationLoader;
-import org.xwiki.component.descriptor.ComponentDependency;
 import org.xwiki.component.descriptor.ComponentDescriptor;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
 import org.xwiki.component.descriptor.DefaultComponentDescriptor;
@@ -57,6 +59,22 @@
  */
 public class EmbeddableComponentManager implements ComponentManager
 {
+    /**
+     * The hint used when none is provided.
+     */
+    private static final String DEFAULT_HINT = "default";
+
+    /**
+     * The initial capacity of the map of the components registered for a role, most roles have only a few
+     * implementations.
+     */
+    private static final int ROLE_MAP_CAPACITY = 4;
+
+    /**
+     * The load factor of the map of the components registered for a role.
+     */
+    private static final float ROLE_MAP_LOAD_FACTOR = 0.75f;
+
     private ComponentEventManager eventManager;
 
     /**
@@ -79,28 +97,60 @@ public class EmbeddableComponentManager implements ComponentManager
          */
         public volatile R instance;
 
+        /**
+         * Cached {@link ComponentInstantiationStrategy#SINGLETON} check to not go through the descriptor on each
+         * lookup.
+         */
+        public final boolean singleton;
+
+        /**
+         * The constructor and fields to use to create instances of the component. Lazily resolved when needed.
+         */
+        public volatile ComponentInjectionPlan<R> plan;
+
         public ComponentEntry(ComponentDescriptor<R> descriptor, R instance)
         {
             this.descriptor = descriptor;
             this.instance = instance;
+            this.singleton = descriptor.getInstantiationStrategy() == ComponentInstantiationStrategy.SINGLETON;
         }
     }
 
-    private Map<RoleHint< ? >, ComponentEntry< ? >> componentEntries =
-        new ConcurrentHashMap<RoleHint< ? >, ComponentEntry< ? >>();
+    /**
+     * The registered components indexed by role type and then by hint.
+     * <p>
+     * Both levels are concurrent maps so that a lookup is only two map reads, never locks and never needs to allocate
+     * a key. The modifications are done under a lock on this map so that a per role map is never removed while a
+     * component is being added to it.
+     */
+    private final ConcurrentMap<Type, ConcurrentMap<String, ComponentEntry< ? >>> componentEntries =
+        new ConcurrentHashMap<Type, ConcurrentMap<String, ComponentEntry< ? >>>();
 
     private Logger logger = LoggerFactory.getLogger(EmbeddableComponentManager.class);
 
     /**
-     * Finds all lifecycle handlers to use when instantiating a Component.
+     * All lifecycle handlers to use when instantiating a Component.
+     * <p>
+     * Resolved once since a {@link ServiceLoader} is not safe to iterate from several threads and would otherwise be
+     * iterated for each created component.
      */
-    private ServiceLoader<LifecycleHandler> lifecycleHandlers = ServiceLoader.load(LifecycleHandler.class);
+    private final LifecycleHandler[] lifecycleHandlers = loadLifecycleHandlers();
 
     public EmbeddableComponentManager()
     {
         registerThis();
     }
 
+    private static LifecycleHandler[] loadLifecycleHandlers()
+    {
+        List<LifecycleHandler> handlers = new ArrayList<LifecycleHandler>();
+        for (LifecycleHandler handler : ServiceLoader.load(LifecycleHandler.class)) {
+            handlers.add(handler);
+        }
+
+        return handlers.toArray(new LifecycleHandler[handlers.size()]);
+    }
+
     /**
      * Allow to lookup the this as default {@link ComponentManager} implementation.
      */
@@ -122,12 +172,62 @@ public void initialize(ClassLoader classLoader)
         ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
         loader.initialize(this, classLoader);
 
+        initializeComponentManager();
+    }
+
+    /**
+     * Load all component annotations and register them as components using several threads: the component
+     * descriptors are created in parallel and then all the singleton components are eagerly created and initialized,
+     * independent groups of components being created in parallel.
+     * <p>
+     * Note that components are then initialized in a thread different from the one calling this method.
+     * 
+     * @param classLoader the class loader to use to look for component definitions
+     * @param parallelism the number of threads to use, 1 or less is the same as {@link #initialize(ClassLoader)}
+     * @since 4.1
+     */
+    public void initialize(ClassLoader classLoader, int parallelism)
+    {
+        if (parallelism <= 1) {
+            initialize(classLoader);
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "XWiki Component Initializer " + this.count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        try {
+            ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+            loader.initialize(this, classLoader, executor);
+
+            initializeComponentManager();
+
+            new ParallelComponentInitializer(this, getComponentDescriptors()).initialize(executor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void initializeComponentManager()
+    {
         // Extension point to allow component to manipulate ComponentManager initialized state.
         try {
             List<ComponentManagerInitializer> initializers = this.getInstanceList(ComponentManagerInitializer.class);
 
-            Set keySet = this.componentEntries.keySet();
-            
             for (ComponentManagerInitializer initializer : initializers) {
                 initializer.initialize(this);
             }
@@ -140,13 +240,13 @@ public void initialize(ClassLoader classLoader)
     @Override
     public boolean hasComponent(Type role)
     {
-        return hasComponent(role, "default");
+        return hasComponent(role, DEFAULT_HINT);
     }
 
     @Override
     public boolean hasComponent(Type role, String hint)
     {
-        if (this.componentEntries.containsKey(new RoleHint<Object>(role, hint))) {
+        if (getComponentEntry(role, hint) != null) {
             return true;
         }
 
@@ -156,13 +256,13 @@ public boolean hasComponent(Type role, String hint)
     @Override
     public <T> T getInstance(Type roleType) throws ComponentLookupException
     {
-        return getComponentInstance(new RoleHint<T>(roleType));
+        return getComponentInstance(roleType, DEFAULT_HINT);
     }
 
     @Override
     public <T> T getInstance(Type roleType, String roleHint) throws ComponentLookupException
     {
-        return getComponentInstance(new RoleHint<T>(roleType, roleHint));
+        return getComponentInstance(roleType, roleHint);
     }
 
     @Override
@@ -181,14 +281,14 @@ public <T> Map<String, T> getInstanceMap(Type role) throws ComponentLookupExcept
     {
         Map<String, T> objects = new HashMap<String, T>();
 
-        for (Map.Entry<RoleHint< ? >, ComponentEntry< ? >> entry : this.componentEntries.entrySet()) {
-            RoleHint< ? > roleHint = entry.getKey();
-
-            if (role.equals(roleHint.getRoleType())) {
+        Map<String, ComponentEntry< ? >> entries = getComponentEntries(role);
+        if (entries != null) {
+            for (Map.Entry<String, ComponentEntry< ? >> entry : entries.entrySet()) {
                 try {
-                    objects.put(roleHint.getHint(), getComponentInstance((ComponentEntry<T>) entry.getValue()));
+                    objects.put(entry.getKey(), getComponentInstance((ComponentEntry<T>) entry.getValue()));
                 } catch (Exception e) {
-                    throw new ComponentLookupException("Failed to lookup component [" + roleHint + "]", e);
+                    throw new ComponentLookupException("Failed to lookup component ["
+                        + new RoleHint<T>(role, entry.getKey()) + "]", e);
                 }
             }
         }
@@ -210,7 +310,7 @@ public <T> Map<String, T> getInstanceMap(Type role) throws ComponentLookupExcept
     @SuppressWarnings("unchecked")
     public <T> ComponentDescriptor<T> getComponentDescriptor(Type role, String hint)
     {
-        ComponentEntry<T> componentEntry = (ComponentEntry<T>) this.componentEntries.get(new RoleHint<T>(role, hint));
+        ComponentEntry<T> componentEntry = (ComponentEntry<T>) getComponentEntry(role, hint);
         return componentEntry != null ? componentEntry.descriptor : null;
     }
 
@@ -219,11 +319,11 @@ public <T> ComponentDescriptor<T> getComponentDescriptor(Type role, String hint)
     public <T> List<ComponentDescriptor<T>> getComponentDescriptorList(Type role)
     {
         List<ComponentDescriptor<T>> results = new ArrayList<ComponentDescriptor<T>>();
-        for (Map.Entry<RoleHint< ? >, ComponentEntry< ? >> entry : this.componentEntries.entrySet()) {
-            // It's possible Class reference are not the same when it coming for different ClassLoader so we
-            // compare class names
-            if (entry.getKey().getRoleType().equals(role)) {
-                results.add((ComponentDescriptor<T>) entry.getValue().descriptor);
+
+        Map<String, ComponentEntry< ? >> entries = getComponentEntries(role);
+        if (entries != null) {
+            for (ComponentEntry< ? > entry : entries.values()) {
+                results.add((ComponentDescriptor<T>) entry.descriptor);
             }
         }
 
@@ -254,12 +354,22 @@ public void setParent(ComponentManager parentComponentManager)
         this.parent = parentComponentManager;
     }
 
-    private <T> T createInstance(ComponentDescriptor<T> descriptor) throws Exception
+    private <T> T createInstance(ComponentEntry<T> componentEntry) throws Exception
     {
-        T instance = descriptor.getImplementation().newInstance();
+        ComponentDescriptor<T> descriptor = componentEntry.descriptor;
+
+        // Resolve the constructor and fields to inject only once per component. Several threads might do it at the
+        // same time but they would all produce the same plan.
+        ComponentInjectionPlan<T> plan = componentEntry.plan;
+        if (plan == null) {
+            plan = ComponentInjectionPlan.create(descriptor);
+            componentEntry.plan = plan;
+        }
+
+        T instance = plan.newInstance();
 
         // Set each dependency
-        for (ComponentDependency< ? > dependency : descriptor.getComponentDependencies()) {
+        for (ComponentInjectionPlan.Injection injection : plan.getInjections()) {
 
             // TODO: Handle dependency cycles
 
@@ -275,30 +385,33 @@ private <T> T createInstance(ComponentDescriptor<T> descriptor) throws Exception
             // Step 3: No producer found, handle scalar and collection types by looking up standard component
             // implementations.
 
-            Class< ? > dependencyRoleClass = ReflectionUtils.getTypeClass(dependency.getRoleType());
-
-            if (dependencyRoleClass.isAssignableFrom(Logger.class)) {
-                fieldValue = createLogger(instance.getClass());
-            } else if (dependencyRoleClass.isAssignableFrom(List.class)) {
-                fieldValue = getInstanceList(ReflectionUtils.getLastTypeGenericArgument(dependency.getRoleType()));
-            } else if (dependencyRoleClass.isAssignableFrom(Map.class)) {
-                fieldValue = getInstanceMap(ReflectionUtils.getLastTypeGenericArgument(dependency.getRoleType()));
-            } else if (dependencyRoleClass.isAssignableFrom(Provider.class)) {
-                try {
-                    fieldValue = getInstance(dependency.getRoleType(), dependency.getRoleHint());
-                } catch (ComponentLookupException e) {
-                    fieldValue =
-                        new GenericProvider<Object>(this, new RoleHint<Object>(
-                            ReflectionUtils.getLastTypeGenericArgument(dependency.getRoleType()),
-                            dependency.getRoleHint()));
-                }
-            } else {
-                fieldValue = getInstance(dependency.getRoleType(), dependency.getRoleHint());
+            switch (injection.getKind()) {
+                case LOGGER:
+                    fieldValue = createLogger(instance.getClass());
+                    break;
+                case LIST:
+                    fieldValue = getInstanceList(injection.getElementType());
+                    break;
+                case MAP:
+                    fieldValue = getInstanceMap(injection.getElementType());
+                    break;
+                case PROVIDER:
+                    try {
+                        fieldValue = getInstance(injection.getRoleType(), injection.getRoleHint());
+                    } catch (ComponentLookupException e) {
+                        fieldValue =
+                            new GenericProvider<Object>(this, new RoleHint<Object>(injection.getElementType(),
+                                injection.getRoleHint()));
+                    }
+                    break;
+                default:
+                    fieldValue = getInstance(injection.getRoleType(), injection.getRoleHint());
+                    break;
             }
 
-            // Set the field by introspection
+            // Set the field
             if (fieldValue != null) {
-                ReflectionUtils.setFieldValue(instance, dependency.getName(), fieldValue);
+                injection.inject(instance, fieldValue);
             }
         }
 
@@ -318,25 +431,31 @@ protected Object createLogger(Class< ? > instanceClass)
         return LoggerFactory.getLogger(instanceClass);
     }
 
-    @SuppressWarnings("unchecked")
     protected <T> T getComponentInstance(RoleHint<T> roleHint) throws ComponentLookupException
+    {
+        return getComponentInstance(roleHint.getRoleType(), roleHint.getHint());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getComponentInstance(Type role, String hint) throws ComponentLookupException
     {
         T instance;
 
-        ComponentEntry<T> componentEntry = (ComponentEntry<T>) this.componentEntries.get(roleHint);
+        ComponentEntry<T> componentEntry = (ComponentEntry<T>) getComponentEntry(role, hint);
 
         if (componentEntry != null) {
             try {
                 instance = getComponentInstance(componentEntry);
             } catch (Throwable e) {
                 throw new ComponentLookupException(String.format("Failed to lookup component [%s] identifier by [%s]",
-                    componentEntry.descriptor.getImplementation().getName(), roleHint.toString()), e);
+                    componentEntry.descriptor.getImplementation().getName(), new RoleHint<T>(role, hint)), e);
             }
         } else {
             if (getParent() != null) {
-                instance = getParent().getInstance(roleHint.getRoleClass(), roleHint.getHint());
+                instance = getParent().getInstance(ReflectionUtils.getTypeClass(role), hint);
             } else {
-                throw new ComponentLookupException("Can't find descriptor for the component [" + roleHint + "]");
+                throw new ComponentLookupException("Can't find descriptor for the component ["
+                    + new RoleHint<T>(role, hint) + "]");
             }
         }
 
@@ -345,30 +464,95 @@ protected <T> T getComponentInstance(RoleHint<T> roleHint) throws ComponentLooku
 
     private <T> T getComponentInstance(ComponentEntry<T> componentEntry) throws Exception
     {
-        T instance;
+        if (!componentEntry.singleton) {
+            return createInstance(componentEntry);
+        }
 
-        ComponentDescriptor<T> descriptor = componentEntry.descriptor;
+        // Fast path: once the singleton has been created a lookup is a simple volatile read
+        T instance = componentEntry.instance;
 
-        if (descriptor.getInstantiationStrategy() == ComponentInstantiationStrategy.SINGLETON) {
-            if (componentEntry.instance != null) {
-                // If the instance exists return it
-                instance = componentEntry.instance;
-            } else {
-                synchronized (componentEntry) {
-                    // Recheck in case it has been created while we were waiting
-                    if (componentEntry.instance != null) {
-                        instance = componentEntry.instance;
-                    } else {
-                        componentEntry.instance = createInstance(descriptor);
-                        instance = componentEntry.instance;
-                    }
-                }
+        return instance != null ? instance : createSingletonInstance(componentEntry);
+    }
+
+    /**
+     * Create the instance of a singleton component, unless another thread did it while we were waiting for the lock.
+     */
+    private <T> T createSingletonInstance(ComponentEntry<T> componentEntry) throws Exception
+    {
+        synchronized (componentEntry) {
+            T instance = componentEntry.instance;
+
+            if (instance == null) {
+                instance = createInstance(componentEntry);
+                componentEntry.instance = instance;
             }
-        } else {
-            instance = createInstance(descriptor);
+
+            return instance;
         }
+    }
 
-        return instance;
+    // Index
+
+    /**
+     * @return the descriptors of all the components registered in this component manager
+     */
+    Collection<ComponentDescriptor< ? >> getComponentDescriptors()
+    {
+        List<ComponentDescriptor< ? >> descriptors = new ArrayList<ComponentDescriptor< ? >>();
+        for (Map<String, ComponentEntry< ? >> entries : this.componentEntries.values()) {
+            for (ComponentEntry< ? > entry : entries.values()) {
+                descriptors.add(entry.descriptor);
+            }
+        }
+
+        return descriptors;
+    }
+
+    /**
+     * @return the components registered for the passed role indexed by hint, <code>null</code> if there is none
+     */
+    private Map<String, ComponentEntry< ? >> getComponentEntries(Type role)
+    {
+        // The concurrent map does not support null keys
+        return role != null ? this.componentEntries.get(role) : null;
+    }
+
+    private ComponentEntry< ? > getComponentEntry(Type role, String hint)
+    {
+        Map<String, ComponentEntry< ? >> entries = getComponentEntries(role);
+
+        return entries != null ? entries.get(hint != null ? hint : DEFAULT_HINT) : null;
+    }
+
+    private void putComponentEntry(RoleHint< ? > roleHint, ComponentEntry< ? > componentEntry)
+    {
+        synchronized (this.componentEntries) {
+            ConcurrentMap<String, ComponentEntry< ? >> entries = this.componentEntries.get(roleHint.getRoleType());
+
+            if (entries == null) {
+                // Modifications are done under lock so there's no need for several segments
+                entries =
+                    new ConcurrentHashMap<String, ComponentEntry< ? >>(ROLE_MAP_CAPACITY, ROLE_MAP_LOAD_FACTOR, 1);
+                this.componentEntries.put(roleHint.getRoleType(), entries);
+            }
+
+            entries.put(roleHint.getHint(), componentEntry);
+        }
+    }
+
+    private ComponentEntry< ? > removeComponentEntry(RoleHint< ? > roleHint)
+    {
+        synchronized (this.componentEntries) {
+            Map<String, ComponentEntry< ? >> entries = getComponentEntries(roleHint.getRoleType());
+
+            ComponentEntry< ? > componentEntry = entries != null ? entries.remove(roleHint.getHint()) : null;
+
+            if (componentEntry != null && entries.isEmpty()) {
+                this.componentEntries.remove(roleHint.getRoleType());
+            }
+
+            return componentEntry;
+        }
     }
 
     // Add
@@ -401,7 +585,7 @@ private <T> void addComponent(RoleHint<T> roleHint, ComponentDescriptor<T> descr
         ComponentEntry<T> componentEntry = new ComponentEntry<T>(descriptor, instance);
 
         // Register new component
-        this.componentEntries.put(roleHint, componentEntry);
+        putComponentEntry(roleHint, componentEntry);
 
         // Send event about component registration
         if (this.eventManager != null) {
@@ -432,19 +616,12 @@ public void unregisterComponent(ComponentDescriptor< ? > componentDescriptor)
     public void release(Object component) throws ComponentLifecycleException
     {
         // First find the descriptor matching the passed component
-        RoleHint< ? > key = null;
-        ComponentDescriptor< ? > oldDescriptor = null;
-        for (Map.Entry<RoleHint< ? >, ComponentEntry< ? >> entry : this.componentEntries.entrySet()) {
-            if (entry.getValue().instance == component) {
-                key = entry.getKey();
-                oldDescriptor = entry.getValue().descriptor;
-                break;
-            }
-        }
+        ComponentEntry< ? > componentEntry = findComponentEntry(component);
+
+        if (componentEntry != null) {
+            RoleHint< ? > key = getRoleHint(componentEntry.descriptor);
+            ComponentDescriptor< ? > oldDescriptor = componentEntry.descriptor;
 
-        // Note that we're not removing inside the for loop above since it would cause a Concurrent
-        // exception since we'd modify the map accessed by the iterator.
-        if (key != null) {
             // We do the following:
             // - fire an unregistration event, to tell the world that this reference is now dead
             // - fire a registration event, to tell the world that it could get a new reference for this component
@@ -458,6 +635,19 @@ public void release(Object component) throws ComponentLifecycleException
         }
     }
 
+    private ComponentEntry< ? > findComponentEntry(Object component)
+    {
+        for (Map<String, ComponentEntry< ? >> entries : this.componentEntries.values()) {
+            for (ComponentEntry< ? > entry : entries.values()) {
+                if (entry.instance == component) {
+                    return entry;
+                }
+            }
+        }
+
+        return null;
+    }
+
     private void releaseInstance(ComponentEntry< ? > componentEntry) throws ComponentLifecycleException
     {
         // Make sure the singleton component instance can't be "lost" (impossible to dispose because returned but not
@@ -484,7 +674,7 @@ private void removeComponent(RoleHint< ? > roleHint) throws ComponentLifecycleEx
     {
         // Make sure to remove the entry from the map before destroying it to reduce at the minimum the risk of
         // lookupping something invalid
-        ComponentEntry< ? > componentEntry = this.componentEntries.remove(roleHint);
+        ComponentEntry< ? > componentEntry = removeComponentEntry(roleHint);
 
         if (componentEntry != null) {
             ComponentDescriptor< ? > oldDescriptor = componentEntry.descriptor;
@@ -520,11 +710,13 @@ private <T> void removeComponentWithoutException(RoleHint<T> roleHint)
     public <T> List<ComponentDescriptor<T>> getComponentDescriptorList(Class<T> role)
     {
         List<ComponentDescriptor<T>> results = new ArrayList<ComponentDescriptor<T>>();
-        for (Map.Entry<RoleHint< ? >, ComponentEntry< ? >> entry : this.componentEntries.entrySet()) {
+        for (Map.Entry<Type, ConcurrentMap<String, ComponentEntry< ? >>> entry : this.componentEntries.entrySet()) {
             // It's possible Class reference are not the same when it coming for different ClassLoader so we
             // compare class names
-            if (entry.getKey().getRoleClass() == role) {
-                results.add((ComponentDescriptor<T>) entry.getValue().descriptor);
+            if (ReflectionUtils.getTypeClass(entry.getKey()) == role) {
+                for (ComponentEntry< ? > componentEntry : entry.getValue().values()) {
+                    results.add((ComponentDescriptor<T>) componentEntry.descriptor);
+                }
             }
         }
         return results;
@@ -0,0 +1,357 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.embed;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.descriptor.ComponentDependency;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.internal.RoleHint;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+
+/**
+ * Eagerly create and initialize the singleton components of a {@link ComponentManager}, in parallel.
+ * <p>
+ * The dependency graph is computed from the {@link ComponentDependency} metadata of the registered components and
+ * split into independent sub graphs, each one being created in dependency order by a single task so that two tasks
+ * never wait for the same component. Components which are part of a dependency cycle, or which depend on such a
+ * component, are left untouched so that they fail on lookup exactly like they do when created lazily.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+final class ParallelComponentInitializer
+{
+    /**
+     * The logger to log.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelComponentInitializer.class);
+
+    /**
+     * A component in the dependency graph.
+     */
+    private static final class Node
+    {
+        /**
+         * The descriptor of the component.
+         */
+        private final ComponentDescriptor< ? > descriptor;
+
+        /**
+         * The components this component depends on.
+         */
+        private final List<Node> dependencies = new ArrayList<Node>();
+
+        /**
+         * The order in which the node has been visited while looking for cycles, -1 if not visited yet.
+         */
+        private int index = -1;
+
+        /**
+         * The smallest index reachable from this node while looking for cycles.
+         */
+        private int lowLink;
+
+        /**
+         * True while the node is in the stack of the cycles detection.
+         */
+        private boolean onStack;
+
+        /**
+         * True if this component should not be created eagerly.
+         */
+        private boolean excluded;
+
+        /**
+         * The representative of the sub graph this node belongs to.
+         */
+        private Node group = this;
+
+        /**
+         * @param descriptor the descriptor of the component
+         */
+        private Node(ComponentDescriptor< ? > descriptor)
+        {
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * @return the representative of the sub graph this node belongs to
+         */
+        private Node getGroup()
+        {
+            Node root = this;
+            while (root.group != root) {
+                root = root.group;
+            }
+            this.group = root;
+
+            return root;
+        }
+    }
+
+    /**
+     * The component manager to initialize.
+     */
+    private final ComponentManager componentManager;
+
+    /**
+     * The components of the graph, by role and hint.
+     */
+    private final Map<RoleHint< ? >, Node> nodes = new LinkedHashMap<RoleHint< ? >, Node>();
+
+    /**
+     * The components of the graph, by role.
+     */
+    private final Map<Type, List<Node>> nodesByRole = new HashMap<Type, List<Node>>();
+
+    /**
+     * The nodes in an order where each component comes after its dependencies.
+     */
+    private final List<Node> sortedNodes = new ArrayList<Node>();
+
+    /**
+     * The current index of the cycles detection.
+     */
+    private int currentIndex;
+
+    /**
+     * The stack of the cycles detection.
+     */
+    private final LinkedList<Node> stack = new LinkedList<Node>();
+
+    /**
+     * @param componentManager the component manager to initialize
+     * @param descriptors the descriptors of the components registered in the component manager
+     */
+    ParallelComponentInitializer(ComponentManager componentManager, Collection<ComponentDescriptor< ? >> descriptors)
+    {
+        this.componentManager = componentManager;
+
+        for (ComponentDescriptor< ? > descriptor : descriptors) {
+            Node node = new Node(descriptor);
+            this.nodes.put(new RoleHint<Object>(descriptor.getRoleType(), descriptor.getRoleHint()), node);
+
+            List<Node> roleNodes = this.nodesByRole.get(descriptor.getRoleType());
+            if (roleNodes == null) {
+                roleNodes = new ArrayList<Node>();
+                this.nodesByRole.put(descriptor.getRoleType(), roleNodes);
+            }
+            roleNodes.add(node);
+        }
+
+        for (Node node : this.nodes.values()) {
+            for (ComponentDependency< ? > dependency : node.descriptor.getComponentDependencies()) {
+                addDependencies(node, dependency);
+            }
+        }
+    }
+
+    /**
+     * @param node the component
+     * @param dependency one of the dependencies of the component
+     */
+    private void addDependencies(Node node, ComponentDependency< ? > dependency)
+    {
+        Type elementType = ReflectionUtils.getLastTypeGenericArgument(dependency.getRoleType());
+
+        switch (ComponentInjectionPlan.getKind(dependency.getRoleType())) {
+            case LOGGER:
+                break;
+            case LIST:
+            case MAP:
+                List<Node> roleNodes = this.nodesByRole.get(elementType);
+                if (roleNodes != null) {
+                    node.dependencies.addAll(roleNodes);
+                }
+                break;
+            case PROVIDER:
+                // A registered Provider or the default one which is very often used during initialization
+                Node provider =
+                    this.nodes.get(new RoleHint<Object>(dependency.getRoleType(), dependency.getRoleHint()));
+                addDependency(node, provider != null ? provider
+                    : this.nodes.get(new RoleHint<Object>(elementType, dependency.getRoleHint())));
+                break;
+            default:
+                addDependency(node, this.nodes.get(new RoleHint<Object>(dependency.getRoleType(),
+                    dependency.getRoleHint())));
+                break;
+        }
+    }
+
+    /**
+     * @param node the component
+     * @param dependency the component it depends on, null if it's not registered in the component manager
+     */
+    private void addDependency(Node node, Node dependency)
+    {
+        if (dependency != null) {
+            node.dependencies.add(dependency);
+        }
+    }
+
+    /**
+     * Create and initialize all the singleton components which have not been created yet.
+     * 
+     * @param executor the executor to use to create the components
+     * @throws InterruptedException when interrupted while waiting for the components to be created
+     */
+    public void initialize(ExecutorService executor) throws InterruptedException
+    {
+        for (Node node : this.nodes.values()) {
+            if (node.index == -1) {
+                visit(node);
+            }
+        }
+
+        // Group the components depending on each other
+        for (Node node : this.sortedNodes) {
+            if (!node.excluded) {
+                for (Node dependency : node.dependencies) {
+                    dependency.getGroup().group = node.getGroup();
+                }
+            }
+        }
+
+        Map<Node, List<ComponentDescriptor< ? >>> groups = new LinkedHashMap<Node, List<ComponentDescriptor< ? >>>();
+        for (Node node : this.sortedNodes) {
+            if (!node.excluded) {
+                List<ComponentDescriptor< ? >> group = groups.get(node.getGroup());
+                if (group == null) {
+                    group = new ArrayList<ComponentDescriptor< ? >>();
+                    groups.put(node.getGroup(), group);
+                }
+                group.add(node.descriptor);
+            }
+        }
+
+        List<Future< ? >> futures = new ArrayList<Future< ? >>(groups.size());
+        for (List<ComponentDescriptor< ? >> group : groups.values()) {
+            futures.add(executor.submit(new GroupInitializer(group)));
+        }
+
+        for (Future< ? > future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOGGER.error("Failed to initialize components", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Find the strongly connected components of the graph (Tarjan's algorithm), exclude the cycles and sort the nodes
+     * so that each node comes after its dependencies.
+     * 
+     * @param node the node to visit
+     */
+    private void visit(Node node)
+    {
+        node.index = this.currentIndex;
+        node.lowLink = this.currentIndex;
+        ++this.currentIndex;
+        this.stack.push(node);
+        node.onStack = true;
+
+        for (Node dependency : node.dependencies) {
+            if (dependency.index == -1) {
+                visit(dependency);
+                node.lowLink = Math.min(node.lowLink, dependency.lowLink);
+            } else if (dependency.onStack) {
+                node.lowLink = Math.min(node.lowLink, dependency.index);
+            }
+        }
+
+        if (node.lowLink == node.index) {
+            List<Node> scc = new ArrayList<Node>();
+            Node member;
+            do {
+                member = this.stack.pop();
+                member.onStack = false;
+                scc.add(member);
+            } while (member != node);
+
+            // A cycle, or a component depending on a component which can't be created eagerly. Note that all the
+            // dependencies outside of the strongly connected component have already been sorted.
+            boolean excluded = scc.size() > 1 || node.dependencies.contains(node);
+            for (int i = 0; !excluded && i < scc.size(); ++i) {
+                for (Node dependency : scc.get(i).dependencies) {
+                    excluded |= dependency.excluded;
+                }
+            }
+
+            for (Node sccNode : scc) {
+                sccNode.excluded = excluded;
+            }
+
+            this.sortedNodes.addAll(scc);
+        }
+    }
+
+    /**
+     * Create the singleton components of a group of components depending on each other.
+     */
+    private final class GroupInitializer implements Runnable
+    {
+        /**
+         * The descriptors of the components, in dependency order.
+         */
+        private final List<ComponentDescriptor< ? >> descriptors;
+
+        /**
+         * @param descriptors the descriptors of the components, in dependency order
+         */
+        private GroupInitializer(List<ComponentDescriptor< ? >> descriptors)
+        {
+            this.descriptors = Collections.unmodifiableList(descriptors);
+        }
+
+        @Override
+        public void run()
+        {
+            for (ComponentDescriptor< ? > descriptor : this.descriptors) {
+                if (descriptor.getInstantiationStrategy() == ComponentInstantiationStrategy.SINGLETON) {
+                    try {
+                        componentManager.getInstance(descriptor.getRoleType(), descriptor.getRoleHint());
+                    } catch (ComponentLookupException e) {
+                        // The same error will be thrown when the component is looked up
+                        LOGGER.debug("Failed to eagerly create component [{}]", descriptor, e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,640 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.descriptor.DefaultComponentDependency;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.component.util.DefaultParameterizedType;
+
+/**
+ * Precomputed component descriptors, generated at build time in {@code META-INF/components.index} next to
+ * {@code META-INF/components.txt} by {@link ComponentDescriptorIndexWriter}. Using it avoids looking for roles, hints,
+ * instantiation strategy and injected fields through reflection when registering components.
+ * <p>
+ * The index of a component is looked for in the jar or directory the component class has been loaded from. Each
+ * indexed component records a checksum of the class files of its superclasses and interfaces (the CRC32 stored in the
+ * jar for each entry), so that an index which does not match the classes actually loaded is ignored and the component
+ * is registered through reflection.
+ * <p>
+ * The format is a UTF-8 text file with one tab separated record per line:
+ * <ul>
+ * <li>{@code version <format version>}</li>
+ * <li>{@code component <implementation> <classes checksum> <role type> <hint> <instantiation strategy>}</li>
+ * <li>{@code dependency <field name> <role type> <hint>}, applying to the previous component record</li>
+ * </ul>
+ * Types are written as {@code class.Name} or {@code class.Name<argument, ...>}.
+ * <p>
+ * An instance is meant to be used during the registration of a set of components and then closed, it keeps the jars
+ * it reads open until then. It's thread safe.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ComponentDescriptorIndex
+{
+    /**
+     * Location of the index, relative to the root of the jar or directory containing the components.
+     */
+    public static final String LOCATION = "META-INF/components.index";
+
+    /**
+     * The current version of the index format.
+     */
+    public static final String FORMAT_VERSION = "2";
+
+    /**
+     * The encoding of the index.
+     */
+    public static final String ENCODING = "UTF-8";
+
+    /**
+     * The separator between the fields of a record.
+     */
+    public static final char SEPARATOR = '\t';
+
+    /**
+     * The record holding the format version.
+     */
+    public static final String VERSION_RECORD = "version";
+
+    /**
+     * The record describing a component.
+     */
+    public static final String COMPONENT_RECORD = "component";
+
+    /**
+     * The record describing a dependency of the previous component.
+     */
+    public static final String DEPENDENCY_RECORD = "dependency";
+
+    /**
+     * The checksum of the classes which can't be verified.
+     */
+    public static final long UNKNOWN_CHECKSUM = -1;
+
+    /**
+     * The number of fields of a {@code component} record.
+     */
+    private static final int COMPONENT_RECORD_SIZE = 6;
+
+    /**
+     * The number of fields of a {@code dependency} record.
+     */
+    private static final int DEPENDENCY_RECORD_SIZE = 4;
+
+    /**
+     * The position of the role type in a {@code component} record.
+     */
+    private static final int ROLE_FIELD = 3;
+
+    /**
+     * The position of the role hint in a {@code component} record.
+     */
+    private static final int HINT_FIELD = 4;
+
+    /**
+     * The position of the instantiation strategy in a {@code component} record.
+     */
+    private static final int STRATEGY_FIELD = 5;
+
+    /**
+     * The position of the role hint in a {@code dependency} record.
+     */
+    private static final int DEPENDENCY_HINT_FIELD = 3;
+
+    /**
+     * The extension of class resources.
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * The protocol of the URLs pointing to files.
+     */
+    private static final String FILE_PROTOCOL = "file";
+
+    /**
+     * The size of the buffer used to compute the checksum of the class files found in directories.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * An indexed component descriptor, not yet bound to any class.
+     */
+    private static final class Entry
+    {
+        /**
+         * The fields of the {@code component} record.
+         */
+        private final String[] component;
+
+        /**
+         * The checksum of the classes of the component when the index was generated.
+         */
+        private final long checksum;
+
+        /**
+         * The fields of the {@code dependency} records.
+         */
+        private final List<String[]> dependencies = new ArrayList<String[]>();
+
+        /**
+         * @param component the fields of the {@code component} record
+         */
+        private Entry(String[] component)
+        {
+            this.component = component;
+            this.checksum = Long.parseLong(component[2]);
+        }
+    }
+
+    /**
+     * A jar or directory from which classes are loaded.
+     */
+    private static final class Location
+    {
+        /**
+         * The directory, null if it's not a directory.
+         */
+        private final File directory;
+
+        /**
+         * The jar, null if it's not a jar.
+         */
+        private final JarFile jarFile;
+
+        /**
+         * The indexed components of the location, by implementation class name, null if not read yet.
+         */
+        private Map<String, List<Entry>> entries;
+
+        /**
+         * @param directory the directory, null if it's not a directory
+         * @param jarFile the jar, null if it's not a jar
+         */
+        private Location(File directory, JarFile jarFile)
+        {
+            this.directory = directory;
+            this.jarFile = jarFile;
+        }
+
+        /**
+         * @param path the path of a resource in the location
+         * @return the content of the resource, null if it does not exist
+         * @throws IOException when failing to open the resource
+         */
+        private InputStream open(String path) throws IOException
+        {
+            if (this.jarFile != null) {
+                ZipEntry entry = this.jarFile.getEntry(path);
+
+                return entry != null ? this.jarFile.getInputStream(entry) : null;
+            } else if (this.directory != null) {
+                File file = new File(this.directory, path);
+
+                return file.isFile() ? new FileInputStream(file) : null;
+            }
+
+            return null;
+        }
+
+        /**
+         * @param path the path of a resource in the location
+         * @return the CRC32 of the resource, {@link ComponentDescriptorIndex#UNKNOWN_CHECKSUM} if it does not exist
+         * @throws IOException when failing to read the resource
+         */
+        private long getChecksum(String path) throws IOException
+        {
+            if (this.jarFile != null) {
+                // The jar already knows the CRC32 of its entries, no need to read them
+                ZipEntry entry = this.jarFile.getEntry(path);
+
+                return entry != null ? entry.getCrc() : UNKNOWN_CHECKSUM;
+            }
+
+            InputStream stream = open(path);
+            if (stream == null) {
+                return UNKNOWN_CHECKSUM;
+            }
+
+            CheckedInputStream checkedStream = new CheckedInputStream(stream, new CRC32());
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (checkedStream.read(buffer) != -1) {
+                    // Only computing the checksum
+                }
+            } finally {
+                checkedStream.close();
+            }
+
+            return checkedStream.getChecksum().getValue();
+        }
+    }
+
+    /**
+     * The jars and directories containing the classes, by URL.
+     */
+    private final Map<String, Location> locations = new HashMap<String, Location>();
+
+    /**
+     * The checksum of the class files already computed.
+     */
+    private final ConcurrentMap<Class< ? >, Long> classChecksums = new ConcurrentHashMap<Class< ? >, Long>();
+
+    /**
+     * @param componentClass the component implementation class
+     * @return the indexed descriptors of the component or null if the component is not indexed or if the index does not
+     *         match the loaded classes
+     * @throws IOException when failing to read the index
+     * @throws ClassNotFoundException when failing to load one of the indexed types
+     */
+    public List<ComponentDescriptor> getComponentDescriptors(Class< ? > componentClass) throws IOException,
+        ClassNotFoundException
+    {
+        Location location = getLocation(componentClass);
+        if (location == null) {
+            return null;
+        }
+
+        List<Entry> classEntries = getEntries(location).get(componentClass.getName());
+        if (classEntries == null || classEntries.get(0).checksum != getChecksum(componentClass)) {
+            return null;
+        }
+
+        ClassLoader classLoader = componentClass.getClassLoader();
+
+        List<ComponentDescriptor> descriptors = new ArrayList<ComponentDescriptor>(classEntries.size());
+        for (Entry entry : classEntries) {
+            DefaultComponentDescriptor descriptor = new DefaultComponentDescriptor();
+            descriptor.setImplementation(componentClass);
+            descriptor.setRoleType(parseType(entry.component[ROLE_FIELD], classLoader));
+            descriptor.setRoleHint(entry.component[HINT_FIELD]);
+            descriptor.setInstantiationStrategy(
+                ComponentInstantiationStrategy.valueOf(entry.component[STRATEGY_FIELD]));
+
+            for (String[] record : entry.dependencies) {
+                DefaultComponentDependency dependency = new DefaultComponentDependency();
+                dependency.setName(record[1]);
+                dependency.setRoleType(parseType(record[2], classLoader));
+                dependency.setRoleHint(record[DEPENDENCY_HINT_FIELD]);
+
+                descriptor.addComponentDependency(dependency);
+            }
+
+            descriptors.add(descriptor);
+        }
+
+        return descriptors;
+    }
+
+    /**
+     * Use the passed index for the components found in the passed location instead of the index stored in the
+     * location.
+     * 
+     * @param location the jar or directory containing the indexed components
+     * @param stream the index
+     * @throws IOException when failing to read the index or when it's using an unsupported format version
+     */
+    public void read(URL location, InputStream stream) throws IOException
+    {
+        Location indexedLocation = getLocation(location);
+        if (indexedLocation != null) {
+            Map<String, List<Entry>> entries = read(stream);
+            synchronized (indexedLocation) {
+                indexedLocation.entries = entries;
+            }
+        }
+    }
+
+    /**
+     * Compute the checksum of the class files of the passed class, its superclasses and all their interfaces, except
+     * the ones of the JVM.
+     * 
+     * @param componentClass the component implementation class
+     * @return the checksum of the classes of the component, {@link #UNKNOWN_CHECKSUM} if one of them is not loaded from
+     *         a jar or a directory
+     * @throws IOException when failing to read a class file
+     */
+    public long getChecksum(Class< ? > componentClass) throws IOException
+    {
+        Set<Class< ? >> types = new LinkedHashSet<Class< ? >>();
+        addTypes(componentClass, types);
+
+        CRC32 checksum = new CRC32();
+        for (Class< ? > type : types) {
+            long typeChecksum = getClassChecksum(type);
+            if (typeChecksum == UNKNOWN_CHECKSUM) {
+                return UNKNOWN_CHECKSUM;
+            }
+
+            checksum.update(type.getName().getBytes(ENCODING));
+            for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+                checksum.update((int) (typeChecksum >>> shift));
+            }
+        }
+
+        return checksum.getValue();
+    }
+
+    /**
+     * Release the jars opened to read the indexes and the checksums.
+     */
+    public void close()
+    {
+        synchronized (this.locations) {
+            for (Location location : this.locations.values()) {
+                if (location.jarFile != null) {
+                    try {
+                        location.jarFile.close();
+                    } catch (IOException e) {
+                        // Nothing more can be done, the jar was only read
+                    }
+                }
+            }
+            this.locations.clear();
+        }
+    }
+
+    /**
+     * @param type a class or interface
+     * @param types where to add the passed type, its superclasses and all their interfaces, except the ones of the JVM
+     */
+    private void addTypes(Class< ? > type, Set<Class< ? >> types)
+    {
+        if (type != null && type.getClassLoader() != null && types.add(type)) {
+            for (Class< ? > typeInterface : type.getInterfaces()) {
+                addTypes(typeInterface, types);
+            }
+            addTypes(type.getSuperclass(), types);
+        }
+    }
+
+    /**
+     * @param type a class or interface
+     * @return the CRC32 of the class file of the type, {@link #UNKNOWN_CHECKSUM} if it's not loaded from a jar or a
+     *         directory
+     * @throws IOException when failing to read the class file
+     */
+    private long getClassChecksum(Class< ? > type) throws IOException
+    {
+        Long checksum = this.classChecksums.get(type);
+        if (checksum == null) {
+            Location location = getLocation(type);
+            checksum =
+                location != null ? location.getChecksum(type.getName().replace('.', '/') + CLASS_EXTENSION)
+                    : UNKNOWN_CHECKSUM;
+            this.classChecksums.put(type, checksum);
+        }
+
+        return checksum;
+    }
+
+    /**
+     * @param type a class or interface
+     * @return the jar or directory the type has been loaded from, null if unknown
+     * @throws IOException when failing to open the jar
+     */
+    private Location getLocation(Class< ? > type) throws IOException
+    {
+        CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+
+        return codeSource != null && codeSource.getLocation() != null ? getLocation(codeSource.getLocation()) : null;
+    }
+
+    /**
+     * @param url the URL of a jar or directory
+     * @return the jar or directory, null if it's not a file
+     * @throws IOException when failing to open the jar
+     */
+    private Location getLocation(URL url) throws IOException
+    {
+        if (!FILE_PROTOCOL.equals(url.getProtocol())) {
+            return null;
+        }
+
+        synchronized (this.locations) {
+            String key = url.toExternalForm();
+            Location location = this.locations.get(key);
+            if (location == null && !this.locations.containsKey(key)) {
+                File file;
+                try {
+                    file = new File(url.toURI());
+                } catch (URISyntaxException e) {
+                    file = new File(url.getPath());
+                }
+
+                if (file.isDirectory()) {
+                    location = new Location(file, null);
+                } else if (file.isFile()) {
+                    location = new Location(null, new JarFile(file));
+                }
+
+                this.locations.put(key, location);
+            }
+
+            return location;
+        }
+    }
+
+    /**
+     * @param location a jar or directory
+     * @return the indexed components of the location, by implementation class name
+     * @throws IOException when failing to read the index
+     */
+    private Map<String, List<Entry>> getEntries(Location location) throws IOException
+    {
+        synchronized (location) {
+            if (location.entries == null) {
+                // Don't try again if the index can't be read
+                location.entries = Collections.emptyMap();
+
+                InputStream stream = location.open(LOCATION);
+                if (stream != null) {
+                    try {
+                        location.entries = read(stream);
+                    } finally {
+                        stream.close();
+                    }
+                }
+            }
+
+            return location.entries;
+        }
+    }
+
+    /**
+     * Parse an index.
+     * 
+     * @param stream the stream to read
+     * @return the indexed components, by implementation class name
+     * @throws IOException when failing to read the index or when it's using an unsupported format version
+     */
+    private static Map<String, List<Entry>> read(InputStream stream) throws IOException
+    {
+        Map<String, List<Entry>> entries = new HashMap<String, List<Entry>>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, ENCODING));
+        Entry entry = null;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+
+            String[] record = line.split(String.valueOf(SEPARATOR), -1);
+            if (record[0].equals(COMPONENT_RECORD) && record.length == COMPONENT_RECORD_SIZE) {
+                entry = new Entry(record);
+                List<Entry> classEntries = entries.get(record[1]);
+                if (classEntries == null) {
+                    classEntries = new ArrayList<Entry>();
+                    entries.put(record[1], classEntries);
+                }
+                classEntries.add(entry);
+            } else if (record[0].equals(DEPENDENCY_RECORD) && record.length == DEPENDENCY_RECORD_SIZE
+                && entry != null) {
+                entry.dependencies.add(record);
+            } else if (!record[0].equals(VERSION_RECORD) || record.length != 2 || !record[1].equals(FORMAT_VERSION)) {
+                throw new IOException("Unsupported index record [" + line + "]");
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * @param type the type to serialize
+     * @return the serialized type or null if it's not supported by the index
+     */
+    public static String serializeType(Type type)
+    {
+        if (type instanceof Class) {
+            return ((Class< ? >) type).getName();
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            Class< ? > rawType = (Class< ? >) parameterizedType.getRawType();
+
+            // Only the owner implicitly set by the JVM can be restored
+            if (parameterizedType.getOwnerType() != rawType.getDeclaringClass()) {
+                return null;
+            }
+
+            StringBuilder builder = new StringBuilder(rawType.getName());
+            builder.append('<');
+            Type[] arguments = parameterizedType.getActualTypeArguments();
+            for (int i = 0; i < arguments.length; ++i) {
+                String argument = serializeType(arguments[i]);
+                if (argument == null) {
+                    return null;
+                }
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(argument);
+            }
+            builder.append('>');
+
+            return builder.toString();
+        }
+
+        // Type variables, wildcards and generic arrays are not supported
+        return null;
+    }
+
+    /**
+     * @param type the serialized type
+     * @param classLoader the class loader to use to load the classes
+     * @return the type
+     * @throws ClassNotFoundException when failing to load one of the classes
+     */
+    public static Type parseType(String type, ClassLoader classLoader) throws ClassNotFoundException
+    {
+        int[] position = new int[1];
+        Type result = parseType(type, position, classLoader);
+
+        if (position[0] != type.length()) {
+            throw new ClassNotFoundException("Invalid type [" + type + "]");
+        }
+
+        return result;
+    }
+
+    /**
+     * @param type the serialized type
+     * @param position the position where to start parsing, updated to the end of the parsed type
+     * @param classLoader the class loader to use to load the classes
+     * @return the type
+     * @throws ClassNotFoundException when failing to load one of the classes
+     */
+    private static Type parseType(String type, int[] position, ClassLoader classLoader)
+        throws ClassNotFoundException
+    {
+        int start = position[0];
+        int end = start;
+        while (end < type.length() && type.charAt(end) != '<' && type.charAt(end) != ',' && type.charAt(end) != '>') {
+            ++end;
+        }
+
+        Class< ? > rawType = Class.forName(type.substring(start, end), false, classLoader);
+        position[0] = end;
+
+        if (end == type.length() || type.charAt(end) != '<') {
+            return rawType;
+        }
+
+        List<Type> arguments = new ArrayList<Type>();
+        do {
+            ++position[0];
+            arguments.add(parseType(type, position, classLoader));
+        } while (position[0] < type.length() && type.charAt(position[0]) == ',');
+
+        if (position[0] == type.length() || type.charAt(position[0]) != '>') {
+            throw new ClassNotFoundException("Invalid type [" + type + "]");
+        }
+        ++position[0];
+
+        return new DefaultParameterizedType(rawType.getDeclaringClass(), rawType,
+            arguments.toArray(new Type[arguments.size()]));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.annotation.ComponentDeclaration;
+import org.xwiki.component.descriptor.ComponentDependency;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.descriptor.DefaultComponentDependency;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+
+/**
+ * Generate the {@link ComponentDescriptorIndex} of a build output directory. It's called at build time after the
+ * classes have been compiled, by the {@code exec-maven-plugin} in the {@code process-classes} phase, with the classes
+ * directory as argument.
+ * <p>
+ * Components which can't be fully described by the index (custom descriptors, type variables, classes not loaded from
+ * a jar or a directory, etc.) are left out of it and are registered through reflection as usual.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ComponentDescriptorIndexWriter
+{
+    /**
+     * The logger to log.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ComponentDescriptorIndexWriter.class);
+
+    /**
+     * Used to read the component list and find the component descriptors.
+     */
+    private ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+
+    /**
+     * @param args the classes directories for which to generate the index
+     * @throws Exception when failing to generate the index
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: ComponentDescriptorIndexWriter <classes directory>...");
+        }
+
+        ComponentDescriptorIndexWriter writer = new ComponentDescriptorIndexWriter();
+        for (String directory : args) {
+            writer.write(new File(directory));
+        }
+    }
+
+    /**
+     * Generate the index of the passed classes directory. Nothing is done if the directory does not contain any
+     * component list.
+     * 
+     * @param classesDirectory the directory containing the compiled classes and the component list
+     * @throws IOException when failing to read the component list or write the index
+     * @throws ClassNotFoundException when failing to load a declared component
+     */
+    public void write(File classesDirectory) throws IOException, ClassNotFoundException
+    {
+        File componentList = new File(classesDirectory, ComponentAnnotationLoader.COMPONENT_LIST);
+        if (!componentList.exists()) {
+            return;
+        }
+
+        InputStream stream = new FileInputStream(componentList);
+        List<ComponentDeclaration> declarations;
+        try {
+            declarations = this.loader.getDeclaredComponents(stream);
+        } finally {
+            stream.close();
+        }
+
+        URL location = classesDirectory.toURI().toURL();
+        ClassLoader classLoader =
+            new URLClassLoader(new URL[] {location}, Thread.currentThread().getContextClassLoader());
+
+        StringBuilder index = new StringBuilder();
+        index.append("# Generated from ").append(ComponentAnnotationLoader.COMPONENT_LIST).append(", do not edit\n");
+        appendRecord(index, ComponentDescriptorIndex.VERSION_RECORD, ComponentDescriptorIndex.FORMAT_VERSION);
+
+        int count = 0;
+        ComponentDescriptorIndex checksums = new ComponentDescriptorIndex();
+        try {
+            for (ComponentDeclaration declaration : declarations) {
+                Class< ? > componentClass = classLoader.loadClass(declaration.getImplementationClassName());
+                List<ComponentDescriptor> descriptors = this.loader.getComponentsDescriptors(componentClass);
+
+                String records = serialize(componentClass, checksums.getChecksum(componentClass), descriptors);
+                if (records != null && verify(componentClass, descriptors, records)) {
+                    index.append(records);
+                    ++count;
+                } else {
+                    LOGGER.info("Component [{}] can't be indexed, it will be registered using reflection",
+                        componentClass.getName());
+                }
+            }
+        } finally {
+            checksums.close();
+        }
+
+        OutputStream output = new FileOutputStream(new File(classesDirectory, ComponentDescriptorIndex.LOCATION));
+        try {
+            output.write(index.toString().getBytes(ComponentDescriptorIndex.ENCODING));
+        } finally {
+            output.close();
+        }
+
+        LOGGER.info("Indexed [{}] components in [{}]", count, classesDirectory);
+    }
+
+    /**
+     * @param componentClass the component implementation class
+     * @param checksum the checksum of the classes of the component
+     * @param descriptors the descriptors of the component
+     * @return the index records of the component or null if it can't be indexed
+     */
+    private String serialize(Class< ? > componentClass, long checksum, List<ComponentDescriptor> descriptors)
+    {
+        if (checksum == ComponentDescriptorIndex.UNKNOWN_CHECKSUM) {
+            return null;
+        }
+
+        StringBuilder records = new StringBuilder();
+        for (ComponentDescriptor< ? > descriptor : descriptors) {
+            String roleType = ComponentDescriptorIndex.serializeType(descriptor.getRoleType());
+            if (descriptor.getClass() != DefaultComponentDescriptor.class || roleType == null) {
+                return null;
+            }
+
+            appendRecord(records, ComponentDescriptorIndex.COMPONENT_RECORD, componentClass.getName(),
+                String.valueOf(checksum), roleType, descriptor.getRoleHint(),
+                descriptor.getInstantiationStrategy().name());
+
+            for (ComponentDependency< ? > dependency : descriptor.getComponentDependencies()) {
+                String dependencyRoleType = ComponentDescriptorIndex.serializeType(dependency.getRoleType());
+                if (dependency.getClass() != DefaultComponentDependency.class || dependency.getHints() != null
+                    || dependencyRoleType == null) {
+                    return null;
+                }
+
+                appendRecord(records, ComponentDescriptorIndex.DEPENDENCY_RECORD, dependency.getName(),
+                    dependencyRoleType, dependency.getRoleHint());
+            }
+        }
+
+        return records.toString();
+    }
+
+    /**
+     * Make sure the descriptors read from the index are the same as the ones found through reflection.
+     * 
+     * @param componentClass the component implementation class
+     * @param descriptors the descriptors of the component
+     * @param records the index records of the component
+     * @return true if the records produce the same descriptors
+     */
+    private boolean verify(Class< ? > componentClass, List<ComponentDescriptor> descriptors, String records)
+    {
+        ComponentDescriptorIndex index = new ComponentDescriptorIndex();
+        try {
+            index.read(componentClass.getProtectionDomain().getCodeSource().getLocation(),
+                new ByteArrayInputStream(records.getBytes(ComponentDescriptorIndex.ENCODING)));
+
+            return descriptors.equals(index.getComponentDescriptors(componentClass));
+        } catch (Exception e) {
+            // Typically a hint containing a separator
+            return false;
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * @param builder the builder to append to
+     * @param fields the fields of the record
+     */
+    private static void appendRecord(StringBuilder builder, String... fields)
+    {
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0) {
+                builder.append(ComponentDescriptorIndex.SEPARATOR);
+            }
+            builder.append(fields[i]);
+        }
+        builder.append('\n');
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.xwiki.component.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
 
 import org.xwiki.component.descriptor.ComponentDescriptor;
@@ -26,6 +28,8 @@
 import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentEventManager;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.observation.BatchObservationManager;
+import org.xwiki.observation.EventRecord;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.observation.event.Event;
 
@@ -83,13 +87,26 @@ public void notifyComponentUnregistered(ComponentDescriptor< ? > descriptor, Com
     }
 
     /**
-     * Force to send all stored events.
+     * Force to send all stored events. When the observation manager supports it the events are sent as a single batch
+     * so that the listeners to call are only resolved once.
      */
     public synchronized void flushEvents()
     {
-        while (!this.events.isEmpty()) {
-            ComponentEventEntry entry = this.events.pop();
-            sendEvent(entry.event, entry.descriptor, entry.componentManager);
+        if (this.observationManager instanceof BatchObservationManager) {
+            if (!this.events.isEmpty()) {
+                List<EventRecord> records = new ArrayList<EventRecord>(this.events.size());
+                while (!this.events.isEmpty()) {
+                    ComponentEventEntry entry = this.events.pop();
+                    records.add(new EventRecord(entry.event, entry.componentManager, entry.descriptor));
+                }
+
+                ((BatchObservationManager) this.observationManager).notify(records);
+            }
+        } else {
+            while (!this.events.isEmpty()) {
+                ComponentEventEntry entry = this.events.pop();
+                sendEvent(entry.event, entry.descriptor, entry.componentManager);
+            }
         }
     }
 
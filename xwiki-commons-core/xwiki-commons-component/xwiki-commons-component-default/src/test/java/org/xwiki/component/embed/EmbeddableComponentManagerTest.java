@@ -19,6 +19,7 @@
  */
 package org.xwiki.component.embed;
 
+import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Map;
 
@@ -112,6 +113,16 @@ public Logger getLogger()
         }
     }
 
+    public static class DependingRoleImpl implements Role
+    {
+        private Role role;
+
+        public Role getRole()
+        {
+            return this.role;
+        }
+    }
+
     @Test
     public void testLookupThisComponentManager() throws ComponentLookupException
     {
@@ -202,6 +213,33 @@ public void testUnregisterComponent() throws Exception
         }
     }
 
+    @Test
+    public void testUnregisterComponentKeepsOtherHints() throws Exception
+    {
+        EmbeddableComponentManager ecm = new EmbeddableComponentManager();
+
+        DefaultComponentDescriptor<Role> d1 = new DefaultComponentDescriptor<Role>();
+        d1.setRole(Role.class);
+        d1.setImplementation(RoleImpl.class);
+        ecm.registerComponent(d1);
+
+        DefaultComponentDescriptor<Role> d2 = new DefaultComponentDescriptor<Role>();
+        d2.setRole(Role.class);
+        d2.setRoleHint("hint");
+        d2.setImplementation(OtherRoleImpl.class);
+        ecm.registerComponent(d2);
+
+        Role instance = ecm.getInstance(Role.class, "hint");
+        Assert.assertSame(instance, ecm.getInstance(Role.class, "hint"));
+
+        ecm.unregisterComponent(Role.class, null);
+
+        Assert.assertFalse(ecm.hasComponent(Role.class));
+        Assert.assertTrue(ecm.hasComponent(Role.class, "hint"));
+        Assert.assertSame(instance, ecm.getInstance(Role.class, "hint"));
+        Assert.assertEquals(1, ecm.getInstanceMap(Role.class).size());
+    }
+
     @Test
     public void testGetInstanceWhenComponentInParent() throws Exception
     {
@@ -288,6 +326,37 @@ public void testLoggingInjection() throws Exception
         Assert.assertNotNull(impl.getLogger());
     }
 
+    @Test
+    public void testPerLookupComponentInjection() throws Exception
+    {
+        EmbeddableComponentManager ecm = new EmbeddableComponentManager();
+
+        DefaultComponentDescriptor<Role> d1 = new DefaultComponentDescriptor<Role>();
+        d1.setRole(Role.class);
+        d1.setImplementation(RoleImpl.class);
+        ecm.registerComponent(d1);
+
+        DefaultComponentDescriptor<Role> d2 = new DefaultComponentDescriptor<Role>();
+        d2.setRole(Role.class);
+        d2.setRoleHint("perlookup");
+        d2.setImplementation(DependingRoleImpl.class);
+        d2.setInstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP);
+
+        DefaultComponentDependency<Role> dependencyDescriptor = new DefaultComponentDependency<Role>();
+        dependencyDescriptor.setRoleType(Role.class);
+        dependencyDescriptor.setName("role");
+
+        d2.addComponentDependency(dependencyDescriptor);
+        ecm.registerComponent(d2);
+
+        DependingRoleImpl instance1 = ecm.getInstance(Role.class, "perlookup");
+        DependingRoleImpl instance2 = ecm.getInstance(Role.class, "perlookup");
+
+        Assert.assertNotSame(instance1, instance2);
+        Assert.assertSame(ecm.getInstance(Role.class), instance1.getRole());
+        Assert.assertSame(instance1.getRole(), instance2.getRole());
+    }
+
     private ComponentManager createParentComponentManager() throws Exception
     {
         EmbeddableComponentManager parent = new EmbeddableComponentManager();
@@ -465,4 +534,45 @@ public void testRegisterComponentNotificationOnSecondRegistration() throws Excep
 
         ecm.registerComponent(cd2);
     }
+
+    @Test
+    public void testLookupNullRole() throws Exception
+    {
+        EmbeddableComponentManager ecm = new EmbeddableComponentManager();
+
+        Assert.assertFalse(ecm.hasComponent((Type) null));
+        Assert.assertNull(ecm.getComponentDescriptor(null, "hint"));
+        Assert.assertTrue(ecm.getComponentDescriptorList((Type) null).isEmpty());
+        Assert.assertTrue(ecm.getInstanceList((Type) null).isEmpty());
+
+        try {
+            ecm.getInstance((Type) null);
+            Assert.fail("Should have thrown a ComponentLookupException");
+        } catch (ComponentLookupException expected) {
+            // The exception message doesn't matter here
+        }
+    }
+
+    @Test
+    public void testRegisterManyHintsForSameRole() throws Exception
+    {
+        EmbeddableComponentManager ecm = new EmbeddableComponentManager();
+
+        for (int i = 0; i < 1000; ++i) {
+            DefaultComponentDescriptor<Role> cd = new DefaultComponentDescriptor<Role>();
+            cd.setRole(Role.class);
+            cd.setRoleHint("hint" + i);
+            cd.setImplementation(RoleImpl.class);
+            ecm.registerComponent(cd);
+        }
+
+        Assert.assertEquals(1000, ecm.getComponentDescriptorList((Type) Role.class).size());
+
+        for (int i = 0; i < 1000; ++i) {
+            ecm.unregisterComponent(Role.class, "hint" + i);
+        }
+
+        Assert.assertTrue(ecm.getComponentDescriptorList((Type) Role.class).isEmpty());
+        Assert.assertFalse(ecm.hasComponent(Role.class, "hint0"));
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.embed;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.descriptor.DefaultComponentDependency;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+
+/**
+ * Unit tests for {@link ParallelComponentInitializer}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ParallelComponentInitializerTest
+{
+    private static final Set<String> CREATED = Collections.synchronizedSet(new HashSet<String>());
+
+    public static interface Role
+    {
+    }
+
+    public abstract static class AbstractRoleImpl implements Role
+    {
+        protected Role dependency;
+
+        public AbstractRoleImpl()
+        {
+            CREATED.add(getClass().getSimpleName());
+        }
+    }
+
+    public static class A extends AbstractRoleImpl
+    {
+    }
+
+    public static class B extends AbstractRoleImpl
+    {
+    }
+
+    public static class C extends AbstractRoleImpl
+    {
+    }
+
+    public static class D extends AbstractRoleImpl
+    {
+    }
+
+    public static class E extends AbstractRoleImpl
+    {
+    }
+
+    public static class PerLookup extends AbstractRoleImpl
+    {
+    }
+
+    private EmbeddableComponentManager ecm;
+
+    private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @Before
+    public void setUp()
+    {
+        CREATED.clear();
+
+        this.ecm = new EmbeddableComponentManager();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdown();
+    }
+
+    private void register(Class< ? extends Role> implementation, String dependencyHint) throws Exception
+    {
+        register(implementation, dependencyHint, ComponentInstantiationStrategy.SINGLETON);
+    }
+
+    private void register(Class< ? extends Role> implementation, String dependencyHint,
+        ComponentInstantiationStrategy strategy) throws Exception
+    {
+        DefaultComponentDescriptor<Role> descriptor = new DefaultComponentDescriptor<Role>();
+        descriptor.setRoleType(Role.class);
+        descriptor.setRoleHint(implementation.getSimpleName());
+        descriptor.setImplementation(implementation);
+        descriptor.setInstantiationStrategy(strategy);
+
+        if (dependencyHint != null) {
+            DefaultComponentDependency<Role> dependency = new DefaultComponentDependency<Role>();
+            dependency.setRoleType(Role.class);
+            dependency.setRoleHint(dependencyHint);
+            dependency.setName("dependency");
+            descriptor.addComponentDependency(dependency);
+        }
+
+        this.ecm.registerComponent(descriptor);
+    }
+
+    private void initialize() throws Exception
+    {
+        new ParallelComponentInitializer(this.ecm, this.ecm.getComponentDescriptors()).initialize(this.executor);
+    }
+
+    @Test
+    public void testInitializeSingletons() throws Exception
+    {
+        register(A.class, "B");
+        register(B.class, null);
+        register(PerLookup.class, "A", ComponentInstantiationStrategy.PER_LOOKUP);
+
+        initialize();
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("A", "B")), CREATED);
+
+        A a = this.ecm.getInstance(Role.class, "A");
+        Assert.assertSame(this.ecm.getInstance(Role.class, "B"), a.dependency);
+    }
+
+    @Test
+    public void testCyclesAreNotInitialized() throws Exception
+    {
+        register(A.class, null);
+        register(C.class, "D");
+        register(D.class, "C");
+        register(E.class, "C");
+
+        initialize();
+
+        Assert.assertEquals(Collections.singleton("A"), CREATED);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.component.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+
+/**
+ * Unit tests for {@link ComponentDescriptorIndex} and {@link ComponentDescriptorIndexWriter}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ComponentDescriptorIndexTest
+{
+    @Role
+    public interface GenericRole<T>
+    {
+    }
+
+    @Component(hints = {"hint1", "hint2"})
+    public static class IndexedComponent implements GenericRole<Map<String, List<Integer>>>
+    {
+        @Inject
+        private Logger logger;
+
+        @Inject
+        @Named("other")
+        private GenericRole<String> role;
+
+        @Inject
+        private List<GenericRole<String>> roles;
+
+        @Inject
+        private Provider<GenericRole<String>> provider;
+    }
+
+    @Component
+    public static class GenericComponent<T> implements GenericRole<String>
+    {
+        @Inject
+        private GenericRole<T> role;
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File indexFile;
+
+    private ComponentDescriptorIndex index = new ComponentDescriptorIndex();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File componentList = new File(this.folder.getRoot(), ComponentAnnotationLoader.COMPONENT_LIST);
+        componentList.getParentFile().mkdirs();
+
+        OutputStream stream = new FileOutputStream(componentList);
+        try {
+            stream.write((IndexedComponent.class.getName() + "\n500:" + GenericComponent.class.getName() + "\n")
+                .getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+
+        new ComponentDescriptorIndexWriter().write(this.folder.getRoot());
+
+        this.indexFile = new File(this.folder.getRoot(), ComponentDescriptorIndex.LOCATION);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.index.close();
+    }
+
+    private void readIndex(InputStream stream) throws Exception
+    {
+        try {
+            this.index.read(IndexedComponent.class.getProtectionDomain().getCodeSource().getLocation(), stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testIndexedDescriptors() throws Exception
+    {
+        readIndex(new FileInputStream(this.indexFile));
+
+        List<ComponentDescriptor> descriptors = this.index.getComponentDescriptors(IndexedComponent.class);
+
+        Assert.assertEquals(2, descriptors.size());
+        Assert.assertEquals(new ComponentAnnotationLoader().getComponentsDescriptors(IndexedComponent.class),
+            descriptors);
+    }
+
+    @Test
+    public void testTypeVariablesAreNotIndexed() throws Exception
+    {
+        readIndex(new FileInputStream(this.indexFile));
+
+        Assert.assertNull(this.index.getComponentDescriptors(GenericComponent.class));
+    }
+
+    @Test
+    public void testStaleIndex() throws Exception
+    {
+        byte[] bytes = new byte[(int) this.indexFile.length()];
+        DataInputStream stream = new DataInputStream(new FileInputStream(this.indexFile));
+        try {
+            stream.readFully(bytes);
+        } finally {
+            stream.close();
+        }
+
+        String checksum = String.valueOf(this.index.getChecksum(IndexedComponent.class));
+        String content = new String(bytes, ComponentDescriptorIndex.ENCODING);
+        Assert.assertTrue(content.contains(checksum));
+
+        readIndex(new ByteArrayInputStream(content.replace(checksum, "0").getBytes(ComponentDescriptorIndex.ENCODING)));
+
+        Assert.assertNull(this.index.getComponentDescriptors(IndexedComponent.class));
+    }
+
+    @Test
+    public void testNoIndex() throws Exception
+    {
+        Assert.assertNull(this.index.getComponentDescriptors(IndexedComponent.class));
+    }
+
+    @Test
+    public void testChecksumOfJarClasses() throws Exception
+    {
+        Assert.assertTrue(this.index.getChecksum(Logger.class) != ComponentDescriptorIndex.UNKNOWN_CHECKSUM);
+    }
+}
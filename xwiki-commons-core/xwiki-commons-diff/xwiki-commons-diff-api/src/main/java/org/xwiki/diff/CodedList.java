@@ -0,0 +1,43 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff;
+
+import java.util.List;
+
+/**
+ * A list whose elements can be compared through integer codes, two elements being equal if and only if they have the
+ * same code. The characters of a text are a typical example. Any {@code int} is a valid code, although codes between
+ * 0 and {@code Character.MAX_VALUE} are compared the most efficiently.
+ * <p>
+ * When both compared lists are {@link CodedList}s of the same type, {@link DiffManager} compares the codes directly
+ * instead of hashing and comparing each element.
+ * 
+ * @param <E> the type of the elements
+ * @version $Id$
+ * @since 4.1
+ */
+public interface CodedList<E> extends List<E>
+{
+    /**
+     * @param index the index of the element
+     * @return the code of the element
+     */
+    int getCode(int index);
+}
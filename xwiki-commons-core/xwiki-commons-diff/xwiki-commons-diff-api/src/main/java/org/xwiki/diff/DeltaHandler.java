@@ -0,0 +1,38 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff;
+
+/**
+ * Receives the {@link Delta}s as they are found by a streaming diff.
+ * 
+ * @param <E> the type of compared elements
+ * @version $Id$
+ * @since 4.1
+ */
+public interface DeltaHandler<E>
+{
+    /**
+     * Called for each delta, in the order of the compared content.
+     * 
+     * @param delta the delta
+     * @throws DiffException error when handling the delta, stops the diff
+     */
+    void onDelta(Delta<E> delta) throws DiffException;
+}
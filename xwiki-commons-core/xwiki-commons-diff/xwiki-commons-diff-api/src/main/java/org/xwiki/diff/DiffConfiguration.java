@@ -29,5 +29,88 @@
  */
 public class DiffConfiguration<E> extends HashMap<String, Object>
 {
+    /**
+     * The name of the key used to setup the algorithm used to compute the differences.
+     * 
+     * @since 4.1
+     */
+    public static final String KEY_ALGORITHM = "algorithm";
 
+    /**
+     * The name of the key used to setup the minimum number of elements from which the differences are computed in
+     * parallel.
+     * 
+     * @since 4.1
+     */
+    public static final String KEY_PARALLELTHRESHOLD = "parallelthreshold";
+
+    /**
+     * The algorithms available to compute the differences.
+     * 
+     * @version $Id$
+     * @since 4.1
+     */
+    public enum Algorithm
+    {
+        /**
+         * Linear space Myers algorithm, producing a minimal diff.
+         */
+        MYERS,
+
+        /**
+         * Histogram algorithm: matches the least frequent elements first and falls back on {@link #MYERS} when all
+         * elements are too common. Usually produces more readable diffs for source code and is faster on large
+         * dissimilar lists.
+         */
+        HISTOGRAM,
+
+        /**
+         * The java-diff-utils library (default).
+         */
+        DIFFLIB
+    }
+
+    /**
+     * @param algorithm the algorithm to use to compute the differences
+     * @since 4.1
+     */
+    public void setAlgorithm(Algorithm algorithm)
+    {
+        put(KEY_ALGORITHM, algorithm);
+    }
+
+    /**
+     * @return the algorithm to use to compute the differences
+     * @since 4.1
+     */
+    public Algorithm getAlgorithm()
+    {
+        // Default is Algorithm.DIFFLIB
+        return containsKey(KEY_ALGORITHM) ? (Algorithm) get(KEY_ALGORITHM) : Algorithm.DIFFLIB;
+    }
+
+    /**
+     * Lists with at least this number of elements are split into independent segments around common elements which
+     * are unique in both lists, and the segments are compared in parallel. The result may not be minimal but is
+     * usually the same for lists with few similar lines.
+     * 
+     * @param threshold the minimum number of elements from which the differences are computed in parallel, 0 to
+     *            disable the parallel mode
+     * @since 4.1
+     */
+    public void setParallelThreshold(int threshold)
+    {
+        put(KEY_PARALLELTHRESHOLD, threshold);
+    }
+
+    /**
+     * @return the minimum number of elements from which the differences are computed in parallel, 0 if the parallel
+     *         mode is disabled
+     * @since 4.1
+     */
+    public int getParallelThreshold()
+    {
+        // Default is 0 (disabled)
+        return containsKey(KEY_PARALLELTHRESHOLD) ? (Integer) get(KEY_PARALLELTHRESHOLD) : 0;
+    }
 }
@@ -43,6 +43,26 @@
      */
     <E> DiffResult<E> diff(List<E> previous, List<E> next, DiffConfiguration<E> configuration) throws DiffException;
 
+    /**
+     * Produce a line diff between the two provided versions of a text, without loading them in memory. The common
+     * beginning of the two versions is skipped while reading them, only a hash of the following lines is kept, the
+     * common end is skipped by comparing these hashes, and the content of the modified lines is read again when sending
+     * the deltas to the handler.
+     * <p>
+     * Two different lines can have the same hash. The lines matched through their hashes are compared again while
+     * reading the texts the second time, and the ones which are not actually equal are sent as modified. The deltas
+     * remain correct in this case but might not be minimal.
+     * 
+     * @param previous the previous version of the text to compare
+     * @param next the next version of the text to compare
+     * @param configuration the configuration of the diff behavior
+     * @param handler the handler receiving the deltas
+     * @throws DiffException error when reading the texts or executing the diff
+     * @since 4.1
+     */
+    void diff(ReaderSource previous, ReaderSource next, DiffConfiguration<String> configuration,
+        DeltaHandler<String> handler) throws DiffException;
+
     /**
      * Execute a 3-way merge on provided versions.
      * 
@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Provides the content of a text which may be too big to be kept in memory. The text is read at most twice when
+ * computing differences: once to find the modified lines and once to extract them.
+ * <p>
+ * To compare the content of an {@link java.io.InputStream}, return a new {@link java.io.InputStreamReader} on it each
+ * time {@link #openReader()} is called.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface ReaderSource
+{
+    /**
+     * @return a new reader on the text, closed by the caller
+     * @throws IOException error when opening the reader
+     */
+    Reader openReader() throws IOException;
+}
@@ -21,14 +21,24 @@
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.diff.Delta;
 import org.xwiki.diff.Delta.Type;
+import org.xwiki.diff.DeltaHandler;
 import org.xwiki.diff.DiffConfiguration;
+import org.xwiki.diff.DiffConfiguration.Algorithm;
 import org.xwiki.diff.DiffException;
 import org.xwiki.diff.DiffManager;
 import org.xwiki.diff.DiffResult;
@@ -37,6 +47,7 @@
 import org.xwiki.diff.MergeException;
 import org.xwiki.diff.MergeResult;
 import org.xwiki.diff.Patch;
+import org.xwiki.diff.ReaderSource;
 
 import difflib.DiffUtils;
 
@@ -47,8 +58,33 @@
  */
 @Component
 @Singleton
-public class DefaultDiffManager implements DiffManager
+public class DefaultDiffManager implements DiffManager, Disposable
 {
+    /**
+     * The number of threads used to compute differences in parallel.
+     */
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Used to compute differences with {@link Algorithm#DIFFLIB} when the compared lists are not available.
+     */
+    private final DiffAlgorithm diffLib = new DiffLibDiffAlgorithm();
+
+    /**
+     * Used to compute differences with {@link Algorithm#MYERS}.
+     */
+    private final DiffAlgorithm myers = new MyersDiffAlgorithm();
+
+    /**
+     * Used to compute differences with {@link Algorithm#HISTOGRAM}.
+     */
+    private final DiffAlgorithm histogram = new HistogramDiffAlgorithm();
+
+    /**
+     * @see #getExecutor()
+     */
+    private ExecutorService executor;
+
     @Override
     public <E> DiffResult<E> diff(List<E> previous, List<E> next, DiffConfiguration<E> diff) throws DiffException
     {
@@ -67,7 +103,7 @@ public <E> DiffResult<E> diff(List<E> previous, List<E> next, DiffConfiguration<
             patch.add(new DeleteDelta<E>(new DefaultChunk<E>(0, previous), new DefaultChunk<E>(0, Collections
                 .<E> emptyList())));
         } else {
-            patch = new DefaultPatch<E>(DiffUtils.diff(previous, next));
+            patch = computePatch(previous, next, diff);
         }
 
         result.setPatch(patch);
@@ -75,6 +111,106 @@ public <E> DiffResult<E> diff(List<E> previous, List<E> next, DiffConfiguration<
         return result;
     }
 
+    @Override
+    public void diff(ReaderSource previous, ReaderSource next, DiffConfiguration<String> configuration,
+        DeltaHandler<String> handler) throws DiffException
+    {
+        new LineStreamDiff(getDiffAlgorithm(configuration)).diff(previous, next, handler);
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param previous the previous version of the content to compare
+     * @param next the next version of the content to compare
+     * @param configuration the configuration of the diff behavior
+     * @return the patch to go from the previous to the next version
+     * @throws DiffException error when computing the differences
+     */
+    private <E> Patch<E> computePatch(List<E> previous, List<E> next, DiffConfiguration<E> configuration)
+        throws DiffException
+    {
+        boolean sequentialDiffLib = configuration == null
+            || (configuration.getAlgorithm() == Algorithm.DIFFLIB && configuration.getParallelThreshold() <= 0);
+        // The library reads the elements of coded lists at each comparison so their codes are compared instead
+        if (sequentialDiffLib && !EditScript.isCoded(previous, next)) {
+            return new DefaultPatch<E>(DiffUtils.diff(previous, next));
+        }
+
+        EditScript script = EditScript.create(previous, next);
+        try {
+            getDiffAlgorithm(configuration).diff(script, new EditScript.Region(0, previous.size(), 0, next.size()));
+        } catch (IllegalStateException e) {
+            throw new DiffException("Failed to compute the differences", e);
+        }
+
+        return script.toPatch(previous, next);
+    }
+
+    /**
+     * @param configuration the configuration of the diff behavior
+     * @return the algorithm to use to compute the differences
+     */
+    private DiffAlgorithm getDiffAlgorithm(DiffConfiguration< ? > configuration)
+    {
+        if (configuration == null) {
+            return this.diffLib;
+        }
+
+        DiffAlgorithm algorithm;
+        switch (configuration.getAlgorithm()) {
+            case MYERS:
+                algorithm = this.myers;
+                break;
+            case HISTOGRAM:
+                algorithm = this.histogram;
+                break;
+            default:
+                algorithm = this.diffLib;
+        }
+        if (configuration.getParallelThreshold() > 0) {
+            algorithm =
+                new ParallelDiffAlgorithm(algorithm, getExecutor(), PARALLELISM, configuration.getParallelThreshold());
+        }
+
+        return algorithm;
+    }
+
+    /**
+     * @return the executor used to compute differences in parallel
+     */
+    private synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory()
+            {
+                /**
+                 * Used to give a unique name to each thread.
+                 */
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "XWiki diff " + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
     @Override
     public <E> MergeResult<E> merge(List<E> commonAncestor, List<E> next, List<E> current,
         MergeConfiguration<E> configuration) throws MergeException
@@ -179,28 +315,35 @@ private <E> int fallback(List<E> commonAncestor, Delta<E> deltaNext, Delta<E> de
     private <E> void merge(DefaultMergeResult<E> mergeResult, List<E> commonAncestor, Patch<E> patchNext,
         Patch<E> patchCurrent, MergeConfiguration<E> configuration)
     {
-        // Merge the two diffs
-        List<E> merged = new ArrayList<E>();
+        // Access the common ancestor elements in constant time
+        List<E> ancestor =
+            commonAncestor instanceof RandomAccess ? commonAncestor : new ArrayList<E>(commonAncestor);
+
+        // Merge the two diffs in a single pass, in a list which never has to grow
+        List<E> merged =
+            new ArrayList<E>(ancestor.size() + getInsertedSize(patchNext) + getInsertedSize(patchCurrent));
 
         mergeResult.setMerged(merged);
 
-        Delta<E> deltaNext = nextElement(patchNext);
-        Delta<E> deltaCurrent = nextElement(patchCurrent);
+        Iterator<Delta<E>> nextIterator = patchNext.iterator();
+        Iterator<Delta<E>> currentIterator = patchCurrent.iterator();
+        Delta<E> deltaNext = nextElement(nextIterator);
+        Delta<E> deltaCurrent = nextElement(currentIterator);
 
         // Before common ancestor
         if (deltaCurrent.getType() == Type.INSERT && deltaCurrent.getPrevious().getIndex() == 0) {
             merged.addAll(deltaCurrent.getNext().getElements());
-            deltaCurrent = nextElement(patchCurrent);
+            deltaCurrent = nextElement(currentIterator);
         }
 
         if (deltaNext.getType() == Type.INSERT && deltaNext.getPrevious().getIndex() == 0) {
             merged.addAll(deltaNext.getNext().getElements());
-            deltaNext = nextElement(patchNext);
+            deltaNext = nextElement(nextIterator);
         }
 
         // In common ancestor
         int index = 0;
-        for (; index < commonAncestor.size(); ++index) {
+        for (; index < ancestor.size(); ++index) {
             if (isPreviousIndex(deltaCurrent, index)) {
                 // Modification in current
                 if (isPreviousIndex(deltaNext, index)) {
@@ -209,13 +352,13 @@ private <E> void merge(DefaultMergeResult<E> mergeResult, List<E> commonAncestor
                         // Choose current
                         index = apply(deltaCurrent, merged, index);
                         if (deltaCurrent.getType() == Type.INSERT) {
-                            merged.add(commonAncestor.get(index));
+                            merged.add(ancestor.get(index));
                         }
                     } else if (deltaCurrent.getType() == Type.INSERT) {
                         index = apply(deltaCurrent, merged, index);
                         index = apply(deltaNext, merged, index);
                         if (deltaNext.getType() == Type.INSERT) {
-                            merged.add(commonAncestor.get(index));
+                            merged.add(ancestor.get(index));
                         }
                     } else if (deltaNext.getType() == Type.INSERT) {
                         index = apply(deltaNext, merged, index);
@@ -224,40 +367,44 @@ private <E> void merge(DefaultMergeResult<E> mergeResult, List<E> commonAncestor
                         // Conflict
                         logConflict(mergeResult, deltaCurrent, deltaNext);
 
-                        index = fallback(commonAncestor, deltaNext, deltaCurrent, merged, index, configuration);
+                        index = fallback(ancestor, deltaNext, deltaCurrent, merged, index, configuration);
                     }
 
-                    deltaNext = nextElement(patchNext);
+                    deltaNext = nextElement(nextIterator);
                 } else {
                     index = apply(deltaCurrent, merged, index);
                     if (deltaCurrent.getType() == Type.INSERT) {
-                        merged.add(commonAncestor.get(index));
+                        merged.add(ancestor.get(index));
                     }
 
                     if (isInPreviousDelta(deltaNext, deltaCurrent.getPrevious().getLastIndex())) {
                         // Conflict
                         logConflict(mergeResult, deltaCurrent, deltaNext);
-                        deltaNext = nextElement(patchNext);
+                        deltaNext = nextElement(nextIterator);
                     }
                 }
 
-                deltaCurrent = nextElement(patchCurrent);
+                deltaCurrent = nextElement(currentIterator);
             } else if (isPreviousIndex(deltaNext, index)) {
                 // Modification in next
                 index = apply(deltaNext, merged, index);
                 if (deltaNext.getType() == Type.INSERT) {
-                    merged.add(commonAncestor.get(index));
+                    merged.add(ancestor.get(index));
                 }
 
                 if (isInPreviousDelta(deltaCurrent, deltaNext.getPrevious().getLastIndex())) {
                     // Conflict
                     logConflict(mergeResult, deltaCurrent, deltaNext);
-                    deltaCurrent = nextElement(patchCurrent);
+                    deltaCurrent = nextElement(currentIterator);
                 }
 
-                deltaNext = nextElement(patchNext);
+                deltaNext = nextElement(nextIterator);
             } else {
-                merged.add(commonAncestor.get(index));
+                // Copy all the unmodified elements until the next delta at once
+                int end = Math.min(getNextIndex(deltaCurrent, index), getNextIndex(deltaNext, index));
+                end = Math.min(end, ancestor.size());
+                merged.addAll(ancestor.subList(index, end));
+                index = end - 1;
             }
         }
 
@@ -298,9 +445,37 @@ private <E> int apply(Delta<E> delta, List<E> merged, int currentIndex)
         return index;
     }
 
-    private <E> E nextElement(List<E> list)
+    private <E> E nextElement(Iterator<E> iterator)
+    {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param delta the delta
+     * @param index the current index in the common ancestor
+     * @return the index of the delta in the common ancestor if it's after the current index,
+     *         {@link Integer#MAX_VALUE} otherwise
+     */
+    private <E> int getNextIndex(Delta<E> delta, int index)
     {
-        return list != null && !list.isEmpty() ? list.remove(0) : null;
+        return delta != null && delta.getPrevious().getIndex() > index ? delta.getPrevious().getIndex()
+            : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param patch the patch
+     * @return the number of elements inserted by the patch
+     */
+    private <E> int getInsertedSize(Patch<E> patch)
+    {
+        int size = 0;
+        for (Delta<E> delta : patch) {
+            size += delta.getNext().size();
+        }
+
+        return size;
     }
 
     private <E> boolean isPreviousIndex(Delta<E> delta, int index)
@@ -0,0 +1,40 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+/**
+ * Compute the differences between two sequences of integers.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface DiffAlgorithm
+{
+    /**
+     * Mark in the edit script the elements of the region which have been deleted from the previous sequence and
+     * inserted in the next sequence.
+     * 
+     * @param script the sequences to compare and where to store the result
+     * @param region the region of the sequences to compare
+     * @throws IllegalStateException when the differences could not be computed, for instance because the thread has
+     *             been interrupted while waiting for other threads
+     */
+    void diff(EditScript script, EditScript.Region region);
+}
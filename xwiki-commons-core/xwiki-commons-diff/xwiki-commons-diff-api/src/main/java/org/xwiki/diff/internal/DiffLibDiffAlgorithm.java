@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+
+/**
+ * Compare the regions of an edit script with the java-diff-utils library, so that the default algorithm can also be
+ * used to compare streams, to compare the codes of {@link org.xwiki.diff.CodedList}s and to compare lists in parallel.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class DiffLibDiffAlgorithm implements DiffAlgorithm
+{
+    @Override
+    public void diff(EditScript script, EditScript.Region region)
+    {
+        // The common prefix and suffix are not removed first so that the result is exactly the one of the library.
+        if (region.previousStart == region.previousEnd) {
+            script.insert(region.nextStart, region.nextEnd);
+        } else if (region.nextStart == region.nextEnd) {
+            script.delete(region.previousStart, region.previousEnd);
+        } else {
+            // Each distinct identifier is boxed only once
+            Integer[] boxes = new Integer[script.getIdCount()];
+            List<Integer> previous = toList(script.getPrevious(), region.previousStart, region.previousEnd, boxes);
+            List<Integer> next = toList(script.getNext(), region.nextStart, region.nextEnd, boxes);
+
+            for (Delta delta : DiffUtils.diff(previous, next).getDeltas()) {
+                int previousStart = region.previousStart + delta.getOriginal().getPosition();
+                script.delete(previousStart, previousStart + delta.getOriginal().size());
+                int nextStart = region.nextStart + delta.getRevised().getPosition();
+                script.insert(nextStart, nextStart + delta.getRevised().size());
+            }
+        }
+    }
+
+    /**
+     * @param ids the identifiers of a sequence
+     * @param start the index of the first identifier to return
+     * @param end the index after the last identifier to return
+     * @param boxes the already boxed identifiers, indexed by identifier
+     * @return the identifiers between the passed indexes
+     */
+    private List<Integer> toList(int[] ids, int start, int end, Integer[] boxes)
+    {
+        List<Integer> list = new ArrayList<Integer>(end - start);
+        for (int i = start; i < end; ++i) {
+            Integer box = boxes[ids[i]];
+            if (box == null) {
+                box = ids[i];
+                boxes[ids[i]] = box;
+            }
+            list.add(box);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.xwiki.diff.Chunk;
+import org.xwiki.diff.CodedList;
+import org.xwiki.diff.Delta;
+import org.xwiki.diff.Patch;
+
+/**
+ * The differences between two sequences of elements represented as integers, where equal elements are represented by
+ * the same integer. {@link DiffAlgorithm}s mark the elements deleted from the previous sequence and inserted in the
+ * next one, and the unmarked elements are the common subsequence of both.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class EditScript
+{
+    /**
+     * The maximum number of codes used directly as identifiers. The algorithms allocate arrays indexed by identifier so
+     * larger codes, as well as negative codes, are renumbered.
+     */
+    private static final int MAX_DIRECT_CODES = Character.MAX_VALUE + 1;
+
+    /**
+     * @see #getPrevious()
+     */
+    private final int[] previous;
+
+    /**
+     * @see #getNext()
+     */
+    private final int[] next;
+
+    /**
+     * @see #getIdCount()
+     */
+    private final int idCount;
+
+    /**
+     * The elements of the previous sequence which are not in the next one.
+     */
+    private final boolean[] deleted;
+
+    /**
+     * The elements of the next sequence which are not in the previous one.
+     */
+    private final boolean[] inserted;
+
+    /**
+     * @param previous the identifiers of the elements of the previous sequence
+     * @param next the identifiers of the elements of the next sequence
+     * @param idCount the number of distinct identifiers, all identifiers being between 0 and this value excluded
+     */
+    public EditScript(int[] previous, int[] next, int idCount)
+    {
+        this.previous = previous;
+        this.next = next;
+        this.idCount = idCount;
+        this.deleted = new boolean[previous.length];
+        this.inserted = new boolean[next.length];
+    }
+
+    /**
+     * Associate an identifier to each distinct element of the provided lists.
+     * 
+     * @param <E> the type of compared elements
+     * @param previous the previous version of the list
+     * @param next the next version of the list
+     * @return the edit script to fill
+     */
+    public static <E> EditScript create(List<E> previous, List<E> next)
+    {
+        if (isCoded(previous, next)) {
+            return createFromCodes((CodedList<E>) previous, (CodedList<E>) next);
+        }
+
+        Map<E, Integer> ids = new HashMap<E, Integer>();
+
+        int[] previousIds = toIds(previous, ids);
+        int[] nextIds = toIds(next, ids);
+
+        return new EditScript(previousIds, nextIds, ids.size());
+    }
+
+    /**
+     * @param previous the previous version of the list
+     * @param next the next version of the list
+     * @return {@code true} if the codes of the elements of the passed lists can be used instead of the elements
+     */
+    public static boolean isCoded(List< ? > previous, List< ? > next)
+    {
+        return previous instanceof CodedList && next instanceof CodedList && previous.getClass() == next.getClass();
+    }
+
+    /**
+     * Use the codes of the elements of the provided lists as identifiers, when they are all between 0 and
+     * {@link #MAX_DIRECT_CODES} excluded, or renumber them otherwise.
+     * 
+     * @param <E> the type of compared elements
+     * @param previous the previous version of the list
+     * @param next the next version of the list
+     * @return the edit script to fill
+     */
+    private static <E> EditScript createFromCodes(CodedList<E> previous, CodedList<E> next)
+    {
+        int[] previousIds = toCodes(previous);
+        int[] nextIds = toCodes(next);
+
+        if (isDirect(previousIds) && isDirect(nextIds)) {
+            int maxCode = -1;
+            for (int code : previousIds) {
+                maxCode = Math.max(maxCode, code);
+            }
+            for (int code : nextIds) {
+                maxCode = Math.max(maxCode, code);
+            }
+
+            return new EditScript(previousIds, nextIds, maxCode + 1);
+        }
+
+        Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+        renumber(previousIds, ids);
+        renumber(nextIds, ids);
+
+        return new EditScript(previousIds, nextIds, ids.size());
+    }
+
+    /**
+     * @param <E> the type of the elements
+     * @param elements the elements
+     * @return the codes of the elements
+     */
+    private static <E> int[] toCodes(CodedList<E> elements)
+    {
+        int[] codes = new int[elements.size()];
+        for (int i = 0; i < codes.length; ++i) {
+            codes[i] = elements.getCode(i);
+        }
+
+        return codes;
+    }
+
+    /**
+     * @param codes element codes
+     * @return {@code true} if the codes can be used directly as identifiers
+     */
+    private static boolean isDirect(int[] codes)
+    {
+        for (int code : codes) {
+            if (code < 0 || code >= MAX_DIRECT_CODES) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Replace the codes by dense identifiers, in place.
+     * 
+     * @param codes the codes to replace
+     * @param ids the identifiers already associated to codes
+     */
+    private static void renumber(int[] codes, Map<Integer, Integer> ids)
+    {
+        for (int i = 0; i < codes.length; ++i) {
+            Integer id = ids.get(codes[i]);
+            if (id == null) {
+                id = ids.size();
+                ids.put(codes[i], id);
+            }
+            codes[i] = id;
+        }
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param elements the elements to convert
+     * @param ids the identifiers already associated to elements
+     * @return the identifiers of the elements
+     */
+    private static <E> int[] toIds(List<E> elements, Map<E, Integer> ids)
+    {
+        int[] result = new int[elements.size()];
+
+        int index = 0;
+        for (E element : elements) {
+            Integer id = ids.get(element);
+            if (id == null) {
+                id = ids.size();
+                ids.put(element, id);
+            }
+            result[index++] = id;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the identifiers of the elements of the previous sequence
+     */
+    public int[] getPrevious()
+    {
+        return this.previous;
+    }
+
+    /**
+     * @return the identifiers of the elements of the next sequence
+     */
+    public int[] getNext()
+    {
+        return this.next;
+    }
+
+    /**
+     * @return the number of distinct identifiers, all identifiers being between 0 and this value excluded
+     */
+    public int getIdCount()
+    {
+        return this.idCount;
+    }
+
+    /**
+     * @param start the index of the first deleted element in the previous sequence
+     * @param end the index after the last deleted element in the previous sequence
+     */
+    public void delete(int start, int end)
+    {
+        for (int i = start; i < end; ++i) {
+            this.deleted[i] = true;
+        }
+    }
+
+    /**
+     * @param start the index of the first inserted element in the next sequence
+     * @param end the index after the last inserted element in the next sequence
+     */
+    public void insert(int start, int end)
+    {
+        for (int i = start; i < end; ++i) {
+            this.inserted[i] = true;
+        }
+    }
+
+    /**
+     * Create an edit script for a region of the sequences, where the identifiers are renumbered from 0.
+     * 
+     * @param region the region of the sequences
+     * @param idMap a buffer of {@link #getIdCount()} elements all equal to -1, left in the same state when returning
+     * @return the edit script of the region
+     */
+    public EditScript extract(Region region, int[] idMap)
+    {
+        int[] regionPrevious = new int[region.previousEnd - region.previousStart];
+        int[] regionNext = new int[region.nextEnd - region.nextStart];
+
+        int count = 0;
+        for (int i = 0; i < regionPrevious.length; ++i) {
+            int id = this.previous[region.previousStart + i];
+            if (idMap[id] < 0) {
+                idMap[id] = count++;
+            }
+            regionPrevious[i] = idMap[id];
+        }
+        for (int i = 0; i < regionNext.length; ++i) {
+            int id = this.next[region.nextStart + i];
+            if (idMap[id] < 0) {
+                idMap[id] = count++;
+            }
+            regionNext[i] = idMap[id];
+        }
+
+        for (int i = region.previousStart; i < region.previousEnd; ++i) {
+            idMap[this.previous[i]] = -1;
+        }
+        for (int i = region.nextStart; i < region.nextEnd; ++i) {
+            idMap[this.next[i]] = -1;
+        }
+
+        return new EditScript(regionPrevious, regionNext, count);
+    }
+
+    /**
+     * Copy the marks of an edit script created with {@link #extract(Region, int[])}. Regions which don't overlap can
+     * be copied from different threads.
+     * 
+     * @param regionScript the edit script of the region
+     * @param region the region of the sequences
+     */
+    public void copy(EditScript regionScript, Region region)
+    {
+        System.arraycopy(regionScript.deleted, 0, this.deleted, region.previousStart, regionScript.deleted.length);
+        System.arraycopy(regionScript.inserted, 0, this.inserted, region.nextStart, regionScript.inserted.length);
+    }
+
+    /**
+     * Remove the common prefix and suffix from the region and mark it entirely when one of its sides is empty.
+     * 
+     * @param region the region to reduce
+     * @return true if both sides of the region are not empty and the region still has to be compared
+     */
+    public boolean reduce(Region region)
+    {
+        while (region.previousStart < region.previousEnd && region.nextStart < region.nextEnd
+            && this.previous[region.previousStart] == this.next[region.nextStart]) {
+            ++region.previousStart;
+            ++region.nextStart;
+        }
+
+        while (region.previousStart < region.previousEnd && region.nextStart < region.nextEnd
+            && this.previous[region.previousEnd - 1] == this.next[region.nextEnd - 1]) {
+            --region.previousEnd;
+            --region.nextEnd;
+        }
+
+        if (region.previousStart == region.previousEnd) {
+            insert(region.nextStart, region.nextEnd);
+        } else if (region.nextStart == region.nextEnd) {
+            delete(region.previousStart, region.previousEnd);
+        } else {
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the regions of the sequences containing marked elements, in order
+     */
+    public List<Region> getChanges()
+    {
+        List<Region> changes = new ArrayList<Region>();
+
+        int previousIndex = 0;
+        int nextIndex = 0;
+        while (previousIndex < this.previous.length || nextIndex < this.next.length) {
+            if (isDeleted(previousIndex) || isInserted(nextIndex)) {
+                int previousStart = previousIndex;
+                int nextStart = nextIndex;
+                while (isDeleted(previousIndex)) {
+                    ++previousIndex;
+                }
+                while (isInserted(nextIndex)) {
+                    ++nextIndex;
+                }
+
+                changes.add(new Region(previousStart, previousIndex, nextStart, nextIndex));
+            } else {
+                ++previousIndex;
+                ++nextIndex;
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Convert the marked elements into a {@link Patch}.
+     * 
+     * @param <E> the type of compared elements
+     * @param previousList the previous version of the list
+     * @param nextList the next version of the list
+     * @return the patch to go from the previous to the next version
+     */
+    public <E> Patch<E> toPatch(List<E> previousList, List<E> nextList)
+    {
+        List<E> previousElements =
+            previousList instanceof RandomAccess ? previousList : new ArrayList<E>(previousList);
+        List<E> nextElements = nextList instanceof RandomAccess ? nextList : new ArrayList<E>(nextList);
+
+        Patch<E> patch = new DefaultPatch<E>();
+
+        for (Region change : getChanges()) {
+            patch.add(toDelta(new DefaultChunk<E>(change.previousStart, new ArrayList<E>(previousElements.subList(
+                change.previousStart, change.previousEnd))), new DefaultChunk<E>(change.nextStart, new ArrayList<E>(
+                nextElements.subList(change.nextStart, change.nextEnd)))));
+        }
+
+        return patch;
+    }
+
+    /**
+     * @param index the index of the element in the previous sequence
+     * @return true if the element exists and has been deleted
+     */
+    private boolean isDeleted(int index)
+    {
+        return index < this.deleted.length && this.deleted[index];
+    }
+
+    /**
+     * @param index the index of the element in the next sequence
+     * @return true if the element exists and has been inserted
+     */
+    private boolean isInserted(int index)
+    {
+        return index < this.inserted.length && this.inserted[index];
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param previousChunk the deleted elements
+     * @param nextChunk the inserted elements
+     * @return the delta between the two chunks
+     */
+    public static <E> Delta<E> toDelta(Chunk<E> previousChunk, Chunk<E> nextChunk)
+    {
+        Delta<E> delta;
+
+        if (previousChunk.size() == 0) {
+            delta = new InsertDelta<E>(previousChunk, nextChunk);
+        } else if (nextChunk.size() == 0) {
+            delta = new DeleteDelta<E>(previousChunk, nextChunk);
+        } else {
+            delta = new ChangeDelta<E>(previousChunk, nextChunk);
+        }
+
+        return delta;
+    }
+
+    /**
+     * A region of the two sequences still to compare.
+     * 
+     * @version $Id$
+     */
+    public static class Region
+    {
+        /**
+         * The index of the first element of the region in the previous sequence.
+         */
+        protected int previousStart;
+
+        /**
+         * The index after the last element of the region in the previous sequence.
+         */
+        protected int previousEnd;
+
+        /**
+         * The index of the first element of the region in the next sequence.
+         */
+        protected int nextStart;
+
+        /**
+         * The index after the last element of the region in the next sequence.
+         */
+        protected int nextEnd;
+
+        /**
+         * @param previousStart the index of the first element of the region in the previous sequence
+         * @param previousEnd the index after the last element of the region in the previous sequence
+         * @param nextStart the index of the first element of the region in the next sequence
+         * @param nextEnd the index after the last element of the region in the next sequence
+         */
+        public Region(int previousStart, int previousEnd, int nextStart, int nextEnd)
+        {
+            this.previousStart = previousStart;
+            this.previousEnd = previousEnd;
+            this.nextStart = nextStart;
+            this.nextEnd = nextEnd;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Histogram difference algorithm.
+ * <p>
+ * The longest run of common elements containing the least frequent element of the region is used as an anchor to
+ * split the region in two, each side being compared in turn. Regions where all common elements are too frequent are
+ * compared with the {@link MyersDiffAlgorithm}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class HistogramDiffAlgorithm implements DiffAlgorithm
+{
+    /**
+     * Elements which appear more often than this in a region are not used as anchors.
+     */
+    private static final int MAX_OCCURRENCES = 64;
+
+    /**
+     * The algorithm to use when no anchor can be found.
+     */
+    private final DiffAlgorithm fallback = new MyersDiffAlgorithm();
+
+    @Override
+    public void diff(EditScript script, EditScript.Region region)
+    {
+        Histogram histogram = new Histogram(script);
+
+        Deque<EditScript.Region> regions = new ArrayDeque<EditScript.Region>();
+        regions.push(region);
+
+        while (!regions.isEmpty()) {
+            EditScript.Region current = regions.pop();
+            if (script.reduce(current)) {
+                Anchor anchor = histogram.findAnchor(current);
+                if (anchor == null) {
+                    this.fallback.diff(script, current);
+                } else if (anchor.length == 0) {
+                    // Nothing in common
+                    script.delete(current.previousStart, current.previousEnd);
+                    script.insert(current.nextStart, current.nextEnd);
+                } else {
+                    regions.push(new EditScript.Region(anchor.previousIndex + anchor.length, current.previousEnd,
+                        anchor.nextIndex + anchor.length, current.nextEnd));
+                    regions.push(new EditScript.Region(current.previousStart, anchor.previousIndex,
+                        current.nextStart, anchor.nextIndex));
+                }
+            }
+        }
+    }
+
+    /**
+     * A run of common elements.
+     * 
+     * @version $Id$
+     */
+    private static class Anchor
+    {
+        /**
+         * The index of the run in the previous sequence.
+         */
+        private int previousIndex;
+
+        /**
+         * The index of the run in the next sequence.
+         */
+        private int nextIndex;
+
+        /**
+         * The number of elements in the run.
+         */
+        private int length;
+
+        /**
+         * The lowest number of occurrences in the previous sequence of the elements of the run.
+         */
+        private int occurrences = MAX_OCCURRENCES + 1;
+    }
+
+    /**
+     * The occurrences of the elements of a region of the previous sequence.
+     * 
+     * @version $Id$
+     */
+    private static class Histogram
+    {
+        /**
+         * The previous sequence.
+         */
+        private final int[] previous;
+
+        /**
+         * The next sequence.
+         */
+        private final int[] next;
+
+        /**
+         * The number of occurrences of each element in the region.
+         */
+        private final int[] counts;
+
+        /**
+         * The index of the first occurrence of each element in the region.
+         */
+        private final int[] heads;
+
+        /**
+         * The index of the next occurrence of the element at each index of the previous sequence.
+         */
+        private final int[] chains;
+
+        /**
+         * @param script the compared sequences
+         */
+        Histogram(EditScript script)
+        {
+            this.previous = script.getPrevious();
+            this.next = script.getNext();
+            this.counts = new int[script.getIdCount()];
+            this.heads = new int[script.getIdCount()];
+            this.chains = new int[this.previous.length];
+        }
+
+        /**
+         * @param region the region where to search the anchor
+         * @return the best anchor, an empty anchor if the two sides of the region have nothing in common, null if
+         *         all common elements are too frequent
+         */
+        Anchor findAnchor(EditScript.Region region)
+        {
+            for (int i = region.previousEnd - 1; i >= region.previousStart; --i) {
+                int id = this.previous[i];
+                this.chains[i] = this.counts[id] > 0 ? this.heads[id] : -1;
+                this.heads[id] = i;
+                ++this.counts[id];
+            }
+
+            Anchor anchor = new Anchor();
+            boolean common = false;
+            for (int j = region.nextStart; j < region.nextEnd;) {
+                int count = this.counts[this.next[j]];
+                if (count > 0) {
+                    common = true;
+                }
+                j = count > 0 && count <= anchor.occurrences ? extend(region, j, anchor) : j + 1;
+            }
+
+            for (int i = region.previousStart; i < region.previousEnd; ++i) {
+                this.counts[this.previous[i]] = 0;
+            }
+
+            return anchor.length > 0 || !common ? anchor : null;
+        }
+
+        /**
+         * Try all the runs of common elements containing the provided element of the next sequence.
+         * 
+         * @param region the region where to search the anchor
+         * @param nextIndex the index of the element in the next sequence
+         * @param anchor the best anchor found so far
+         * @return the index of the next element to look at in the next sequence
+         */
+        private int extend(EditScript.Region region, int nextIndex, Anchor anchor)
+        {
+            int nextToLookAt = nextIndex + 1;
+
+            for (int i = this.heads[this.next[nextIndex]]; i != -1; i = this.chains[i]) {
+                int previousStart = i;
+                int nextStart = nextIndex;
+                while (previousStart > region.previousStart && nextStart > region.nextStart
+                    && this.previous[previousStart - 1] == this.next[nextStart - 1]) {
+                    --previousStart;
+                    --nextStart;
+                }
+
+                int previousEnd = i + 1;
+                int nextEnd = nextIndex + 1;
+                int occurrences = this.counts[this.previous[i]];
+                while (previousEnd < region.previousEnd && nextEnd < region.nextEnd
+                    && this.previous[previousEnd] == this.next[nextEnd]) {
+                    occurrences = Math.min(occurrences, this.counts[this.previous[previousEnd]]);
+                    ++previousEnd;
+                    ++nextEnd;
+                }
+
+                int length = previousEnd - previousStart;
+                if (occurrences < anchor.occurrences
+                    || (occurrences == anchor.occurrences && length > anchor.length)) {
+                    anchor.previousIndex = previousStart;
+                    anchor.nextIndex = nextStart;
+                    anchor.length = length;
+                    anchor.occurrences = occurrences;
+                }
+
+                nextToLookAt = Math.max(nextToLookAt, nextEnd);
+            }
+
+            return nextToLookAt;
+        }
+    }
+}
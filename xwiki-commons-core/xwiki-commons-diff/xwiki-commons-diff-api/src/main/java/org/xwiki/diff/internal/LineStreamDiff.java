@@ -0,0 +1,438 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.xwiki.diff.DeltaHandler;
+import org.xwiki.diff.DiffException;
+import org.xwiki.diff.ReaderSource;
+
+/**
+ * Line diff between two texts which are not loaded in memory.
+ * <p>
+ * The texts are read a first time to skip their common beginning and compute a 64 bits hash of each following line.
+ * The common end is then skipped by comparing the hashes, and only the lines between the common beginning and the
+ * common end are compared. The texts are read a second time to extract the content of the modified lines. The lines
+ * matched through their hashes are compared during this second read, and the ones which are not equal because of a
+ * hash collision are sent as modified.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class LineStreamDiff
+{
+    /**
+     * The offset basis of the 64 bits FNV-1a hash.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * The prime of the 64 bits FNV-1a hash.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The initial capacity of the line hash arrays.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The algorithm used to compare the lines.
+     */
+    private final DiffAlgorithm algorithm;
+
+    /**
+     * @param algorithm the algorithm used to compare the lines
+     */
+    public LineStreamDiff(DiffAlgorithm algorithm)
+    {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param previous the previous version of the text to compare
+     * @param next the next version of the text to compare
+     * @param handler the handler receiving the deltas
+     * @throws DiffException error when reading the texts or handling the deltas
+     */
+    public void diff(ReaderSource previous, ReaderSource next, DeltaHandler<String> handler) throws DiffException
+    {
+        LineHashes previousHashes = new LineHashes();
+        LineHashes nextHashes = new LineHashes();
+
+        try {
+            hash(previous, next, previousHashes, nextHashes);
+        } catch (IOException e) {
+            throw new DiffException("Failed to read the compared texts", e);
+        }
+
+        // Skip the common end, its lines are compared when reading the texts again
+        int end = 0;
+        while (end < previousHashes.size && end < nextHashes.size
+            && previousHashes.hashes[previousHashes.size - end - 1] == nextHashes.hashes[nextHashes.size - end - 1]) {
+            ++end;
+        }
+
+        Map<Long, Integer> ids = new HashMap<Long, Integer>();
+        int[] previousIds = previousHashes.toIds(ids, previousHashes.size - end);
+        int[] nextIds = nextHashes.toIds(ids, nextHashes.size - end);
+        EditScript script = new EditScript(previousIds, nextIds, ids.size());
+        try {
+            this.algorithm.diff(script, new EditScript.Region(0, previousIds.length, 0, nextIds.length));
+        } catch (IllegalStateException e) {
+            throw new DiffException("Failed to compute the differences", e);
+        }
+
+        // The texts are different as soon as a line follows the common beginning, even if all the hashes match
+        if (previousHashes.size > 0 || nextHashes.size > 0) {
+            try {
+                sendDeltas(previous, next, previousHashes, script.getChanges(), handler);
+            } catch (IOException e) {
+                throw new DiffException("Failed to read the modified lines", e);
+            }
+        }
+    }
+
+    /**
+     * Read the two texts, skip their common beginning and hash the following lines.
+     * 
+     * @param previous the previous version of the text
+     * @param next the next version of the text
+     * @param previousHashes the hashes of the lines of the previous version
+     * @param nextHashes the hashes of the lines of the next version
+     * @throws IOException error when reading the texts
+     */
+    private void hash(ReaderSource previous, ReaderSource next, LineHashes previousHashes, LineHashes nextHashes)
+        throws IOException
+    {
+        BufferedReader previousReader = null;
+        BufferedReader nextReader = null;
+        try {
+            previousReader = new BufferedReader(previous.openReader());
+            nextReader = new BufferedReader(next.openReader());
+
+            int start = 0;
+            String previousLine = previousReader.readLine();
+            String nextLine = nextReader.readLine();
+            while (previousLine != null && previousLine.equals(nextLine)) {
+                ++start;
+                previousLine = previousReader.readLine();
+                nextLine = nextReader.readLine();
+            }
+
+            previousHashes.start = start;
+            for (; previousLine != null; previousLine = previousReader.readLine()) {
+                previousHashes.add(hash(previousLine));
+            }
+            nextHashes.start = start;
+            for (; nextLine != null; nextLine = nextReader.readLine()) {
+                nextHashes.add(hash(nextLine));
+            }
+        } finally {
+            IOUtils.closeQuietly(previousReader);
+            IOUtils.closeQuietly(nextReader);
+        }
+    }
+
+    /**
+     * @param line a line of text
+     * @return the 64 bits FNV-1a hash of the line
+     */
+    protected long hash(String line)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < line.length(); ++i) {
+            hash ^= line.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Read the texts a second time to send the content of the modified lines to the handler, checking that the lines
+     * matched through their hashes are really equal.
+     * 
+     * @param previous the previous version of the text
+     * @param next the next version of the text
+     * @param previousHashes the hashes of the lines of the previous version
+     * @param changes the modified lines, relative to the end of the common beginning
+     * @param handler the handler receiving the deltas
+     * @throws IOException error when reading the texts
+     * @throws DiffException error when handling a delta
+     */
+    private void sendDeltas(ReaderSource previous, ReaderSource next, LineHashes previousHashes,
+        List<EditScript.Region> changes, DeltaHandler<String> handler) throws IOException, DiffException
+    {
+        int start = previousHashes.start;
+        LineCursor previousCursor = null;
+        LineCursor nextCursor = null;
+        try {
+            previousCursor = new LineCursor(previous);
+            nextCursor = new LineCursor(next);
+
+            // The common beginning has already been compared line by line
+            previousCursor.read(start, start);
+            nextCursor.read(start, start);
+
+            PendingDelta delta = new PendingDelta(handler);
+            for (EditScript.Region change : changes) {
+                checkMatchedLines(previousCursor, nextCursor, start + change.previousStart, delta);
+                delta.add(previousCursor.index, previousCursor.read(previousCursor.index, start + change.previousEnd),
+                    nextCursor.index, nextCursor.read(nextCursor.index, start + change.nextEnd));
+            }
+            checkMatchedLines(previousCursor, nextCursor, start + previousHashes.size, delta);
+            delta.send();
+        } finally {
+            if (previousCursor != null) {
+                previousCursor.close();
+            }
+            if (nextCursor != null) {
+                nextCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Compare the lines matched through their hashes, adding the different ones to the pending delta and sending it
+     * when reaching equal lines.
+     * 
+     * @param previousCursor the cursor on the previous version of the text
+     * @param nextCursor the cursor on the next version of the text
+     * @param previousEnd the index after the last matched line in the previous version
+     * @param delta the pending delta
+     * @throws IOException error when reading the texts
+     * @throws DiffException error when handling a delta
+     */
+    private void checkMatchedLines(LineCursor previousCursor, LineCursor nextCursor, int previousEnd,
+        PendingDelta delta) throws IOException, DiffException
+    {
+        while (previousCursor.index < previousEnd) {
+            int previousIndex = previousCursor.index;
+            int nextIndex = nextCursor.index;
+            List<String> previousLine = previousCursor.read(previousIndex, previousIndex + 1);
+            List<String> nextLine = nextCursor.read(nextIndex, nextIndex + 1);
+            if (previousLine.equals(nextLine)) {
+                delta.send();
+            } else {
+                delta.add(previousIndex, previousLine, nextIndex, nextLine);
+            }
+        }
+    }
+
+    /**
+     * The hashes of the lines following the common beginning of the texts.
+     * 
+     * @version $Id$
+     */
+    private static class LineHashes
+    {
+        /**
+         * The index of the first hashed line in the text.
+         */
+        private int start;
+
+        /**
+         * The hashes of the lines.
+         */
+        private long[] hashes = new long[INITIAL_CAPACITY];
+
+        /**
+         * The number of hashes.
+         */
+        private int size;
+
+        /**
+         * @param hash the hash of the next line
+         */
+        void add(long hash)
+        {
+            if (this.size == this.hashes.length) {
+                this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+            }
+            this.hashes[this.size++] = hash;
+        }
+
+        /**
+         * @param ids the identifiers already associated to hashes
+         * @param end the number of hashes to convert
+         * @return the identifiers of the first hashes
+         */
+        int[] toIds(Map<Long, Integer> ids, int end)
+        {
+            int[] result = new int[end];
+            for (int i = 0; i < end; ++i) {
+                Integer id = ids.get(this.hashes[i]);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(this.hashes[i], id);
+                }
+                result[i] = id;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Consecutive modified lines not yet sent to the handler.
+     * 
+     * @version $Id$
+     */
+    private static class PendingDelta
+    {
+        /**
+         * The handler receiving the deltas.
+         */
+        private final DeltaHandler<String> handler;
+
+        /**
+         * The index of the first modified line in the previous version.
+         */
+        private int previousStart;
+
+        /**
+         * The modified lines of the previous version.
+         */
+        private List<String> previousLines = new ArrayList<String>();
+
+        /**
+         * The index of the first modified line in the next version.
+         */
+        private int nextStart;
+
+        /**
+         * The modified lines of the next version.
+         */
+        private List<String> nextLines = new ArrayList<String>();
+
+        /**
+         * @param handler the handler receiving the deltas
+         */
+        PendingDelta(DeltaHandler<String> handler)
+        {
+            this.handler = handler;
+        }
+
+        /**
+         * @param previousIndex the index of the first added line in the previous version
+         * @param previousLines the lines to add from the previous version
+         * @param nextIndex the index of the first added line in the next version
+         * @param nextLines the lines to add from the next version
+         */
+        void add(int previousIndex, List<String> previousLines, int nextIndex, List<String> nextLines)
+        {
+            if (isEmpty()) {
+                this.previousStart = previousIndex;
+                this.nextStart = nextIndex;
+            }
+            this.previousLines.addAll(previousLines);
+            this.nextLines.addAll(nextLines);
+        }
+
+        /**
+         * Send the modified lines to the handler, if any.
+         * 
+         * @throws DiffException error when handling the delta
+         */
+        void send() throws DiffException
+        {
+            if (!isEmpty()) {
+                this.handler.onDelta(EditScript.toDelta(new DefaultChunk<String>(this.previousStart,
+                    this.previousLines), new DefaultChunk<String>(this.nextStart, this.nextLines)));
+                this.previousLines = new ArrayList<String>();
+                this.nextLines = new ArrayList<String>();
+            }
+        }
+
+        /**
+         * @return {@code true} if there is no pending modified line
+         */
+        private boolean isEmpty()
+        {
+            return this.previousLines.isEmpty() && this.nextLines.isEmpty();
+        }
+    }
+
+    /**
+     * Read lines of a text in order.
+     * 
+     * @version $Id$
+     */
+    private static class LineCursor
+    {
+        /**
+         * The text.
+         */
+        private final BufferedReader reader;
+
+        /**
+         * The index of the next line to read.
+         */
+        private int index;
+
+        /**
+         * @param source the text
+         * @throws IOException error when opening the text
+         */
+        LineCursor(ReaderSource source) throws IOException
+        {
+            this.reader = new BufferedReader(source.openReader());
+        }
+
+        /**
+         * @param start the index of the first line to return
+         * @param end the index after the last line to return
+         * @return the lines
+         * @throws IOException error when reading the text
+         */
+        List<String> read(int start, int end) throws IOException
+        {
+            List<String> lines = new ArrayList<String>(end - start);
+            for (; this.index < end; ++this.index) {
+                String line = this.reader.readLine();
+                if (line == null) {
+                    throw new IOException("The text has been modified while being compared");
+                }
+                if (this.index >= start) {
+                    lines.add(line);
+                }
+            }
+
+            return lines;
+        }
+
+        /**
+         * Close the text.
+         */
+        void close()
+        {
+            IOUtils.closeQuietly(this.reader);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Linear space variant of the Myers O(ND) difference algorithm.
+ * <p>
+ * The middle snake of the shortest edit path is searched from both ends of the region at the same time, and the two
+ * sub regions on each side of it are then compared in turn. Only the furthest reaching paths of the current edit
+ * distance are kept in memory.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class MyersDiffAlgorithm implements DiffAlgorithm
+{
+    @Override
+    public void diff(EditScript script, EditScript.Region region)
+    {
+        int size = (region.previousEnd - region.previousStart) + (region.nextEnd - region.nextStart) + 2;
+        int[] forward = new int[size];
+        int[] backward = new int[size];
+
+        Deque<EditScript.Region> regions = new ArrayDeque<EditScript.Region>();
+        regions.push(region);
+
+        while (!regions.isEmpty()) {
+            EditScript.Region current = regions.pop();
+            if (script.reduce(current)) {
+                int[] split = bisect(script, current, forward, backward);
+                if (split == null) {
+                    // Nothing in common
+                    script.delete(current.previousStart, current.previousEnd);
+                    script.insert(current.nextStart, current.nextEnd);
+                } else {
+                    regions.push(new EditScript.Region(split[0], current.previousEnd, split[1], current.nextEnd));
+                    regions.push(new EditScript.Region(current.previousStart, split[0], current.nextStart, split[1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the middle snake of the shortest edit path.
+     * 
+     * @param script the compared sequences
+     * @param region the region to compare, without common prefix or suffix
+     * @param forward the furthest reaching forward paths
+     * @param backward the furthest reaching backward paths
+     * @return the position where to split the region in the previous and next sequences, or null if the two sides of
+     *         the region have nothing in common
+     */
+    private int[] bisect(EditScript script, EditScript.Region region, int[] forward, int[] backward)
+    {
+        Paths paths = new Paths(script, region, forward, backward);
+        for (int d = 0; d < paths.offset; ++d) {
+            int[] split = paths.forward(d);
+            if (split == null) {
+                split = paths.backward(d);
+            }
+            if (split != null) {
+                return split;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The state of the search of the middle snake.
+     * 
+     * @version $Id$
+     */
+    private static class Paths
+    {
+        /**
+         * The previous sequence.
+         */
+        private final int[] previous;
+
+        /**
+         * The next sequence.
+         */
+        private final int[] next;
+
+        /**
+         * The index of the first element of the region in the previous sequence.
+         */
+        private final int previousStart;
+
+        /**
+         * The index of the first element of the region in the next sequence.
+         */
+        private final int nextStart;
+
+        /**
+         * The length of the region in the previous sequence.
+         */
+        private final int previousLength;
+
+        /**
+         * The length of the region in the next sequence.
+         */
+        private final int nextLength;
+
+        /**
+         * The furthest reaching forward paths indexed by diagonal.
+         */
+        private final int[] forward;
+
+        /**
+         * The furthest reaching backward paths indexed by diagonal.
+         */
+        private final int[] backward;
+
+        /**
+         * The index of the diagonal 0 in the paths, which is also the maximum edit distance to look at.
+         */
+        private final int offset;
+
+        /**
+         * The number of diagonals used in the paths for this region.
+         */
+        private final int length;
+
+        /**
+         * The difference between the region lengths: the diagonal where the backward paths start.
+         */
+        private final int delta;
+
+        /**
+         * True if the paths can only overlap while extending forward paths.
+         */
+        private final boolean front;
+
+        /**
+         * Number of diagonals to skip at the start of the forward paths because they went out of the region.
+         */
+        private int forwardStart;
+
+        /**
+         * Number of diagonals to skip at the end of the forward paths because they went out of the region.
+         */
+        private int forwardEnd;
+
+        /**
+         * Number of diagonals to skip at the start of the backward paths because they went out of the region.
+         */
+        private int backwardStart;
+
+        /**
+         * Number of diagonals to skip at the end of the backward paths because they went out of the region.
+         */
+        private int backwardEnd;
+
+        /**
+         * @param script the compared sequences
+         * @param region the region to compare
+         * @param forward the furthest reaching forward paths
+         * @param backward the furthest reaching backward paths
+         */
+        Paths(EditScript script, EditScript.Region region, int[] forward, int[] backward)
+        {
+            this.previous = script.getPrevious();
+            this.next = script.getNext();
+            this.previousStart = region.previousStart;
+            this.nextStart = region.nextStart;
+            this.previousLength = region.previousEnd - region.previousStart;
+            this.nextLength = region.nextEnd - region.nextStart;
+            this.forward = forward;
+            this.backward = backward;
+            this.offset = (this.previousLength + this.nextLength + 1) / 2;
+            this.length = 2 * this.offset;
+            this.delta = this.previousLength - this.nextLength;
+            this.front = this.delta % 2 != 0;
+
+            Arrays.fill(forward, 0, this.length, -1);
+            Arrays.fill(backward, 0, this.length, -1);
+            forward[this.offset + 1] = 0;
+            backward[this.offset + 1] = 0;
+        }
+
+        /**
+         * Extend the forward paths of an edit distance.
+         * 
+         * @param d the edit distance
+         * @return the split position if the forward paths overlap the backward paths
+         */
+        int[] forward(int d)
+        {
+            for (int k = -d + this.forwardStart; k <= d - this.forwardEnd; k += 2) {
+                int kOffset = this.offset + k;
+                int x;
+                if (k == -d || (k != d && this.forward[kOffset - 1] < this.forward[kOffset + 1])) {
+                    x = this.forward[kOffset + 1];
+                } else {
+                    x = this.forward[kOffset - 1] + 1;
+                }
+                x = forwardSnake(x, x - k);
+                int y = x - k;
+                this.forward[kOffset] = x;
+
+                if (x > this.previousLength) {
+                    this.forwardEnd += 2;
+                } else if (y > this.nextLength) {
+                    this.forwardStart += 2;
+                } else if (this.front && overlapsBackward(k, x)) {
+                    return new int[] {this.previousStart + x, this.nextStart + y};
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Follow the diagonal while the elements are equal, starting from the beginning of the region.
+         * 
+         * @param x the start position in the previous sequence, relative to the region
+         * @param y the start position in the next sequence, relative to the region
+         * @return the end position in the previous sequence, relative to the region
+         */
+        private int forwardSnake(int x, int y)
+        {
+            int snakeX = x;
+            int snakeY = y;
+            while (snakeX < this.previousLength && snakeY < this.nextLength
+                && this.previous[this.previousStart + snakeX] == this.next[this.nextStart + snakeY]) {
+                ++snakeX;
+                ++snakeY;
+            }
+
+            return snakeX;
+        }
+
+        /**
+         * Follow the diagonal while the elements are equal, starting from the end of the region.
+         * 
+         * @param x the start position in the previous sequence, relative to the end of the region
+         * @param y the start position in the next sequence, relative to the end of the region
+         * @return the end position in the previous sequence, relative to the end of the region
+         */
+        private int backwardSnake(int x, int y)
+        {
+            int snakeX = x;
+            int snakeY = y;
+            int previousEnd = this.previousStart + this.previousLength - 1;
+            int nextEnd = this.nextStart + this.nextLength - 1;
+            while (snakeX < this.previousLength && snakeY < this.nextLength
+                && this.previous[previousEnd - snakeX] == this.next[nextEnd - snakeY]) {
+                ++snakeX;
+                ++snakeY;
+            }
+
+            return snakeX;
+        }
+
+        /**
+         * @param k the diagonal of the forward path
+         * @param x the position reached by the forward path
+         * @return true if the backward path on the same diagonal reached the forward path
+         */
+        private boolean overlapsBackward(int k, int x)
+        {
+            int backwardOffset = this.offset + this.delta - k;
+
+            return backwardOffset >= 0 && backwardOffset < this.length
+                && this.backward[backwardOffset] != -1 && x >= this.previousLength - this.backward[backwardOffset];
+        }
+
+        /**
+         * Extend the backward paths of an edit distance.
+         * 
+         * @param d the edit distance
+         * @return the split position if the backward paths overlap the forward paths
+         */
+        int[] backward(int d)
+        {
+            for (int k = -d + this.backwardStart; k <= d - this.backwardEnd; k += 2) {
+                int kOffset = this.offset + k;
+                int x;
+                if (k == -d || (k != d && this.backward[kOffset - 1] < this.backward[kOffset + 1])) {
+                    x = this.backward[kOffset + 1];
+                } else {
+                    x = this.backward[kOffset - 1] + 1;
+                }
+                x = backwardSnake(x, x - k);
+                int y = x - k;
+                this.backward[kOffset] = x;
+
+                if (x > this.previousLength) {
+                    this.backwardEnd += 2;
+                } else if (y > this.nextLength) {
+                    this.backwardStart += 2;
+                } else if (!this.front) {
+                    int[] split = overlapsForward(k, x);
+                    if (split != null) {
+                        return split;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @param k the diagonal of the backward path
+         * @param x the position reached by the backward path, from the end of the region
+         * @return the split position if the forward path on the same diagonal reached the backward path
+         */
+        private int[] overlapsForward(int k, int x)
+        {
+            int forwardOffset = this.offset + this.delta - k;
+
+            if (forwardOffset >= 0 && forwardOffset < this.length && this.forward[forwardOffset] != -1) {
+                int forwardX = this.forward[forwardOffset];
+                int forwardY = this.offset + forwardX - forwardOffset;
+                if (forwardX >= this.previousLength - x) {
+                    return new int[] {this.previousStart + forwardX, this.nextStart + forwardY};
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Split big regions into independent segments and compare them in parallel.
+ * <p>
+ * The elements which appear exactly once in both sequences are matched, and the longest chain of these matches
+ * appearing in the same order in both sequences is used to cut the region: the segments between the selected matches
+ * are then compared independently with another algorithm.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ParallelDiffAlgorithm implements DiffAlgorithm
+{
+    /**
+     * The number of segments to create for each thread, to balance the work when some segments are slower to compare.
+     */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    /**
+     * The algorithm used to compare each segment.
+     */
+    private final DiffAlgorithm algorithm;
+
+    /**
+     * The executor used to compare the segments.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The number of threads of the executor.
+     */
+    private final int parallelism;
+
+    /**
+     * The minimum number of elements from which a region is split.
+     */
+    private final int threshold;
+
+    /**
+     * @param algorithm the algorithm used to compare each segment
+     * @param executor the executor used to compare the segments
+     * @param parallelism the number of threads of the executor
+     * @param threshold the minimum number of elements from which a region is split
+     */
+    public ParallelDiffAlgorithm(DiffAlgorithm algorithm, ExecutorService executor, int parallelism, int threshold)
+    {
+        this.algorithm = algorithm;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void diff(EditScript script, EditScript.Region region)
+    {
+        if (!script.reduce(region)) {
+            return;
+        }
+
+        int size = Math.max(region.previousEnd - region.previousStart, region.nextEnd - region.nextStart);
+        List<EditScript.Region> segments;
+        if (size >= this.threshold) {
+            segments = split(script, region, size / (this.parallelism * SEGMENTS_PER_THREAD) + 1);
+        } else {
+            segments = Arrays.asList(region);
+        }
+
+        if (segments.size() == 1) {
+            this.algorithm.diff(script, region);
+        } else {
+            Queue<int[]> idMaps = new ConcurrentLinkedQueue<int[]>();
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(segments.size());
+            try {
+                for (EditScript.Region segment : segments) {
+                    futures.add(this.executor.submit(new SegmentDiff(script, segment, idMaps)));
+                }
+            } catch (RejectedExecutionException e) {
+                cancel(futures);
+
+                throw new IllegalStateException("The executor used to compare the segments has been shut down", e);
+            }
+            waitFor(futures);
+        }
+    }
+
+    /**
+     * @param futures the segment comparisons to wait for
+     * @throws IllegalStateException when interrupted or when the comparison of a segment failed
+     */
+    private void waitFor(List<Future<Void>> futures)
+    {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while computing the differences", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+
+            throw new IllegalStateException("Failed to compute the differences of a segment", e.getCause());
+        } catch (CancellationException e) {
+            throw new IllegalStateException("The comparison of a segment has been cancelled", e);
+        }
+    }
+
+    /**
+     * @param futures the segment comparisons to cancel
+     */
+    private void cancel(List<Future<Void>> futures)
+    {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * @param script the compared sequences
+     * @param region the region to split
+     * @param segmentSize the minimum number of elements of the previous sequence in a segment
+     * @return the segments
+     */
+    private List<EditScript.Region> split(EditScript script, EditScript.Region region, int segmentSize)
+    {
+        List<EditScript.Region> segments = new ArrayList<EditScript.Region>();
+
+        int[][] anchors = findAnchors(script, region);
+        int previousStart = region.previousStart;
+        int nextStart = region.nextStart;
+        for (int i = 0; i < anchors[0].length; ++i) {
+            if (anchors[0][i] - previousStart >= segmentSize) {
+                segments.add(new EditScript.Region(previousStart, anchors[0][i], nextStart, anchors[1][i]));
+                // The anchor itself is common to both sequences
+                previousStart = anchors[0][i] + 1;
+                nextStart = anchors[1][i] + 1;
+            }
+        }
+        segments.add(new EditScript.Region(previousStart, region.previousEnd, nextStart, region.nextEnd));
+
+        return segments;
+    }
+
+    /**
+     * @param script the compared sequences
+     * @param region the region where to find anchors
+     * @return the indexes in the previous sequence and in the next sequence of the longest chain of elements appearing
+     *         once in each side of the region, in the same order
+     */
+    private int[][] findAnchors(EditScript script, EditScript.Region region)
+    {
+        int[] previous = script.getPrevious();
+        int[] next = script.getNext();
+
+        int[] previousCounts = new int[script.getIdCount()];
+        int[] nextCounts = new int[script.getIdCount()];
+        int[] nextIndexes = new int[script.getIdCount()];
+        for (int i = region.previousStart; i < region.previousEnd; ++i) {
+            ++previousCounts[previous[i]];
+        }
+        for (int i = region.nextStart; i < region.nextEnd; ++i) {
+            ++nextCounts[next[i]];
+            nextIndexes[next[i]] = i;
+        }
+
+        // The unique common elements, in the order of the previous sequence
+        int[] candidatePrevious = new int[region.previousEnd - region.previousStart];
+        int[] candidateNext = new int[candidatePrevious.length];
+        int candidateCount = 0;
+        for (int i = region.previousStart; i < region.previousEnd; ++i) {
+            int id = previous[i];
+            if (previousCounts[id] == 1 && nextCounts[id] == 1) {
+                candidatePrevious[candidateCount] = i;
+                candidateNext[candidateCount] = nextIndexes[id];
+                ++candidateCount;
+            }
+        }
+
+        int[] chain = longestIncreasingSubsequence(candidateNext, candidateCount);
+
+        int[][] anchors = new int[2][chain.length];
+        for (int i = 0; i < chain.length; ++i) {
+            anchors[0][i] = candidatePrevious[chain[i]];
+            anchors[1][i] = candidateNext[chain[i]];
+        }
+
+        return anchors;
+    }
+
+    /**
+     * Patience sorting.
+     * 
+     * @param values the values
+     * @param count the number of values to consider
+     * @return the indexes of the longest increasing subsequence of the values
+     */
+    private int[] longestIncreasingSubsequence(int[] values, int count)
+    {
+        // The index of the last value of the best subsequence of each length
+        int[] tails = new int[count];
+        int[] predecessors = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; ++i) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                ++length;
+            }
+        }
+
+        int[] result = new int[length];
+        int index = length > 0 ? tails[length - 1] : -1;
+        for (int i = length - 1; i >= 0; --i) {
+            result[i] = index;
+            index = predecessors[index];
+        }
+
+        return result;
+    }
+
+    /**
+     * Compare a segment.
+     * 
+     * @version $Id$
+     */
+    private class SegmentDiff implements Callable<Void>
+    {
+        /**
+         * The compared sequences.
+         */
+        private final EditScript script;
+
+        /**
+         * The segment to compare.
+         */
+        private final EditScript.Region segment;
+
+        /**
+         * The buffers used to renumber the identifiers of the segment, reused by the following segments.
+         */
+        private final Queue<int[]> idMaps;
+
+        /**
+         * @param script the compared sequences
+         * @param segment the segment to compare
+         * @param idMaps the buffers used to renumber the identifiers of the segment
+         */
+        SegmentDiff(EditScript script, EditScript.Region segment, Queue<int[]> idMaps)
+        {
+            this.script = script;
+            this.segment = segment;
+            this.idMaps = idMaps;
+        }
+
+        @Override
+        public Void call()
+        {
+            int[] idMap = this.idMaps.poll();
+            if (idMap == null) {
+                idMap = new int[this.script.getIdCount()];
+                Arrays.fill(idMap, -1);
+            }
+
+            EditScript segmentScript = this.script.extract(this.segment, idMap);
+            this.idMaps.offer(idMap);
+
+            algorithm.diff(segmentScript, new EditScript.Region(0, segmentScript.getPrevious().length, 0,
+                segmentScript.getNext().length));
+            this.script.copy(segmentScript, this.segment);
+
+            return null;
+        }
+    }
+}
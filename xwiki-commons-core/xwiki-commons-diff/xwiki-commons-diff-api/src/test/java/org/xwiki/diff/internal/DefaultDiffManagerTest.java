@@ -19,18 +19,37 @@
  */
 package org.xwiki.diff.internal;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import difflib.DiffUtils;
 
 import junit.framework.Assert;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
+import org.xwiki.diff.CodedList;
+import org.xwiki.diff.Delta;
+import org.xwiki.diff.DeltaHandler;
 import org.xwiki.diff.Delta.Type;
+import org.xwiki.diff.DiffConfiguration;
+import org.xwiki.diff.DiffConfiguration.Algorithm;
 import org.xwiki.diff.DiffException;
 import org.xwiki.diff.DiffManager;
 import org.xwiki.diff.DiffResult;
 import org.xwiki.diff.MergeResult;
+import org.xwiki.diff.Patch;
+import org.xwiki.diff.ReaderSource;
 import org.xwiki.logging.LogLevel;
 import org.xwiki.test.AbstractComponentTestCase;
 
@@ -103,6 +122,297 @@ public void testDiffCharList() throws DiffException
         Assert.assertEquals(Type.CHANGE, result.getPatch().get(0).getType());
     }
 
+    @Test
+    public void testDiffAlgorithms() throws Exception
+    {
+        DiffConfiguration<Character> configuration = new DiffConfiguration<Character>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 500; ++i) {
+            List<Character> previous = randomList(random);
+            List<Character> next = randomList(random);
+
+            for (Algorithm algorithm : Algorithm.values()) {
+                configuration.setAlgorithm(algorithm);
+                Patch<Character> patch = this.diffManager.diff(previous, next, configuration).getPatch();
+
+                Assert.assertEquals(next, patch.apply(previous));
+                Assert.assertEquals(previous, patch.restore(next));
+
+                if (algorithm != Algorithm.HISTOGRAM) {
+                    int edits = 0;
+                    for (Delta<Character> delta : patch) {
+                        edits += delta.getPrevious().size() + delta.getNext().size();
+                    }
+                    Assert.assertEquals(previous.size() + next.size() - 2 * lcs(previous, next), edits);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDiffCodedList() throws DiffException
+    {
+        DiffConfiguration<Integer> configuration = new DiffConfiguration<Integer>();
+
+        // Codes which can't be used directly as array indexes
+        List<Integer> previous = new IntegerList(-1, Integer.MAX_VALUE, 2, Integer.MIN_VALUE);
+        List<Integer> next = new IntegerList(Integer.MAX_VALUE, 3, Integer.MIN_VALUE, -1);
+
+        for (Algorithm algorithm : Arrays.asList(Algorithm.MYERS, Algorithm.HISTOGRAM)) {
+            configuration.setAlgorithm(algorithm);
+            Patch<Integer> patch = this.diffManager.diff(previous, next, configuration).getPatch();
+
+            Assert.assertEquals(next, patch.apply(previous));
+            Assert.assertEquals(previous, patch.restore(next));
+        }
+    }
+
+    @Test
+    public void testDiffCodedListWithDefaultAlgorithm() throws DiffException
+    {
+        Random random = new Random(42);
+        int[] previousValues = new int[1000];
+        for (int i = 0; i < previousValues.length; ++i) {
+            previousValues[i] = 1000 + random.nextInt(20);
+        }
+        int[] nextValues = previousValues.clone();
+        for (int i = 0; i < 10; ++i) {
+            nextValues[random.nextInt(nextValues.length)] = 1000 + random.nextInt(20);
+        }
+        IntegerList previous = new IntegerList(previousValues);
+        IntegerList next = new IntegerList(nextValues);
+
+        Patch<Integer> patch = this.diffManager.diff(previous, next, null).getPatch();
+
+        // Only the elements of the deltas are read, the codes being compared instead
+        int changedCount = 0;
+        for (Delta<Integer> delta : patch) {
+            changedCount += delta.getPrevious().size() + delta.getNext().size();
+        }
+        Assert.assertEquals(changedCount, previous.readCount + next.readCount);
+
+        // Same result as when comparing the elements
+        Assert.assertEquals(new DefaultPatch<Integer>(DiffUtils.diff(new ArrayList<Integer>(previous),
+            new ArrayList<Integer>(next))), patch);
+    }
+
+    @Test
+    public void testDefaultAlgorithm()
+    {
+        Assert.assertEquals(Algorithm.DIFFLIB, new DiffConfiguration<String>().getAlgorithm());
+    }
+
+    @Test
+    public void testDiffHistogram() throws DiffException
+    {
+        DiffConfiguration<String> configuration = new DiffConfiguration<String>();
+        configuration.setAlgorithm(Algorithm.HISTOGRAM);
+
+        // The unique line is used as anchor instead of the common braces
+        DiffResult<String> result =
+            this.diffManager.diff(Arrays.asList("a", "}", "{", "unique", "}"), Arrays.asList("{", "unique", "}"),
+                configuration);
+
+        Assert.assertEquals(1, result.getPatch().size());
+        Assert.assertEquals(Type.DELETE, result.getPatch().get(0).getType());
+        Assert.assertEquals(Arrays.asList("a", "}"), result.getPatch().get(0).getPrevious().getElements());
+    }
+
+    @Test
+    public void testDiffParallel() throws Exception
+    {
+        Random random = new Random(42);
+        List<String> previous = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            previous.add("line " + random.nextInt(10000));
+        }
+        List<String> next = new ArrayList<String>(previous);
+        for (int i = 0; i < 500; ++i) {
+            next.set(random.nextInt(next.size()), "changed " + i);
+            next.remove(random.nextInt(next.size()));
+            next.add(random.nextInt(next.size()), "inserted " + i);
+        }
+
+        DiffConfiguration<String> sequentialConfiguration = new DiffConfiguration<String>();
+        DiffConfiguration<String> configuration = new DiffConfiguration<String>();
+        configuration.setParallelThreshold(1000);
+
+        for (Algorithm algorithm : Algorithm.values()) {
+            sequentialConfiguration.setAlgorithm(algorithm);
+            configuration.setAlgorithm(algorithm);
+            Patch<String> patch = this.diffManager.diff(previous, next, configuration).getPatch();
+
+            Assert.assertEquals(this.diffManager.diff(previous, next, sequentialConfiguration).getPatch(), patch);
+        }
+    }
+
+    @Test
+    public void testDiffParallelWithShutdownExecutor() throws Exception
+    {
+        List<String> previous = new ArrayList<String>();
+        List<String> next = new ArrayList<String>();
+        for (int i = 0; i < 100; ++i) {
+            previous.add("line " + i);
+            next.add(i % 10 == 0 ? "changed " + i : "line " + i);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        LineStreamDiff streamDiff =
+            new LineStreamDiff(new ParallelDiffAlgorithm(new MyersDiffAlgorithm(), executor, 1, 10));
+
+        try {
+            streamDiff.diff(toReaderSource(previous), toReaderSource(next), new DeltaHandler<String>()
+            {
+                @Override
+                public void onDelta(Delta<String> delta)
+                {
+                    Assert.fail("No delta is expected");
+                }
+            });
+            Assert.fail("The diff should have failed");
+        } catch (DiffException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testDiffStream() throws Exception
+    {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100; ++i) {
+            List<String> previous = new ArrayList<String>();
+            for (Character c : randomList(random)) {
+                previous.add(c.toString());
+            }
+            List<String> next = new ArrayList<String>();
+            for (Character c : randomList(random)) {
+                next.add(c.toString());
+            }
+
+            // Default algorithm
+            Patch<String> patch = diffStream(previous, next, null);
+            Assert.assertEquals(next, patch.apply(previous));
+            Assert.assertEquals(previous, patch.restore(next));
+
+            // The native algorithms ignore the common beginning and end themselves
+            for (Algorithm algorithm : Arrays.asList(Algorithm.MYERS, Algorithm.HISTOGRAM)) {
+                DiffConfiguration<String> configuration = new DiffConfiguration<String>();
+                configuration.setAlgorithm(algorithm);
+                Assert.assertEquals(this.diffManager.diff(previous, next, configuration).getPatch(),
+                    diffStream(previous, next, configuration));
+            }
+        }
+    }
+
+    private Patch<String> diffStream(List<String> previous, List<String> next, DiffConfiguration<String> configuration)
+        throws DiffException
+    {
+        final Patch<String> patch = new DefaultPatch<String>();
+        this.diffManager.diff(toReaderSource(previous), toReaderSource(next), configuration,
+            new DeltaHandler<String>()
+            {
+                @Override
+                public void onDelta(Delta<String> delta)
+                {
+                    patch.add(delta);
+                }
+            });
+
+        return patch;
+    }
+
+    @Test
+    public void testDiffStreamWithHashCollisions() throws Exception
+    {
+        // All the lines of the same length collide
+        LineStreamDiff streamDiff = new LineStreamDiff(new MyersDiffAlgorithm())
+        {
+            @Override
+            protected long hash(String line)
+            {
+                return line.length();
+            }
+        };
+
+        // The common end is found by comparing the hashes
+        List<String> previous = Arrays.asList("same", "a", "b", "c", "end");
+        List<String> next = Arrays.asList("same", "x", "b", "y", "z", "end");
+
+        List<Delta<String>> deltas = diffStream(streamDiff, previous, next);
+
+        Assert.assertEquals(1, deltas.size());
+        Assert.assertEquals(Type.CHANGE, deltas.get(0).getType());
+        Assert.assertEquals(1, deltas.get(0).getPrevious().getIndex());
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), deltas.get(0).getPrevious().getElements());
+        Assert.assertEquals(Arrays.asList("x", "b", "y", "z"), deltas.get(0).getNext().getElements());
+
+        // All the hashes match
+        deltas = diffStream(streamDiff, Arrays.asList("same", "a", "end"), Arrays.asList("same", "b", "end"));
+
+        Assert.assertEquals(1, deltas.size());
+        Assert.assertEquals(Type.CHANGE, deltas.get(0).getType());
+        Assert.assertEquals(Arrays.asList("a"), deltas.get(0).getPrevious().getElements());
+        Assert.assertEquals(Arrays.asList("b"), deltas.get(0).getNext().getElements());
+    }
+
+    private List<Delta<String>> diffStream(LineStreamDiff streamDiff, List<String> previous, List<String> next)
+        throws DiffException
+    {
+        final List<Delta<String>> deltas = new ArrayList<Delta<String>>();
+        streamDiff.diff(toReaderSource(previous), toReaderSource(next), new DeltaHandler<String>()
+        {
+            @Override
+            public void onDelta(Delta<String> delta)
+            {
+                deltas.add(delta);
+            }
+        });
+
+        return deltas;
+    }
+
+    private ReaderSource toReaderSource(List<String> lines)
+    {
+        final String text = StringUtils.join(lines, "\r\n");
+
+        return new ReaderSource()
+        {
+            @Override
+            public Reader openReader()
+            {
+                return new StringReader(text);
+            }
+        };
+    }
+
+    private List<Character> randomList(Random random)
+    {
+        List<Character> list = new ArrayList<Character>();
+        int size = random.nextInt(30);
+        for (int i = 0; i < size; ++i) {
+            list.add((char) ('a' + random.nextInt(4)));
+        }
+
+        return list;
+    }
+
+    private int lcs(List<Character> previous, List<Character> next)
+    {
+        int[][] lengths = new int[previous.size() + 1][next.size() + 1];
+        for (int i = previous.size() - 1; i >= 0; --i) {
+            for (int j = next.size() - 1; j >= 0; --j) {
+                lengths[i][j] =
+                    previous.get(i).equals(next.get(j)) ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j],
+                        lengths[i][j + 1]);
+            }
+        }
+
+        return lengths[0][0];
+    }
+
     @Test
     public void testMergeStringList() throws DiffException
     {
@@ -237,4 +547,60 @@ public void testMergeCharOnConflicts() throws DiffException
         Assert.assertEquals(1, result.getLog().getLogs(LogLevel.ERROR).size());
         Assert.assertEquals(Arrays.asList('b'), result.getMerged());
     }
+
+    @Test
+    public void testMergeScatteredModifications() throws Exception
+    {
+        // Big documents are measured by MergeBenchmark
+        List<String> commonAncestor = MergeBenchmark.createDocument(3000);
+        List<String> next = MergeBenchmark.edit(commonAncestor, 0, "next");
+        List<String> current = MergeBenchmark.edit(commonAncestor, 50, "current");
+
+        MergeResult<String> result = this.diffManager.merge(commonAncestor, next, current, null);
+
+        Assert.assertEquals(0, result.getLog().getLogs(LogLevel.ERROR).size());
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < commonAncestor.size(); ++i) {
+            String prefix = i % 100 == 0 ? "next" : i % 100 == 50 ? "current" : null;
+            if (prefix != null) {
+                expected.add(prefix + ' ' + commonAncestor.get(i));
+                expected.add(prefix + " inserted " + i);
+            } else {
+                expected.add(commonAncestor.get(i));
+            }
+        }
+        Assert.assertEquals(expected, result.getMerged());
+    }
+
+    private static class IntegerList extends AbstractList<Integer> implements CodedList<Integer>, RandomAccess
+    {
+        private final int[] values;
+
+        private int readCount;
+
+        IntegerList(int... values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public Integer get(int index)
+        {
+            ++this.readCount;
+
+            return this.values[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.values.length;
+        }
+
+        @Override
+        public int getCode(int index)
+        {
+            return this.values[index];
+        }
+    }
 }
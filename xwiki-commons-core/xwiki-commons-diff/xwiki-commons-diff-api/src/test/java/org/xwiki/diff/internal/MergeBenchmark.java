@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.diff.DiffManager;
+import org.xwiki.diff.MergeResult;
+
+/**
+ * Measure the time needed to merge big documents with scattered modifications. Not executed by the build, run
+ * {@link #main(String[])} manually.
+ * 
+ * @version $Id$
+ */
+public final class MergeBenchmark
+{
+    /**
+     * The number of lines of the merged documents.
+     */
+    private static final int LINES = 100000;
+
+    /**
+     * One line out of this number is modified in each version.
+     */
+    private static final int EDIT_INTERVAL = 100;
+
+    /**
+     * The number of measured merges.
+     */
+    private static final int ITERATIONS = 20;
+
+    /**
+     * Utility class.
+     */
+    private MergeBenchmark()
+    {
+    }
+
+    /**
+     * @param size the number of lines
+     * @return a document made of distinct lines
+     */
+    public static List<String> createDocument(int size)
+    {
+        List<String> document = new ArrayList<String>(size);
+        for (int i = 0; i < size; ++i) {
+            document.add("line " + i);
+        }
+
+        return document;
+    }
+
+    /**
+     * @param document the document to modify
+     * @param offset the index of the first modified line, in the first {@link #EDIT_INTERVAL} lines
+     * @param prefix the prefix of the modified lines
+     * @return a copy of the document where one line every {@link #EDIT_INTERVAL} lines is modified, and one line is
+     *         inserted after it
+     */
+    public static List<String> edit(List<String> document, int offset, String prefix)
+    {
+        List<String> edited = new ArrayList<String>(document.size() + document.size() / EDIT_INTERVAL + 1);
+        for (int i = 0; i < document.size(); ++i) {
+            if (i % EDIT_INTERVAL == offset) {
+                edited.add(prefix + ' ' + document.get(i));
+                edited.add(prefix + " inserted " + i);
+            } else {
+                edited.add(document.get(i));
+            }
+        }
+
+        return edited;
+    }
+
+    /**
+     * @param args not used
+     * @throws Exception when the merge fails
+     */
+    public static void main(String[] args) throws Exception
+    {
+        DiffManager diffManager = new DefaultDiffManager();
+
+        List<String> commonAncestor = createDocument(LINES);
+        List<String> next = edit(commonAncestor, 0, "next");
+        List<String> current = edit(commonAncestor, EDIT_INTERVAL / 2, "current");
+
+        // Warm up
+        for (int i = 0; i < ITERATIONS; ++i) {
+            diffManager.merge(commonAncestor, next, current, null);
+        }
+
+        long start = System.nanoTime();
+        int size = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            MergeResult<String> result = diffManager.merge(commonAncestor, next, current, null);
+            size += result.getMerged().size();
+        }
+        long duration = System.nanoTime() - start;
+
+        System.out.println(String.format("Merged %d lines documents with %d modifications in %.1f ms on average",
+            LINES, 2 * LINES / EDIT_INTERVAL, duration / 1e6 / ITERATIONS));
+        System.out.println(String.format("Merged document size: %d lines", size / ITERATIONS));
+    }
+}
@@ -19,12 +19,10 @@
  */
 package org.xwiki.diff.display.internal;
 
-import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.diff.display.Splitter;
 
@@ -41,6 +39,6 @@ public class CharSplitter implements Splitter<String, Character>
     @Override
     public List<Character> split(String composite)
     {
-        return Arrays.asList(ArrayUtils.toObject(composite.toCharArray()));
+        return new CharacterList(composite);
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.display.internal;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.xwiki.diff.CodedList;
+
+/**
+ * Read only view of the characters of a text as a list. The characters are not copied and are compared through their
+ * code when computing differences.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class CharacterList extends AbstractList<Character> implements CodedList<Character>, RandomAccess
+{
+    /**
+     * The text.
+     */
+    private final CharSequence text;
+
+    /**
+     * @param text the text
+     */
+    public CharacterList(CharSequence text)
+    {
+        this.text = text;
+    }
+
+    @Override
+    public Character get(int index)
+    {
+        return this.text.charAt(index);
+    }
+
+    @Override
+    public int getCode(int index)
+    {
+        return this.text.charAt(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return this.text.length();
+    }
+
+    @Override
+    public CharacterList subList(int fromIndex, int toIndex)
+    {
+        return new CharacterList(this.text.subSequence(fromIndex, toIndex));
+    }
+}
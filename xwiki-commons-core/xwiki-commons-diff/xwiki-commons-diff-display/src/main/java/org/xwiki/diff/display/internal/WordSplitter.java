@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.diff.display.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.diff.display.Splitter;
+
+/**
+ * Splits a string into words, white space sequences and punctuation marks. Joining the result gives back the original
+ * string.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+@Component
+@Named("word")
+@Singleton
+public class WordSplitter implements Splitter<String, String>
+{
+    /**
+     * The type of letters and digits, which are grouped into words.
+     */
+    private static final int WORD = 0;
+
+    /**
+     * The type of white spaces, which are grouped together.
+     */
+    private static final int SPACE = 1;
+
+    /**
+     * The type of the other characters, which are kept alone.
+     */
+    private static final int OTHER = 2;
+
+    @Override
+    public List<String> split(String composite)
+    {
+        List<String> words = new ArrayList<String>();
+
+        int start = 0;
+        while (start < composite.length()) {
+            int end = start + 1;
+            int type = getType(composite.charAt(start));
+            if (type != OTHER) {
+                while (end < composite.length() && getType(composite.charAt(end)) == type) {
+                    ++end;
+                }
+            }
+            words.add(composite.substring(start, end));
+            start = end;
+        }
+
+        return words;
+    }
+
+    /**
+     * @param c a character
+     * @return the type of the character: {@link #WORD}, {@link #SPACE} or {@link #OTHER}
+     */
+    private int getType(char c)
+    {
+        int type;
+        if (Character.isLetterOrDigit(c)) {
+            type = WORD;
+        } else if (Character.isWhitespace(c)) {
+            type = SPACE;
+        } else {
+            type = OTHER;
+        }
+
+        return type;
+    }
+}
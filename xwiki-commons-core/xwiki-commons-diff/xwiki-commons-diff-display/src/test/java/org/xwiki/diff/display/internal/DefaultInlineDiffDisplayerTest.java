@@ -33,6 +33,7 @@
 import org.xwiki.diff.display.InlineDiffChunk;
 import org.xwiki.diff.display.InlineDiffChunk.Type;
 import org.xwiki.diff.display.InlineDiffDisplayer;
+import org.xwiki.diff.display.Splitter;
 import org.xwiki.test.AbstractComponentTestCase;
 
 /**
@@ -115,6 +116,21 @@ public void testChangeWords() throws Exception
         execute("123 456 789", "abc 456 xyz", "-123-+abc+ 456 -789-+xyz+");
     }
 
+    @Test
+    public void testChangeWordsWithWordSplitter() throws Exception
+    {
+        Splitter<String, String> wordSplitter = new WordSplitter();
+
+        Assert.assertEquals(Arrays.asList("123", " ", "x", ".", ".", "yz", "  ", "abc"),
+            wordSplitter.split("123 x..yz  abc"));
+
+        DiffManager diffManager = getComponentManager().getInstance(DiffManager.class);
+        DiffResult<String> diffResult =
+            diffManager.diff(wordSplitter.split("one two three"), wordSplitter.split("one 2 three"), null);
+
+        Assert.assertEquals("one -two-+2+ three", display(diffResult));
+    }
+
     /**
      * Builds the in-line diff between the given versions and asserts if the result meets the expectation.
      * 
@@ -131,6 +147,23 @@ private void execute(String previous, String next, String expected) throws Excep
         DiffManager diffManager = getComponentManager().getInstance(DiffManager.class);
         DiffResult<Character> diffResult = diffManager.diff(previousChars, nextChars, null);
 
+        Assert.assertEquals(expected, display(diffResult));
+
+        // Compare the characters without boxing them
+        Splitter<String, Character> charSplitter = new CharSplitter();
+        diffResult = diffManager.diff(charSplitter.split(previous), charSplitter.split(next), null);
+
+        Assert.assertEquals(expected, display(diffResult));
+    }
+
+    /**
+     * @param <E> the type of compared elements
+     * @param diffResult the diff to display
+     * @return the in-line diff, with added elements between + and deleted elements between -
+     * @throws Exception if displaying the diff fails
+     */
+    private <E> String display(DiffResult<E> diffResult) throws Exception
+    {
         Map<Type, String> separators = new HashMap<Type, String>();
         separators.put(Type.ADDED, "+");
         separators.put(Type.DELETED, "-");
@@ -138,11 +171,11 @@ private void execute(String previous, String next, String expected) throws Excep
 
         StringBuilder actual = new StringBuilder();
         InlineDiffDisplayer inlineDiffDisplayer = getComponentManager().getInstance(InlineDiffDisplayer.class);
-        for (InlineDiffChunk<Character> chunk : inlineDiffDisplayer.display(diffResult)) {
+        for (InlineDiffChunk<E> chunk : inlineDiffDisplayer.display(diffResult)) {
             String separator = separators.get(chunk.getType());
             actual.append(separator).append(chunk).append(separator);
         }
 
-        Assert.assertEquals(expected, actual.toString());
+        return actual.toString();
     }
 }
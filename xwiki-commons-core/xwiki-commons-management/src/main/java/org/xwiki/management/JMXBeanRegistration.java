@@ -36,4 +36,10 @@
      *        that the domain is registered by default and shouldn't be passed
      */
     void registerMBean(Object mbean, String name);
+
+    /**
+     * @param name the name passed when registering the mbean, see {@link #registerMBean(Object, String)}
+     * @since 4.1
+     */
+    void unregisterMBean(String name);
 }
@@ -61,4 +61,19 @@ public void registerMBean(Object mbean, String name)
                 ExceptionUtils.getMessage(e));
         }
     }
+
+    @Override
+    public void unregisterMBean(String name)
+    {
+        // Make sure we never fail since XWiki should execute correctly even if there's no MBean Server running.
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.unregisterMBean(new ObjectName("org.xwiki:" + name));
+            this.logger.debug("Unregistered resource with name [{}]", name);
+        } catch (Exception e) {
+            // Failed to unregister the MBean, log a warning
+            this.logger.warn("Failed to unregister resource with name [{}]. Reason = [{}]", name,
+                ExceptionUtils.getMessage(e));
+        }
+    }
 }
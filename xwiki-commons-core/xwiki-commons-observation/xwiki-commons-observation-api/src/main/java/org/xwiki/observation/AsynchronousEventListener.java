@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation;
+
+/**
+ * {@link EventListener} receiving its events in a thread different from the one which sent the event so that a slow
+ * listener does not add its latency to the notifying thread.
+ * <p>
+ * The matching of the events is still done in the notifying thread, the matching events are then stored in a bounded
+ * queue dedicated to the listener and delivered to {@link #onEvent(org.xwiki.observation.event.Event, Object, Object)}
+ * in the order they were sent. Note that the listener is not called with the execution context of the notifying
+ * thread.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface AsynchronousEventListener extends EventListener
+{
+    /**
+     * What to do when an event is sent to a listener whose queue is full.
+     */
+    enum OverflowStrategy
+    {
+        /**
+         * Block the notifying thread until there is room in the queue. When the event is sent from a thread delivering
+         * events to an asynchronous listener the listener is called directly instead, as with {@link #CALLER_RUNS},
+         * since waiting could dead lock.
+         */
+        BLOCK,
+
+        /**
+         * Remove the oldest event from the queue to make room for the new one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Call the listener directly in the notifying thread. In that case the event may be received before events
+         * still waiting in the queue.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * @return the maximum number of events waiting to be delivered to this listener
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return what to do when the queue is full, {@link OverflowStrategy#CALLER_RUNS} is used when <code>null</code>
+     */
+    OverflowStrategy getOverflowStrategy();
+}
@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation;
+
+import java.util.List;
+
+/**
+ * {@link EventListener} able to receive at once all the events matching it when several events are sent with
+ * {@link BatchObservationManager#notify(List)}, so that it can amortize its own work (for example commit an index once
+ * instead of once per event).
+ * <p>
+ * Events sent one by one with {@link ObservationManager#notify(org.xwiki.observation.event.Event, Object, Object)}
+ * are still received through {@link #onEvent(org.xwiki.observation.event.Event, Object, Object)}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface BatchEventListener extends EventListener
+{
+    /**
+     * The {@link ObservationManager} calls this method once all the events of a batch have been sent to the other
+     * listeners.
+     * 
+     * @param events the events of the batch matching this listener, in the order they were sent
+     */
+    void onEvents(List<EventRecord> events);
+}
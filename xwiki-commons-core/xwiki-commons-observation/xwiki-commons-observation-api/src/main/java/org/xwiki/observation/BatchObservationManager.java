@@ -0,0 +1,41 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation;
+
+import java.util.List;
+
+/**
+ * {@link ObservationManager} able to send several events at once. The {@link ObservationManager} role implementation
+ * can be tested for this interface before sending a batch of events.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface BatchObservationManager extends ObservationManager
+{
+    /**
+     * Call the registered listeners matching each of the passed events, in order. The listeners to call are resolved
+     * only once per event class and the {@link BatchEventListener}s receive all the events matching them in a single
+     * call once the events have been sent to the other listeners.
+     * 
+     * @param events the events to pass to the registered listeners
+     */
+    void notify(List<EventRecord> events);
+}
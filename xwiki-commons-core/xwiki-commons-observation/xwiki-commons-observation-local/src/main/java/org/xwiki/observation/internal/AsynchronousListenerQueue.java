@@ -0,0 +1,430 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.xwiki.observation.AsynchronousEventListener;
+import org.xwiki.observation.AsynchronousEventListener.OverflowStrategy;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Ordered queue of the events waiting to be delivered to an {@link AsynchronousEventListener}.
+ * <p>
+ * The queue is drained by a shared {@link Executor}, at most one task is submitted at a time for a given queue which
+ * guarantee that the listener receives the events in the order they were added.
+ * <p>
+ * A queue stops accepting events once {@link #close()} or {@link #transferTo(AsynchronousListenerQueue)} has been
+ * called.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class AsynchronousListenerQueue implements Runnable
+{
+    /**
+     * The maximum number of events delivered by a task before giving the executor thread back to other listeners.
+     */
+    private static final int MAX_DRAIN = 100;
+
+    /**
+     * Indicate if the current thread is delivering events to an asynchronous listener. Such a thread never blocks on a
+     * full queue since the events it's waiting for may only be delivered by itself or by another blocked thread.
+     */
+    private static final ThreadLocal<Boolean> DELIVERING = new ThreadLocal<Boolean>();
+
+    /**
+     * The listener to deliver events to.
+     */
+    private final AsynchronousEventListener listener;
+
+    /**
+     * The events waiting to be delivered.
+     */
+    private final BlockingQueue<QueuedEvent> queue;
+
+    /**
+     * @see AsynchronousEventListener#getOverflowStrategy()
+     */
+    private final OverflowStrategy overflowStrategy;
+
+    /**
+     * The executor used to drain the queue.
+     */
+    private final Executor executor;
+
+    /**
+     * The logger to log.
+     */
+    private final Logger logger;
+
+    /**
+     * Indicate if a task draining the queue has been submitted to the executor.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @see #getDeliveredCount()
+     */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /**
+     * @see #getDroppedCount()
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @see #getCallerRunsCount()
+     */
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    /**
+     * @see #getMaxSize()
+     */
+    private volatile int maxSize;
+
+    /**
+     * Indicate if the queue still accepts events.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The queue receiving the events added after {@link #transferTo(AsynchronousListenerQueue)} has been called,
+     * <code>null</code> if they should be dropped.
+     */
+    private volatile AsynchronousListenerQueue successor;
+
+    /**
+     * An event waiting in the queue.
+     */
+    private static final class QueuedEvent
+    {
+        /**
+         * The event.
+         */
+        private final Event event;
+
+        /**
+         * The source of the event.
+         */
+        private final Object source;
+
+        /**
+         * The additional data related to the event.
+         */
+        private final Object data;
+
+        /**
+         * Where to record the call to the listener, <code>null</code> if it should not be recorded.
+         */
+        private final ListenerStatistics statistics;
+
+        /**
+         * @param event the event
+         * @param source the source of the event
+         * @param data the additional data related to the event
+         * @param statistics where to record the call to the listener
+         */
+        QueuedEvent(Event event, Object source, Object data, ListenerStatistics statistics)
+        {
+            this.event = event;
+            this.source = source;
+            this.data = data;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * @param listener the listener to deliver events to
+     * @param executor the executor used to drain the queue
+     * @param logger the logger to log
+     */
+    public AsynchronousListenerQueue(AsynchronousEventListener listener, Executor executor, Logger logger)
+    {
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<QueuedEvent>(Math.max(1, listener.getQueueCapacity()));
+        this.overflowStrategy =
+            listener.getOverflowStrategy() != null ? listener.getOverflowStrategy() : OverflowStrategy.CALLER_RUNS;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the listener the events are delivered to
+     */
+    public AsynchronousEventListener getListener()
+    {
+        return this.listener;
+    }
+
+    /**
+     * Add an event to the queue and make sure it's going to be delivered.
+     * 
+     * @param event the event
+     * @param source the source of the event
+     * @param data the additional data related to the event
+     * @param statistics where to record the call to the listener or <code>null</code> if it should not be recorded
+     */
+    public void add(Event event, Object source, Object data, ListenerStatistics statistics)
+    {
+        if (this.closed) {
+            addAfterClose(new QueuedEvent(event, source, data, statistics));
+        } else {
+            add(new QueuedEvent(event, source, data, statistics));
+
+            // Don't leave behind an event added while the queue was being transferred
+            AsynchronousListenerQueue next = this.successor;
+            if (next != null) {
+                transferTo(next);
+            }
+        }
+    }
+
+    /**
+     * @param queuedEvent the event to add to the queue
+     */
+    private void add(QueuedEvent queuedEvent)
+    {
+        if (!this.queue.offer(queuedEvent)) {
+            OverflowStrategy strategy = this.overflowStrategy;
+            if (strategy == OverflowStrategy.BLOCK && DELIVERING.get() != null) {
+                // Blocking a delivery thread could dead lock
+                strategy = OverflowStrategy.CALLER_RUNS;
+            }
+
+            switch (strategy) {
+                case DROP_OLDEST:
+                    while (!this.queue.offer(queuedEvent)) {
+                        if (this.queue.poll() != null) {
+                            this.droppedCount.incrementAndGet();
+                        }
+                    }
+                    break;
+
+                case CALLER_RUNS:
+                    this.callerRunsCount.incrementAndGet();
+                    deliver(queuedEvent);
+                    return;
+
+                default:
+                    if (!put(queuedEvent)) {
+                        return;
+                    }
+                    break;
+            }
+        }
+
+        int size = this.queue.size();
+        if (size > this.maxSize) {
+            this.maxSize = size;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Wait until there is room in the queue for the passed event.
+     * 
+     * @param queuedEvent the event to add to the queue
+     * @return <code>true</code> if the event has been added, <code>false</code> if the thread has been interrupted
+     */
+    private boolean put(QueuedEvent queuedEvent)
+    {
+        try {
+            this.queue.put(queuedEvent);
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.droppedCount.incrementAndGet();
+            this.logger.warn("Interrupted while waiting to send event [{}] to listener [{}]", queuedEvent.event,
+                this.listener.getName());
+
+            return false;
+        }
+    }
+
+    /**
+     * @param queuedEvent an event added after the queue has been closed
+     */
+    private void addAfterClose(QueuedEvent queuedEvent)
+    {
+        AsynchronousListenerQueue next = this.successor;
+        if (next != null) {
+            next.add(queuedEvent.event, queuedEvent.source, queuedEvent.data, queuedEvent.statistics);
+        } else {
+            this.droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop accepting events. The events already in the queue are still delivered as long as the executor is running.
+     */
+    public void close()
+    {
+        this.closed = true;
+    }
+
+    /**
+     * Stop accepting events and move the events waiting in this queue, and the ones added to it from now on, to the
+     * passed queue. Used when a listener is replaced by a listener with the same name so that no event is lost.
+     * 
+     * @param next the queue receiving the events of this queue
+     */
+    public void transferTo(AsynchronousListenerQueue next)
+    {
+        this.successor = next;
+        this.closed = true;
+
+        for (QueuedEvent queuedEvent = this.queue.poll(); queuedEvent != null; queuedEvent = this.queue.poll()) {
+            next.add(queuedEvent.event, queuedEvent.source, queuedEvent.data, queuedEvent.statistics);
+        }
+    }
+
+    /**
+     * Submit a task draining the queue if there is not already one.
+     */
+    private void schedule()
+    {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                this.scheduled.set(false);
+
+                onRejected(e);
+            } catch (RuntimeException e) {
+                this.scheduled.set(false);
+
+                this.logger.error("Failed to schedule the delivery of events to listener [{}]", new Object[] {
+                    this.listener.getName(), e});
+            }
+        }
+    }
+
+    /**
+     * The executor refused to drain the queue.
+     * 
+     * @param e the exception thrown by the executor
+     */
+    private void onRejected(RejectedExecutionException e)
+    {
+        if (this.closed) {
+            // The observation manager is being disposed, forget the remaining events
+            int dropped = 0;
+            while (this.queue.poll() != null) {
+                ++dropped;
+            }
+            this.droppedCount.addAndGet(dropped);
+        } else {
+            this.logger.error("Failed to schedule the delivery of events to listener [{}]", new Object[] {
+                this.listener.getName(), e});
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        DELIVERING.set(Boolean.TRUE);
+        try {
+            for (int i = 0; i < MAX_DRAIN; ++i) {
+                QueuedEvent queuedEvent = this.queue.poll();
+                if (queuedEvent == null) {
+                    break;
+                }
+
+                deliver(queuedEvent);
+            }
+        } finally {
+            DELIVERING.remove();
+            this.scheduled.set(false);
+        }
+
+        // Make sure events added while the task was finishing are delivered
+        if (!this.queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * @param queuedEvent the event to send to the listener
+     */
+    private void deliver(QueuedEvent queuedEvent)
+    {
+        ListenerDispatch.call(this.listener, queuedEvent.event, queuedEvent.source, queuedEvent.data,
+            queuedEvent.statistics, this.logger);
+
+        this.deliveredCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of events currently waiting to be delivered
+     */
+    public int getSize()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the maximum number of events which waited at the same time in the queue
+     */
+    public int getMaxSize()
+    {
+        return this.maxSize;
+    }
+
+    /**
+     * @return the maximum number of events which can wait in the queue
+     */
+    public int getCapacity()
+    {
+        return this.queue.size() + this.queue.remainingCapacity();
+    }
+
+    /**
+     * @return the number of events delivered to the listener
+     */
+    public long getDeliveredCount()
+    {
+        return this.deliveredCount.get();
+    }
+
+    /**
+     * @return the number of events which have never been delivered because the queue was full or closed
+     */
+    public long getDroppedCount()
+    {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * @return the number of events delivered in the notifying thread because the queue was full
+     */
+    public long getCallerRunsCount()
+    {
+        return this.callerRunsCount.get();
+    }
+}
@@ -20,10 +20,18 @@
 package org.xwiki.observation.internal;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -36,34 +44,45 @@
 import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.management.JMXBeanRegistration;
+import org.xwiki.observation.AsynchronousEventListener;
+import org.xwiki.observation.BatchObservationManager;
 import org.xwiki.observation.EventListener;
+import org.xwiki.observation.EventRecord;
 import org.xwiki.observation.ObservationManager;
 import org.xwiki.observation.event.AllEvent;
 import org.xwiki.observation.event.Event;
+import org.xwiki.observation.internal.jmx.JMXObservationManager;
 
 /**
  * Default implementation of the {@link ObservationManager}.
  * <p>
- * This component use synchronized for concurrent protection instead of having
+ * This component use synchronized for concurrent protection of the registration methods instead of having
  * {@link java.util.concurrent.ConcurrentHashMap} everywhere because it's more efficient since most of methods access to
- * several maps and generally do enumerations.
+ * several maps and generally do enumerations. Registration changes rebuild an immutable dispatch table so that
+ * {@link #notify(Event, Object, Object)} never has to lock.
  * 
  * @version $Id$
  */
 @Component
 @Singleton
-public class DefaultObservationManager implements ObservationManager, Initializable
+public class DefaultObservationManager implements BatchObservationManager, Initializable, Disposable
 {
     /**
-     * Registered listeners indexed on Event classes so that it's fast to find all the listeners registered for a given
-     * event, so that {@link #notify} calls execute fast and in a fixed amount a time.
-     * 
-     * @todo Should we allow event inheritance?
+     * Used to give a unique JMX name to each instance, several observation managers can exist in the same JVM (child
+     * component managers, several applications, etc.).
+     */
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    /**
+     * Registered listeners indexed on Event classes. This is the reference registration data, the
+     * {@link #dispatchTable} used by {@link #notify} is computed from it.
      */
     private Map<Class< ? extends Event>, Map<String, RegisteredListener>> listenersByEvent =
-        new ConcurrentHashMap<Class< ? extends Event>, Map<String, RegisteredListener>>();
+        new HashMap<Class< ? extends Event>, Map<String, RegisteredListener>>();
 
     /**
      * Registered listeners index by listener name. It makes it fast to perform operations on already registered
@@ -71,6 +90,34 @@ public class DefaultObservationManager implements ObservationManager, Initializa
      */
     private Map<String, EventListener> listenersByName = new ConcurrentHashMap<String, EventListener>();
 
+    /**
+     * Listeners to call indexed on the concrete class of the notified event. Each entry already contains the listeners
+     * registered for the event class, for its super classes and for {@link AllEvent} so that {@link #notify} calls
+     * execute fast and in a fixed amount a time.
+     * <p>
+     * The map instance is replaced each time the registrations are modified and entries are lazily added the first
+     * time an event class is notified.
+     */
+    private volatile ConcurrentMap<Class< ? extends Event>, EventDispatch> dispatchTable =
+        new ConcurrentHashMap<Class< ? extends Event>, EventDispatch>();
+
+    /**
+     * The queues of the registered {@link AsynchronousEventListener}s indexed by listener name.
+     */
+    private Map<String, AsynchronousListenerQueue> asynchronousQueues =
+        new ConcurrentHashMap<String, AsynchronousListenerQueue>();
+
+    /**
+     * The threads delivering the events to the {@link AsynchronousEventListener}s. Lazily created when the first
+     * asynchronous listener is registered.
+     */
+    private ExecutorService asynchronousExecutor;
+
+    /**
+     * Statistics about the calls of the listeners.
+     */
+    private ObservationStatistics statistics = new ObservationStatistics();
+
     /**
      * Used to find all components implementing {@link EventListener} to register them automatically.
      */
@@ -83,6 +130,16 @@ public class DefaultObservationManager implements ObservationManager, Initializa
     @Inject
     private Logger logger;
 
+    /**
+     * Used to register the MBean exposing the observation statistics, <code>null</code> if it's not registered.
+     */
+    private JMXBeanRegistration jmxRegistration;
+
+    /**
+     * The name of the MBean exposing the observation statistics, <code>null</code> if it's not registered.
+     */
+    private String jmxName;
+
     /**
      * Helper class to store the list of events of a given type associated with a given listener. We need this for
      * performance reasons and also in order to be able to add events after a listener has been registered.
@@ -138,10 +195,45 @@ public void initialize() throws InitializationException
         } catch (ComponentLookupException e) {
             throw new InitializationException("Failed to lookup Event Listeners", e);
         }
+
+        // Register a JMX MBean providing statistics about the listeners
+        registerMBean();
+    }
+
+    /**
+     * Register the MBean exposing the observation statistics. JMX is optional, the observation manager works the same
+     * when no {@link JMXBeanRegistration} component is available.
+     */
+    private void registerMBean()
+    {
+        if (this.componentManager.hasComponent(JMXBeanRegistration.class)) {
+            try {
+                this.jmxRegistration = this.componentManager.getInstance(JMXBeanRegistration.class);
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Failed to lookup the JMX registration component. Reason = [{}]", e.getMessage());
+
+                return;
+            }
+
+            this.jmxName = "type=Observation,name=ObservationManager,instance=" + INSTANCE_COUNT.incrementAndGet();
+            this.jmxRegistration.registerMBean(new JMXObservationManager(this), this.jmxName);
+        }
+    }
+
+    /**
+     * Unregister the MBean exposing the observation statistics.
+     */
+    private void unregisterMBean()
+    {
+        if (this.jmxName != null) {
+            this.jmxRegistration.unregisterMBean(this.jmxName);
+            this.jmxName = null;
+            this.jmxRegistration = null;
+        }
     }
 
     @Override
-    public void addListener(EventListener eventListener)
+    public synchronized void addListener(EventListener eventListener)
     {
         // Register the listener by name. If already registered, override it.
         EventListener previousListener = this.listenersByName.put(eventListener.getName(), eventListener);
@@ -158,56 +250,173 @@ public void addListener(EventListener eventListener)
 
         // For each event defined for this listener, add it to the Event Map.
         for (Event event : eventListener.getEvents()) {
-            // Check if this is a new Event type not already registered
-            Map<String, RegisteredListener> eventListeners = this.listenersByEvent.get(event.getClass());
-            if (eventListeners == null) {
-                // No listener registered for this event yet. Create a map to store listeners for this event.
-                eventListeners = new ConcurrentHashMap<String, RegisteredListener>();
-                this.listenersByEvent.put(event.getClass(), eventListeners);
-                // There is no RegisteredListener yet, create one
+            addRegisteredEvent(eventListener, event);
+        }
+
+        updateAsynchronousQueue(eventListener);
+
+        rebuildDispatchTable();
+    }
+
+    /**
+     * Create the queue of the passed listener if it's an {@link AsynchronousEventListener} and take care of the queue of
+     * the listener it replaces, if any.
+     * 
+     * @param eventListener the registered listener
+     */
+    private void updateAsynchronousQueue(EventListener eventListener)
+    {
+        AsynchronousListenerQueue previousQueue;
+        if (eventListener instanceof AsynchronousEventListener) {
+            AsynchronousListenerQueue queue =
+                new AsynchronousListenerQueue((AsynchronousEventListener) eventListener, getAsynchronousExecutor(),
+                    this.logger);
+            previousQueue = this.asynchronousQueues.put(eventListener.getName(), queue);
+            if (previousQueue != null) {
+                // The new listener receives the events which have not yet been delivered to the one it replaces
+                previousQueue.transferTo(queue);
+            }
+        } else {
+            previousQueue = this.asynchronousQueues.remove(eventListener.getName());
+            if (previousQueue != null) {
+                // Let the replaced listener receive the events already in its queue
+                previousQueue.close();
+            }
+        }
+    }
+
+    /**
+     * @return the executor delivering the events to the {@link AsynchronousEventListener}s
+     */
+    private ExecutorService getAsynchronousExecutor()
+    {
+        if (this.asynchronousExecutor == null) {
+            this.asynchronousExecutor =
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+                {
+                    /**
+                     * Used to give a unique name to each thread.
+                     */
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread =
+                            new Thread(runnable, "XWiki asynchronous event listener " + this.count.incrementAndGet());
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+        }
+
+        return this.asynchronousExecutor;
+    }
+
+    /**
+     * @return the queues of the registered {@link AsynchronousEventListener}s indexed by listener name
+     * @since 4.1
+     */
+    public Map<String, AsynchronousListenerQueue> getAsynchronousListenerQueues()
+    {
+        return Collections.unmodifiableMap(this.asynchronousQueues);
+    }
+
+    /**
+     * @return the statistics about the calls of the listeners
+     * @since 4.1
+     */
+    public ObservationStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        // Stop accepting asynchronous events, the ones already queued are still delivered until the executor stops
+        for (AsynchronousListenerQueue queue : this.asynchronousQueues.values()) {
+            queue.close();
+        }
+
+        if (this.asynchronousExecutor != null) {
+            this.asynchronousExecutor.shutdown();
+            this.asynchronousExecutor = null;
+        }
+
+        unregisterMBean();
+    }
+
+    /**
+     * Associate an event to a listener in {@link #listenersByEvent}.
+     * 
+     * @param eventListener the listener
+     * @param event the event to associate to the listener
+     */
+    private void addRegisteredEvent(EventListener eventListener, Event event)
+    {
+        // Check if this is a new Event type not already registered
+        Map<String, RegisteredListener> eventListeners = this.listenersByEvent.get(event.getClass());
+        if (eventListeners == null) {
+            // No listener registered for this event yet. Create a map to store listeners for this event.
+            eventListeners = new LinkedHashMap<String, RegisteredListener>();
+            this.listenersByEvent.put(event.getClass(), eventListeners);
+            // There is no RegisteredListener yet, create one
+            eventListeners.put(eventListener.getName(), new RegisteredListener(eventListener, event));
+        } else {
+            // Add an event to existing RegisteredListener object
+            RegisteredListener registeredListener = eventListeners.get(eventListener.getName());
+            if (registeredListener == null) {
                 eventListeners.put(eventListener.getName(), new RegisteredListener(eventListener, event));
             } else {
-                // Add an event to existing RegisteredListener object
-                RegisteredListener registeredListener = eventListeners.get(eventListener.getName());
-                if (registeredListener == null) {
-                    eventListeners.put(eventListener.getName(), new RegisteredListener(eventListener, event));
-                } else {
-                    registeredListener.addEvent(event);
-                }
+                registeredListener.addEvent(event);
             }
         }
     }
 
     @Override
-    public void removeListener(String listenerName)
+    public synchronized void removeListener(String listenerName)
     {
         this.listenersByName.remove(listenerName);
-        for (Map.Entry<Class< ? extends Event>, Map<String, RegisteredListener>> entry : this.listenersByEvent
-            .entrySet()) {
-            entry.getValue().remove(listenerName);
-            if (entry.getValue().isEmpty()) {
-                this.listenersByEvent.remove(entry.getKey());
+        this.statistics.removeListenerStatistics(listenerName);
+        AsynchronousListenerQueue queue = this.asynchronousQueues.remove(listenerName);
+        if (queue != null) {
+            queue.close();
+        }
+        for (Iterator<Map<String, RegisteredListener>> it = this.listenersByEvent.values().iterator(); it.hasNext();) {
+            Map<String, RegisteredListener> eventListeners = it.next();
+            eventListeners.remove(listenerName);
+            if (eventListeners.isEmpty()) {
+                it.remove();
             }
         }
+
+        rebuildDispatchTable();
     }
 
     @Override
-    public void addEvent(String listenerName, Event event)
+    public synchronized void addEvent(String listenerName, Event event)
     {
-        Map<String, RegisteredListener> listeners = this.listenersByEvent.get(event.getClass());
-        RegisteredListener listener = listeners.get(listenerName);
-        if (listener != null) {
-            listener.addEvent(event);
+        EventListener eventListener = this.listenersByName.get(listenerName);
+        if (eventListener != null) {
+            addRegisteredEvent(eventListener, event);
+
+            rebuildDispatchTable();
         }
     }
 
     @Override
-    public void removeEvent(String listenerName, Event event)
+    public synchronized void removeEvent(String listenerName, Event event)
     {
         Map<String, RegisteredListener> listeners = this.listenersByEvent.get(event.getClass());
-        RegisteredListener listener = listeners.get(listenerName);
-        if (listener != null) {
-            listener.removeEvent(event);
+        if (listeners != null) {
+            RegisteredListener listener = listeners.get(listenerName);
+            if (listener != null) {
+                listener.removeEvent(event);
+
+                rebuildDispatchTable();
+            }
         }
     }
 
@@ -217,67 +426,156 @@ public EventListener getListener(String listenerName)
         return this.listenersByName.get(listenerName);
     }
 
-    @Override
-    public void notify(Event event, Object source, Object data)
+    /**
+     * Replace the {@link #dispatchTable} with an empty one, the entries matching the current registrations are
+     * computed again the first time each event class is notified. The notified event classes are not kept across
+     * registration changes so that the table does not prevent classes from being garbage collected.
+     */
+    private void rebuildDispatchTable()
     {
-        // Find all listeners for this event
-        Map<String, RegisteredListener> regListeners = this.listenersByEvent.get(event.getClass());
-        if (regListeners != null) {
-            notify(regListeners.values(), event, source, data);
-        }
+        this.dispatchTable = new ConcurrentHashMap<Class< ? extends Event>, EventDispatch>();
+    }
 
-        // Find listener listening all events
-        Map<String, RegisteredListener> allEventRegListeners = this.listenersByEvent.get(AllEvent.class);
-        if (allEventRegListeners != null) {
-            notify(allEventRegListeners.values(), event, source, data);
+    /**
+     * @param eventClass the concrete class of a notified event
+     * @return the listeners to call for the passed event class
+     */
+    private EventDispatch getDispatch(Class< ? extends Event> eventClass)
+    {
+        EventDispatch dispatch = this.dispatchTable.get(eventClass);
+
+        if (dispatch == null) {
+            dispatch = putDispatch(eventClass);
         }
 
-        // We want this Observation Manager to be able to handle new Event Listener components being added or removed
-        // at runtime. Thus ideally we should make this Manager an Event Listener itself. However in order to avoid
-        // circular dependencies issues and in order to be more performant we simply handle ComponentDescriptorEvents
-        // here to add/remove Event Listeners.
-        if (event instanceof ComponentDescriptorEvent) {
-            onComponentEvent((ComponentDescriptorEvent) event, (ComponentManager) source,
-                (ComponentDescriptor<EventListener>) data);
+        return dispatch;
+    }
+
+    /**
+     * Compute the listeners to call for the passed event class and store them in the current {@link #dispatchTable}
+     * if no other thread did it already.
+     * 
+     * @param eventClass the concrete class of a notified event
+     * @return the listeners to call for the passed event class
+     */
+    private synchronized EventDispatch putDispatch(Class< ? extends Event> eventClass)
+    {
+        // Make sure to use the current table and registrations
+        EventDispatch dispatch = this.dispatchTable.get(eventClass);
+
+        if (dispatch == null) {
+            dispatch = createDispatch(eventClass);
+            this.dispatchTable.put(eventClass, dispatch);
         }
+
+        return dispatch;
     }
 
     /**
-     * Call the provided listeners matching the passed Event. The definition of <em>source</em> and <em>data</em> is
-     * purely up to the communicating classes.
+     * Gather the listeners registered for the passed event class, its super classes and {@link AllEvent}. A listener
+     * registered at several levels of the hierarchy gets a single entry with all its events so that it's called only
+     * once per notified event. Should be called with the lock on this manager.
      * 
-     * @param listeners the listeners to notify
-     * @param event the event to pass to the registered listeners
-     * @param source the source of the event (or <code>null</code>)
-     * @param data the additional data related to the event (or <code>null</code>)
+     * @param eventClass the concrete class of a notified event
+     * @return the listeners to call for the passed event class
      */
-    private void notify(Collection<RegisteredListener> listeners, Event event, Object source, Object data)
+    private EventDispatch createDispatch(Class< ? extends Event> eventClass)
     {
-        for (RegisteredListener listener : listeners) {
-            // Verify that one of the events matches and send the first matching event
-            for (Event listenerEvent : listener.events) {
-                if (listenerEvent.matches(event)) {
-                    try {
-                        listener.listener.onEvent(event, source, data);
-                    } catch (Exception e) {
-                        // protect from bad listeners
-                        this.logger.error("Failed to send event [{}] to listener [{}]", new Object[] {event,
-                            listener.listener, e});
-                    }
+        Map<EventListener, List<Event>> listenerEvents = new LinkedHashMap<EventListener, List<Event>>();
 
-                    // Only send the first matching event since the listener should only be called once per event.
-                    break;
+        for (Class< ? > currentClass = eventClass; currentClass != null; currentClass =
+            currentClass.getSuperclass()) {
+            if (currentClass != AllEvent.class) {
+                addListenerEvents(this.listenersByEvent.get(currentClass), listenerEvents);
+            }
+        }
+
+        // Listeners listening all events
+        addListenerEvents(this.listenersByEvent.get(AllEvent.class), listenerEvents);
+
+        List<ListenerDispatch> dispatch = new ArrayList<ListenerDispatch>(listenerEvents.size());
+        for (Map.Entry<EventListener, List<Event>> entry : listenerEvents.entrySet()) {
+            dispatch.add(new ListenerDispatch(entry.getKey(), entry.getValue(),
+                this.asynchronousQueues.get(entry.getKey().getName()), this.statistics, eventClass));
+        }
+
+        return new EventDispatch(dispatch);
+    }
+
+    /**
+     * @param registeredListeners the listeners registered for an event class (or <code>null</code>)
+     * @param listenerEvents where to add the events of each listener, indexed by listener
+     */
+    private void addListenerEvents(Map<String, RegisteredListener> registeredListeners,
+        Map<EventListener, List<Event>> listenerEvents)
+    {
+        if (registeredListeners != null) {
+            for (RegisteredListener registeredListener : registeredListeners.values()) {
+                if (!registeredListener.events.isEmpty()) {
+                    List<Event> events = listenerEvents.get(registeredListener.listener);
+                    if (events == null) {
+                        events = new ArrayList<Event>();
+                        listenerEvents.put(registeredListener.listener, events);
+                    }
+                    events.addAll(registeredListener.events);
                 }
             }
         }
     }
 
+    @Override
+    public void notify(Event event, Object source, Object data)
+    {
+        // Find all listeners for this event
+        getDispatch(event.getClass()).notify(event, source, data, null, this.logger);
+
+        // We want this Observation Manager to be able to handle new Event Listener components being added or removed
+        // at runtime. Thus ideally we should make this Manager an Event Listener itself. However in order to avoid
+        // circular dependencies issues and in order to be more performant we simply handle ComponentDescriptorEvents
+        // here to add/remove Event Listeners.
+        if (event instanceof ComponentDescriptorEvent) {
+            onComponentEvent((ComponentDescriptorEvent) event, (ComponentManager) source,
+                (ComponentDescriptor<EventListener>) data);
+        }
+    }
+
     @Override
     public void notify(Event event, Object source)
     {
         notify(event, source, null);
     }
 
+    @Override
+    public void notify(List<EventRecord> events)
+    {
+        // Listeners resolved for each event class of the batch
+        Map<Class< ? extends Event>, EventDispatch> batchDispatch =
+            new HashMap<Class< ? extends Event>, EventDispatch>();
+        EventBatches batches = new EventBatches();
+
+        for (EventRecord record : events) {
+            Event event = record.getEvent();
+
+            EventDispatch dispatch = batchDispatch.get(event.getClass());
+            if (dispatch == null) {
+                dispatch = getDispatch(event.getClass());
+                batchDispatch.put(event.getClass(), dispatch);
+            }
+
+            dispatch.notify(event, record.getSource(), record.getData(), batches, this.logger);
+
+            if (event instanceof ComponentDescriptorEvent) {
+                onComponentEvent((ComponentDescriptorEvent) event, (ComponentManager) record.getSource(),
+                    (ComponentDescriptor<EventListener>) record.getData());
+
+                // Listeners may have been added or removed
+                batchDispatch.clear();
+            }
+        }
+
+        batches.deliver(this.logger);
+    }
+
     /**
      * A Component has been modified (added or removed) and we update our cache of Event Listeners if that Component is
      * an Event Listener.
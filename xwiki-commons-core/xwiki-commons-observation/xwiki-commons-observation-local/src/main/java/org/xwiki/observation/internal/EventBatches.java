@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.xwiki.observation.BatchEventListener;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.EventRecord;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Collect the events matching each {@link BatchEventListener} while a batch of events is notified so that they can be
+ * sent in a single call at the end of the batch.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+final class EventBatches
+{
+    /**
+     * The events collected for each listener, in the order of the first matching event.
+     */
+    private final Map<EventListener, Batch> batches = new LinkedHashMap<EventListener, Batch>();
+
+    /**
+     * The events collected for a listener.
+     */
+    private static final class Batch
+    {
+        /**
+         * The dispatch entry of the first event collected for the listener, used to call the listener.
+         */
+        private final ListenerDispatch dispatch;
+
+        /**
+         * The collected events.
+         */
+        private final List<EventRecord> events = new ArrayList<EventRecord>();
+
+        /**
+         * @param dispatch the dispatch entry of the first event collected for the listener
+         */
+        Batch(ListenerDispatch dispatch)
+        {
+            this.dispatch = dispatch;
+        }
+    }
+
+    /**
+     * @param dispatch the dispatch entry of a {@link BatchEventListener} matching the event
+     * @param event the event
+     * @param source the source of the event (or <code>null</code>)
+     * @param data the additional data related to the event (or <code>null</code>)
+     */
+    void add(ListenerDispatch dispatch, Event event, Object source, Object data)
+    {
+        Batch batch = this.batches.get(dispatch.getListener());
+        if (batch == null) {
+            batch = new Batch(dispatch);
+            this.batches.put(dispatch.getListener(), batch);
+        }
+
+        batch.events.add(new EventRecord(event, source, data));
+    }
+
+    /**
+     * Send the collected events to the listeners.
+     * 
+     * @param logger the logger used to report the listener failures
+     */
+    void deliver(Logger logger)
+    {
+        for (Batch batch : this.batches.values()) {
+            batch.dispatch.deliver(batch.events, logger);
+        }
+
+        this.batches.clear();
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.xwiki.observation.event.AbstractFilterableEvent;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.event.FilterableEvent;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.FixedNameEventFilter;
+import org.xwiki.observation.event.filter.RegexEventFilter;
+
+/**
+ * The listeners to call for a given concrete event class.
+ * <p>
+ * Listeners registered only with {@link AbstractFilterableEvent}s using a {@link FixedNameEventFilter} or a
+ * {@link RegexEventFilter} are indexed on the filter so that the listeners to call are found without testing each of
+ * them: fixed names are stored in a hash map and regular expressions are stored in a trie based on their literal
+ * prefix so that only the regular expressions which can possibly match the name of the notified event are executed.
+ * The other listeners are tested one by one with {@link Event#matches(Object)}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+final class EventDispatch
+{
+    /**
+     * The characters which have a special meaning in a regular expression.
+     */
+    private static final String REGEX_SPECIAL_CHARACTERS = "\\[](){}.*+?^$|";
+
+    /**
+     * The characters making optional the character preceding them in a regular expression.
+     */
+    private static final String REGEX_OPTIONAL_QUANTIFIERS = "*?{";
+
+    /**
+     * Listeners which have to be tested one by one.
+     */
+    private final ListenerDispatch[] listeners;
+
+    /**
+     * Listener events using a {@link FixedNameEventFilter} indexed by name.
+     */
+    private final Map<String, IndexedEvent[]> fixedNameIndex;
+
+    /**
+     * Listener events using a {@link RegexEventFilter} indexed by literal prefix, <code>null</code> if there isn't
+     * any.
+     */
+    private final PrefixNode regexIndex;
+
+    /**
+     * An event of a listener stored in the index.
+     */
+    private static final class IndexedEvent
+    {
+        /**
+         * The listener.
+         */
+        private final ListenerDispatch listener;
+
+        /**
+         * The index of the event in the listener events.
+         */
+        private final int index;
+
+        /**
+         * The filter of the event.
+         */
+        private final EventFilter filter;
+
+        /**
+         * @param listener the listener
+         * @param index the index of the event in the listener events
+         */
+        IndexedEvent(ListenerDispatch listener, int index)
+        {
+            this.listener = listener;
+            this.index = index;
+            this.filter = ((FilterableEvent) listener.getEvents()[index]).getEventFilter();
+        }
+
+        /**
+         * Send the event to the listener if this is the first event of the listener matching it. That way a listener is
+         * called only once even if several of its events match.
+         * 
+         * @param event the event to pass to the listener
+         * @param source the source of the event (or <code>null</code>)
+         * @param data the additional data related to the event (or <code>null</code>)
+         * @param batches where to collect the events of the batch listeners, <code>null</code> if no batch is being
+         *            notified
+         * @param logger the logger used to report the listener failures
+         */
+        void deliver(Event event, Object source, Object data, EventBatches batches, Logger logger)
+        {
+            if (!this.listener.matchesBefore(event, this.index)) {
+                this.listener.deliver(event, source, data, batches, logger);
+            }
+        }
+    }
+
+    /**
+     * A node of the regular expressions trie.
+     */
+    private static final class PrefixNode
+    {
+        /**
+         * The characters leading to the children nodes.
+         */
+        private char[] keys = new char[0];
+
+        /**
+         * The children nodes.
+         */
+        private PrefixNode[] children = new PrefixNode[0];
+
+        /**
+         * The regular expressions whose literal prefix ends with this node.
+         */
+        private List<IndexedEvent> events = new ArrayList<IndexedEvent>();
+
+        /**
+         * Immutable version of {@link #events}.
+         */
+        private IndexedEvent[] eventsArray;
+
+        /**
+         * @param c the character
+         * @return the child node associated with the passed character or <code>null</code> if there is none
+         */
+        PrefixNode getChild(char c)
+        {
+            for (int i = 0; i < this.keys.length; ++i) {
+                if (this.keys[i] == c) {
+                    return this.children[i];
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @param c the character
+         * @return the child node associated with the passed character, created if needed
+         */
+        PrefixNode getOrCreateChild(char c)
+        {
+            PrefixNode child = getChild(c);
+
+            if (child == null) {
+                child = new PrefixNode();
+
+                char[] newKeys = new char[this.keys.length + 1];
+                System.arraycopy(this.keys, 0, newKeys, 0, this.keys.length);
+                newKeys[this.keys.length] = c;
+                PrefixNode[] newChildren = new PrefixNode[this.children.length + 1];
+                System.arraycopy(this.children, 0, newChildren, 0, this.children.length);
+                newChildren[this.children.length] = child;
+
+                this.keys = newKeys;
+                this.children = newChildren;
+            }
+
+            return child;
+        }
+
+        /**
+         * Convert the mutable build structures into arrays.
+         */
+        void freeze()
+        {
+            this.eventsArray = this.events.toArray(new IndexedEvent[this.events.size()]);
+            this.events = null;
+
+            for (PrefixNode child : this.children) {
+                child.freeze();
+            }
+        }
+    }
+
+    /**
+     * @param dispatch the listeners to call for the event class
+     */
+    EventDispatch(List<ListenerDispatch> dispatch)
+    {
+        List<ListenerDispatch> notIndexed = new ArrayList<ListenerDispatch>();
+        Map<String, List<IndexedEvent>> fixedNames = new HashMap<String, List<IndexedEvent>>();
+        PrefixNode regexes = null;
+
+        for (ListenerDispatch listener : dispatch) {
+            if (isIndexable(listener)) {
+                Event[] events = listener.getEvents();
+                for (int i = 0; i < events.length; ++i) {
+                    IndexedEvent indexedEvent = new IndexedEvent(listener, i);
+                    if (indexedEvent.filter instanceof FixedNameEventFilter) {
+                        List<IndexedEvent> indexedEvents = fixedNames.get(indexedEvent.filter.getFilter());
+                        if (indexedEvents == null) {
+                            indexedEvents = new ArrayList<IndexedEvent>();
+                            fixedNames.put(indexedEvent.filter.getFilter(), indexedEvents);
+                        }
+                        indexedEvents.add(indexedEvent);
+                    } else {
+                        if (regexes == null) {
+                            regexes = new PrefixNode();
+                        }
+                        addRegex(regexes, indexedEvent);
+                    }
+                }
+            } else {
+                notIndexed.add(listener);
+            }
+        }
+
+        this.listeners = notIndexed.toArray(new ListenerDispatch[notIndexed.size()]);
+
+        if (fixedNames.isEmpty()) {
+            this.fixedNameIndex = null;
+        } else {
+            this.fixedNameIndex = new HashMap<String, IndexedEvent[]>(fixedNames.size() * 2);
+            for (Map.Entry<String, List<IndexedEvent>> entry : fixedNames.entrySet()) {
+                this.fixedNameIndex.put(entry.getKey(),
+                    entry.getValue().toArray(new IndexedEvent[entry.getValue().size()]));
+            }
+        }
+
+        if (regexes != null) {
+            regexes.freeze();
+        }
+        this.regexIndex = regexes;
+    }
+
+    /**
+     * @param listener the listener
+     * @return <code>true</code> if all the events of the listener can be indexed
+     */
+    private static boolean isIndexable(ListenerDispatch listener)
+    {
+        for (Event event : listener.getEvents()) {
+            if (!isIndexable(event)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param event the listener event
+     * @return <code>true</code> if the matching of the passed event is fully defined by its filter
+     */
+    private static boolean isIndexable(Event event)
+    {
+        if (event instanceof AbstractFilterableEvent) {
+            EventFilter filter = ((AbstractFilterableEvent) event).getEventFilter();
+            if (filter != null && filter.getFilter() != null
+                && (filter.getClass() == FixedNameEventFilter.class || filter.getClass() == RegexEventFilter.class)) {
+                try {
+                    // Make sure the standard matching is used
+                    return event.getClass().getMethod("matches", Object.class).getDeclaringClass()
+                        == AbstractFilterableEvent.class;
+                } catch (NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param root the root of the trie
+     * @param indexedEvent the listener event using a regular expression
+     */
+    private static void addRegex(PrefixNode root, IndexedEvent indexedEvent)
+    {
+        String regex = indexedEvent.filter.getFilter();
+
+        PrefixNode node = root;
+        if (regex.indexOf('|') == -1) {
+            for (int i = 0; i < regex.length(); ++i) {
+                char c = regex.charAt(i);
+                if (REGEX_SPECIAL_CHARACTERS.indexOf(c) != -1 || (i + 1 < regex.length()
+                    && REGEX_OPTIONAL_QUANTIFIERS.indexOf(regex.charAt(i + 1)) != -1)) {
+                    break;
+                }
+                node = node.getOrCreateChild(c);
+            }
+        }
+
+        node.events.add(indexedEvent);
+    }
+
+    /**
+     * Call the listeners matching the passed Event.
+     * 
+     * @param event the event to pass to the registered listeners
+     * @param source the source of the event (or <code>null</code>)
+     * @param data the additional data related to the event (or <code>null</code>)
+     * @param batches where to collect the events of the {@link org.xwiki.observation.BatchEventListener}s,
+     *            <code>null</code> if no batch is being notified
+     * @param logger the logger used to report the listener failures
+     */
+    void notify(Event event, Object source, Object data, EventBatches batches, Logger logger)
+    {
+        for (int i = 0; i < this.listeners.length; ++i) {
+            ListenerDispatch listener = this.listeners[i];
+            if (listener.matches(event)) {
+                listener.deliver(event, source, data, batches, logger);
+            }
+        }
+
+        if (this.fixedNameIndex != null || this.regexIndex != null) {
+            EventFilter eventFilter = ((FilterableEvent) event).getEventFilter();
+            String name = eventFilter != null ? eventFilter.getFilter() : null;
+            if (name != null) {
+                notifyIndexed(name, eventFilter, event, source, data, batches, logger);
+            }
+        }
+    }
+
+    /**
+     * Call the indexed listeners matching the passed Event.
+     * 
+     * @param name the name of the notified event
+     * @param eventFilter the filter of the notified event
+     * @param event the event to pass to the registered listeners
+     * @param source the source of the event (or <code>null</code>)
+     * @param data the additional data related to the event (or <code>null</code>)
+     * @param batches where to collect the events of the batch listeners, <code>null</code> if no batch is being
+     *            notified
+     * @param logger the logger used to report the listener failures
+     */
+    private void notifyIndexed(String name, EventFilter eventFilter, Event event, Object source, Object data,
+        EventBatches batches, Logger logger)
+    {
+        if (this.fixedNameIndex != null) {
+            IndexedEvent[] indexedEvents = this.fixedNameIndex.get(name);
+            if (indexedEvents != null) {
+                for (int i = 0; i < indexedEvents.length; ++i) {
+                    indexedEvents[i].deliver(event, source, data, batches, logger);
+                }
+            }
+        }
+
+        PrefixNode node = this.regexIndex;
+        for (int i = 0; node != null; ++i) {
+            IndexedEvent[] indexedEvents = node.eventsArray;
+            for (int j = 0; j < indexedEvents.length; ++j) {
+                if (indexedEvents[j].filter.matches(eventFilter)) {
+                    indexedEvents[j].deliver(event, source, data, batches, logger);
+                }
+            }
+
+            node = i < name.length() ? node.getChild(name.charAt(i)) : null;
+        }
+    }
+}
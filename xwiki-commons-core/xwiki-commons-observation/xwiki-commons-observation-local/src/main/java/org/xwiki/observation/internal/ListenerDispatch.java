@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.xwiki.observation.BatchEventListener;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.EventRecord;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Immutable snapshot of the events a listener is registered for, used to deliver the notified events.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+final class ListenerDispatch
+{
+    /**
+     * Listener to call.
+     */
+    private final EventListener listener;
+
+    /**
+     * Events the notified event is matched against.
+     */
+    private final Event[] events;
+
+    /**
+     * The queue to add the events to when the listener is an
+     * {@link org.xwiki.observation.AsynchronousEventListener}, <code>null</code> otherwise.
+     */
+    private final AsynchronousListenerQueue queue;
+
+    /**
+     * The statistics of the listeners.
+     */
+    private final ObservationStatistics statistics;
+
+    /**
+     * The concrete class of the events delivered through this object.
+     */
+    private final Class< ? extends Event> eventClass;
+
+    /**
+     * The statistics of the listener for {@link #eventClass}, lazily resolved the first time they are needed.
+     */
+    private ListenerStatistics listenerStatistics;
+
+    /**
+     * @param listener the listener to call
+     * @param events the events the notified event is matched against
+     * @param queue the queue of the listener if it's an {@link org.xwiki.observation.AsynchronousEventListener}
+     * @param statistics the statistics of the listeners
+     * @param eventClass the concrete class of the events delivered through this object
+     */
+    ListenerDispatch(EventListener listener, List<Event> events, AsynchronousListenerQueue queue,
+        ObservationStatistics statistics, Class< ? extends Event> eventClass)
+    {
+        this.listener = listener;
+        this.events = events.toArray(new Event[events.size()]);
+        this.queue = queue;
+        this.statistics = statistics;
+        this.eventClass = eventClass;
+    }
+
+    /**
+     * @return the listener to call
+     */
+    EventListener getListener()
+    {
+        return this.listener;
+    }
+
+    /**
+     * @return the events the notified event is matched against
+     */
+    Event[] getEvents()
+    {
+        return this.events;
+    }
+
+    /**
+     * @param event the notified event
+     * @return <code>true</code> if one of the events of the listener matches the passed event
+     */
+    boolean matches(Event event)
+    {
+        return matchesBefore(event, this.events.length);
+    }
+
+    /**
+     * @param event the notified event
+     * @param index the index of the first event of the listener not to test
+     * @return <code>true</code> if one of the events of the listener located before the passed index matches the
+     *         passed event
+     */
+    boolean matchesBefore(Event event, int index)
+    {
+        for (int i = 0; i < index; ++i) {
+            if (this.events[i].matches(event)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Send the event to the listener.
+     * 
+     * @param event the event to pass to the listener
+     * @param source the source of the event (or <code>null</code>)
+     * @param data the additional data related to the event (or <code>null</code>)
+     * @param batches where to collect the event if the listener is a {@link BatchEventListener} and a batch of events
+     *            is being notified, <code>null</code> otherwise
+     * @param logger the logger used to report the listener failures
+     */
+    void deliver(Event event, Object source, Object data, EventBatches batches, Logger logger)
+    {
+        if (this.queue != null) {
+            this.queue.add(event, source, data, getStatistics());
+        } else if (batches != null && this.listener instanceof BatchEventListener) {
+            batches.add(this, event, source, data);
+        } else {
+            call(this.listener, event, source, data, getStatistics(), logger);
+        }
+    }
+
+    /**
+     * Send a batch of events to the listener, which must be a {@link BatchEventListener}.
+     * 
+     * @param batch the events to pass to the listener
+     * @param logger the logger used to report the listener failures
+     */
+    void deliver(List<EventRecord> batch, Logger logger)
+    {
+        ListenerStatistics currentStatistics = getStatistics();
+        long start = currentStatistics != null ? System.nanoTime() : 0;
+        boolean failed = false;
+
+        try {
+            ((BatchEventListener) this.listener).onEvents(batch);
+        } catch (Exception e) {
+            failed = true;
+
+            // protect from bad listeners
+            logger.error("Failed to send [{}] events to listener [{}]", new Object[] {batch.size(), this.listener,
+                e});
+        }
+
+        if (currentStatistics != null) {
+            currentStatistics.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * @return the statistics where to record the calls to the listener or <code>null</code> if recording is disabled
+     */
+    private ListenerStatistics getStatistics()
+    {
+        if (!this.statistics.isEnabled()) {
+            return null;
+        }
+
+        if (this.listenerStatistics == null) {
+            // Several threads may resolve it at the same time but they all get the same instance
+            this.listenerStatistics = this.statistics.getListenerStatistics(this.listener.getName(), this.eventClass);
+        }
+
+        return this.listenerStatistics;
+    }
+
+    /**
+     * Call the listener, protecting the caller from the listener failures.
+     * 
+     * @param listener the listener to call
+     * @param event the event to pass to the listener
+     * @param source the source of the event (or <code>null</code>)
+     * @param data the additional data related to the event (or <code>null</code>)
+     * @param statistics where to record the call or <code>null</code> if it should not be recorded
+     * @param logger the logger used to report the listener failures
+     */
+    static void call(EventListener listener, Event event, Object source, Object data, ListenerStatistics statistics,
+        Logger logger)
+    {
+        long start = statistics != null ? System.nanoTime() : 0;
+        boolean failed = false;
+
+        try {
+            listener.onEvent(event, source, data);
+        } catch (Exception e) {
+            failed = true;
+
+            // protect from bad listeners
+            logger.error("Failed to send event [{}] to listener [{}]", new Object[] {event, listener, e});
+        }
+
+        if (statistics != null) {
+            statistics.record(System.nanoTime() - start, failed);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Statistics about the calls of a listener for a given event class.
+ * <p>
+ * The counters are striped by thread in cells padded to avoid false sharing so that concurrent notifications don't
+ * contend on the same memory location.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public final class ListenerStatistics
+{
+    /**
+     * The number of stripes, a power of two.
+     */
+    private static final int STRIPES =
+        Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors())) * 2;
+
+    /**
+     * The number of longs in a cell, 8 longs make a 64 bytes cache line.
+     */
+    private static final int CELL_SIZE = 8;
+
+    /**
+     * The index of the invocation counter in a cell.
+     */
+    private static final int INVOCATIONS = 0;
+
+    /**
+     * The index of the cumulative time counter in a cell.
+     */
+    private static final int TIME = 1;
+
+    /**
+     * The index of the failure counter in a cell.
+     */
+    private static final int FAILURES = 2;
+
+    /**
+     * The name of the listener.
+     */
+    private final String listenerName;
+
+    /**
+     * The name of the class of the notified events. The class itself is not kept so that the statistics don't prevent
+     * it from being garbage collected.
+     */
+    private final String eventClassName;
+
+    /**
+     * The striped counters.
+     */
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * CELL_SIZE);
+
+    /**
+     * @see #getMaxTime()
+     */
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * The time when the statistics started to be recorded in nanoseconds.
+     */
+    private volatile long startTime = System.nanoTime();
+
+    /**
+     * @param listenerName the name of the listener
+     * @param eventClass the class of the notified events
+     */
+    public ListenerStatistics(String listenerName, Class< ? extends Event> eventClass)
+    {
+        this.listenerName = listenerName;
+        this.eventClassName = eventClass.getName();
+    }
+
+    /**
+     * @return the name of the listener
+     */
+    public String getListenerName()
+    {
+        return this.listenerName;
+    }
+
+    /**
+     * @return the name of the class of the notified events
+     */
+    public String getEventClassName()
+    {
+        return this.eventClassName;
+    }
+
+    /**
+     * Record a call to the listener.
+     * 
+     * @param time the time spent in the listener in nanoseconds
+     * @param failed <code>true</code> if the listener thrown an exception
+     */
+    public void record(long time, boolean failed)
+    {
+        int cell = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * CELL_SIZE;
+
+        this.cells.incrementAndGet(cell + INVOCATIONS);
+        this.cells.addAndGet(cell + TIME, time);
+        if (failed) {
+            this.cells.incrementAndGet(cell + FAILURES);
+        }
+
+        long currentMax = this.maxTime.get();
+        while (time > currentMax && !this.maxTime.compareAndSet(currentMax, time)) {
+            currentMax = this.maxTime.get();
+        }
+    }
+
+    /**
+     * @param counter the index of the counter in a cell
+     * @return the sum of the counter in all the cells
+     */
+    private long sum(int counter)
+    {
+        long sum = 0;
+        for (int i = counter; i < this.cells.length(); i += CELL_SIZE) {
+            sum += this.cells.get(i);
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return the number of calls to the listener
+     */
+    public long getInvocationCount()
+    {
+        return sum(INVOCATIONS);
+    }
+
+    /**
+     * @return the cumulative time spent in the listener in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        return sum(TIME);
+    }
+
+    /**
+     * @return the longest time spent in a call to the listener in nanoseconds
+     */
+    public long getMaxTime()
+    {
+        return this.maxTime.get();
+    }
+
+    /**
+     * @return the number of calls to the listener which thrown an exception
+     */
+    public long getFailureCount()
+    {
+        return sum(FAILURES);
+    }
+
+    /**
+     * @return the average number of calls to the listener per second since the statistics started to be recorded
+     */
+    public double getEventsPerSecond()
+    {
+        long elapsed = System.nanoTime() - this.startTime;
+
+        return elapsed > 0 ? getInvocationCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+    }
+
+    /**
+     * Restart recording from zero.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < this.cells.length(); ++i) {
+            this.cells.set(i, 0);
+        }
+        this.maxTime.set(0);
+        this.startTime = System.nanoTime();
+    }
+}
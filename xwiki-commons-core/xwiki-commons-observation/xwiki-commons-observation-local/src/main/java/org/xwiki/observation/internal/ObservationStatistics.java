@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Statistics about the calls of the listeners registered in the {@link DefaultObservationManager}, indexed by
+ * listener name and event class.
+ * <p>
+ * Recording is disabled by default and can be switched on and off at runtime. The event classes are weakly referenced
+ * so that the statistics don't prevent the classes of an uninstalled extension from being garbage collected, and the
+ * statistics of a listener are removed when it's unregistered.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ObservationStatistics
+{
+    /**
+     * @see #isEnabled()
+     */
+    private volatile boolean enabled;
+
+    /**
+     * The statistics indexed by listener name and event class.
+     */
+    private final ConcurrentMap<String, Map<Class< ? extends Event>, ListenerStatistics>> statistics =
+        new ConcurrentHashMap<String, Map<Class< ? extends Event>, ListenerStatistics>>();
+
+    /**
+     * @return <code>true</code> if the calls to the listeners are recorded
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @param enabled <code>true</code> to record the calls to the listeners
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param listenerName the name of the listener
+     * @param eventClass the class of the notified events
+     * @return the statistics of the passed listener for the passed event class, created if needed
+     */
+    public ListenerStatistics getListenerStatistics(String listenerName, Class< ? extends Event> eventClass)
+    {
+        Map<Class< ? extends Event>, ListenerStatistics> listenerStatistics = this.statistics.get(listenerName);
+        if (listenerStatistics == null) {
+            listenerStatistics =
+                Collections.synchronizedMap(new WeakHashMap<Class< ? extends Event>, ListenerStatistics>());
+            Map<Class< ? extends Event>, ListenerStatistics> previous =
+                this.statistics.putIfAbsent(listenerName, listenerStatistics);
+            if (previous != null) {
+                listenerStatistics = previous;
+            }
+        }
+
+        synchronized (listenerStatistics) {
+            ListenerStatistics eventStatistics = listenerStatistics.get(eventClass);
+            if (eventStatistics == null) {
+                eventStatistics = new ListenerStatistics(listenerName, eventClass);
+                listenerStatistics.put(eventClass, eventStatistics);
+            }
+
+            return eventStatistics;
+        }
+    }
+
+    /**
+     * Forget the statistics of an unregistered listener.
+     * 
+     * @param listenerName the name of the listener
+     */
+    public void removeListenerStatistics(String listenerName)
+    {
+        this.statistics.remove(listenerName);
+    }
+
+    /**
+     * @return all the recorded statistics
+     */
+    public List<ListenerStatistics> getListenerStatistics()
+    {
+        List<ListenerStatistics> result = new ArrayList<ListenerStatistics>();
+        for (Map<Class< ? extends Event>, ListenerStatistics> listenerStatistics : this.statistics.values()) {
+            synchronized (listenerStatistics) {
+                result.addAll(listenerStatistics.values());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Restart recording from zero for all the listeners.
+     */
+    public void reset()
+    {
+        for (ListenerStatistics listenerStatistics : getListenerStatistics()) {
+            listenerStatistics.reset();
+        }
+    }
+}
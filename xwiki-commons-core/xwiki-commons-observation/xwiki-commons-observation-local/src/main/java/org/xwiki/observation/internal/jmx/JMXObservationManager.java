@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal.jmx;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.xwiki.observation.internal.AsynchronousListenerQueue;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.observation.internal.ListenerStatistics;
+
+/**
+ * Expose the statistics of the {@link DefaultObservationManager} as JMX Open types.
+ *
+ * @version $Id$
+ * @since 4.1
+ */
+public class JMXObservationManager implements JMXObservationManagerMBean
+{
+    /**
+     * The name of the column containing the listener name.
+     */
+    private static final String LISTENER_NAME = "listenerName";
+
+    /**
+     * The Observation Manager for which to return management data.
+     */
+    private DefaultObservationManager observationManager;
+
+    /**
+     * @param observationManager the Observation Manager for which to return management data
+     */
+    public JMXObservationManager(DefaultObservationManager observationManager)
+    {
+        this.observationManager = observationManager;
+    }
+
+    @Override
+    public boolean isStatisticsEnabled()
+    {
+        return this.observationManager.getStatistics().isEnabled();
+    }
+
+    @Override
+    public void setStatisticsEnabled(boolean enabled)
+    {
+        this.observationManager.getStatistics().setEnabled(enabled);
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        this.observationManager.getStatistics().reset();
+    }
+
+    @Override
+    public TabularData getListenerStatistics()
+    {
+        TabularData data;
+
+        try {
+            String[] columnNames =
+                new String[] {LISTENER_NAME, "eventClass", "invocationCount", "totalTime", "averageTime", "maxTime",
+                    "failureCount", "eventsPerSecond"};
+            String[] descriptions =
+                new String[] {"The name of the listener", "The class of the notified events",
+                    "The number of calls to the listener", "The cumulative time spent in the listener (ms)",
+                    "The average time spent in a call to the listener (ms)",
+                    "The longest time spent in a call to the listener (ms)",
+                    "The number of calls which failed with an exception",
+                    "The average number of calls per second"};
+            CompositeType rowType =
+                new CompositeType("listenerStatistics", "Statistics of a listener for an event class", columnNames,
+                    descriptions, new OpenType[] {SimpleType.STRING, SimpleType.STRING, SimpleType.LONG,
+                        SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.LONG, SimpleType.DOUBLE});
+
+            TabularType type =
+                new TabularType("listenersStatistics", "Statistics of the listeners", rowType, new String[] {
+                    LISTENER_NAME, "eventClass"});
+            data = new TabularDataSupport(type);
+
+            for (ListenerStatistics statistics : this.observationManager.getStatistics().getListenerStatistics()) {
+                long count = statistics.getInvocationCount();
+                double totalTime = toMilliseconds(statistics.getTotalTime());
+                data.put(new CompositeDataSupport(rowType, columnNames, new Object[] {
+                    statistics.getListenerName(), statistics.getEventClassName(), count, totalTime,
+                    count > 0 ? totalTime / count : 0D, toMilliseconds(statistics.getMaxTime()),
+                    statistics.getFailureCount(), statistics.getEventsPerSecond()}));
+            }
+        } catch (OpenDataException e) {
+            throw new RuntimeException("Failed to gather statistics on Event Listeners", e);
+        }
+
+        return data;
+    }
+
+    @Override
+    public TabularData getAsynchronousListenerQueues()
+    {
+        TabularData data;
+
+        try {
+            String[] columnNames =
+                new String[] {LISTENER_NAME, "size", "maxSize", "capacity", "deliveredCount", "droppedCount",
+                    "callerRunsCount"};
+            String[] descriptions =
+                new String[] {"The name of the listener", "The number of events waiting to be delivered",
+                    "The maximum number of events which waited at the same time",
+                    "The maximum number of events which can wait",
+                    "The number of events delivered to the listener",
+                    "The number of events dropped because the queue was full",
+                    "The number of events delivered in the notifying thread because the queue was full"};
+            CompositeType rowType =
+                new CompositeType("asynchronousListenerQueue", "State of the queue of an asynchronous listener",
+                    columnNames, descriptions, new OpenType[] {SimpleType.STRING, SimpleType.INTEGER,
+                        SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+
+            TabularType type =
+                new TabularType("asynchronousListenerQueues", "State of the queues of the asynchronous listeners",
+                    rowType, new String[] {LISTENER_NAME});
+            data = new TabularDataSupport(type);
+
+            for (Map.Entry<String, AsynchronousListenerQueue> entry : this.observationManager
+                .getAsynchronousListenerQueues().entrySet()) {
+                AsynchronousListenerQueue queue = entry.getValue();
+                data.put(new CompositeDataSupport(rowType, columnNames, new Object[] {entry.getKey(),
+                    queue.getSize(), queue.getMaxSize(), queue.getCapacity(), queue.getDeliveredCount(),
+                    queue.getDroppedCount(), queue.getCallerRunsCount()}));
+            }
+        } catch (OpenDataException e) {
+            throw new RuntimeException("Failed to gather information on asynchronous Event Listeners", e);
+        }
+
+        return data;
+    }
+
+    /**
+     * @param nanoseconds a time in nanoseconds
+     * @return the passed time in milliseconds
+     */
+    private double toMilliseconds(long nanoseconds)
+    {
+        return (double) nanoseconds / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
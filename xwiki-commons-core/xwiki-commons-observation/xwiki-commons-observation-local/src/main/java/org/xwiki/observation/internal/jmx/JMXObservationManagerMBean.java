@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal.jmx;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * MBean API related to the Observation Manager. Supports the following features:
+ * <ul>
+ *   <li>Enable or disable the recording of statistics about the calls of the listeners</li>
+ *   <li>Retrieve the number of calls, the time spent and the failures of each listener for each event class</li>
+ *   <li>Retrieve the state of the queues of the asynchronous listeners</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 4.1
+ */
+public interface JMXObservationManagerMBean
+{
+    /**
+     * @return <code>true</code> if the calls of the listeners are recorded
+     */
+    boolean isStatisticsEnabled();
+
+    /**
+     * @param enabled <code>true</code> to record the calls of the listeners
+     */
+    void setStatisticsEnabled(boolean enabled);
+
+    /**
+     * Restart recording the statistics from zero.
+     */
+    void resetStatistics();
+
+    /**
+     * @return the number of calls, the time spent and the failures of each listener for each event class
+     */
+    TabularData getListenerStatistics();
+
+    /**
+     * @return the size and counters of the queues of the asynchronous listeners
+     */
+    TabularData getAsynchronousListenerQueues();
+}
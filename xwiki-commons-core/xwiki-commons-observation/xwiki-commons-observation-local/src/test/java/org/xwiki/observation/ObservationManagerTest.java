@@ -19,19 +19,29 @@
  */
 package org.xwiki.observation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.observation.event.AbstractFilterableEvent;
 import org.xwiki.observation.event.ActionExecutionEvent;
 import org.xwiki.observation.event.AllEvent;
 import org.xwiki.observation.event.Event;
+import org.xwiki.observation.event.filter.EventFilter;
+import org.xwiki.observation.event.filter.RegexEventFilter;
 import org.xwiki.observation.internal.DefaultObservationManager;
 
 /**
@@ -41,6 +51,31 @@
  */
 public class ObservationManagerTest
 {
+    public static class TestFilterableEvent extends AbstractFilterableEvent
+    {
+        private static final long serialVersionUID = 1L;
+
+        public TestFilterableEvent(String name)
+        {
+            super(name);
+        }
+
+        public TestFilterableEvent(EventFilter eventFilter)
+        {
+            super(eventFilter);
+        }
+    }
+
+    public static class TestActionExecutionEvent extends ActionExecutionEvent
+    {
+        private static final long serialVersionUID = 1L;
+
+        public TestActionExecutionEvent(String actionName)
+        {
+            super(actionName);
+        }
+    }
+
     private ObservationManager manager;
 
     private Mockery context = new Mockery();
@@ -235,4 +270,249 @@ public void testRegisterListenerForTwoEventsOfSameType()
         this.manager.notify(eventMatcher1, "some source", "some data");
         this.manager.notify(eventMatcher2, "some source", "some data");
     }
+
+    /**
+     * Verify that a listener registered for an event class receives the events extending that class.
+     */
+    @Test
+    public void testNotifyEventSubclass()
+    {
+        final EventListener listener = this.context.mock(EventListener.class);
+        final Event eventMatcher = new ActionExecutionEvent("action");
+        final Event notifyEvent = new ActionExecutionEvent("action")
+        {
+            private static final long serialVersionUID = 1L;
+        };
+
+        this.context.checking(new Expectations() {{
+            allowing(listener).getName(); will(returnValue("mylistener"));
+            allowing(listener).getEvents(); will(returnValue(Arrays.asList(eventMatcher)));
+
+            oneOf(listener).onEvent(with(same(notifyEvent)), with(any(Object.class)), with(any(Object.class)));
+        }});
+
+        this.manager.addListener(listener);
+        this.manager.notify(notifyEvent, "some source", "some data");
+    }
+
+    /**
+     * Verify that a listener registered for an event class and for one of its super classes is called only once.
+     */
+    @Test
+    public void testNotifyListenerRegisteredForEventAndSuperClass()
+    {
+        final List<Event> received = new ArrayList<Event>();
+        final List<Event> events =
+            Arrays.<Event>asList(new ActionExecutionEvent("action"), new TestActionExecutionEvent("action"));
+        EventListener listener = new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "mylistener";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return events;
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                received.add(event);
+            }
+        };
+
+        this.manager.addListener(listener);
+        Event event = new TestActionExecutionEvent("action");
+        this.manager.notify(event, "some source", "some data");
+
+        Assert.assertEquals(Arrays.asList(event), received);
+    }
+
+    /**
+     * Verify that listeners registered after an event has already been sent receive the next events.
+     */
+    @Test
+    public void testAddListenerAfterNotify()
+    {
+        final EventListener listener = this.context.mock(EventListener.class);
+        final Event event = new ActionExecutionEvent("action");
+
+        this.context.checking(new Expectations() {{
+            allowing(listener).getName(); will(returnValue("mylistener"));
+            allowing(listener).getEvents(); will(returnValue(Arrays.asList(event)));
+
+            oneOf(listener).onEvent(with(same(event)), with(any(Object.class)), with(any(Object.class)));
+        }});
+
+        this.manager.notify(event, "some source", "some data");
+        this.manager.addListener(listener);
+        this.manager.notify(event, "some source", "some data");
+        this.manager.removeListener("mylistener");
+        this.manager.notify(event, "some source", "some data");
+    }
+
+    /**
+     * Verify that asynchronous listeners receive the events in order in another thread.
+     */
+    @Test
+    public void testAsynchronousListener() throws Exception
+    {
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        final Thread notifyingThread = Thread.currentThread();
+
+        this.manager.addListener(new AsynchronousEventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "mylistener";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.<Event>asList(new ActionExecutionEvent("action"));
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                if (Thread.currentThread() != notifyingThread) {
+                    received.add((String) source);
+                }
+                latch.countDown();
+            }
+
+            @Override
+            public int getQueueCapacity()
+            {
+                return 10;
+            }
+
+            @Override
+            public OverflowStrategy getOverflowStrategy()
+            {
+                return OverflowStrategy.BLOCK;
+            }
+        });
+
+        this.manager.notify(new ActionExecutionEvent("action"), "1");
+        this.manager.notify(new ActionExecutionEvent("otheraction"), "ignored");
+        this.manager.notify(new ActionExecutionEvent("action"), "2");
+        this.manager.notify(new ActionExecutionEvent("action"), "3");
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), received);
+    }
+
+    /**
+     * Verify that listeners filtering events on name are called only when matching.
+     */
+    @Test
+    public void testNotifyFilterableEvents()
+    {
+        final EventListener fixedListener = this.context.mock(EventListener.class, "fixed");
+        final EventListener regexListener = this.context.mock(EventListener.class, "regex");
+        final EventListener anyListener = this.context.mock(EventListener.class, "any");
+        final EventListener severalListener = this.context.mock(EventListener.class, "several");
+
+        final Event spaceEvent = new TestFilterableEvent("Space.Page");
+        final Event otherSpaceEvent = new TestFilterableEvent("Other.Page");
+        final Event otherPageEvent = new TestFilterableEvent("Space.OtherPage");
+
+        this.context.checking(new Expectations() {{
+            allowing(fixedListener).getName(); will(returnValue("fixed"));
+            allowing(fixedListener).getEvents();
+            will(returnValue(Arrays.<Event>asList(new TestFilterableEvent("Space.Page"))));
+            allowing(regexListener).getName(); will(returnValue("regex"));
+            allowing(regexListener).getEvents();
+            will(returnValue(Arrays.<Event>asList(new TestFilterableEvent(new RegexEventFilter("Spac?e\\..*")))));
+            allowing(anyListener).getName(); will(returnValue("any"));
+            allowing(anyListener).getEvents();
+            will(returnValue(Arrays.<Event>asList(new TestFilterableEvent(new RegexEventFilter(".*Page")))));
+            allowing(severalListener).getName(); will(returnValue("several"));
+            allowing(severalListener).getEvents();
+            will(returnValue(Arrays.<Event>asList(new TestFilterableEvent("Space.Page"),
+                new TestFilterableEvent(new RegexEventFilter("Space\\..*")))));
+
+            oneOf(fixedListener).onEvent(with(same(spaceEvent)), with(any(Object.class)), with(any(Object.class)));
+            oneOf(regexListener).onEvent(with(same(spaceEvent)), with(any(Object.class)), with(any(Object.class)));
+            oneOf(regexListener).onEvent(with(same(otherPageEvent)), with(any(Object.class)),
+                with(any(Object.class)));
+            oneOf(anyListener).onEvent(with(same(spaceEvent)), with(any(Object.class)), with(any(Object.class)));
+            oneOf(anyListener).onEvent(with(same(otherSpaceEvent)), with(any(Object.class)),
+                with(any(Object.class)));
+            oneOf(anyListener).onEvent(with(same(otherPageEvent)), with(any(Object.class)),
+                with(any(Object.class)));
+            oneOf(severalListener).onEvent(with(same(spaceEvent)), with(any(Object.class)),
+                with(any(Object.class)));
+            oneOf(severalListener).onEvent(with(same(otherPageEvent)), with(any(Object.class)),
+                with(any(Object.class)));
+        }});
+
+        this.manager.addListener(fixedListener);
+        this.manager.addListener(regexListener);
+        this.manager.addListener(anyListener);
+        this.manager.addListener(severalListener);
+
+        this.manager.notify(spaceEvent, null);
+        this.manager.notify(otherSpaceEvent, null);
+        this.manager.notify(otherPageEvent, null);
+
+        this.context.assertIsSatisfied();
+    }
+
+    /**
+     * Verify that batch listeners receive all the matching events of a batch at once and the other listeners receive
+     * them one by one.
+     */
+    @Test
+    public void testNotifyBatch()
+    {
+        final BatchEventListener batchListener = this.context.mock(BatchEventListener.class);
+        final EventListener listener = this.context.mock(EventListener.class);
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Event otherEvent = new ActionExecutionEvent("other");
+
+        final List<EventRecord> batch = new ArrayList<EventRecord>();
+
+        this.context.checking(new Expectations() {{
+            allowing(batchListener).getName(); will(returnValue("batchlistener"));
+            allowing(batchListener).getEvents(); will(returnValue(Arrays.asList(event1, event2)));
+            allowing(listener).getName(); will(returnValue("mylistener"));
+            allowing(listener).getEvents(); will(returnValue(Arrays.asList(event1, event2)));
+
+            oneOf(listener).onEvent(event1, "source1", null);
+            oneOf(listener).onEvent(event2, "source2", "data2");
+            oneOf(batchListener).onEvents(with(any(List.class)));
+            will(new CustomAction("store the batch")
+            {
+                @Override
+                public Object invoke(Invocation invocation)
+                {
+                    batch.addAll((List<EventRecord>) invocation.getParameter(0));
+                    return null;
+                }
+            });
+        }});
+
+        this.manager.addListener(batchListener);
+        this.manager.addListener(listener);
+
+        ((BatchObservationManager) this.manager).notify(Arrays.asList(new EventRecord(event1, "source1"),
+            new EventRecord(otherEvent, null), new EventRecord(event2, "source2", "data2")));
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(2, batch.size());
+        Assert.assertSame(event1, batch.get(0).getEvent());
+        Assert.assertEquals("source1", batch.get(0).getSource());
+        Assert.assertSame(event2, batch.get(1).getEvent());
+        Assert.assertEquals("data2", batch.get(1).getData());
+    }
 }
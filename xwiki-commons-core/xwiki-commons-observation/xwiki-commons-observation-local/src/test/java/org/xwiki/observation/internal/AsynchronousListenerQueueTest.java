@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.observation.AsynchronousEventListener;
+import org.xwiki.observation.AsynchronousEventListener.OverflowStrategy;
+import org.xwiki.observation.event.ActionExecutionEvent;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Unit tests for {@link AsynchronousListenerQueue}.
+ * 
+ * @version $Id$
+ */
+public class AsynchronousListenerQueueTest
+{
+    private Mockery context = new Mockery();
+
+    private AsynchronousEventListener listener;
+
+    private Logger logger;
+
+    /**
+     * Executor keeping the tasks until {@link #runTasks()} is called.
+     */
+    private List<Runnable> tasks = new ArrayList<Runnable>();
+
+    private Executor executor = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+    };
+
+    @Before
+    public void setUp()
+    {
+        this.listener = this.context.mock(AsynchronousEventListener.class);
+        this.logger = this.context.mock(Logger.class);
+    }
+
+    private void runTasks()
+    {
+        while (!this.tasks.isEmpty()) {
+            this.tasks.remove(0).run();
+        }
+    }
+
+    private AsynchronousListenerQueue createQueue(final OverflowStrategy strategy)
+    {
+        this.context.checking(new Expectations() {{
+            allowing(listener).getName(); will(returnValue("mylistener"));
+            allowing(listener).getQueueCapacity(); will(returnValue(2));
+            allowing(listener).getOverflowStrategy(); will(returnValue(strategy));
+        }});
+
+        return new AsynchronousListenerQueue(this.listener, this.executor, this.logger);
+    }
+
+    @Test
+    public void testDeliverInOrder()
+    {
+        AsynchronousListenerQueue queue = createQueue(OverflowStrategy.BLOCK);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Sequence sequence = this.context.sequence("events");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event1, "source", null); inSequence(sequence);
+            oneOf(listener).onEvent(event2, "source", null); inSequence(sequence);
+        }});
+
+        queue.add(event1, "source", null, null);
+        queue.add(event2, "source", null, null);
+
+        // Only one drain task is scheduled at a time
+        Assert.assertEquals(1, this.tasks.size());
+        Assert.assertEquals(2, queue.getSize());
+
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(0, queue.getSize());
+        Assert.assertEquals(2, queue.getMaxSize());
+        Assert.assertEquals(2, queue.getDeliveredCount());
+    }
+
+    @Test
+    public void testDropOldest()
+    {
+        AsynchronousListenerQueue queue = createQueue(OverflowStrategy.DROP_OLDEST);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Event event3 = new ActionExecutionEvent("action3");
+
+        this.context.checking(new Expectations() {{
+            never(listener).onEvent(event1, null, null);
+            oneOf(listener).onEvent(event2, null, null);
+            oneOf(listener).onEvent(event3, null, null);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.add(event2, null, null, null);
+        queue.add(event3, null, null, null);
+
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(1, queue.getDroppedCount());
+        Assert.assertEquals(2, queue.getCapacity());
+    }
+
+    @Test
+    public void testCallerRuns()
+    {
+        AsynchronousListenerQueue queue = createQueue(OverflowStrategy.CALLER_RUNS);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Event event3 = new ActionExecutionEvent("action3");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event3, null, null);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.add(event2, null, null, null);
+        queue.add(event3, null, null, null);
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(1, queue.getCallerRunsCount());
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event1, null, null);
+            oneOf(listener).onEvent(event2, null, null);
+        }});
+
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertTrue(this.tasks.isEmpty());
+    }
+
+    @Test
+    public void testDefaultStrategyDoesNotBlock()
+    {
+        AsynchronousListenerQueue queue = createQueue(null);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Event event3 = new ActionExecutionEvent("action3");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event3, null, null);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.add(event2, null, null, null);
+        queue.add(event3, null, null, null);
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(1, queue.getCallerRunsCount());
+    }
+
+    @Test
+    public void testBlockFromDeliveryThread()
+    {
+        final AsynchronousListenerQueue queue = createQueue(OverflowStrategy.BLOCK);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Event event3 = new ActionExecutionEvent("action3");
+        final Event event4 = new ActionExecutionEvent("action4");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event1, null, null); will(new CustomAction("send events")
+            {
+                @Override
+                public Object invoke(Invocation invocation) throws Throwable
+                {
+                    // The queue still contains event2 so there's room only for event3
+                    queue.add(event3, null, null, null);
+                    queue.add(event4, null, null, null);
+
+                    return null;
+                }
+            });
+            oneOf(listener).onEvent(event4, null, null);
+            oneOf(listener).onEvent(event2, null, null);
+            oneOf(listener).onEvent(event3, null, null);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.add(event2, null, null, null);
+
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(1, queue.getCallerRunsCount());
+    }
+
+    @Test
+    public void testClose()
+    {
+        AsynchronousListenerQueue queue = createQueue(OverflowStrategy.BLOCK);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event1, null, null);
+            never(listener).onEvent(event2, null, null);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.close();
+        queue.add(event2, null, null, null);
+
+        // The events queued before closing are still delivered
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testTransferTo()
+    {
+        AsynchronousListenerQueue queue = createQueue(OverflowStrategy.BLOCK);
+        AsynchronousListenerQueue newQueue = new AsynchronousListenerQueue(this.listener, this.executor, this.logger);
+
+        final Event event1 = new ActionExecutionEvent("action1");
+        final Event event2 = new ActionExecutionEvent("action2");
+        final Sequence sequence = this.context.sequence("events");
+
+        this.context.checking(new Expectations() {{
+            oneOf(listener).onEvent(event1, null, null); inSequence(sequence);
+            oneOf(listener).onEvent(event2, null, null); inSequence(sequence);
+        }});
+
+        queue.add(event1, null, null, null);
+        queue.transferTo(newQueue);
+        queue.add(event2, null, null, null);
+
+        Assert.assertEquals(0, queue.getSize());
+        Assert.assertEquals(2, newQueue.getSize());
+
+        runTasks();
+
+        this.context.assertIsSatisfied();
+        Assert.assertEquals(0, queue.getDeliveredCount());
+    }
+}
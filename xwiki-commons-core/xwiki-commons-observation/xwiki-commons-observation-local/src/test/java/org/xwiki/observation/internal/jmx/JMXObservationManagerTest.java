@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.observation.internal.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.management.JMXBeanRegistration;
+import org.xwiki.management.internal.DefaultJMXBeanRegistration;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.ActionExecutionEvent;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.internal.DefaultObservationManager;
+
+/**
+ * Unit tests for {@link JMXObservationManager}.
+ * 
+ * @version $Id$
+ */
+public class JMXObservationManagerTest
+{
+    private Mockery context = new Mockery();
+
+    private DefaultObservationManager manager;
+
+    private JMXObservationManager jmxBean;
+
+    private Logger logger;
+
+    @Before
+    public void setUp()
+    {
+        this.manager = new DefaultObservationManager();
+        this.logger = this.context.mock(Logger.class);
+        this.context.checking(new Expectations() {{
+            ignoring(logger);
+        }});
+        ReflectionUtils.setFieldValue(this.manager, "logger", this.logger);
+        this.jmxBean = new JMXObservationManager(this.manager);
+
+        this.manager.addListener(new EventListener()
+        {
+            @Override
+            public String getName()
+            {
+                return "mylistener";
+            }
+
+            @Override
+            public List<Event> getEvents()
+            {
+                return Arrays.<Event>asList(new ActionExecutionEvent("action"));
+            }
+
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                if (source != null) {
+                    throw new RuntimeException("failure");
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testGetListenerStatistics() throws Exception
+    {
+        // Disabled by default
+        Assert.assertFalse(this.jmxBean.isStatisticsEnabled());
+        this.manager.notify(new ActionExecutionEvent("action"), null);
+        Assert.assertTrue(this.jmxBean.getListenerStatistics().isEmpty());
+
+        this.jmxBean.setStatisticsEnabled(true);
+        this.manager.notify(new ActionExecutionEvent("action"), null);
+        this.manager.notify(new ActionExecutionEvent("otheraction"), null);
+        this.manager.notify(new ActionExecutionEvent("action"), null);
+
+        TabularData data = this.jmxBean.getListenerStatistics();
+
+        Assert.assertEquals(1, data.values().size());
+        CompositeData cd = ((CompositeData) data.values().iterator().next());
+        Assert.assertEquals("mylistener", cd.get("listenerName"));
+        Assert.assertEquals(ActionExecutionEvent.class.getName(), cd.get("eventClass"));
+        Assert.assertEquals(2L, cd.get("invocationCount"));
+        Assert.assertEquals(0L, cd.get("failureCount"));
+
+        this.jmxBean.resetStatistics();
+        this.manager.notify(new ActionExecutionEvent("action"), "source");
+
+        cd = ((CompositeData) this.jmxBean.getListenerStatistics().values().iterator().next());
+        Assert.assertEquals(1L, cd.get("invocationCount"));
+        Assert.assertEquals(1L, cd.get("failureCount"));
+    }
+
+    @Test
+    public void testRemoveListenerStatistics() throws Exception
+    {
+        this.jmxBean.setStatisticsEnabled(true);
+        this.manager.notify(new ActionExecutionEvent("action"), null);
+        Assert.assertEquals(1, this.jmxBean.getListenerStatistics().values().size());
+
+        this.manager.removeListener("mylistener");
+
+        Assert.assertTrue(this.jmxBean.getListenerStatistics().isEmpty());
+    }
+
+    @Test
+    public void testRegisterSeveralManagers() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.xwiki:type=Observation,name=ObservationManager,*");
+        int initialCount = server.queryNames(pattern, null).size();
+
+        DefaultObservationManager otherManager = new DefaultObservationManager();
+        final JMXBeanRegistration jmxRegistration = new DefaultJMXBeanRegistration();
+        ReflectionUtils.setFieldValue(jmxRegistration, "logger", this.logger);
+        final ComponentManager componentManager = this.context.mock(ComponentManager.class);
+        this.context.checking(new Expectations() {{
+            allowing(componentManager).getInstanceList(EventListener.class);
+                will(returnValue(Collections.emptyList()));
+            allowing(componentManager).hasComponent(JMXBeanRegistration.class);
+                will(returnValue(true));
+            allowing(componentManager).getInstance(JMXBeanRegistration.class);
+                will(returnValue(jmxRegistration));
+        }});
+        for (DefaultObservationManager observationManager : Arrays.asList(this.manager, otherManager)) {
+            ReflectionUtils.setFieldValue(observationManager, "componentManager", componentManager);
+            ReflectionUtils.setFieldValue(observationManager, "logger", this.logger);
+            observationManager.initialize();
+        }
+
+        // Each manager has its own MBean
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        Assert.assertEquals(initialCount + 2, names.size());
+
+        this.manager.dispose();
+        otherManager.dispose();
+
+        Assert.assertEquals(initialCount, server.queryNames(pattern, null).size());
+    }
+
+    @Test
+    public void testWithoutJMXRegistration() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.xwiki:type=Observation,name=ObservationManager,*");
+        int initialCount = server.queryNames(pattern, null).size();
+
+        final ComponentManager componentManager = this.context.mock(ComponentManager.class);
+        this.context.checking(new Expectations() {{
+            allowing(componentManager).getInstanceList(EventListener.class);
+                will(returnValue(Collections.emptyList()));
+            allowing(componentManager).hasComponent(JMXBeanRegistration.class);
+                will(returnValue(false));
+        }});
+        ReflectionUtils.setFieldValue(this.manager, "componentManager", componentManager);
+        this.manager.initialize();
+
+        Assert.assertEquals(initialCount, server.queryNames(pattern, null).size());
+
+        this.manager.dispose();
+    }
+}
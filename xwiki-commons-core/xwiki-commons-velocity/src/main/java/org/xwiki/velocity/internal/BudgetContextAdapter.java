@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+
+/**
+ * Context adapter accounting each access to the context in an {@link ExecutionBudget}. Every reference, {@code #set}
+ * and loop iteration goes through the context, which makes it a cheap way to count the rendered nodes.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class BudgetContextAdapter extends InternalContextAdapterImpl
+{
+    /**
+     * The budget of the current evaluation.
+     */
+    private final ExecutionBudget budget;
+
+    /**
+     * @param context the user context to wrap
+     * @param budget the budget of the current evaluation
+     */
+    public BudgetContextAdapter(Context context, ExecutionBudget budget)
+    {
+        super(context);
+
+        this.budget = budget;
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        this.budget.addNode();
+
+        return super.get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value)
+    {
+        this.budget.addNode();
+
+        return super.put(key, value);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer accounting the written characters in an {@link ExecutionBudget} before writing them to the wrapped writer.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class BudgetWriter extends Writer
+{
+    /**
+     * The wrapped writer.
+     */
+    private final Writer writer;
+
+    /**
+     * The budget of the current evaluation.
+     */
+    private final ExecutionBudget budget;
+
+    /**
+     * @param writer the writer to which to write
+     * @param budget the budget of the current evaluation
+     */
+    public BudgetWriter(Writer writer, ExecutionBudget budget)
+    {
+        this.writer = writer;
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        this.budget.addOutput(1);
+        this.writer.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        this.budget.addOutput(len);
+        this.writer.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        this.budget.addOutput(len);
+        this.writer.write(str, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.writer.close();
+    }
+}
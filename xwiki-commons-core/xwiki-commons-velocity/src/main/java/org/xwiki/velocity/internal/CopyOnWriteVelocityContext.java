@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.Context;
+
+/**
+ * Velocity context which can be cloned in constant time.
+ * <p>
+ * The variables are stored in layers. Cloning a context freezes its current layer and gives both the context and its
+ * clone a new empty layer on top of it: the frozen layers are shared and read through, modifications only go in the
+ * top layer. The memory used by a clone is thus proportional to the number of variables modified after the clone and
+ * not to the size of the context.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class CopyOnWriteVelocityContext extends VelocityContext
+{
+    /**
+     * Marker indicating that a variable defined in a frozen layer has been removed.
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The number of frozen layers after which they are merged into one, to keep lookups fast.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * A frozen layer of variables, never modified.
+     */
+    private static final class Layer
+    {
+        /**
+         * The variables of this layer.
+         */
+        private final Map<String, Object> values;
+
+        /**
+         * The layer below this one, null if this is the last one.
+         */
+        private final Layer parent;
+
+        /**
+         * The number of layers, this one included.
+         */
+        private final int depth;
+
+        /**
+         * @param values the variables of this layer
+         * @param parent the layer below this one
+         */
+        private Layer(Map<String, Object> values, Layer parent)
+        {
+            this.values = values;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 1;
+        }
+    }
+
+    /**
+     * The frozen layers shared with the clones of this context.
+     */
+    private Layer frozen;
+
+    /**
+     * The variables modified since the last clone. {@link #REMOVED} indicates a variable removed from the frozen
+     * layers.
+     */
+    private Map<String, Object> values = new HashMap<String, Object>();
+
+    /**
+     * Create an empty context.
+     */
+    public CopyOnWriteVelocityContext()
+    {
+        super();
+    }
+
+    /**
+     * @param innerContext a read only context in which to look for the variables not found in this context
+     */
+    public CopyOnWriteVelocityContext(Context innerContext)
+    {
+        super(innerContext);
+    }
+
+    @Override
+    public Object internalGet(String key)
+    {
+        Object value = this.values.get(key);
+
+        if (value == null && !this.values.containsKey(key)) {
+            for (Layer layer = this.frozen; layer != null; layer = layer.parent) {
+                value = layer.values.get(key);
+                if (value != null || layer.values.containsKey(key)) {
+                    break;
+                }
+            }
+        }
+
+        return value != REMOVED ? value : null;
+    }
+
+    @Override
+    public Object internalPut(String key, Object value)
+    {
+        Object previousValue = this.frozen != null ? internalGet(key) : this.values.get(key);
+
+        this.values.put(key, value);
+
+        return previousValue;
+    }
+
+    @Override
+    public boolean internalContainsKey(Object key)
+    {
+        Object value = this.values.get(key);
+
+        if (value == null && !this.values.containsKey(key)) {
+            for (Layer layer = this.frozen; layer != null; layer = layer.parent) {
+                value = layer.values.get(key);
+                if (value != null || layer.values.containsKey(key)) {
+                    return value != REMOVED;
+                }
+            }
+
+            return false;
+        }
+
+        return value != REMOVED;
+    }
+
+    @Override
+    public Object[] internalGetKeys()
+    {
+        if (this.frozen == null) {
+            return this.values.keySet().toArray();
+        }
+
+        Set<String> keys = new LinkedHashSet<String>();
+        Set<String> removedKeys = new LinkedHashSet<String>();
+        addKeys(this.values, keys, removedKeys);
+        for (Layer layer = this.frozen; layer != null; layer = layer.parent) {
+            addKeys(layer.values, keys, removedKeys);
+        }
+
+        return keys.toArray();
+    }
+
+    /**
+     * @param layerValues the variables of a layer
+     * @param keys the names of the variables found in the layers above, updated with the passed layer
+     * @param removedKeys the names of the variables removed in the layers above, updated with the passed layer
+     */
+    private void addKeys(Map<String, Object> layerValues, Set<String> keys, Set<String> removedKeys)
+    {
+        for (Map.Entry<String, Object> entry : layerValues.entrySet()) {
+            String key = entry.getKey();
+            if (!removedKeys.contains(key)) {
+                if (entry.getValue() == REMOVED) {
+                    if (!keys.contains(key)) {
+                        removedKeys.add(key);
+                    }
+                } else {
+                    keys.add(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Object internalRemove(Object key)
+    {
+        if (this.frozen == null) {
+            return this.values.remove(key);
+        }
+
+        Object previousValue = internalGet((String) key);
+
+        // Hide the variable defined in the frozen layers, if any.
+        this.values.put((String) key, REMOVED);
+
+        return previousValue;
+    }
+
+    @Override
+    public Object clone()
+    {
+        freeze();
+
+        CopyOnWriteVelocityContext clone = (CopyOnWriteVelocityContext) super.clone();
+        clone.values = new HashMap<String, Object>();
+
+        return clone;
+    }
+
+    /**
+     * Move the current modifications to a new frozen layer so that they can be shared with a clone.
+     */
+    private void freeze()
+    {
+        if (!this.values.isEmpty()) {
+            if (this.frozen != null && this.frozen.depth >= MAX_DEPTH) {
+                this.frozen = new Layer(merge(), null);
+            } else {
+                this.frozen = new Layer(this.values, this.frozen);
+            }
+
+            this.values = new HashMap<String, Object>();
+        }
+    }
+
+    /**
+     * @return all the variables of this context in a single map, without any removed marker
+     */
+    private Map<String, Object> merge()
+    {
+        Map<String, Object> merged = new HashMap<String, Object>();
+
+        for (Object key : internalGetKeys()) {
+            merged.put((String) key, internalGet((String) key));
+        }
+
+        return merged;
+    }
+}
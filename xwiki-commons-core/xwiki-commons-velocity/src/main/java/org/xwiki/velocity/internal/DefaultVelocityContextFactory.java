@@ -99,7 +99,8 @@ public void initialize() throws InitializationException
     public VelocityContext createContext() throws XWikiVelocityException
     {
         // Note: This constructor uses the passed context as an internal read-only context.
-        VelocityContext context = new VelocityContext(this.toolsContext);
+        // The returned context can be cloned cheaply, which is done for each new Execution Context.
+        VelocityContext context = new CopyOnWriteVelocityContext(this.toolsContext);
 
         // Call all components implementing the VelocityContextInitializer's role.
         try {
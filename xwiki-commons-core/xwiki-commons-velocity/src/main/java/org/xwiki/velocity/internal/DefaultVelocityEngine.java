@@ -23,19 +23,15 @@
 import java.io.StringReader;
 import java.io.Writer;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
 
 import javax.inject.Inject;
 
 import org.apache.velocity.context.Context;
-import org.apache.velocity.context.InternalContextAdapterImpl;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeServices;
-import org.apache.velocity.runtime.directive.Scope;
-import org.apache.velocity.runtime.directive.StopCommand;
 import org.apache.velocity.runtime.log.LogChute;
+import org.apache.velocity.runtime.parser.ParseException;
 import org.apache.velocity.runtime.parser.node.SimpleNode;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
@@ -59,9 +55,14 @@
 public class DefaultVelocityEngine implements VelocityEngine, LogChute
 {
     /**
-     * The name of the context variable used for the template-level scope.
+     * The Velocity property indicating the maximum number of parsed trees to keep in memory. 0 disables the cache.
      */
-    private static final String TEMPLATE_SCOPE_NAME = "template";
+    private static final String PARSER_CACHE_SIZE_PROPERTY = "xwiki.parser.cache.size";
+
+    /**
+     * The default maximum number of parsed trees to keep in memory.
+     */
+    private static final int PARSER_CACHE_DEFAULT_SIZE = 500;
 
     /**
      * Used to set it as a Velocity Application Attribute so that Velocity extensions done by XWiki can use it to lookup
@@ -99,8 +100,24 @@ public class DefaultVelocityEngine implements VelocityEngine, LogChute
      */
     private RuntimeServices rsvc;
 
+    /**
+     * The already parsed contents, null if the cache is disabled.
+     */
+    private NodeTreeCache nodeTreeCache;
+
+    /**
+     * Renders the parsed contents and collects the rendering statistics.
+     */
+    private TemplateRenderer renderer;
+
+    /**
+     * The execution budget limits of the evaluations.
+     */
+    private ExecutionBudgetManager budgets;
+
     /** Counter for the number of active rendering processes using each namespace. */
-    private final Map<String, Integer> namespaceUsageCount = new HashMap<String, Integer>();
+    private final MacroNamespaceRegistry macroNamespaces =
+        new MacroNamespaceRegistry(this, MacroNamespaceRegistry.DEFAULT_BATCH_SIZE);
 
     @Override
     public void initialize(Properties overridingProperties) throws XWikiVelocityException
@@ -118,9 +135,64 @@ public void initialize(Properties overridingProperties) throws XWikiVelocityExce
             throw new XWikiVelocityException("Cannot start the Velocity engine", e);
         }
 
+        int cacheSize = this.rsvc.getInt(PARSER_CACHE_SIZE_PROPERTY, PARSER_CACHE_DEFAULT_SIZE);
+        this.nodeTreeCache = cacheSize > 0 ? new NodeTreeCache(this.rsvc, cacheSize) : null;
+
+        this.renderer = new TemplateRenderer(this.rsvc);
+        this.budgets = new ExecutionBudgetManager(this.rsvc);
+
         this.engine = velocityEngine;
     }
 
+    /**
+     * @return the cache of parsed contents, null if it's disabled
+     * @since 4.1
+     */
+    public NodeTreeCache getNodeTreeCache()
+    {
+        return this.nodeTreeCache;
+    }
+
+    /**
+     * @return the registry counting the renderings using each macro namespace
+     * @since 4.1
+     */
+    public MacroNamespaceRegistry getMacroNamespaces()
+    {
+        return this.macroNamespaces;
+    }
+
+    /**
+     * @return the rendering statistics of this engine
+     * @since 4.1
+     */
+    public RenderingStatistics getStatistics()
+    {
+        return this.renderer.getStatistics();
+    }
+
+    /**
+     * Parse the passed content without evaluating it, so that its macros are registered and its parsed tree is cached
+     * before it's actually needed.
+     * 
+     * @param templateName the name under which the template is registered
+     * @param content the content of the template
+     * @throws XWikiVelocityException when failing to parse the content
+     * @since 4.1
+     */
+    public void precompile(String templateName, String content) throws XWikiVelocityException
+    {
+        try {
+            if (this.nodeTreeCache != null) {
+                this.nodeTreeCache.getNodeTree(templateName, content);
+            } else {
+                this.rsvc.parse(new StringReader(content), templateName, false);
+            }
+        } catch (ParseException e) {
+            throw new XWikiVelocityException("Failed to parse content with id [" + templateName + "]", e);
+        }
+    }
+
     /**
      * @param velocityEngine the Velocity engine against which to initialize Velocity properties
      * @param configurationProperties the Velocity properties coming from XWiki's configuration
@@ -160,33 +232,31 @@ private void initializeProperties(org.apache.velocity.app.VelocityEngine velocit
         }
     }
 
-    /**
-     * Restore the previous {@code $template} variable, if any, in the velocity context.
-     * 
-     * @param ica the current velocity context
-     * @param currentTemplateScope the current Scope, from which to take the replaced variable
-     */
-    private void restoreTemplateScope(InternalContextAdapterImpl ica, Scope currentTemplateScope)
-    {
-        if (currentTemplateScope.getParent() != null) {
-            ica.put(TEMPLATE_SCOPE_NAME, currentTemplateScope.getParent());
-        } else if (currentTemplateScope.getReplaced() != null) {
-            ica.put(TEMPLATE_SCOPE_NAME, currentTemplateScope.getReplaced());
-        } else {
-            ica.remove(TEMPLATE_SCOPE_NAME);
-        }
-    }
-
     @Override
     public boolean evaluate(Context context, Writer out, String templateName, String source)
         throws XWikiVelocityException
     {
-        return evaluate(context, out, templateName, new StringReader(source));
+        return evaluate(context, out, templateName, new StringReader(source), source);
     }
 
     @Override
     public boolean evaluate(Context context, Writer out, String templateName, Reader source)
         throws XWikiVelocityException
+    {
+        return evaluate(context, out, templateName, source, null);
+    }
+
+    /**
+     * @param context the Velocity context to use in evaluating the template
+     * @param out the writer in which the result of the evaluation will be written
+     * @param templateName the name under which the template is registered
+     * @param source the content of the template
+     * @param content the content of the template if it's already available as a String, null otherwise
+     * @return true if successful, false otherwise
+     * @throws XWikiVelocityException in case of error
+     */
+    private boolean evaluate(Context context, Writer out, String templateName, Reader source, String content)
+        throws XWikiVelocityException
     {
         // Ensure that initialization has been called
         if (this.engine == null) {
@@ -194,54 +264,69 @@ public boolean evaluate(Context context, Writer out, String templateName, Reader
                 + " You must call its initialize() method before you can use it.");
         }
 
+        // Nested evaluations share the budget of the evaluation that triggered them
+        this.budgets.enter();
+        try {
+            return render(context, out, templateName, source, content);
+        } catch (Exception e) {
+            throw this.budgets.createException(templateName, e);
+        } finally {
+            this.budgets.leave();
+        }
+    }
+
+    /**
+     * @param context the Velocity context to use in evaluating the template
+     * @param out the writer in which the result of the evaluation will be written
+     * @param templateName the name under which the template is registered
+     * @param source the content of the template
+     * @param content the content of the template if it's already available as a String, null otherwise
+     * @return true if successful, false otherwise
+     * @throws Exception in case of error
+     */
+    private boolean render(Context context, Writer out, String templateName, Reader source, String content)
+        throws Exception
+    {
         // We override the default implementation here. See #init(RuntimeServices)
         // for explanations.
-        try {
-            SimpleNode nodeTree = null;
+        SimpleNode nodeTree = null;
+        boolean initialized = this.nodeTreeCache != null;
 
+        long parseStart = System.nanoTime();
+        if (initialized) {
+            nodeTree = content != null ? this.nodeTreeCache.getNodeTree(templateName, content)
+                : this.nodeTreeCache.getNodeTree(templateName, source);
+        } else {
             // The trick is done here: We use the signature that allows
             // passing a boolean and we pass false, thus preventing Velocity
             // from cleaning the context of its velocimacros even though the
             // config property velocimacro.permissions.allow.inline.local.scope
             // is set to true.
             nodeTree = this.rsvc.parse(source, templateName, false);
+        }
 
-            if (nodeTree != null) {
-                InternalContextAdapterImpl ica = new InternalContextAdapterImpl(
-                    context != null ? context : this.velocityContextFactory.createContext());
-                ica.pushCurrentTemplateName(templateName);
-                boolean provideTemplateScope = this.rsvc.getBoolean("template.provide.scope.control", true);
-                Object templateScopeMarker = new Object();
-                Scope templateScope = null;
-                if (provideTemplateScope) {
-                    Object previous = ica.get(TEMPLATE_SCOPE_NAME);
-                    templateScope = new Scope(templateScopeMarker, previous);
-                    templateScope.put("templateName", templateName);
-                    ica.put(TEMPLATE_SCOPE_NAME, templateScope);
-                }
-                try {
-                    nodeTree.init(ica, this.rsvc);
-                    nodeTree.render(ica, out);
-                } catch (StopCommand stop) {
-                    // Check if we're supposed to stop here or not:
-                    // - stop if the template is breaking explicitly on the provided $template
-                    // - or stop if this is the topmost evaluation
-                    if (!stop.isFor(templateScopeMarker) && ica.getTemplateNameStack().length > 1) {
-                        throw stop;
-                    }
-                } finally {
-                    ica.popCurrentTemplateName();
-                    if (provideTemplateScope) {
-                        restoreTemplateScope(ica, templateScope);
-                    }
-                }
-                return true;
-            }
+        long parseTime = System.nanoTime() - parseStart;
 
-            return false;
-        } catch (Exception e) {
-            throw new XWikiVelocityException("Failed to evaluate content with id [" + templateName + "]", e);
+        if (nodeTree != null) {
+            this.renderer.render(this.budgets.createContextAdapter(getContext(context)),
+                this.budgets.createWriter(out), templateName, nodeTree, initialized, parseTime);
+            // Make sure the evaluation fails even if Velocity swallowed the budget error
+            this.budgets.check();
+
+            return true;
         }
+
+        return false;
+    }
+
+    /**
+     * @param context the Velocity context passed to the evaluation, can be null
+     * @return the context to use for the evaluation
+     * @throws XWikiVelocityException when failing to create a new context
+     */
+    private Context getContext(Context context) throws XWikiVelocityException
+    {
+        return context != null ? context : this.velocityContextFactory.createContext();
     }
 
     /**
@@ -261,14 +346,7 @@ public void clearMacroNamespace(String templateName)
     @Override
     public void startedUsingMacroNamespace(String namespace)
     {
-        synchronized (this.namespaceUsageCount) {
-            Integer count = this.namespaceUsageCount.get(namespace);
-            if (count == null) {
-                count = Integer.valueOf(0);
-            }
-            count = count + 1;
-            this.namespaceUsageCount.put(namespace, count);
-        }
+        this.macroNamespaces.startedUsing(namespace);
     }
 
     /**
@@ -278,20 +356,9 @@ public void startedUsingMacroNamespace(String namespace)
     @Override
     public void stoppedUsingMacroNamespace(String namespace)
     {
-        synchronized (this.namespaceUsageCount) {
-            Integer count = this.namespaceUsageCount.get(namespace);
-            if (count == null) {
-                // This shouldn't happen
-                this.log(LogChute.WARN_ID, "Wrong usage count for namespace [" + namespace + "]");
-                return;
-            }
-            count = count - 1;
-            if (count <= 0) {
-                this.namespaceUsageCount.remove(namespace);
-                this.clearMacroNamespace(namespace);
-            } else {
-                this.namespaceUsageCount.put(namespace, count);
-            }
+        if (!this.macroNamespaces.stoppedUsing(namespace)) {
+            // This shouldn't happen
+            this.log(LogChute.WARN_ID, "Wrong usage count for namespace [" + namespace + "]");
         }
     }
 
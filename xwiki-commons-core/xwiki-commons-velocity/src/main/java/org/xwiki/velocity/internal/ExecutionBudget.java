@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the resources a Velocity evaluation (including the evaluations it triggers in the same thread) can use. The
+ * budget is not thread safe and must be used by a single thread.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ExecutionBudget
+{
+    /**
+     * Thrown from the middle of the rendering to abort it when the budget is exceeded.
+     * 
+     * @version $Id$
+     */
+    public static class ExceededException extends RuntimeException
+    {
+        /**
+         * Provides an id for serialization.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message the reason why the budget is exceeded
+         */
+        public ExceededException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * The elapsed time is only checked every 256 nodes since getting the time is not free.
+     */
+    private static final int TIME_CHECK_MASK = 0xFF;
+
+    /**
+     * The maximum time the evaluation can take, in nanoseconds, 0 if not limited.
+     */
+    private final long maxTime;
+
+    /**
+     * The maximum number of nodes the evaluation can render, 0 if not limited.
+     */
+    private final long maxNodes;
+
+    /**
+     * The maximum number of characters the evaluation can write, 0 if not limited.
+     */
+    private final long maxOutput;
+
+    /**
+     * When the evaluation started, in nanoseconds.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The number of nodes rendered so far.
+     */
+    private long nodes;
+
+    /**
+     * The number of characters written so far.
+     */
+    private long output;
+
+    /**
+     * The reason why the budget is exceeded, null if it's not.
+     */
+    private String exceededReason;
+
+    /**
+     * The number of nested evaluations currently using the budget.
+     */
+    private int depth;
+
+    /**
+     * @param maxTime the maximum time the evaluation can take, in milliseconds, 0 if not limited
+     * @param maxNodes the maximum number of nodes the evaluation can render, 0 if not limited
+     * @param maxOutput the maximum number of characters the evaluation can write, 0 if not limited
+     */
+    public ExecutionBudget(long maxTime, long maxNodes, long maxOutput)
+    {
+        this.maxTime = TimeUnit.MILLISECONDS.toNanos(maxTime);
+        this.maxNodes = maxNodes;
+        this.maxOutput = maxOutput;
+    }
+
+    /**
+     * Account for an evaluation starting to use the budget.
+     */
+    public void enter()
+    {
+        ++this.depth;
+    }
+
+    /**
+     * Account for an evaluation which stopped using the budget.
+     * 
+     * @return true if the budget is not used by any evaluation anymore
+     */
+    public boolean leave()
+    {
+        return --this.depth == 0;
+    }
+
+    /**
+     * Account for a rendered node.
+     * 
+     * @throws ExceededException when the budget is exceeded
+     */
+    public void addNode()
+    {
+        check();
+
+        ++this.nodes;
+        if (this.maxNodes > 0 && this.nodes > this.maxNodes) {
+            exceed("rendered more than [" + this.maxNodes + "] nodes");
+        }
+        if ((this.nodes & TIME_CHECK_MASK) == 0) {
+            checkTime();
+        }
+    }
+
+    /**
+     * Account for written characters.
+     * 
+     * @param length the number of written characters
+     * @throws ExceededException when the budget is exceeded
+     */
+    public void addOutput(long length)
+    {
+        check();
+
+        this.output += length;
+        if (this.maxOutput > 0 && this.output > this.maxOutput) {
+            exceed("wrote more than [" + this.maxOutput + "] characters");
+        }
+    }
+
+    /**
+     * @throws ExceededException when the budget has already been exceeded
+     */
+    public void check()
+    {
+        if (this.exceededReason != null) {
+            throw new ExceededException(this.exceededReason);
+        }
+    }
+
+    /**
+     * @return the reason why the budget is exceeded, null if it's not
+     */
+    public String getExceededReason()
+    {
+        return this.exceededReason;
+    }
+
+    /**
+     * @throws ExceededException when the evaluation took too long
+     */
+    private void checkTime()
+    {
+        if (this.maxTime > 0 && System.nanoTime() - this.start > this.maxTime) {
+            exceed("took more than [" + TimeUnit.NANOSECONDS.toMillis(this.maxTime) + "] ms");
+        }
+    }
+
+    /**
+     * @param reason the reason why the budget is exceeded
+     * @throws ExceededException always
+     */
+    private void exceed(String reason)
+    {
+        this.exceededReason = reason;
+
+        throw new ExceededException(reason);
+    }
+}
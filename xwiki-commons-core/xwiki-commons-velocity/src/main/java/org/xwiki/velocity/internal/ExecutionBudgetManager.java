@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.Writer;
+
+import org.apache.velocity.context.Context;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.xwiki.velocity.XWikiVelocityBudgetExceededException;
+import org.xwiki.velocity.XWikiVelocityException;
+
+/**
+ * Holds the execution budget limits of a Velocity engine and the budget of the evaluation currently running in each
+ * thread. Nested evaluations, even when they're done by another engine, share the budget of the evaluation which
+ * triggered them.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ExecutionBudgetManager
+{
+    /**
+     * The Velocity property indicating the maximum time an evaluation can take, in milliseconds. 0 (the default) means
+     * no limit.
+     */
+    private static final String TIME_PROPERTY = "xwiki.budget.time";
+
+    /**
+     * The Velocity property indicating the maximum number of nodes an evaluation can render. 0 (the default) means no
+     * limit.
+     */
+    private static final String NODES_PROPERTY = "xwiki.budget.nodes";
+
+    /**
+     * The Velocity property indicating the maximum number of characters an evaluation can write. 0 (the default) means
+     * no limit.
+     */
+    private static final String OUTPUT_PROPERTY = "xwiki.budget.output";
+
+    /**
+     * The budget of the evaluation currently running in the thread, shared with the evaluations it triggers.
+     */
+    private static final ThreadLocal<ExecutionBudget> BUDGET = new ThreadLocal<ExecutionBudget>();
+
+    /**
+     * The maximum time an evaluation can take, in milliseconds, 0 if not limited.
+     */
+    private final int maxTime;
+
+    /**
+     * The maximum number of nodes an evaluation can render, 0 if not limited.
+     */
+    private final int maxNodes;
+
+    /**
+     * The maximum number of characters an evaluation can write, 0 if not limited.
+     */
+    private final int maxOutput;
+
+    /**
+     * @param runtimeServices the Velocity runtime from which to read the {@code xwiki.budget.time},
+     *        {@code xwiki.budget.nodes} and {@code xwiki.budget.output} properties
+     */
+    public ExecutionBudgetManager(RuntimeServices runtimeServices)
+    {
+        this.maxTime = runtimeServices.getInt(TIME_PROPERTY, 0);
+        this.maxNodes = runtimeServices.getInt(NODES_PROPERTY, 0);
+        this.maxOutput = runtimeServices.getInt(OUTPUT_PROPERTY, 0);
+    }
+
+    /**
+     * Start an evaluation: it uses the budget of the evaluation running in the current thread if any, or a new budget
+     * if this engine limits its evaluations. Must be followed by a call to {@link #leave()}.
+     */
+    public void enter()
+    {
+        ExecutionBudget budget = BUDGET.get();
+        if (budget == null) {
+            if (this.maxTime <= 0 && this.maxNodes <= 0 && this.maxOutput <= 0) {
+                return;
+            }
+
+            budget = new ExecutionBudget(this.maxTime, this.maxNodes, this.maxOutput);
+            BUDGET.set(budget);
+        }
+
+        budget.enter();
+    }
+
+    /**
+     * End the evaluation started with {@link #enter()}.
+     */
+    public void leave()
+    {
+        ExecutionBudget budget = BUDGET.get();
+        if (budget != null && budget.leave()) {
+            BUDGET.remove();
+        }
+    }
+
+    /**
+     * @param context the Velocity context to use in the current evaluation
+     * @return the context adapter to render with, accounting the rendered nodes in the current budget if any
+     */
+    public InternalContextAdapterImpl createContextAdapter(Context context)
+    {
+        ExecutionBudget budget = BUDGET.get();
+
+        return budget != null ? new BudgetContextAdapter(context, budget) : new InternalContextAdapterImpl(context);
+    }
+
+    /**
+     * @param out the writer in which the result of the current evaluation is written
+     * @return the writer to render to, accounting the written characters in the current budget if any
+     */
+    public Writer createWriter(Writer out)
+    {
+        ExecutionBudget budget = BUDGET.get();
+
+        return budget != null ? new BudgetWriter(out, budget) : out;
+    }
+
+    /**
+     * Make sure the evaluation fails even if Velocity swallowed the budget error.
+     * 
+     * @throws ExecutionBudget.ExceededException when the current budget has been exceeded
+     */
+    public void check()
+    {
+        ExecutionBudget budget = BUDGET.get();
+        if (budget != null) {
+            budget.check();
+        }
+    }
+
+    /**
+     * @param templateName the name of the template which failed to be evaluated
+     * @param cause the error raised by the evaluation
+     * @return the exception to throw, telling if the evaluation has been aborted because it exceeded the current budget
+     */
+    public XWikiVelocityException createException(String templateName, Exception cause)
+    {
+        ExecutionBudget budget = BUDGET.get();
+        if (budget != null && budget.getExceededReason() != null) {
+            return new XWikiVelocityBudgetExceededException("Aborted the evaluation of content with id ["
+                + templateName + "] because it " + budget.getExceededReason(), cause);
+        }
+
+        return new XWikiVelocityException("Failed to evaluate content with id [" + templateName + "]", cause);
+    }
+}
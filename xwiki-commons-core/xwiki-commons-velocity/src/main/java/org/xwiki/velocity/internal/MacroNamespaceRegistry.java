@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.velocity.VelocityEngine;
+
+/**
+ * Count the renderings using each macro namespace without any global lock, and clear the namespaces which are not
+ * used anymore. The namespaces are cleared by batches: a namespace which is not used anymore is only cleared when
+ * enough namespaces are waiting to be cleared, or when it starts being used again.
+ * <p>
+ * The counter of a namespace is:
+ * <ul>
+ * <li>strictly positive when the namespace is used</li>
+ * <li>0 when the namespace is not used anymore and waiting to be cleared</li>
+ * <li>-1 while the namespace is being cleared</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class MacroNamespaceRegistry
+{
+    /**
+     * The number of namespaces waiting to be cleared which triggers the clearing.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    /**
+     * The counter value of a namespace being cleared.
+     */
+    private static final int CLEARING = -1;
+
+    /**
+     * The engine owning the macro namespaces.
+     */
+    private final VelocityEngine engine;
+
+    /**
+     * The number of namespaces waiting to be cleared which triggers the clearing.
+     */
+    private final int batchSize;
+
+    /**
+     * The counters of the namespaces which are used or waiting to be cleared.
+     */
+    private final ConcurrentMap<String, AtomicInteger> namespaces = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * The namespaces waiting to be cleared. A namespace may be found several times or may have been used again since.
+     */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * The size of {@link #pending} (computing the size of a {@link ConcurrentLinkedQueue} is not constant time).
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * @param engine the engine owning the macro namespaces
+     * @param batchSize the number of namespaces waiting to be cleared which triggers the clearing
+     */
+    public MacroNamespaceRegistry(VelocityEngine engine, int batchSize)
+    {
+        this.engine = engine;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Notify that a rendering action is starting in the given namespace.
+     * 
+     * @param namespace the namespace being used
+     */
+    public void startedUsing(String namespace)
+    {
+        while (true) {
+            AtomicInteger counter = this.namespaces.get(namespace);
+
+            if (counter == null) {
+                if (this.namespaces.putIfAbsent(namespace, new AtomicInteger(1)) == null) {
+                    return;
+                }
+            } else if (startedUsing(namespace, counter)) {
+                return;
+            } else {
+                // The namespace is being cleared by another thread
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * @param namespace the namespace being used
+     * @param counter the counter of the namespace
+     * @return false if the namespace is being cleared by another thread
+     */
+    private boolean startedUsing(String namespace, AtomicInteger counter)
+    {
+        for (int count = counter.get(); count != CLEARING; count = counter.get()) {
+            if (count > 0) {
+                if (counter.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            } else if (counter.compareAndSet(0, CLEARING)) {
+                // Don't let the new rendering see the macros of the previous ones
+                try {
+                    this.engine.clearMacroNamespace(namespace);
+                } finally {
+                    // Never leave the namespace in the clearing state, other threads would wait for it forever
+                    counter.set(1);
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Notify that a rendering action in the given namespace just finished.
+     * 
+     * @param namespace the namespace which was used
+     * @return false if the namespace was not being used
+     */
+    public boolean stoppedUsing(String namespace)
+    {
+        AtomicInteger counter = this.namespaces.get(namespace);
+
+        if (counter == null) {
+            return false;
+        }
+
+        for (int count = counter.get(); count > 0; count = counter.get()) {
+            if (counter.compareAndSet(count, count - 1)) {
+                if (count == 1) {
+                    this.pending.offer(namespace);
+                    if (this.pendingCount.incrementAndGet() >= this.batchSize) {
+                        clearPending();
+                    }
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Clear the namespaces which are waiting to be cleared and are still not used.
+     */
+    public void clearPending()
+    {
+        for (String namespace = this.pending.poll(); namespace != null; namespace = this.pending.poll()) {
+            this.pendingCount.decrementAndGet();
+
+            AtomicInteger counter = this.namespaces.get(namespace);
+            if (counter != null && counter.compareAndSet(0, CLEARING)) {
+                try {
+                    this.engine.clearMacroNamespace(namespace);
+                } finally {
+                    this.namespaces.remove(namespace, counter);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of namespaces which are used or waiting to be cleared
+     */
+    public int getLiveCount()
+    {
+        return this.namespaces.size();
+    }
+
+    /**
+     * @return the number of namespaces waiting to be cleared
+     */
+    public int getPendingCount()
+    {
+        return this.pendingCount.get();
+    }
+}
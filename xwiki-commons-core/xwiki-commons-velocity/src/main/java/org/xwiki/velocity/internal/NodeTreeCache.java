@@ -0,0 +1,274 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Bounded cache of parsed and initialized Velocity trees, indexed by template name and content. The least recently
+ * used trees are evicted first.
+ * <p>
+ * A tree is initialized once, the same way Velocity does it for the templates it caches itself, since initializing it
+ * again while another thread is rendering it is not safe.
+ * <p>
+ * Macros are registered in the template namespace when the content is parsed, not when it's rendered. Contents
+ * defining macros are thus never cached so that their macros are registered again even if the namespace has been
+ * cleared in the meantime.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class NodeTreeCache
+{
+    /**
+     * Identify a parsed content.
+     */
+    private static final class Key
+    {
+        /**
+         * The name of the template (which is also the macro namespace).
+         */
+        private final String templateName;
+
+        /**
+         * The parsed content.
+         */
+        private final String content;
+
+        /**
+         * @param templateName the name of the template
+         * @param content the parsed content
+         */
+        private Key(String templateName, String content)
+        {
+            this.templateName = templateName;
+            this.content = content;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (this.templateName != null ? this.templateName.hashCode() * 31 : 0) + this.content.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (object == this) {
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) object;
+
+            return StringUtils.equals(this.templateName, key.templateName) && this.content.equals(key.content);
+        }
+    }
+
+    /**
+     * The name of the directive used to define macros.
+     */
+    private static final String MACRO_DIRECTIVE = "macro";
+
+    /**
+     * The size of the buffer used to read the contents passed as a {@link Reader}.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * Used to parse and initialize the trees.
+     */
+    private final RuntimeServices runtimeServices;
+
+    /**
+     * The cached trees.
+     */
+    private final Map<Key, SimpleNode> trees;
+
+    /**
+     * The number of times a tree was found in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of times a tree was not found in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param runtimeServices used to parse and initialize the trees
+     * @param capacity the maximum number of trees to keep
+     */
+    public NodeTreeCache(RuntimeServices runtimeServices, final int capacity)
+    {
+        this.runtimeServices = runtimeServices;
+        this.trees = new LinkedHashMap<Key, SimpleNode>(16, 0.75F, true)
+        {
+            /**
+             * Class version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SimpleNode> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the initialized tree corresponding to the passed content from the cache or parse it.
+     * 
+     * @param templateName the name of the template (which is also the macro namespace)
+     * @param content the content of the template
+     * @return the initialized tree, null if the content could not be parsed
+     * @throws ParseException when failing to parse the content
+     */
+    public SimpleNode getNodeTree(String templateName, String content) throws ParseException
+    {
+        Key key = new Key(templateName, content);
+
+        SimpleNode nodeTree;
+        synchronized (this.trees) {
+            nodeTree = this.trees.get(key);
+        }
+
+        if (nodeTree != null) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+
+            // Don't clean the namespace of its macros, see DefaultVelocityEngine#init(RuntimeServices).
+            nodeTree = this.runtimeServices.parse(new StringReader(content), templateName, false);
+
+            if (nodeTree != null) {
+                InternalContextAdapterImpl ica = new InternalContextAdapterImpl(new VelocityContext());
+                ica.pushCurrentTemplateName(templateName);
+                try {
+                    nodeTree.init(ica, this.runtimeServices);
+                } finally {
+                    ica.popCurrentTemplateName();
+                }
+
+                if (!containsMacroDefinition(nodeTree)) {
+                    synchronized (this.trees) {
+                        this.trees.put(key, nodeTree);
+                    }
+                }
+            }
+        }
+
+        return nodeTree;
+    }
+
+    /**
+     * Same as {@link #getNodeTree(String, String)} for a content which is not already available as a String.
+     * 
+     * @param templateName the name of the template (which is also the macro namespace)
+     * @param source the content of the template
+     * @return the initialized tree, null if the content could not be parsed
+     * @throws ParseException when failing to parse the content
+     * @throws IOException when failing to read the content
+     */
+    public SimpleNode getNodeTree(String templateName, Reader source) throws ParseException, IOException
+    {
+        StringBuilder content = new StringBuilder();
+
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        for (int length = source.read(buffer); length != -1; length = source.read(buffer)) {
+            content.append(buffer, 0, length);
+        }
+
+        return getNodeTree(templateName, content.toString());
+    }
+
+    /**
+     * @param node the node to inspect
+     * @return true if the passed node or one of its descendants is a {@code #macro} directive
+     */
+    private boolean containsMacroDefinition(Node node)
+    {
+        if (node instanceof ASTDirective && MACRO_DIRECTIVE.equals(((ASTDirective) node).getDirectiveName())) {
+            return true;
+        }
+
+        for (int i = 0; i < node.jjtGetNumChildren(); ++i) {
+            if (containsMacroDefinition(node.jjtGetChild(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Remove all the cached trees.
+     */
+    public void clear()
+    {
+        synchronized (this.trees) {
+            this.trees.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached trees
+     */
+    public int size()
+    {
+        synchronized (this.trees) {
+            return this.trees.size();
+        }
+    }
+
+    /**
+     * @return the number of times a tree was found in the cache
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of times a tree was not found in the cache
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+}
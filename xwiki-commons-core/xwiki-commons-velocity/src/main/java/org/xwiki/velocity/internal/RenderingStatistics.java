@@ -0,0 +1,421 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.velocity.context.InternalContextAdapter;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.Node;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.xwiki.velocity.internal.util.CountingWriter;
+
+/**
+ * Rendering statistics of a Velocity engine: per template timings and a sampled list of the slowest directives and
+ * macros.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class RenderingStatistics
+{
+    /**
+     * The maximum number of templates for which to keep statistics, to avoid keeping one entry for each evaluated
+     * content when the template name is not stable.
+     */
+    private static final int MAX_TEMPLATES = 1000;
+
+    /**
+     * The Velocity property indicating how often (one evaluation out of this number) the directives are timed to find
+     * the slowest ones. 0 disables it.
+     */
+    private static final String SAMPLING_PROPERTY = "xwiki.statistics.sampling";
+
+    /**
+     * The default sampling rate of the directive timings.
+     */
+    private static final int SAMPLING_DEFAULT = 100;
+
+    /**
+     * The Velocity property indicating the number of slowest directives to keep.
+     */
+    private static final String SLOWEST_SIZE_PROPERTY = "xwiki.statistics.slowest.size";
+
+    /**
+     * The default number of slowest directives to keep.
+     */
+    private static final int SLOWEST_DEFAULT_SIZE = 20;
+
+    /**
+     * The statistics of a template.
+     * 
+     * @version $Id$
+     */
+    public static class TemplateStatistics
+    {
+        /**
+         * @see #getInvocationCount()
+         */
+        private final AtomicLong invocationCount = new AtomicLong();
+
+        /**
+         * @see #getParseTime()
+         */
+        private final AtomicLong parseTime = new AtomicLong();
+
+        /**
+         * @see #getRenderTime()
+         */
+        private final AtomicLong renderTime = new AtomicLong();
+
+        /**
+         * @see #getOutputLength()
+         */
+        private final AtomicLong outputLength = new AtomicLong();
+
+        /**
+         * @return the number of times the template has been evaluated
+         */
+        public long getInvocationCount()
+        {
+            return this.invocationCount.get();
+        }
+
+        /**
+         * @return the total time spent parsing the template (or getting it from the cache), in nanoseconds
+         */
+        public long getParseTime()
+        {
+            return this.parseTime.get();
+        }
+
+        /**
+         * @return the total time spent rendering the template, in nanoseconds, including the templates it evaluates
+         */
+        public long getRenderTime()
+        {
+            return this.renderTime.get();
+        }
+
+        /**
+         * @return the total number of characters written by the template
+         */
+        public long getOutputLength()
+        {
+            return this.outputLength.get();
+        }
+    }
+
+    /**
+     * The time spent rendering a directive or a macro call.
+     * 
+     * @version $Id$
+     */
+    public static class DirectiveTiming
+    {
+        /**
+         * @see #getName()
+         */
+        private final String name;
+
+        /**
+         * @see #getTemplateName()
+         */
+        private final String templateName;
+
+        /**
+         * @see #getLine()
+         */
+        private final int line;
+
+        /**
+         * @see #getColumn()
+         */
+        private final int column;
+
+        /**
+         * @see #getTime()
+         */
+        private final long time;
+
+        /**
+         * @param name the name of the directive or the macro
+         * @param templateName the name of the template containing the directive
+         * @param line the line of the directive in the template
+         * @param column the column of the directive in the template
+         * @param time the time spent rendering the directive, in nanoseconds
+         */
+        public DirectiveTiming(String name, String templateName, int line, int column, long time)
+        {
+            this.name = name;
+            this.templateName = templateName;
+            this.line = line;
+            this.column = column;
+            this.time = time;
+        }
+
+        /**
+         * @return the name of the directive or the macro
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return the name of the template containing the directive
+         */
+        public String getTemplateName()
+        {
+            return this.templateName;
+        }
+
+        /**
+         * @return the line of the directive in the template
+         */
+        public int getLine()
+        {
+            return this.line;
+        }
+
+        /**
+         * @return the column of the directive in the template
+         */
+        public int getColumn()
+        {
+            return this.column;
+        }
+
+        /**
+         * @return the time spent rendering the directive, in nanoseconds
+         */
+        public long getTime()
+        {
+            return this.time;
+        }
+    }
+
+    /**
+     * The statistics of each template.
+     */
+    private final ConcurrentMap<String, TemplateStatistics> templates =
+        new ConcurrentHashMap<String, TemplateStatistics>();
+
+    /**
+     * The slowest directives, the slowest first.
+     */
+    private final List<DirectiveTiming> slowestDirectives = new ArrayList<DirectiveTiming>();
+
+    /**
+     * The number of evaluations, used to decide which ones are sampled.
+     */
+    private final AtomicLong evaluationCount = new AtomicLong();
+
+    /**
+     * One evaluation out of this number is sampled, 0 to disable sampling.
+     */
+    private final int samplingRate;
+
+    /**
+     * The number of slowest directives to keep.
+     */
+    private final int slowestDirectivesSize;
+
+    /**
+     * @param samplingRate one evaluation out of this number is sampled to find the slowest directives, 0 to disable
+     *        sampling
+     * @param slowestDirectivesSize the number of slowest directives to keep, 0 to not keep any and disable sampling
+     */
+    public RenderingStatistics(int samplingRate, int slowestDirectivesSize)
+    {
+        this.samplingRate = samplingRate;
+        this.slowestDirectivesSize = slowestDirectivesSize;
+    }
+
+    /**
+     * @param runtimeServices the Velocity runtime from which to read the {@code xwiki.statistics.sampling} and
+     *        {@code xwiki.statistics.slowest.size} properties
+     */
+    public RenderingStatistics(RuntimeServices runtimeServices)
+    {
+        this(runtimeServices.getInt(SAMPLING_PROPERTY, SAMPLING_DEFAULT),
+            runtimeServices.getInt(SLOWEST_SIZE_PROPERTY, SLOWEST_DEFAULT_SIZE));
+    }
+
+    /**
+     * Render the passed initialized tree and record the evaluation. The top level directives and macro calls of one
+     * evaluation out of the sampling rate are timed too.
+     * 
+     * @param ica the Velocity context to use in evaluating the template
+     * @param out the writer in which the result of the evaluation will be written
+     * @param templateName the name under which the template is registered
+     * @param nodeTree the initialized tree to render
+     * @param parseTime the time spent parsing the template, in nanoseconds
+     * @throws IOException when failing to write the result
+     */
+    public void render(InternalContextAdapter ica, Writer out, String templateName, SimpleNode nodeTree,
+        long parseTime) throws IOException
+    {
+        CountingWriter countingOut = new CountingWriter(out);
+        long renderStart = System.nanoTime();
+        try {
+            if (sample()) {
+                renderSampled(ica, countingOut, templateName, nodeTree);
+            } else {
+                nodeTree.render(ica, countingOut);
+            }
+        } finally {
+            addEvaluation(templateName, parseTime, System.nanoTime() - renderStart, countingOut.getCount());
+        }
+    }
+
+    /**
+     * Render the passed tree, timing its top level directives and macro calls.
+     * 
+     * @param ica the Velocity context to use in evaluating the template
+     * @param out the writer in which the result of the evaluation will be written
+     * @param templateName the name under which the template is registered
+     * @param nodeTree the initialized tree to render
+     * @throws IOException when failing to write the result
+     */
+    private void renderSampled(InternalContextAdapter ica, Writer out, String templateName, SimpleNode nodeTree)
+        throws IOException
+    {
+        // Same as SimpleNode#render(InternalContextAdapter, Writer)
+        for (int i = 0; i < nodeTree.jjtGetNumChildren(); ++i) {
+            Node node = nodeTree.jjtGetChild(i);
+            if (node instanceof ASTDirective) {
+                long start = System.nanoTime();
+                node.render(ica, out);
+                addDirectiveTiming(new DirectiveTiming(((ASTDirective) node).getDirectiveName(), templateName,
+                    node.getLine(), node.getColumn(), System.nanoTime() - start));
+            } else {
+                node.render(ica, out);
+            }
+        }
+    }
+
+    /**
+     * @param templateName the name of the evaluated template
+     * @param parseTime the time spent parsing the template, in nanoseconds
+     * @param renderTime the time spent rendering the template, in nanoseconds
+     * @param outputLength the number of characters written by the template
+     */
+    public void addEvaluation(String templateName, long parseTime, long renderTime, long outputLength)
+    {
+        String key = String.valueOf(templateName);
+
+        TemplateStatistics statistics = this.templates.get(key);
+        if (statistics == null) {
+            if (this.templates.size() >= MAX_TEMPLATES) {
+                return;
+            }
+
+            statistics = new TemplateStatistics();
+            TemplateStatistics existingStatistics = this.templates.putIfAbsent(key, statistics);
+            if (existingStatistics != null) {
+                statistics = existingStatistics;
+            }
+        }
+
+        statistics.invocationCount.incrementAndGet();
+        statistics.parseTime.addAndGet(parseTime);
+        statistics.renderTime.addAndGet(renderTime);
+        statistics.outputLength.addAndGet(outputLength);
+    }
+
+    /**
+     * @return true if the directives of the current evaluation should be timed
+     */
+    public boolean sample()
+    {
+        return this.samplingRate > 0 && this.slowestDirectivesSize > 0
+            && this.evaluationCount.incrementAndGet() % this.samplingRate == 0;
+    }
+
+    /**
+     * @param timing the time spent rendering a directive
+     */
+    public void addDirectiveTiming(DirectiveTiming timing)
+    {
+        if (this.slowestDirectivesSize <= 0) {
+            return;
+        }
+
+        synchronized (this.slowestDirectives) {
+            if (this.slowestDirectives.size() >= this.slowestDirectivesSize
+                && this.slowestDirectives.get(this.slowestDirectives.size() - 1).getTime() >= timing.getTime()) {
+                return;
+            }
+
+            ListIterator<DirectiveTiming> iterator = this.slowestDirectives.listIterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getTime() < timing.getTime()) {
+                    iterator.previous();
+                    break;
+                }
+            }
+            iterator.add(timing);
+
+            if (this.slowestDirectives.size() > this.slowestDirectivesSize) {
+                this.slowestDirectives.remove(this.slowestDirectives.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the statistics of each template
+     */
+    public Map<String, TemplateStatistics> getTemplates()
+    {
+        return Collections.unmodifiableMap(this.templates);
+    }
+
+    /**
+     * @return the slowest sampled directives and macros, the slowest first
+     */
+    public List<DirectiveTiming> getSlowestDirectives()
+    {
+        synchronized (this.slowestDirectives) {
+            return new ArrayList<DirectiveTiming>(this.slowestDirectives);
+        }
+    }
+
+    /**
+     * Forget all the statistics.
+     */
+    public void reset()
+    {
+        this.templates.clear();
+        synchronized (this.slowestDirectives) {
+            this.slowestDirectives.clear();
+        }
+    }
+}
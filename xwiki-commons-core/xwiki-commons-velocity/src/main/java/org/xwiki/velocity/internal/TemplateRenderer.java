@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.velocity.context.InternalContextAdapterImpl;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.directive.Scope;
+import org.apache.velocity.runtime.directive.StopCommand;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Render parsed Velocity trees the same way {@link org.apache.velocity.runtime.RuntimeInstance} does (providing the
+ * {@code $template} scope and handling {@code #stop}) while collecting the {@link RenderingStatistics} of the engine.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class TemplateRenderer
+{
+    /**
+     * The name of the context variable used for the template-level scope.
+     */
+    private static final String TEMPLATE_SCOPE_NAME = "template";
+
+    /**
+     * Used to initialize the trees and to read the configuration.
+     */
+    private final RuntimeServices runtimeServices;
+
+    /**
+     * The rendering statistics of the engine.
+     */
+    private final RenderingStatistics statistics;
+
+    /**
+     * @param runtimeServices the Velocity runtime of the engine
+     */
+    public TemplateRenderer(RuntimeServices runtimeServices)
+    {
+        this.runtimeServices = runtimeServices;
+        this.statistics = new RenderingStatistics(runtimeServices);
+    }
+
+    /**
+     * @return the rendering statistics of the engine
+     */
+    public RenderingStatistics getStatistics()
+    {
+        return this.statistics;
+    }
+
+    /**
+     * @param ica the Velocity context to use in evaluating the template
+     * @param out the writer in which the result of the evaluation will be written
+     * @param templateName the name under which the template is registered
+     * @param nodeTree the parsed template
+     * @param initialized true if the passed tree has already been initialized
+     * @param parseTime the time spent parsing the template, in nanoseconds
+     * @throws IOException when failing to write the result
+     */
+    public void render(InternalContextAdapterImpl ica, Writer out, String templateName, SimpleNode nodeTree,
+        boolean initialized, long parseTime) throws IOException
+    {
+        ica.pushCurrentTemplateName(templateName);
+        boolean provideTemplateScope = this.runtimeServices.getBoolean("template.provide.scope.control", true);
+        Object templateScopeMarker = new Object();
+        Scope templateScope = null;
+        if (provideTemplateScope) {
+            Object previous = ica.get(TEMPLATE_SCOPE_NAME);
+            templateScope = new Scope(templateScopeMarker, previous);
+            templateScope.put("templateName", templateName);
+            ica.put(TEMPLATE_SCOPE_NAME, templateScope);
+        }
+        try {
+            if (!initialized) {
+                nodeTree.init(ica, this.runtimeServices);
+            }
+            this.statistics.render(ica, out, templateName, nodeTree, parseTime);
+        } catch (StopCommand stop) {
+            // Check if we're supposed to stop here or not:
+            // - stop if the template is breaking explicitly on the provided $template
+            // - or stop if this is the topmost evaluation
+            if (!stop.isFor(templateScopeMarker) && ica.getTemplateNameStack().length > 1) {
+                throw stop;
+            }
+        } finally {
+            ica.popCurrentTemplateName();
+            if (provideTemplateScope) {
+                restoreTemplateScope(ica, templateScope);
+            }
+        }
+    }
+
+    /**
+     * Restore the previous {@code $template} variable, if any, in the velocity context.
+     * 
+     * @param ica the current velocity context
+     * @param currentTemplateScope the current Scope, from which to take the replaced variable
+     */
+    private void restoreTemplateScope(InternalContextAdapterImpl ica, Scope currentTemplateScope)
+    {
+        if (currentTemplateScope.getParent() != null) {
+            ica.put(TEMPLATE_SCOPE_NAME, currentTemplateScope.getParent());
+        } else if (currentTemplateScope.getReplaced() != null) {
+            ica.put(TEMPLATE_SCOPE_NAME, currentTemplateScope.getReplaced());
+        } else {
+            ica.remove(TEMPLATE_SCOPE_NAME);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.observation.event.Event;
+import org.xwiki.velocity.VelocityEngine;
+import org.xwiki.velocity.VelocityFactory;
+
+/**
+ * Parse the configured templates when the application starts, so that the first requests find their macros registered
+ * and their parsed content cached. The templates are parsed in parallel by background threads, the thread sending the
+ * {@link ApplicationStartedEvent} only gets the Velocity engine and doesn't wait for the templates to be parsed.
+ * <p>
+ * The engine is never created here since it would then be registered with an empty configuration instead of the one
+ * provided by the code owning it: the warm-up is skipped when the engine does not exist yet.
+ * <p>
+ * The parsed content of templates defining macros is never cached (see {@link NodeTreeCache}) so warming up such a
+ * template only registers its macros in the template namespace: its content will be parsed again when it's evaluated.
+ * <p>
+ * The following properties of XWiki's global configuration are used:
+ * <ul>
+ * <li>{@code velocity.warmup.templates}: the list of templates to parse, as class loader resource paths</li>
+ * <li>{@code velocity.warmup.engine}: the key of the Velocity engine to warm up (defaults to {@code default})</li>
+ * <li>{@code velocity.warmup.threads}: the number of threads used to parse the templates (defaults to the number of
+ * available processors)</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+@Component
+@Singleton
+@Named("VelocityWarmUpListener")
+public class VelocityWarmUpListener implements EventListener
+{
+    /**
+     * The list of events observed.
+     */
+    private static final List<Event> EVENTS = Collections.<Event> singletonList(new ApplicationStartedEvent());
+
+    /**
+     * Prefix for configuration keys for the warm-up.
+     */
+    private static final String PREFIX = "velocity.warmup.";
+
+    /**
+     * The encoding of the templates.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The size of the buffer used to read the templates.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * Used to read the warm-up configuration.
+     */
+    @Inject
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to get the Velocity engine to warm up.
+     */
+    @Inject
+    private VelocityFactory velocityFactory;
+
+    /**
+     * The logger to use for logging.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "VelocityWarmUpListener";
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        List<String> templates = this.configuration.getProperty(PREFIX + "templates", List.class);
+
+        if (!templates.isEmpty()) {
+            String key = this.configuration.getProperty(PREFIX + "engine", "default");
+
+            VelocityEngine engine = this.velocityFactory.getVelocityEngine(key);
+            if (engine != null) {
+                warmUp(engine, templates);
+            } else {
+                this.logger.info("Velocity engine [{}] does not exist yet, skipping the warm-up", key);
+            }
+        }
+    }
+
+    /**
+     * Parse the passed templates in parallel, in background threads.
+     * 
+     * @param engine the Velocity engine to warm up
+     * @param templates the class loader resource paths of the templates to parse
+     */
+    private void warmUp(final VelocityEngine engine, final List<String> templates)
+    {
+        if (!(engine instanceof DefaultVelocityEngine)) {
+            this.logger.warn("Velocity engine [{}] does not support warm-up", engine.getClass().getName());
+
+            return;
+        }
+
+        int threads = this.configuration.getProperty(PREFIX + "threads", Runtime.getRuntime().availableProcessors());
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(1, Math.min(threads, templates.size())), new ThreadFactory()
+            {
+                /**
+                 * Used to give a unique name to each thread.
+                 */
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "XWiki Velocity warm-up " + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+        final long start = System.currentTimeMillis();
+        final AtomicInteger remaining = new AtomicInteger(templates.size());
+        final AtomicInteger failures = new AtomicInteger();
+        for (final String template : templates) {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        ((DefaultVelocityEngine) engine).precompile(template, read(template));
+                    } catch (Exception e) {
+                        logger.warn("Failed to warm up Velocity template [{}]", template, e);
+                        failures.incrementAndGet();
+                    } finally {
+                        // The last parsed template reports the whole warm-up.
+                        if (remaining.decrementAndGet() == 0) {
+                            logger.info("Warmed up [{}] Velocity templates in [{}] ms",
+                                templates.size() - failures.get(), System.currentTimeMillis() - start);
+                        }
+                    }
+                }
+            });
+        }
+
+        // The threads stop once all the templates have been parsed.
+        executor.shutdown();
+    }
+
+    /**
+     * @param template the class loader resource path of the template
+     * @return the content of the template
+     * @throws IOException when failing to read the template
+     */
+    private String read(String template) throws IOException
+    {
+        InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(template);
+        if (stream == null) {
+            stream = getClass().getClassLoader().getResourceAsStream(template);
+        }
+        if (stream == null) {
+            throw new IOException("Template [" + template + "] cannot be found");
+        }
+
+        StringBuilder content = new StringBuilder();
+        Reader reader = new InputStreamReader(stream, ENCODING);
+        try {
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            for (int length = reader.read(buffer); length != -1; length = reader.read(buffer)) {
+                content.append(buffer, 0, length);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return content.toString();
+    }
+}
@@ -20,11 +20,17 @@
 package org.xwiki.velocity.internal.jmx;
 
 import org.xwiki.velocity.VelocityEngine;
+import org.xwiki.velocity.internal.DefaultVelocityEngine;
+import org.xwiki.velocity.internal.NodeTreeCache;
+import org.xwiki.velocity.internal.RenderingStatistics;
+import org.xwiki.velocity.internal.RenderingStatistics.DirectiveTiming;
+import org.xwiki.velocity.internal.RenderingStatistics.TemplateStatistics;
 
 import javax.management.openmbean.ArrayType;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.OpenType;
 import javax.management.openmbean.SimpleType;
 import javax.management.openmbean.TabularData;
@@ -32,7 +38,9 @@
 import javax.management.openmbean.TabularType;
 import java.lang.reflect.Field;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Uses non-stable (ie might need to be modified when we upgrade the Velocity JAR) introspection to access private
@@ -44,6 +52,11 @@
  */
 public class JMXVelocityEngine implements JMXVelocityEngineMBean
 {
+    /**
+     * The name of the template name column.
+     */
+    private static final String TEMPLATE_NAME = "templateName";
+
     /**
      * The Velocity Engine for which to return management data.
      */
@@ -72,7 +85,7 @@ public TabularData getTemplates()
             ArrayType macroNameType = new ArrayType(1, SimpleType.STRING);
 
             // Represents one row (template name, macro names) in the returned table data
-            String[] columnNames = new String[] {"templateName", "macroNames"};
+            String[] columnNames = new String[] {TEMPLATE_NAME, "macroNames"};
             String[] descriptions = new String[] {"The Template Name (namespace)", "The names of registered Macros"};
             CompositeType rowType = new CompositeType("template",
                 "Template management data (namespaces, macros) for a row", columnNames, descriptions,
@@ -99,6 +112,174 @@ public TabularData getTemplates()
         return data;
     }
 
+    @Override
+    public long getParserCacheHitCount()
+    {
+        NodeTreeCache cache = getNodeTreeCache();
+
+        return cache != null ? cache.getHitCount() : 0;
+    }
+
+    @Override
+    public long getParserCacheMissCount()
+    {
+        NodeTreeCache cache = getNodeTreeCache();
+
+        return cache != null ? cache.getMissCount() : 0;
+    }
+
+    @Override
+    public int getParserCacheSize()
+    {
+        NodeTreeCache cache = getNodeTreeCache();
+
+        return cache != null ? cache.size() : 0;
+    }
+
+    @Override
+    public int getLiveMacroNamespaceCount()
+    {
+        return this.engine instanceof DefaultVelocityEngine
+            ? ((DefaultVelocityEngine) this.engine).getMacroNamespaces().getLiveCount() : 0;
+    }
+
+    @Override
+    public int getPendingMacroNamespaceCount()
+    {
+        return this.engine instanceof DefaultVelocityEngine
+            ? ((DefaultVelocityEngine) this.engine).getMacroNamespaces().getPendingCount() : 0;
+    }
+
+    @Override
+    public int getMacroCount()
+    {
+        int count = 0;
+
+        try {
+            for (String[] macroNames : getInternalTemplates().values()) {
+                count += macroNames.length;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to gather information on Velocity Macros", e);
+        }
+
+        return count;
+    }
+
+    @Override
+    public TabularData getTemplateStatistics()
+    {
+        TabularData data;
+
+        try {
+            String[] columnNames =
+                new String[] {TEMPLATE_NAME, "invocationCount", "parseTime", "renderTime", "outputLength"};
+            String[] descriptions =
+                new String[] {"The Template Name", "The number of evaluations",
+                    "The total time spent parsing the template, in milliseconds",
+                    "The total time spent rendering the template, in milliseconds",
+                    "The total number of characters generated by the template"};
+            CompositeType rowType =
+                new CompositeType("templateStatistics", "Rendering statistics of a template", columnNames,
+                    descriptions, new OpenType[] {SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG, SimpleType.LONG});
+
+            TabularType type =
+                new TabularType("templatesStatistics", "Rendering statistics of each template", rowType,
+                    new String[] {TEMPLATE_NAME});
+            data = new TabularDataSupport(type);
+
+            RenderingStatistics statistics = getStatistics();
+            if (statistics != null) {
+                for (Map.Entry<String, TemplateStatistics> entry : statistics.getTemplates().entrySet()) {
+                    TemplateStatistics templateStatistics = entry.getValue();
+                    data.put(new CompositeDataSupport(rowType, columnNames, new Object[] {entry.getKey(),
+                        templateStatistics.getInvocationCount(), toMillis(templateStatistics.getParseTime()),
+                        toMillis(templateStatistics.getRenderTime()), templateStatistics.getOutputLength()}));
+                }
+            }
+        } catch (OpenDataException e) {
+            throw new RuntimeException("Failed to gather Velocity templates rendering statistics", e);
+        }
+
+        return data;
+    }
+
+    @Override
+    public TabularData getSlowestDirectives()
+    {
+        TabularData data;
+
+        try {
+            String[] columnNames = new String[] {"rank", "name", TEMPLATE_NAME, "line", "column", "time"};
+            String[] descriptions =
+                new String[] {"The rank of the directive, starting with the slowest", "The directive or macro name",
+                    "The Template Name", "The line of the directive in the template",
+                    "The column of the directive in the template", "The rendering time, in milliseconds"};
+            CompositeType rowType =
+                new CompositeType("directiveTiming", "Rendering time of a directive or macro call", columnNames,
+                    descriptions, new OpenType[] {SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING,
+                        SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG});
+
+            TabularType type =
+                new TabularType("slowestDirectives", "Slowest directives and macro calls", rowType,
+                    new String[] {"rank"});
+            data = new TabularDataSupport(type);
+
+            RenderingStatistics statistics = getStatistics();
+            if (statistics != null) {
+                List<DirectiveTiming> timings = statistics.getSlowestDirectives();
+                for (int i = 0; i < timings.size(); ++i) {
+                    DirectiveTiming timing = timings.get(i);
+                    data.put(new CompositeDataSupport(rowType, columnNames, new Object[] {i + 1, timing.getName(),
+                        String.valueOf(timing.getTemplateName()), timing.getLine(), timing.getColumn(),
+                        toMillis(timing.getTime())}));
+                }
+            }
+        } catch (OpenDataException e) {
+            throw new RuntimeException("Failed to gather Velocity slowest directives", e);
+        }
+
+        return data;
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        RenderingStatistics statistics = getStatistics();
+
+        if (statistics != null) {
+            statistics.reset();
+        }
+    }
+
+    /**
+     * @param nanoseconds a duration in nanoseconds
+     * @return the passed duration in milliseconds
+     */
+    private long toMillis(long nanoseconds)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanoseconds);
+    }
+
+    /**
+     * @return the rendering statistics of the engine, null if it does not have any
+     */
+    private RenderingStatistics getStatistics()
+    {
+        return this.engine instanceof DefaultVelocityEngine ? ((DefaultVelocityEngine) this.engine).getStatistics()
+            : null;
+    }
+
+    /**
+     * @return the cache of parsed contents of the engine, null if it does not have any
+     */
+    private NodeTreeCache getNodeTreeCache()
+    {
+        return this.engine instanceof DefaultVelocityEngine ? ((DefaultVelocityEngine) this.engine).getNodeTreeCache()
+            : null;
+    }
+
     /**
      * @return the data using standard Java classes, {@link #getTemplates()} wraps it in generic Open types to make the
      *         returned data portable and accessible remotely from a JMX management console
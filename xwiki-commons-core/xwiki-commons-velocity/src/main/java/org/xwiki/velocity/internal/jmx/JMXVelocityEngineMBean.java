@@ -25,6 +25,9 @@
  * MBean API related to Velocity Engines. Supports the following features:
  * <ul>
  *   <li>Retrieve list of template namespaces along with the name of macros registered in each template namespace</li>
+ *   <li>Retrieve statistics about the cache of parsed contents</li>
+ *   <li>Retrieve the number of live macro namespaces and of the macros they hold</li>
+ *   <li>Retrieve rendering statistics for each template and the slowest directives and macros</li>
  * </ul>
  *
  * @version $Id$
@@ -36,4 +39,61 @@
      * @return the list of template namespaces along with the name of macros registered in each template namespace
      */
     TabularData getTemplates();
+
+    /**
+     * @return the number of evaluated contents which were found already parsed in the cache
+     * @since 4.1
+     */
+    long getParserCacheHitCount();
+
+    /**
+     * @return the number of evaluated contents which had to be parsed
+     * @since 4.1
+     */
+    long getParserCacheMissCount();
+
+    /**
+     * @return the number of parsed contents currently in the cache
+     * @since 4.1
+     */
+    int getParserCacheSize();
+
+    /**
+     * @return the number of macro namespaces used by a rendering or waiting to be cleared
+     * @since 4.1
+     */
+    int getLiveMacroNamespaceCount();
+
+    /**
+     * @return the number of macro namespaces not used anymore and waiting to be cleared
+     * @since 4.1
+     */
+    int getPendingMacroNamespaceCount();
+
+    /**
+     * @return the total number of macros registered in all the namespaces, which is what the namespaces hold in
+     *         memory
+     * @since 4.1
+     */
+    int getMacroCount();
+
+    /**
+     * @return for each template the number of evaluations, the total time spent parsing and rendering it (in
+     *         milliseconds) and the total number of characters it generated
+     * @since 4.1
+     */
+    TabularData getTemplateStatistics();
+
+    /**
+     * @return the slowest directives and macro calls found by timing a sample of the evaluations, the slowest first
+     * @since 4.1
+     */
+    TabularData getSlowestDirectives();
+
+    /**
+     * Forget the collected rendering statistics.
+     * 
+     * @since 4.1
+     */
+    void resetStatistics();
 }
@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of fixed size char arrays, used to avoid allocating new buffers for each rendered content.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class CharSegmentPool
+{
+    /**
+     * The default size of the segments.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 8192;
+
+    /**
+     * The default maximum number of segments kept in the pool.
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 256;
+
+    /**
+     * The pool shared by default by all the {@link ChunkedWriter}s.
+     */
+    private static final CharSegmentPool DEFAULT = new CharSegmentPool(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+
+    /**
+     * The available segments.
+     */
+    private final Queue<char[]> segments = new ConcurrentLinkedQueue<char[]>();
+
+    /**
+     * The number of available segments (computing the size of a {@link ConcurrentLinkedQueue} is not constant time).
+     */
+    private final AtomicInteger available = new AtomicInteger();
+
+    /**
+     * The size of the segments.
+     */
+    private final int segmentSize;
+
+    /**
+     * The maximum number of segments kept in the pool.
+     */
+    private final int maxSegments;
+
+    /**
+     * @param segmentSize the size of the segments
+     * @param maxSegments the maximum number of segments kept in the pool
+     */
+    public CharSegmentPool(int segmentSize, int maxSegments)
+    {
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * @return the pool shared by default by all the {@link ChunkedWriter}s
+     */
+    public static CharSegmentPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the size of the segments
+     */
+    public int getSegmentSize()
+    {
+        return this.segmentSize;
+    }
+
+    /**
+     * @return the number of segments currently available in the pool
+     */
+    public int getAvailable()
+    {
+        return this.available.get();
+    }
+
+    /**
+     * @return a segment from the pool or a new one if the pool is empty
+     */
+    public char[] acquire()
+    {
+        char[] segment = this.segments.poll();
+
+        if (segment != null) {
+            this.available.decrementAndGet();
+        } else {
+            segment = new char[this.segmentSize];
+        }
+
+        return segment;
+    }
+
+    /**
+     * Give back a segment to the pool. The segment is dropped if the pool is full.
+     * 
+     * @param segment the segment which is not used anymore
+     */
+    public void release(char[] segment)
+    {
+        if (segment.length == this.segmentSize && this.available.incrementAndGet() <= this.maxSegments) {
+            this.segments.offer(segment);
+        } else {
+            this.available.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer storing what is written in a list of fixed size segments taken from a {@link CharSegmentPool}. Unlike a
+ * {@link java.io.StringWriter} it never copies what has already been written when it grows, and the content can be
+ * written to another {@link Writer} or to an {@link OutputStream} without building a String.
+ * <p>
+ * The segments are given back to the pool when the writer is closed or reset. This class is not thread safe.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ChunkedWriter extends Writer
+{
+    /**
+     * The pool from which to take the segments.
+     */
+    private final CharSegmentPool pool;
+
+    /**
+     * The segments filled so far, the last one being the current one.
+     */
+    private final List<char[]> segments = new ArrayList<char[]>();
+
+    /**
+     * The segment in which to write, null if none has been acquired yet.
+     */
+    private char[] current;
+
+    /**
+     * The position of the next character to write in the current segment.
+     */
+    private int position;
+
+    /**
+     * The number of characters in the previous (full) segments.
+     */
+    private long fullSegmentsLength;
+
+    /**
+     * True when the writer has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Create a writer using the default pool.
+     */
+    public ChunkedWriter()
+    {
+        this(CharSegmentPool.getDefault());
+    }
+
+    /**
+     * @param pool the pool from which to take the segments
+     */
+    public ChunkedWriter(CharSegmentPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of characters written so far
+     */
+    public long length()
+    {
+        return this.fullSegmentsLength + this.position;
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        ensureCapacity();
+
+        this.current[this.position++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ensureCapacity();
+
+            int length = Math.min(remaining, this.current.length - this.position);
+            System.arraycopy(cbuf, offset, this.current, this.position, length);
+            this.position += length;
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            ensureCapacity();
+
+            int length = Math.min(remaining, this.current.length - this.position);
+            str.getChars(offset, offset + length, this.current, this.position);
+            this.position += length;
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        // Nothing to flush
+    }
+
+    /**
+     * Write the content of this writer to the passed writer.
+     * 
+     * @param writer the writer to which to write the content
+     * @throws IOException when failing to write the content
+     */
+    public void writeTo(Writer writer) throws IOException
+    {
+        int last = this.segments.size() - 1;
+        for (int i = 0; i < last; ++i) {
+            char[] segment = this.segments.get(i);
+            writer.write(segment, 0, segment.length);
+        }
+        if (last >= 0) {
+            writer.write(this.current, 0, this.position);
+        }
+    }
+
+    /**
+     * Encode the content of this writer to the passed stream. The stream is flushed but not closed.
+     * 
+     * @param stream the stream to which to write the content
+     * @param charset the encoding to use
+     * @throws IOException when failing to write the content
+     */
+    public void writeTo(OutputStream stream, Charset charset) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(stream, charset);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Forget the content written so far and give back the segments to the pool. The writer can still be used.
+     */
+    public void reset()
+    {
+        for (char[] segment : this.segments) {
+            this.pool.release(segment);
+        }
+        this.segments.clear();
+
+        this.current = null;
+        this.position = 0;
+        this.fullSegmentsLength = 0;
+    }
+
+    /**
+     * Give back the segments to the pool. The content is lost and the writer can't be used anymore.
+     */
+    @Override
+    public void close()
+    {
+        reset();
+
+        this.closed = true;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder((int) length());
+
+        int last = this.segments.size() - 1;
+        for (int i = 0; i < last; ++i) {
+            builder.append(this.segments.get(i));
+        }
+        if (last >= 0) {
+            builder.append(this.current, 0, this.position);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Make sure there is room for at least one character in the current segment.
+     * 
+     * @throws IOException when the writer is closed
+     */
+    private void ensureCapacity() throws IOException
+    {
+        if (this.current == null || this.position == this.current.length) {
+            if (this.closed) {
+                throw new IOException("Writer closed");
+            }
+
+            if (this.current != null) {
+                this.fullSegmentsLength += this.position;
+            }
+
+            this.current = this.pool.acquire();
+            this.segments.add(this.current);
+            this.position = 0;
+        }
+    }
+}
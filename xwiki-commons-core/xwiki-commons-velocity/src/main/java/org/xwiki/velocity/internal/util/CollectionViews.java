@@ -0,0 +1,397 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.AbstractQueue;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Read only views of collections and arrays which don't copy their source, or only copy it once and lazily when the
+ * view is first accessed.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public final class CollectionViews
+{
+    /**
+     * A list in the reverse order of another list.
+     * 
+     * @param <E> the type of the elements in the list
+     */
+    private static class ReversedList<E> extends AbstractList<E>
+    {
+        /**
+         * The list to reverse.
+         */
+        private final List<E> list;
+
+        /**
+         * @param list the list to reverse
+         */
+        ReversedList(List<E> list)
+        {
+            this.list = list;
+        }
+
+        @Override
+        public E get(int index)
+        {
+            return this.list.get(this.list.size() - 1 - index);
+        }
+
+        @Override
+        public int size()
+        {
+            return this.list.size();
+        }
+
+        @Override
+        public Iterator<E> iterator()
+        {
+            // Efficient for linked lists too
+            return new ReversedIterator<E>(this.list.listIterator(this.list.size()));
+        }
+    }
+
+    /**
+     * Iterate backward over a list.
+     * 
+     * @param <E> the type of the elements in the list
+     */
+    private static class ReversedIterator<E> implements Iterator<E>
+    {
+        /**
+         * The list iterator to move backward.
+         */
+        private final ListIterator<E> iterator;
+
+        /**
+         * @param iterator the list iterator to move backward
+         */
+        ReversedIterator(ListIterator<E> iterator)
+        {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.iterator.hasPrevious();
+        }
+
+        @Override
+        public E next()
+        {
+            return this.iterator.previous();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The elements of a collection in their natural order. The collection is copied and sorted the first time the list
+     * is accessed.
+     * 
+     * @param <E> the type of the elements in the list
+     */
+    private static class SortedList<E> extends AbstractList<E> implements RandomAccess
+    {
+        /**
+         * The collection to sort.
+         */
+        private final Collection<E> collection;
+
+        /**
+         * The sorted elements, null until the list is first accessed.
+         */
+        private Object[] elements;
+
+        /**
+         * @param collection the collection to sort
+         */
+        SortedList(Collection<E> collection)
+        {
+            this.collection = collection;
+        }
+
+        /**
+         * @return the sorted elements
+         */
+        private Object[] getElements()
+        {
+            if (this.elements == null) {
+                Object[] array = this.collection.toArray();
+                Arrays.sort(array);
+                this.elements = array;
+            }
+
+            return this.elements;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index)
+        {
+            return (E) getElements()[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.elements != null ? this.elements.length : this.collection.size();
+        }
+    }
+
+    /**
+     * The distinct elements of a collection. The set is built the first time it is accessed.
+     * 
+     * @param <E> the type of the elements in the set
+     */
+    private static class DistinctSet<E> extends AbstractSet<E>
+    {
+        /**
+         * The collection containing the elements.
+         */
+        private final Collection<E> collection;
+
+        /**
+         * The distinct elements, null until the set is first accessed.
+         */
+        private Set<E> elements;
+
+        /**
+         * @param collection the collection containing the elements
+         */
+        DistinctSet(Collection<E> collection)
+        {
+            this.collection = collection;
+        }
+
+        /**
+         * @return the distinct elements
+         */
+        private Set<E> getElements()
+        {
+            if (this.elements == null) {
+                this.elements = Collections.unmodifiableSet(new LinkedHashSet<E>(this.collection));
+            }
+
+            return this.elements;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return getElements().contains(o);
+        }
+
+        @Override
+        public Iterator<E> iterator()
+        {
+            return getElements().iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return getElements().size();
+        }
+    }
+
+    /**
+     * A queue consuming the elements of a list, without modifying the list.
+     * 
+     * @param <E> the type of the elements in the queue
+     */
+    private static class ListQueue<E> extends AbstractQueue<E>
+    {
+        /**
+         * The list containing the elements.
+         */
+        private final List<E> list;
+
+        /**
+         * The position of the head of the queue in the list.
+         */
+        private final ListIterator<E> head;
+
+        /**
+         * @param list the list containing the elements
+         */
+        ListQueue(List<E> list)
+        {
+            this.list = list;
+            this.head = list.listIterator();
+        }
+
+        @Override
+        public boolean offer(E e)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public E poll()
+        {
+            return this.head.hasNext() ? this.head.next() : null;
+        }
+
+        @Override
+        public E peek()
+        {
+            if (this.head.hasNext()) {
+                E element = this.head.next();
+                this.head.previous();
+
+                return element;
+            }
+
+            return null;
+        }
+
+        @Override
+        public Iterator<E> iterator()
+        {
+            return Collections.unmodifiableList(this.list.subList(this.head.nextIndex(), this.list.size())).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return this.list.size() - this.head.nextIndex();
+        }
+    }
+
+    /**
+     * The elements of an array, including arrays of primitive values.
+     */
+    private static class ArrayView extends AbstractList<Object> implements RandomAccess
+    {
+        /**
+         * The array.
+         */
+        private final Object array;
+
+        /**
+         * The length of the array.
+         */
+        private final int length;
+
+        /**
+         * @param array the array
+         */
+        ArrayView(Object array)
+        {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public Object get(int index)
+        {
+            return Array.get(this.array, index);
+        }
+
+        @Override
+        public int size()
+        {
+            return this.length;
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private CollectionViews()
+    {
+    }
+
+    /**
+     * @param <E> the type of the elements in the list
+     * @param list the list to reverse
+     * @return a read only view of the passed list in the reverse order
+     */
+    public static <E> List<E> reversed(List<E> list)
+    {
+        return new ReversedList<E>(list);
+    }
+
+    /**
+     * @param <E> the type of the elements in the collection
+     * @param collection the collection to sort
+     * @return a read only list of the elements of the passed collection in their natural order, sorted when first
+     *         accessed
+     */
+    public static <E extends Comparable<E>> List<E> sorted(Collection<E> collection)
+    {
+        return new SortedList<E>(collection);
+    }
+
+    /**
+     * @param <E> the type of the elements in the collection
+     * @param collection the collection containing the elements
+     * @return a read only set of the distinct elements of the passed collection, built when first accessed unless the
+     *         collection is already a set
+     */
+    public static <E> Set<E> asSet(Collection<E> collection)
+    {
+        if (collection instanceof Set) {
+            return Collections.unmodifiableSet((Set<E>) collection);
+        }
+
+        return new DistinctSet<E>(collection);
+    }
+
+    /**
+     * @param <E> the type of the elements in the list
+     * @param list the list containing the elements
+     * @return a queue consuming the elements of the passed list without modifying it
+     */
+    public static <E> Queue<E> asQueue(List<E> list)
+    {
+        return new ListQueue<E>(list);
+    }
+
+    /**
+     * @param array an array of objects or of primitive values
+     * @return a read only list view of the passed array
+     */
+    public static List<Object> asList(Object array)
+    {
+        return Collections.unmodifiableList(new ArrayView(array));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer counting the characters written to the wrapped writer.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class CountingWriter extends Writer
+{
+    /**
+     * The wrapped writer.
+     */
+    private final Writer writer;
+
+    /**
+     * The number of characters written so far.
+     */
+    private long count;
+
+    /**
+     * @param writer the writer to which to write
+     */
+    public CountingWriter(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    /**
+     * @return the number of characters written so far
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        this.writer.write(c);
+        ++this.count;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        this.writer.write(cbuf, off, len);
+        this.count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        this.writer.write(str, off, len);
+        this.count += len;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.writer.close();
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.component.util.ClassCache;
+
+/**
+ * Serialize Java objects to JSON directly to a {@link Writer}, in a single pass and without building intermediate
+ * JSON objects. The readable properties of beans are resolved once per class.
+ * <p>
+ * The output is the same as the one of json-lib (which was used before), including the default values written for
+ * null bean properties, except that:
+ * <ul>
+ * <li>strings are always written as JSON strings, json-lib was parsing the strings of collections, maps and beans
+ * looking like JSON and writing them as JSON objects or arrays</li>
+ * <li>enumeration values and characters are written as JSON strings, json-lib was failing or writing them as empty
+ * beans</li>
+ * <li>cycles and non-finite numbers fail with an {@link IllegalArgumentException} instead of a json-lib
+ * exception</li>
+ * <li>the properties of beans which can't be read through a public class or interface are skipped</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class JSONStreamSerializer
+{
+    /**
+     * A readable property of a bean.
+     */
+    private static class BeanProperty
+    {
+        /**
+         * The name of the property.
+         */
+        private final String name;
+
+        /**
+         * The method returning the value of the property.
+         */
+        private final Method getter;
+
+        /**
+         * The JSON written when the value of the property is null.
+         */
+        private final String nullValue;
+
+        /**
+         * @param name the name of the property
+         * @param getter the method returning the value of the property
+         */
+        BeanProperty(String name, Method getter)
+        {
+            this.name = name;
+            this.getter = getter;
+            this.nullValue = getNullValue(getter.getReturnType());
+        }
+
+        /**
+         * @param type the type of a property
+         * @return the JSON written by json-lib when the value of a property of the passed type is null
+         */
+        private static String getNullValue(Class< ? > type)
+        {
+            String nullValue;
+            if (type.isArray() || Collection.class.isAssignableFrom(type)) {
+                nullValue = "[]";
+            } else if (Number.class.isAssignableFrom(type)) {
+                nullValue = "0";
+            } else if (type == Boolean.class) {
+                nullValue = "false";
+            } else if (type == String.class || type == Character.class) {
+                nullValue = "\"\"";
+            } else {
+                nullValue = NULL;
+            }
+
+            return nullValue;
+        }
+    }
+
+    /**
+     * The readable properties of the already serialized bean classes. The properties of the classes of extensions are
+     * kept as long as their {@link ClassLoader}, see {@link ClassCache}.
+     */
+    private static final ClassCache<BeanProperty[]> PROPERTIES = new ClassCache<BeanProperty[]>();
+
+    /**
+     * The bean properties which are not serialized.
+     */
+    private static final List<String> EXCLUDED_PROPERTIES = Arrays.asList("class", "declaringClass", "metaClass");
+
+    /**
+     * The JSON null value.
+     */
+    private static final String NULL = "null";
+
+    /**
+     * The hexadecimal digits used to escape control characters.
+     */
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    /**
+     * The number of bits in an hexadecimal digit.
+     */
+    private static final int HEX_DIGIT_BITS = 4;
+
+    /**
+     * The mask of an hexadecimal digit.
+     */
+    private static final int HEX_DIGIT_MASK = 0xF;
+
+    /**
+     * The number of hexadecimal digits of an escaped unicode character.
+     */
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+
+    /**
+     * The writer to which to write the JSON.
+     */
+    private final Writer writer;
+
+    /**
+     * The arrays, collections, maps and beans being serialized, used to detect cycles.
+     */
+    private final Map<Object, Object> ancestors = new IdentityHashMap<Object, Object>();
+
+    /**
+     * @param writer the writer to which to write the JSON
+     */
+    public JSONStreamSerializer(Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    /**
+     * Serialize a Java object to the JSON format.
+     * 
+     * @param object the object to serialize
+     * @throws IOException when failing to write the JSON
+     * @throws IllegalArgumentException when the object contains a cycle or a non-finite number
+     */
+    public void serialize(Object object) throws IOException
+    {
+        if (object == null) {
+            this.writer.write(NULL);
+        } else if (object instanceof CharSequence || object instanceof Character || object instanceof Enum) {
+            writeString(object.toString());
+        } else if (object instanceof Boolean) {
+            this.writer.write(object.toString());
+        } else if (object instanceof Number) {
+            writeNumber(object.toString(), object instanceof Double || object instanceof Float);
+        } else {
+            if (this.ancestors.put(object, object) != null) {
+                throw new IllegalArgumentException("There is a cycle in the hierarchy of ["
+                    + object.getClass().getName() + "]");
+            }
+            try {
+                serializeStructure(object);
+            } finally {
+                this.ancestors.remove(object);
+            }
+        }
+    }
+
+    /**
+     * @param object the JSON object, array, collection, map or bean to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializeStructure(Object object) throws IOException
+    {
+        if (object instanceof Object[]) {
+            serializeArray((Object[]) object);
+        } else if (object.getClass().isArray()) {
+            serializePrimitiveArray(object);
+        } else if (object instanceof Iterable) {
+            serializeIterable((Iterable< ? >) object);
+        } else if (object instanceof Map) {
+            serializeMap((Map< ? , ? >) object);
+        } else if (object.equals(null)) {
+            // The null value of JSON libraries (e.g. the values of a json-lib JSONObject)
+            this.writer.write(NULL);
+        } else {
+            serializeBean(object);
+        }
+    }
+
+    /**
+     * @param array the array to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializeArray(Object[] array) throws IOException
+    {
+        this.writer.write('[');
+        for (int i = 0; i < array.length; ++i) {
+            writeSeparator(i);
+            serialize(array[i]);
+        }
+        this.writer.write(']');
+    }
+
+    /**
+     * @param array the array of primitive values to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializePrimitiveArray(Object array) throws IOException
+    {
+        int length = Array.getLength(array);
+
+        this.writer.write('[');
+        if (array instanceof int[]) {
+            int[] values = (int[]) array;
+            for (int i = 0; i < length; ++i) {
+                writeSeparator(i);
+                this.writer.write(Integer.toString(values[i]));
+            }
+        } else if (array instanceof long[]) {
+            long[] values = (long[]) array;
+            for (int i = 0; i < length; ++i) {
+                writeSeparator(i);
+                this.writer.write(Long.toString(values[i]));
+            }
+        } else if (array instanceof double[]) {
+            double[] values = (double[]) array;
+            for (int i = 0; i < length; ++i) {
+                writeSeparator(i);
+                writeNumber(Double.toString(values[i]), true);
+            }
+        } else {
+            // Less common arrays (boolean, byte, char, short, float)
+            for (int i = 0; i < length; ++i) {
+                writeSeparator(i);
+                serialize(Array.get(array, i));
+            }
+        }
+        this.writer.write(']');
+    }
+
+    /**
+     * @param iterable the collection to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializeIterable(Iterable< ? > iterable) throws IOException
+    {
+        this.writer.write('[');
+        boolean first = true;
+        for (Object element : iterable) {
+            if (!first) {
+                this.writer.write(',');
+            }
+            first = false;
+            serialize(element);
+        }
+        this.writer.write(']');
+    }
+
+    /**
+     * @param map the map to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializeMap(Map< ? , ? > map) throws IOException
+    {
+        this.writer.write('{');
+        boolean first = true;
+        for (Map.Entry< ? , ? > entry : map.entrySet()) {
+            if (!first) {
+                this.writer.write(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()));
+            this.writer.write(':');
+            serialize(entry.getValue());
+        }
+        this.writer.write('}');
+    }
+
+    /**
+     * @param bean the bean to serialize
+     * @throws IOException when failing to write the JSON
+     */
+    private void serializeBean(Object bean) throws IOException
+    {
+        this.writer.write('{');
+        BeanProperty[] properties = getProperties(bean.getClass());
+        for (int i = 0; i < properties.length; ++i) {
+            writeSeparator(i);
+            writeString(properties[i].name);
+            this.writer.write(':');
+            Object value = getValue(bean, properties[i]);
+            if (value != null) {
+                serialize(value);
+            } else {
+                this.writer.write(properties[i].nullValue);
+            }
+        }
+        this.writer.write('}');
+    }
+
+    /**
+     * @param bean the bean
+     * @param property the property of the bean
+     * @return the value of the property
+     */
+    private Object getValue(Object bean, BeanProperty property)
+    {
+        try {
+            return property.getter.invoke(bean);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to get property [" + property.name + "]", e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Failed to get property [" + property.name + "]", e.getCause());
+        }
+    }
+
+    /**
+     * @param type the class of a bean
+     * @return the readable properties of the bean
+     */
+    private BeanProperty[] getProperties(Class< ? > type)
+    {
+        BeanProperty[] properties = PROPERTIES.get(type);
+
+        if (properties == null) {
+            properties = PROPERTIES.putIfAbsent(type, resolveProperties(type));
+        }
+
+        return properties;
+    }
+
+    /**
+     * @param type the class of a bean
+     * @return the readable properties of the bean
+     */
+    private BeanProperty[] resolveProperties(Class< ? > type)
+    {
+        PropertyDescriptor[] descriptors;
+        try {
+            descriptors = Introspector.getBeanInfo(type).getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Failed to introspect [" + type.getName() + "]", e);
+        }
+
+        List<BeanProperty> properties = new ArrayList<BeanProperty>(descriptors.length);
+        for (PropertyDescriptor descriptor : descriptors) {
+            Method getter = descriptor.getReadMethod();
+            if (getter != null && !EXCLUDED_PROPERTIES.contains(descriptor.getName())) {
+                if (!isPublic(getter)) {
+                    // For example a public method of a private implementation of a public interface
+                    getter = getPublicMethod(type, getter);
+                }
+                if (getter != null) {
+                    properties.add(new BeanProperty(descriptor.getName(), getter));
+                }
+            }
+        }
+
+        return properties.toArray(new BeanProperty[properties.size()]);
+    }
+
+    /**
+     * @param method a method
+     * @return true if the passed method can be called from any class
+     */
+    private static boolean isPublic(Method method)
+    {
+        return Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers());
+    }
+
+    /**
+     * @param type the class or interface where to look for the method
+     * @param method the method to look for
+     * @return the passed method as declared by a public class or interface of the passed type hierarchy, null if
+     *         there is none
+     */
+    private static Method getPublicMethod(Class< ? > type, Method method)
+    {
+        if (Modifier.isPublic(type.getModifiers())) {
+            try {
+                Method publicMethod = type.getMethod(method.getName(), method.getParameterTypes());
+                if (isPublic(publicMethod)) {
+                    return publicMethod;
+                }
+            } catch (NoSuchMethodException e) {
+                // Look in the super types
+            }
+        }
+
+        for (Class< ? > interfaceType : type.getInterfaces()) {
+            Method publicMethod = getPublicMethod(interfaceType, method);
+            if (publicMethod != null) {
+                return publicMethod;
+            }
+        }
+
+        return type.getSuperclass() != null ? getPublicMethod(type.getSuperclass(), method) : null;
+    }
+
+    /**
+     * Write the separator between two values.
+     * 
+     * @param index the index of the next value
+     * @throws IOException when failing to write the JSON
+     */
+    private void writeSeparator(int index) throws IOException
+    {
+        if (index > 0) {
+            this.writer.write(',');
+        }
+    }
+
+    /**
+     * Write a number, removing the useless trailing zeros of decimal numbers.
+     * 
+     * @param number the string representation of the number
+     * @param floatingPoint true if the number is a floating point number, which can be infinite or NaN
+     * @throws IOException when failing to write the JSON
+     */
+    private void writeNumber(String number, boolean floatingPoint) throws IOException
+    {
+        if (floatingPoint && (number.equals("NaN") || number.endsWith("Infinity"))) {
+            throw new IllegalArgumentException("JSON does not allow non-finite numbers");
+        }
+
+        int end = number.length();
+        if (number.indexOf('.') > 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            while (number.charAt(end - 1) == '0') {
+                --end;
+            }
+            if (number.charAt(end - 1) == '.') {
+                --end;
+            }
+        }
+
+        this.writer.write(number, 0, end);
+    }
+
+    /**
+     * Write a quoted and escaped JSON string.
+     * 
+     * @param value the string to write
+     * @throws IOException when failing to write the JSON
+     */
+    private void writeString(String value) throws IOException
+    {
+        this.writer.write('"');
+
+        // Write the characters which don't need to be escaped by chunks
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (needsEscape(value, i, c)) {
+                this.writer.write(value, start, i - start);
+                writeEscaped(c);
+                start = i + 1;
+            }
+        }
+        this.writer.write(value, start, value.length() - start);
+
+        this.writer.write('"');
+    }
+
+    /**
+     * @param value the string being written
+     * @param index the index of the character in the string
+     * @param c the character
+     * @return true if the character must be escaped
+     */
+    private boolean needsEscape(String value, int index, char c)
+    {
+        // Escape "</" to avoid closing a HTML script element
+        return c == '"' || c == '\\' || (c == '/' && index > 0 && value.charAt(index - 1) == '<')
+            || needsUnicodeEscape(c);
+    }
+
+    /**
+     * @param c a character
+     * @return true if the character must be escaped with its unicode value, like json-lib does
+     */
+    private boolean needsUnicodeEscape(char c)
+    {
+        return c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100');
+    }
+
+    /**
+     * @param c the character to escape
+     * @throws IOException when failing to write the JSON
+     */
+    private void writeEscaped(char c) throws IOException
+    {
+        this.writer.write('\\');
+        switch (c) {
+            case '\b':
+                this.writer.write('b');
+                break;
+            case '\t':
+                this.writer.write('t');
+                break;
+            case '\n':
+                this.writer.write('n');
+                break;
+            case '\f':
+                this.writer.write('f');
+                break;
+            case '\r':
+                this.writer.write('r');
+                break;
+            default:
+                if (needsUnicodeEscape(c)) {
+                    this.writer.write('u');
+                    for (int i = UNICODE_ESCAPE_LENGTH - 1; i >= 0; --i) {
+                        this.writer.write(HEX_DIGITS.charAt((c >> (i * HEX_DIGIT_BITS)) & HEX_DIGIT_MASK));
+                    }
+                } else {
+                    this.writer.write(c);
+                }
+        }
+    }
+}
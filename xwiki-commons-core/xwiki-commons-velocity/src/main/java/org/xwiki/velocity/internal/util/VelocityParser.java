@@ -22,9 +22,6 @@
 import java.util.HashSet;
 import java.util.Set;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * Provide helpers to parse velocity scripts.
  * 
@@ -58,9 +55,11 @@
     public static final Set<String> VELOCITYDIRECTIVE_ALL = new HashSet<String>();
 
     /**
-     * The Logger to use for logging.
+     * Returned by the internal helpers instead of throwing an {@link InvalidVelocityException} when the content is not
+     * valid Velocity. Exceptions are expensive and invalid Velocity (like a {@code #} or {@code $} in plain text) is
+     * very common.
      */
-    private static final Logger LOGGER = LoggerFactory.getLogger(VelocityParser.class);
+    private static final int INVALID = -1;
 
     static {
         VELOCITYDIRECTIVE_BEGIN.add("if");
@@ -99,26 +98,76 @@
     public int getKeyWord(char[] array, int currentIndex, StringBuffer velocityBlock, VelocityParserContext context)
         throws InvalidVelocityException
     {
-        int i = currentIndex;
+        return append(array, currentIndex, validate(keyWord(array, currentIndex, context)), velocityBlock);
+    }
 
-        if (i + 1 >= array.length) {
-            throw new InvalidVelocityException();
+    /**
+     * Scan the whole source and report each Velocity element and each text between Velocity elements to the passed
+     * listener as ranges of the source. Unlike the other helpers it does not copy anything, which makes it suited to
+     * tools only interested in the structure of the content (highlighters, macro detectors, etc.).
+     * 
+     * @param array the source to parse
+     * @param listener the listener to notify of each found element
+     * @since 4.1
+     */
+    public void parse(char[] array, VelocityParserListener listener)
+    {
+        VelocityParserContext context = new VelocityParserContext();
+
+        int textStart = 0;
+        int i = 0;
+        while (i < array.length) {
+            int end = INVALID;
+            if (array[i] == '#') {
+                end = keyWord(array, i, context);
+            } else if (array[i] == '$') {
+                end = var(array, i, null, context);
+            }
+
+            if (end == INVALID) {
+                ++i;
+            } else {
+                if (textStart < i) {
+                    listener.onText(array, textStart, i);
+                }
+                listener.onVelocityElement(array, i, end, context.getType());
+                i = end;
+                textStart = end;
+            }
         }
 
-        if (array[i + 1] == '#') {
+        if (textStart < array.length) {
+            listener.onText(array, textStart, array.length);
+        }
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param context the parser context to put some informations
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getKeyWord(char[], int, StringBuffer, VelocityParserContext)
+     */
+    private int keyWord(char[] array, int currentIndex, VelocityParserContext context)
+    {
+        int i = currentIndex + 1;
+
+        if (i >= array.length) {
+            return INVALID;
+        }
+
+        if (array[i] == '#') {
             // A simple line comment
-            i = getSimpleComment(array, currentIndex, velocityBlock, context);
-        } else if (array[i + 1] == '*') {
+            return getSimpleComment(array, currentIndex, null, context);
+        } else if (array[i] == '*') {
             // A multi lines comment
-            i = getMultilinesComment(array, currentIndex, velocityBlock, context);
-        } else if (array[i + 1] == '{' || Character.isLetter(array[i + 1])) {
+            return getMultilinesComment(array, currentIndex, null, context);
+        } else if (array[i] == '{' || Character.isLetter(array[i])) {
             // A directive
-            i = getDirective(array, currentIndex, velocityBlock, context);
-        } else {
-            throw new InvalidVelocityException();
+            return directive(array, currentIndex, context);
         }
 
-        return i;
+        return INVALID;
     }
 
     /**
@@ -134,15 +183,30 @@ public int getKeyWord(char[] array, int currentIndex, StringBuffer velocityBlock
     public int getDirective(char[] array, int currentIndex, StringBuffer velocityBlock, VelocityParserContext context)
         throws InvalidVelocityException
     {
-        int i = currentIndex + 1;
+        return append(array, currentIndex, validate(directive(array, currentIndex, context)), velocityBlock);
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param context the parser context to put some informations
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getDirective(char[], int, StringBuffer, VelocityParserContext)
+     */
+    private int directive(char[] array, int currentIndex, VelocityParserContext context)
+    {
+        int nameStart = currentIndex + 1;
 
         // Get macro name
-        StringBuffer directiveNameBuffer = new StringBuffer();
-        i = getDirectiveName(array, i, directiveNameBuffer, null, context);
+        int i = directiveName(array, nameStart, null);
+        if (i == INVALID) {
+            return INVALID;
+        }
 
-        String directiveName = directiveNameBuffer.toString();
+        // Null for macros
+        String directiveName = getReservedDirectiveName(array, nameStart, i);
 
-        if (!VELOCITYDIRECTIVE_NOPARAM.contains(directiveName)) {
+        if (directiveName == null || !VELOCITYDIRECTIVE_NOPARAM.contains(directiveName)) {
             // Skip spaces
             while (i < array.length && array[i] == ' ') {
                 ++i;
@@ -152,14 +216,14 @@ public int getDirective(char[] array, int currentIndex, StringBuffer velocityBlo
                 // Skip condition
                 i = getMethodParameters(array, i, null, context);
             } else {
-                throw new InvalidVelocityException();
+                return INVALID;
             }
         }
 
-        if (VELOCITYDIRECTIVE_ALL.contains(directiveName)) {
+        if (directiveName != null) {
             if (VELOCITYDIRECTIVE_BEGIN.contains(directiveName)) {
                 context.pushVelocityElement(new VelocityBlock(directiveName, VelocityBlock.VelocityType.DIRECTIVE));
-            } else if (VELOCITYDIRECTIVE_END.contains(directiveName)) {
+            } else if (VELOCITYDIRECTIVE_END.contains(directiveName) && context.isInVelocityBlock()) {
                 context.popVelocityElement();
             }
 
@@ -171,11 +235,47 @@ public int getDirective(char[] array, int currentIndex, StringBuffer velocityBlo
             context.setType(VelocityBlock.VelocityType.MACRO);
         }
 
-        if (velocityBlock != null) {
-            velocityBlock.append(array, currentIndex, i - currentIndex);
+        return i;
+    }
+
+    /**
+     * Find the reserved directive matching the passed directive name block without creating a new String.
+     * 
+     * @param array the source to parse
+     * @param start the index of the directive name block (including the optional <code>{</code> and <code>}</code>)
+     * @param end the index after the directive name block
+     * @return the reserved directive name, null if it's not a reserved directive
+     */
+    private String getReservedDirectiveName(char[] array, int start, int end)
+    {
+        int nameStart = array[start] == '{' ? start + 1 : start;
+        int nameEnd = array[end - 1] == '}' ? end - 1 : end;
+        int length = nameEnd - nameStart;
+
+        for (String directiveName : VELOCITYDIRECTIVE_ALL) {
+            if (directiveName.length() == length && regionMatches(directiveName, array, nameStart)) {
+                return directiveName;
+            }
         }
 
-        return i;
+        return null;
+    }
+
+    /**
+     * @param str the string to compare
+     * @param array the source to parse
+     * @param offset the index in the <code>array</code> where to start the comparison
+     * @return true if the characters of the passed string are found in the <code>array</code> at the passed offset
+     */
+    private boolean regionMatches(String str, char[] array, int offset)
+    {
+        for (int i = 0; i < str.length(); ++i) {
+            if (str.charAt(i) != array[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -190,10 +290,22 @@ public int getDirective(char[] array, int currentIndex, StringBuffer velocityBlo
      */
     public int getVelocityIdentifier(char[] array, int currentIndex, StringBuffer velocityBlock,
         VelocityParserContext context) throws InvalidVelocityException
+    {
+        return validate(velocityIdentifier(array, currentIndex, velocityBlock));
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param velocityBlock the buffer where to append matched velocity block, null if not needed
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getVelocityIdentifier(char[], int, StringBuffer, VelocityParserContext)
+     */
+    private int velocityIdentifier(char[] array, int currentIndex, StringBuffer velocityBlock)
     {
         // The first character of an identifier must be a [a-zA-Z]
-        if (!Character.isLetter(array[currentIndex])) {
-            throw new InvalidVelocityException();
+        if (currentIndex >= array.length || !Character.isLetter(array[currentIndex])) {
+            return INVALID;
         }
 
         int i = currentIndex + 1;
@@ -202,11 +314,7 @@ public int getVelocityIdentifier(char[] array, int currentIndex, StringBuffer ve
             ++i;
         }
 
-        if (velocityBlock != null) {
-            velocityBlock.append(array, currentIndex, i - currentIndex);
-        }
-
-        return i;
+        return append(array, currentIndex, i, velocityBlock);
     }
 
     /**
@@ -235,27 +343,36 @@ public boolean isValidVelocityIdentifierChar(char c)
      */
     public int getDirectiveName(char[] array, int currentIndex, StringBuffer directiveName, StringBuffer velocityBlock,
         VelocityParserContext context) throws InvalidVelocityException
+    {
+        return append(array, currentIndex, validate(directiveName(array, currentIndex, directiveName)),
+            velocityBlock);
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param directiveName the buffer where to append the name of the directive, null if not needed
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getDirectiveName(char[], int, StringBuffer, StringBuffer, VelocityParserContext)
+     */
+    private int directiveName(char[] array, int currentIndex, StringBuffer directiveName)
     {
         int i = currentIndex;
 
         if (i == array.length) {
-            throw new InvalidVelocityException();
+            return INVALID;
         }
 
         if (array[i] == '{') {
             ++i;
         }
 
-        i = getVelocityIdentifier(array, i, directiveName, context);
+        i = velocityIdentifier(array, i, directiveName);
 
-        if (i < array.length && array[i] == '}') {
+        if (i != INVALID && i < array.length && array[i] == '}') {
             ++i;
         }
 
-        if (velocityBlock != null) {
-            velocityBlock.append(array, currentIndex, i - currentIndex);
-        }
-
         return i;
     }
 
@@ -372,45 +489,45 @@ public int getVar(char[] array, int currentIndex, StringBuffer velocityBlock, Ve
      */
     public int getVar(char[] array, int currentIndex, StringBuffer varName, StringBuffer velocityBlock,
         VelocityParserContext context) throws InvalidVelocityException
+    {
+        return append(array, currentIndex, validate(var(array, currentIndex, varName, context)), velocityBlock);
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param varName the buffer where to append the name of the variable, null if not needed
+     * @param context the parser context to put some informations
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getVar(char[], int, StringBuffer, StringBuffer, VelocityParserContext)
+     */
+    private int var(char[] array, int currentIndex, StringBuffer varName, VelocityParserContext context)
     {
         if (isVarEscaped(array, currentIndex)) {
-            throw new InvalidVelocityException();
+            return INVALID;
         }
 
         int i = currentIndex + 1;
 
-        if (i == array.length) {
-            throw new InvalidVelocityException();
-        }
-
-        if (array[i] == '!') {
+        if (i < array.length && array[i] == '!') {
             ++i;
         }
 
-        if (i == array.length) {
-            throw new InvalidVelocityException();
-        }
-
         boolean fullSyntax = false;
-        if (array[i] == '{') {
+        if (i < array.length && array[i] == '{') {
             ++i;
             fullSyntax = true;
         }
 
-        if (i == array.length) {
-            throw new InvalidVelocityException();
-        }
-
         // get the variable name
-        i = getVelocityIdentifier(array, i, varName, context);
+        i = velocityIdentifier(array, i, varName);
+        if (i == INVALID) {
+            return INVALID;
+        }
 
         // get the method(s)
         i = followVar(array, i, fullSyntax, context);
 
-        if (velocityBlock != null) {
-            velocityBlock.append(array, currentIndex, i - currentIndex);
-        }
-
         context.setType(VelocityBlock.VelocityType.VAR);
 
         return i;
@@ -452,12 +569,11 @@ private int followVar(char[] array, int currentIndex, boolean fullSyntax, Veloci
                 ++i;
                 break;
             } else if (array[i] == '.') {
-                try {
-                    i = getMethodOrProperty(array, i, null, context);
-                } catch (InvalidVelocityException e) {
-                    LOGGER.debug("Not a valid method at char [{}]", i, e);
+                int end = methodOrProperty(array, i, context);
+                if (end == INVALID) {
                     break;
                 }
+                i = end;
             } else if (array[i] == '[') {
                 i = getTableElement(array, i, null, context);
                 break;
@@ -481,6 +597,18 @@ private int followVar(char[] array, int currentIndex, boolean fullSyntax, Veloci
      */
     public int getMethodOrProperty(char[] array, int currentIndex, StringBuffer velocityBlock,
         VelocityParserContext context) throws InvalidVelocityException
+    {
+        return append(array, currentIndex, validate(methodOrProperty(array, currentIndex, context)), velocityBlock);
+    }
+
+    /**
+     * @param array the source to parse
+     * @param currentIndex the current index in the <code>array</code>
+     * @param context the parser context to put some informations
+     * @return the index in the <code>array</code> after the matched block or {@link #INVALID}
+     * @see #getMethodOrProperty(char[], int, StringBuffer, VelocityParserContext)
+     */
+    private int methodOrProperty(char[] array, int currentIndex, VelocityParserContext context)
     {
         int i = currentIndex + 1;
 
@@ -495,11 +623,7 @@ public int getMethodOrProperty(char[] array, int currentIndex, StringBuffer velo
                 }
             }
         } else {
-            throw new InvalidVelocityException();
-        }
-
-        if (velocityBlock != null) {
-            velocityBlock.append(array, currentIndex, i - currentIndex);
+            return INVALID;
         }
 
         return i;
@@ -600,11 +724,10 @@ public int getEscape(char[] array, int currentIndex, StringBuffer velocityBlock,
                 if (array[i] == '\\') {
                     escaped = true;
                 } else if (array[i] == '$') {
-                    try {
-                        i = getVar(array, i, null, context);
+                    int end = var(array, i, null, context);
+                    if (end != INVALID) {
+                        i = end;
                         continue;
-                    } catch (InvalidVelocityException e) {
-                        LOGGER.debug("Not a valid variable at char [{}]", i, e);
                     }
                 } else if (array[i] == escapeChar) {
                     ++i;
@@ -712,11 +835,10 @@ public int getMacroParameter(char[] array, int currentIndex, StringBuffer veloci
 
         for (; i < array.length; ++i) {
             if (array[i] == '$') {
-                try {
-                    i = getVar(array, i, null, context);
+                int end = var(array, i, null, context);
+                if (end != INVALID) {
+                    i = end;
                     break;
-                } catch (InvalidVelocityException e) {
-                    LOGGER.debug("Not a valid velocity variable at char [{}]", i, e);
                 }
             } else if (array[i] == '"' || array[i] == '\'') {
                 i = getEscape(array, i, null, context);
@@ -734,4 +856,34 @@ public int getMacroParameter(char[] array, int currentIndex, StringBuffer veloci
 
         return i;
     }
+
+    /**
+     * @param index the index returned by an internal helper
+     * @return the passed index
+     * @throws InvalidVelocityException when the passed index is {@link #INVALID}
+     */
+    private int validate(int index) throws InvalidVelocityException
+    {
+        if (index == INVALID) {
+            throw new InvalidVelocityException();
+        }
+
+        return index;
+    }
+
+    /**
+     * @param array the source to parse
+     * @param start the index of the matched block
+     * @param end the index after the matched block
+     * @param velocityBlock the buffer where to append matched velocity block, null if not needed
+     * @return the index after the matched block
+     */
+    private int append(char[] array, int start, int end, StringBuffer velocityBlock)
+    {
+        if (velocityBlock != null && end != INVALID) {
+            velocityBlock.append(array, start, end - start);
+        }
+
+        return end;
+    }
 }
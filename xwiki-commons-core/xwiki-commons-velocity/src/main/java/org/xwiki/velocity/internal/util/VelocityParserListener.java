@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import org.xwiki.velocity.internal.util.VelocityBlock.VelocityType;
+
+/**
+ * Receive the elements found by {@link VelocityParser#parse(char[], VelocityParserListener)} as ranges of the parsed
+ * source. Implementations which need the content of an element can copy the range, for example with
+ * {@link StringBuilder#append(char[], int, int)}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public interface VelocityParserListener
+{
+    /**
+     * Called for each text located between Velocity elements.
+     * 
+     * @param array the parsed source
+     * @param start the index of the first character of the text
+     * @param end the index after the last character of the text
+     */
+    void onText(char[] array, int start, int end);
+
+    /**
+     * Called for each Velocity element (directive, macro call, variable or comment).
+     * 
+     * @param array the parsed source
+     * @param start the index of the first character of the element
+     * @param end the index after the last character of the element
+     * @param type the type of the element
+     */
+    void onVelocityElement(char[] array, int start, int end, VelocityType type);
+}
@@ -20,7 +20,13 @@
 package org.xwiki.velocity.introspection;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.util.RuntimeServicesAware;
@@ -28,6 +34,7 @@
 import org.apache.velocity.util.introspection.VelMethod;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ClassCache;
 import org.xwiki.properties.ConverterManager;
 
 /**
@@ -49,11 +56,72 @@
  */
 public class MethodArgumentsUberspector extends AbstractChainableUberspector implements RuntimeServicesAware
 {
+    /**
+     * Identify a method call: the name of the method and the types of the passed arguments.
+     */
+    private static final class MethodCall
+    {
+        /**
+         * The name of the called method.
+         */
+        private final String methodName;
+
+        /**
+         * The types of the passed arguments, null for null arguments.
+         */
+        private final Class< ? >[] argumentTypes;
+
+        /**
+         * @param methodName the name of the called method
+         * @param arguments the passed arguments
+         */
+        private MethodCall(String methodName, Object[] arguments)
+        {
+            this.methodName = methodName;
+            this.argumentTypes = new Class< ? >[arguments.length];
+            for (int i = 0; i < arguments.length; ++i) {
+                this.argumentTypes[i] = arguments[i] != null ? arguments[i].getClass() : null;
+            }
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.methodName.hashCode() * 31 + Arrays.hashCode(this.argumentTypes);
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (object == this) {
+                return true;
+            }
+
+            if (!(object instanceof MethodCall)) {
+                return false;
+            }
+
+            MethodCall call = (MethodCall) object;
+
+            return this.methodName.equals(call.methodName) && Arrays.equals(this.argumentTypes, call.argumentTypes);
+        }
+    }
+
     /**
      * The component used to convert method arguments to formal parameter types.
      */
     private ConverterManager converterManager;
 
+    /**
+     * The methods that could match each method call made on each class, the ones requiring the fewest conversions
+     * first. No method means that the arguments of the call can never be converted.
+     * <p>
+     * The methods of the classes of extensions and wikis are kept as long as their {@link ClassLoader}, see
+     * {@link ClassCache}.
+     */
+    private final ClassCache<ConcurrentMap<MethodCall, Method[]>> candidates =
+        new ClassCache<ConcurrentMap<MethodCall, Method[]>>();
+
     @Override
     public void setRuntimeServices(RuntimeServices runtimeServices)
     {
@@ -96,18 +164,100 @@ public VelMethod getMethod(Object obj, String methodName, Object[] args, Info i)
      */
     private Object[] convertArguments(Object obj, String methodName, Object[] args)
     {
-        for (Method method : obj.getClass().getMethods()) {
-            if (method.getName().equalsIgnoreCase(methodName) && method.getParameterTypes().length == args.length) {
-                try {
-                    return convertArguments(args, method.getParameterTypes());
-                } catch (Exception e) {
-                    // Ignore and try the next method.
-                }
+        ConcurrentMap<MethodCall, Method[]> classCandidates = getCandidates(obj.getClass());
+
+        MethodCall call = new MethodCall(methodName, args);
+        Method[] callCandidates = classCandidates.get(call);
+        if (callCandidates == null) {
+            callCandidates = getCandidates(obj.getClass(), call);
+            classCandidates.put(call, callCandidates);
+        }
+
+        // The candidates are always tried in the same order. Whether an argument can be converted depends on its value
+        // and not only on its type so a candidate can still fail, in which case the next one is tried.
+        for (Method candidate : callCandidates) {
+            try {
+                return convertArguments(args, candidate.getParameterTypes());
+            } catch (Exception e) {
+                // Ignore and try the next method.
             }
         }
+
         return null;
     }
 
+    /**
+     * @param type the class the methods are invoked on
+     * @return the methods which could match the calls made on the passed class
+     */
+    private ConcurrentMap<MethodCall, Method[]> getCandidates(Class< ? > type)
+    {
+        ConcurrentMap<MethodCall, Method[]> classCandidates = this.candidates.get(type);
+
+        if (classCandidates == null) {
+            // Make sure all the threads share the same map so that no resolved call is lost
+            classCandidates = this.candidates.putIfAbsent(type, new ConcurrentHashMap<MethodCall, Method[]>());
+        }
+
+        return classCandidates;
+    }
+
+    /**
+     * @param type the class the method is invoked on
+     * @param call the method call
+     * @return the methods with the name and number of parameters of the passed call which can accept its null
+     *         arguments, sorted by number of arguments to convert
+     */
+    private Method[] getCandidates(Class< ? > type, final MethodCall call)
+    {
+        List<Method> callCandidates = new ArrayList<Method>();
+
+        for (Method method : type.getMethods()) {
+            if (method.getName().equalsIgnoreCase(call.methodName)
+                && method.getParameterTypes().length == call.argumentTypes.length
+                && getConversionCount(call, method.getParameterTypes()) >= 0) {
+                callCandidates.add(method);
+            }
+        }
+
+        // The sort is stable so methods requiring the same number of conversions keep the order of Class#getMethods().
+        Collections.sort(callCandidates, new Comparator<Method>()
+        {
+            @Override
+            public int compare(Method method1, Method method2)
+            {
+                return getConversionCount(call, method1.getParameterTypes())
+                    - getConversionCount(call, method2.getParameterTypes());
+            }
+        });
+
+        return callCandidates.toArray(new Method[callCandidates.size()]);
+    }
+
+    /**
+     * @param call the method call
+     * @param parameterTypes the formal parameter types of a method
+     * @return the number of arguments of the passed call which need to be converted to match the passed parameter
+     *         types, -1 if a null argument can't be passed to a primitive parameter
+     */
+    private static int getConversionCount(MethodCall call, Class< ? >[] parameterTypes)
+    {
+        int count = 0;
+
+        for (int i = 0; i < parameterTypes.length; ++i) {
+            Class< ? > argumentType = call.argumentTypes[i];
+            if (argumentType == null) {
+                if (parameterTypes[i].isPrimitive()) {
+                    return -1;
+                }
+            } else if (!parameterTypes[i].isAssignableFrom(argumentType)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
     /**
      * Tries to convert the given arguments to match the specified formal parameters types.
      * <p>
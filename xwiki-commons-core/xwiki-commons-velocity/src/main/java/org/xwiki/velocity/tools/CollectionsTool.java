@@ -40,6 +40,7 @@
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.xwiki.velocity.internal.util.CollectionViews;
 
 /**
  * Velocity Tool allowing to create various type of collections.
@@ -350,4 +351,89 @@ public <E extends Comparable<E>> boolean sort(List<E> input)
             return false;
         }
     }
+
+    /**
+     * Returns a read only view of the specified list in the reverse order. Unlike {@link #reverse(List)} the list is
+     * neither modified nor copied, and changes of the list are visible in the view.
+     * 
+     * @param <E> the type of the elements in the list
+     * @param input the list to view in the reverse order
+     * @return a reversed view of the list
+     * @since 4.1
+     */
+    public <E> List<E> reversed(List<E> input)
+    {
+        if (input == null) {
+            return null;
+        }
+        return CollectionViews.reversed(input);
+    }
+
+    /**
+     * Returns a read only list of the elements of the specified collection in their natural order. Unlike
+     * {@link #sort(List)} the collection is not modified, and it is only copied and sorted when the returned list is
+     * first accessed.
+     * 
+     * @param <E> the type of the elements in the collection
+     * @param input the collection to sort
+     * @return a sorted view of the collection
+     * @since 4.1
+     */
+    public <E extends Comparable<E>> List<E> sorted(Collection<E> input)
+    {
+        if (input == null) {
+            return null;
+        }
+        return CollectionViews.sorted(input);
+    }
+
+    /**
+     * Returns a read only set of the distinct elements of the specified collection. The set is built when first
+     * accessed, and not at all if the collection is already a set.
+     * 
+     * @param <E> the type of the elements in the collection
+     * @param input the collection containing the elements
+     * @return a set view of the collection
+     * @since 4.1
+     */
+    public <E> Set<E> asSet(Collection<E> input)
+    {
+        if (input == null) {
+            return null;
+        }
+        return CollectionViews.asSet(input);
+    }
+
+    /**
+     * Returns a queue consuming the elements of the specified list in order, without modifying or copying the list.
+     * New elements can't be added to the queue.
+     * 
+     * @param <E> the type of the elements in the list
+     * @param input the list containing the elements
+     * @return a queue view of the list
+     * @since 4.1
+     */
+    public <E> Queue<E> asQueue(List<E> input)
+    {
+        if (input == null) {
+            return null;
+        }
+        return CollectionViews.asQueue(input);
+    }
+
+    /**
+     * Returns a read only list view of the specified array, which can be an array of primitive values (like an
+     * {@code int[]}). The array is not copied.
+     * 
+     * @param array the array to view as a list
+     * @return a list view of the array, or {@code null} if the passed object is not an array
+     * @since 4.1
+     */
+    public List<Object> asList(Object array)
+    {
+        if (array == null || !array.getClass().isArray()) {
+            return null;
+        }
+        return CollectionViews.asList(array);
+    }
 }
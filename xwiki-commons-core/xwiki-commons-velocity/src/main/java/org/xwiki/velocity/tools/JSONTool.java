@@ -19,11 +19,11 @@
  */
 package org.xwiki.velocity.tools;
 
-import net.sf.json.JSON;
-import net.sf.json.JSONArray;
-import net.sf.json.JSONNull;
-import net.sf.json.JSONObject;
-import net.sf.json.util.JSONUtils;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.xwiki.velocity.internal.util.JSONStreamSerializer;
 
 /**
  * Velocity tool to facilitate serialization of Java objects to the JSON format.
@@ -50,21 +50,29 @@
      */
     public String serialize(Object object)
     {
-        JSON json = null;
-        if (object == null) {
-            json = JSONNull.getInstance();
-        } else if (object instanceof String) {
-            return JSONUtils.valueToString(object);
-        } else if (JSONUtils.isBoolean(object)) {
-            return object.toString();
-        } else if (JSONUtils.isNumber(object)) {
-            return JSONUtils.numberToString((Number) object);
-        } else if (JSONUtils.isArray(object)) {
-            json = JSONArray.fromObject(object);
-        } else {
-            json = JSONObject.fromObject(object);
+        StringWriter writer = new StringWriter();
+
+        try {
+            serialize(object, writer);
+        } catch (IOException e) {
+            // Cannot happen with a StringWriter
+            throw new RuntimeException("Failed to serialize object to JSON", e);
         }
 
-        return json.toString();
+        return writer.toString();
+    }
+
+    /**
+     * Serialize a Java object to the JSON format directly to the passed writer, in a single pass and without building
+     * the whole JSON string in memory. See {@link #serialize(Object)} for examples.
+     * 
+     * @param object the object to be serialized to the JSON format
+     * @param writer the writer to which to write the JSON
+     * @throws IOException when failing to write the JSON
+     * @since 4.1
+     */
+    public void serialize(Object object, Writer writer) throws IOException
+    {
+        new JSONStreamSerializer(writer).serialize(object);
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.velocity.VelocityContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CopyOnWriteVelocityContext}.
+ * 
+ * @version $Id$
+ */
+public class CopyOnWriteVelocityContextTest
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        CopyOnWriteVelocityContext context = new CopyOnWriteVelocityContext();
+
+        Assert.assertNull(context.put("key", "value"));
+        Assert.assertEquals("value", context.get("key"));
+        Assert.assertTrue(context.containsKey("key"));
+        Assert.assertEquals("value", context.put("key", "other value"));
+        Assert.assertEquals("other value", context.remove("key"));
+        Assert.assertNull(context.get("key"));
+        Assert.assertFalse(context.containsKey("key"));
+    }
+
+    @Test
+    public void testInnerContext()
+    {
+        VelocityContext innerContext = new VelocityContext();
+        innerContext.put("tool", "tool value");
+        CopyOnWriteVelocityContext context = new CopyOnWriteVelocityContext(innerContext);
+
+        Assert.assertEquals("tool value", context.get("tool"));
+        Assert.assertEquals("tool value", ((CopyOnWriteVelocityContext) context.clone()).get("tool"));
+    }
+
+    @Test
+    public void testCloneIsIsolated()
+    {
+        CopyOnWriteVelocityContext context = new CopyOnWriteVelocityContext();
+        context.put("shared", "value");
+        context.put("removed", "value");
+
+        CopyOnWriteVelocityContext clone = (CopyOnWriteVelocityContext) context.clone();
+        Assert.assertEquals("value", clone.get("shared"));
+        Assert.assertEquals("value", clone.get("removed"));
+
+        clone.put("shared", "clone value");
+        clone.put("new", "clone value");
+        Assert.assertEquals("value", clone.remove("removed"));
+
+        context.put("shared", "other value");
+
+        Assert.assertEquals("other value", context.get("shared"));
+        Assert.assertEquals("value", context.get("removed"));
+        Assert.assertFalse(context.containsKey("new"));
+        Assert.assertEquals(new HashSet<Object>(Arrays.asList("shared", "removed")),
+            new HashSet<Object>(Arrays.asList(context.getKeys())));
+
+        Assert.assertEquals("clone value", clone.get("shared"));
+        Assert.assertNull(clone.get("removed"));
+        Assert.assertFalse(clone.containsKey("removed"));
+        Assert.assertEquals(new HashSet<Object>(Arrays.asList("shared", "new")),
+            new HashSet<Object>(Arrays.asList(clone.getKeys())));
+    }
+
+    @Test
+    public void testCloneManyTimes()
+    {
+        CopyOnWriteVelocityContext context = new CopyOnWriteVelocityContext();
+        context.put("removed", "value");
+
+        for (int i = 0; i < 20; ++i) {
+            context.put("key" + i, i);
+            context.remove("removed");
+            context = (CopyOnWriteVelocityContext) context.clone();
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertEquals(i, context.get("key" + i));
+        }
+        Assert.assertFalse(context.containsKey("removed"));
+        Assert.assertEquals(20, context.getKeys().length);
+    }
+
+    @Test
+    public void testNullValue()
+    {
+        CopyOnWriteVelocityContext context = new CopyOnWriteVelocityContext();
+        context.put("key", "value");
+
+        CopyOnWriteVelocityContext clone = (CopyOnWriteVelocityContext) context.clone();
+        clone.put("key", null);
+
+        Assert.assertTrue(clone.containsKey("key"));
+        Assert.assertNull(clone.get("key"));
+        Assert.assertEquals("value", context.get("key"));
+    }
+}
@@ -34,6 +34,7 @@
 import org.xwiki.test.AbstractMockingComponentTestCase;
 import org.xwiki.test.annotation.MockingRequirement;
 import org.xwiki.velocity.VelocityConfiguration;
+import org.xwiki.velocity.XWikiVelocityBudgetExceededException;
 import org.xwiki.velocity.introspection.ChainingUberspector;
 import org.xwiki.velocity.introspection.DeprecatedCheckUberspector;
 
@@ -169,4 +170,140 @@ public void testConfigureMacrosToBeGlobal() throws Exception
         this.engine.evaluate(context, writer, "template2", "#mymacro");
         Assert.assertEquals("test", writer.toString());
     }
+
+    @Test
+    public void testEvaluateReusesParsedContent() throws Exception
+    {
+        this.engine.initialize(new Properties());
+
+        Context context = new org.apache.velocity.VelocityContext();
+        context.put("name", "World");
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(context, writer, "mytemplate", "hello $name");
+        Assert.assertEquals("hello World", writer.toString());
+
+        context.put("name", "XWiki");
+        writer = new StringWriter();
+        this.engine.evaluate(context, writer, "mytemplate", new StringReader("hello $name"));
+        Assert.assertEquals("hello XWiki", writer.toString());
+
+        Assert.assertEquals(1, this.engine.getNodeTreeCache().getHitCount());
+        Assert.assertEquals(1, this.engine.getNodeTreeCache().getMissCount());
+        Assert.assertEquals(1, this.engine.getNodeTreeCache().size());
+    }
+
+    @Test
+    public void testMacrosAreRegisteredAgainAfterClearingNamespace() throws Exception
+    {
+        this.engine.initialize(new Properties());
+        Context context = new org.apache.velocity.VelocityContext();
+
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(context, writer, "template1", "#macro(mymacro)test#end#mymacro()");
+        Assert.assertEquals("test", writer.toString());
+
+        this.engine.clearMacroNamespace("template1");
+
+        writer = new StringWriter();
+        this.engine.evaluate(context, writer, "template1", "#macro(mymacro)test#end#mymacro()");
+        Assert.assertEquals("test", writer.toString());
+
+        Assert.assertEquals(0, this.engine.getNodeTreeCache().size());
+    }
+
+    @Test
+    public void testDisableParserCache() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("xwiki.parser.cache.size", "0");
+        this.engine.initialize(properties);
+
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(new org.apache.velocity.VelocityContext(), writer, "mytemplate",
+            "#set($foo='hello')$foo World");
+        Assert.assertEquals("hello World", writer.toString());
+        Assert.assertNull(this.engine.getNodeTreeCache());
+    }
+
+    @Test
+    public void testRenderingStatistics() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("xwiki.statistics.sampling", "1");
+        this.engine.initialize(properties);
+
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(new org.apache.velocity.VelocityContext(), writer, "mytemplate",
+            "#foreach($i in [1..3])$i#end");
+        Assert.assertEquals("123", writer.toString());
+
+        RenderingStatistics.TemplateStatistics statistics =
+            this.engine.getStatistics().getTemplates().get("mytemplate");
+        Assert.assertEquals(1, statistics.getInvocationCount());
+        Assert.assertEquals(3, statistics.getOutputLength());
+
+        List<RenderingStatistics.DirectiveTiming> timings = this.engine.getStatistics().getSlowestDirectives();
+        Assert.assertEquals(1, timings.size());
+        Assert.assertEquals("foreach", timings.get(0).getName());
+        Assert.assertEquals("mytemplate", timings.get(0).getTemplateName());
+        Assert.assertEquals(1, timings.get(0).getLine());
+
+        this.engine.getStatistics().reset();
+        Assert.assertTrue(this.engine.getStatistics().getTemplates().isEmpty());
+    }
+
+    @Test
+    public void testNodeBudget() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("xwiki.budget.nodes", "100");
+        this.engine.initialize(properties);
+
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(new org.apache.velocity.VelocityContext(), writer, "mytemplate",
+            "#foreach($i in [1..10])$i#end");
+        Assert.assertEquals("12345678910", writer.toString());
+
+        try {
+            this.engine.evaluate(new org.apache.velocity.VelocityContext(), new StringWriter(), "mytemplate",
+                "#foreach($i in [1..1000000])$i#end");
+            Assert.fail("Should have raised an exception");
+        } catch (XWikiVelocityBudgetExceededException expected) {
+            Assert.assertEquals(
+                "Aborted the evaluation of content with id [mytemplate] because it rendered more than [100] nodes",
+                expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testOutputBudget() throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("xwiki.budget.output", "10");
+        this.engine.initialize(properties);
+
+        StringWriter writer = new StringWriter();
+        try {
+            this.engine.evaluate(new org.apache.velocity.VelocityContext(), writer, "mytemplate",
+                "#foreach($i in [1..100])$i#end");
+            Assert.fail("Should have raised an exception");
+        } catch (XWikiVelocityBudgetExceededException expected) {
+            Assert.assertEquals(
+                "Aborted the evaluation of content with id [mytemplate] because it wrote more than [10] characters",
+                expected.getMessage());
+        }
+        Assert.assertEquals("123456789", writer.toString());
+    }
+
+    @Test
+    public void testPrecompile() throws Exception
+    {
+        this.engine.initialize(new Properties());
+
+        this.engine.precompile("mytemplate", "#macro(mymacro)test#end");
+
+        StringWriter writer = new StringWriter();
+        this.engine.evaluate(new org.apache.velocity.VelocityContext(), writer, "mytemplate", "#mymacro()");
+        Assert.assertEquals("test", writer.toString());
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.velocity.context.Context;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.velocity.VelocityEngine;
+
+/**
+ * Unit tests for {@link MacroNamespaceRegistry}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class MacroNamespaceRegistryTest
+{
+    /**
+     * Engine counting the cleared namespaces.
+     */
+    private static class ClearCountingEngine implements VelocityEngine
+    {
+        private final ConcurrentMap<String, AtomicInteger> clears = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private boolean failing;
+
+        public void setFailing(boolean failing)
+        {
+            this.failing = failing;
+        }
+
+        public int getClearCount(String namespace)
+        {
+            AtomicInteger count = this.clears.get(namespace);
+
+            return count != null ? count.get() : 0;
+        }
+
+        @Override
+        public void clearMacroNamespace(String templateName)
+        {
+            this.clears.putIfAbsent(templateName, new AtomicInteger());
+            this.clears.get(templateName).incrementAndGet();
+
+            if (this.failing) {
+                throw new RuntimeException("Failed to clear [" + templateName + "]");
+            }
+        }
+
+        @Override
+        public void initialize(Properties properties)
+        {
+        }
+
+        @Override
+        public boolean evaluate(Context context, Writer out, String templateName, String source)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean evaluate(Context context, Writer out, String templateName, Reader source)
+        {
+            return false;
+        }
+
+        @Override
+        public void startedUsingMacroNamespace(String namespace)
+        {
+        }
+
+        @Override
+        public void stoppedUsingMacroNamespace(String namespace)
+        {
+        }
+    }
+
+    private ClearCountingEngine engine = new ClearCountingEngine();
+
+    @Test
+    public void testClearIsDeferredUntilBatchIsFull()
+    {
+        MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 2);
+
+        registry.startedUsing("ns1");
+        registry.startedUsing("ns1");
+        Assert.assertTrue(registry.stoppedUsing("ns1"));
+        Assert.assertTrue(registry.stoppedUsing("ns1"));
+
+        Assert.assertEquals(0, this.engine.getClearCount("ns1"));
+        Assert.assertEquals(1, registry.getPendingCount());
+        Assert.assertEquals(1, registry.getLiveCount());
+
+        registry.startedUsing("ns2");
+        registry.stoppedUsing("ns2");
+
+        Assert.assertEquals(1, this.engine.getClearCount("ns1"));
+        Assert.assertEquals(1, this.engine.getClearCount("ns2"));
+        Assert.assertEquals(0, registry.getPendingCount());
+        Assert.assertEquals(0, registry.getLiveCount());
+    }
+
+    @Test
+    public void testPendingNamespaceIsClearedBeforeBeingUsedAgain()
+    {
+        MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 10);
+
+        registry.startedUsing("ns");
+        registry.stoppedUsing("ns");
+        Assert.assertEquals(0, this.engine.getClearCount("ns"));
+
+        registry.startedUsing("ns");
+        Assert.assertEquals(1, this.engine.getClearCount("ns"));
+
+        // Still used so it must not be cleared
+        registry.clearPending();
+        Assert.assertEquals(1, this.engine.getClearCount("ns"));
+        Assert.assertEquals(1, registry.getLiveCount());
+    }
+
+    @Test
+    public void testStartedUsingWhenClearFails()
+    {
+        MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 10);
+
+        registry.startedUsing("ns");
+        registry.stoppedUsing("ns");
+
+        this.engine.setFailing(true);
+        try {
+            registry.startedUsing("ns");
+            Assert.fail("Should have thrown an exception");
+        } catch (RuntimeException expected) {
+            // Expected
+        }
+        this.engine.setFailing(false);
+
+        // The namespace is not left in the clearing state
+        Assert.assertTrue(registry.stoppedUsing("ns"));
+    }
+
+    @Test
+    public void testClearPendingWhenClearFails()
+    {
+        MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 10);
+
+        registry.startedUsing("ns");
+        registry.stoppedUsing("ns");
+
+        this.engine.setFailing(true);
+        try {
+            registry.clearPending();
+            Assert.fail("Should have thrown an exception");
+        } catch (RuntimeException expected) {
+            // Expected
+        }
+        this.engine.setFailing(false);
+
+        // The namespace is not left in the clearing state
+        Assert.assertEquals(0, registry.getLiveCount());
+        registry.startedUsing("ns");
+        Assert.assertEquals(1, registry.getLiveCount());
+    }
+
+    @Test
+    public void testStoppedUsingUnknownNamespace()
+    {
+        MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 10);
+
+        Assert.assertFalse(registry.stoppedUsing("ns"));
+    }
+
+    @Test
+    public void testConcurrentUsage() throws Exception
+    {
+        final MacroNamespaceRegistry registry = new MacroNamespaceRegistry(this.engine, 4);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; ++i) {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 10000; ++j) {
+                        String namespace = "ns" + (j % 8);
+                        registry.startedUsing(namespace);
+                        registry.stoppedUsing(namespace);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        registry.clearPending();
+
+        Assert.assertEquals(0, registry.getLiveCount());
+        Assert.assertEquals(0, registry.getPendingCount());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.velocity.internal.RenderingStatistics.DirectiveTiming;
+
+/**
+ * Unit tests for {@link RenderingStatistics}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class RenderingStatisticsTest
+{
+    private DirectiveTiming createTiming(long time)
+    {
+        return new DirectiveTiming("#foreach", "template", 1, 1, time);
+    }
+
+    @Test
+    public void testAddDirectiveTiming()
+    {
+        RenderingStatistics statistics = new RenderingStatistics(1, 2);
+
+        statistics.addDirectiveTiming(createTiming(2));
+        statistics.addDirectiveTiming(createTiming(1));
+        statistics.addDirectiveTiming(createTiming(3));
+
+        List<DirectiveTiming> slowestDirectives = statistics.getSlowestDirectives();
+        Assert.assertEquals(2, slowestDirectives.size());
+        Assert.assertEquals(3, slowestDirectives.get(0).getTime());
+        Assert.assertEquals(2, slowestDirectives.get(1).getTime());
+    }
+
+    @Test
+    public void testAddDirectiveTimingWhenNoSlowestDirectiveIsKept()
+    {
+        RenderingStatistics statistics = new RenderingStatistics(1, 0);
+
+        Assert.assertFalse(statistics.sample());
+
+        statistics.addDirectiveTiming(createTiming(1));
+        statistics.addDirectiveTiming(createTiming(2));
+
+        Assert.assertTrue(statistics.getSlowestDirectives().isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ChunkedWriter}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class ChunkedWriterTest
+{
+    private CharSegmentPool pool = new CharSegmentPool(4, 2);
+
+    private ChunkedWriter writer = new ChunkedWriter(this.pool);
+
+    @Test
+    public void testWriteAcrossSegments() throws IOException
+    {
+        this.writer.write("hello");
+        this.writer.write(' ');
+        this.writer.write("wonderful world".toCharArray(), 10, 5);
+
+        Assert.assertEquals(11, this.writer.length());
+        Assert.assertEquals("hello world", this.writer.toString());
+
+        StringWriter result = new StringWriter();
+        this.writer.writeTo(result);
+        Assert.assertEquals("hello world", result.toString());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        this.writer.writeTo(stream, Charset.forName("UTF-8"));
+        Assert.assertEquals("hello world", stream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        StringWriter result = new StringWriter();
+        this.writer.writeTo(result);
+
+        Assert.assertEquals("", result.toString());
+        Assert.assertEquals("", this.writer.toString());
+        Assert.assertEquals(0, this.writer.length());
+    }
+
+    @Test
+    public void testSegmentsAreReused() throws IOException
+    {
+        this.writer.write("0123456789");
+        this.writer.reset();
+
+        // Three segments were used but the pool keeps only two of them
+        Assert.assertEquals(2, this.pool.getAvailable());
+        Assert.assertEquals(0, this.writer.length());
+
+        this.writer.write("abc");
+        Assert.assertEquals(1, this.pool.getAvailable());
+        Assert.assertEquals("abc", this.writer.toString());
+
+        this.writer.close();
+        Assert.assertEquals(2, this.pool.getAvailable());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException
+    {
+        this.writer.close();
+        this.writer.write("test");
+    }
+}
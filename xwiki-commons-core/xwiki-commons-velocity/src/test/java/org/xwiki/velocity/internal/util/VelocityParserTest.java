@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.internal.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.velocity.internal.util.VelocityBlock.VelocityType;
+
+/**
+ * Unit tests for {@link VelocityParser}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+public class VelocityParserTest
+{
+    private VelocityParser parser = new VelocityParser();
+
+    @Test
+    public void testGetKeyWord() throws InvalidVelocityException
+    {
+        String source = "#if ($a == 'b')\ntext";
+        StringBuffer block = new StringBuffer();
+        VelocityParserContext context = new VelocityParserContext();
+
+        Assert.assertEquals(16, this.parser.getKeyWord(source.toCharArray(), 0, block, context));
+        Assert.assertEquals("#if ($a == 'b')\n", block.toString());
+        Assert.assertEquals(VelocityType.DIRECTIVE, context.getType());
+        Assert.assertEquals("if", context.getCurrentElement().getName());
+    }
+
+    @Test(expected = InvalidVelocityException.class)
+    public void testGetKeyWordWhenInvalid() throws InvalidVelocityException
+    {
+        this.parser.getKeyWord("#anchor text".toCharArray(), 0, null, new VelocityParserContext());
+    }
+
+    @Test
+    public void testGetVar() throws InvalidVelocityException
+    {
+        String source = "${var.method('$other')}.text";
+        StringBuffer name = new StringBuffer();
+        StringBuffer block = new StringBuffer();
+        VelocityParserContext context = new VelocityParserContext();
+
+        Assert.assertEquals(23, this.parser.getVar(source.toCharArray(), 0, name, block, context));
+        Assert.assertEquals("var", name.toString());
+        Assert.assertEquals("${var.method('$other')}", block.toString());
+        Assert.assertEquals(VelocityType.VAR, context.getType());
+    }
+
+    @Test
+    public void testParse()
+    {
+        final StringBuilder result = new StringBuilder();
+
+        this.parser.parse("text #if($a)\n$a.b #mymacro() \\$c##comment\n#end #anchor $".toCharArray(),
+            new VelocityParserListener()
+            {
+                @Override
+                public void onText(char[] array, int start, int end)
+                {
+                    result.append('[').append(array, start, end - start).append(']');
+                }
+
+                @Override
+                public void onVelocityElement(char[] array, int start, int end, VelocityType type)
+                {
+                    result.append(type).append('[').append(array, start, end - start).append(']');
+                }
+            });
+
+        Assert.assertEquals("[text ]DIRECTIVE[#if($a)\n]VAR[$a.b][ ]MACRO[#mymacro()][ \\$c]COMMENT[##comment\n]"
+            + "DIRECTIVE[#end][ #anchor $]", result.toString());
+    }
+}
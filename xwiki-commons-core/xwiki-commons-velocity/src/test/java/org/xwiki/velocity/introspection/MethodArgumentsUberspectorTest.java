@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.velocity.introspection;
+
+import java.lang.reflect.Method;
+
+import org.apache.velocity.util.introspection.Info;
+import org.apache.velocity.util.introspection.UberspectImpl;
+import org.apache.velocity.util.introspection.VelMethod;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.properties.ConverterManager;
+import org.xwiki.properties.converter.ConversionException;
+
+/**
+ * Unit tests for {@link MethodArgumentsUberspector}.
+ * 
+ * @version $Id$
+ * @since 4.1
+ */
+@RunWith(JMock.class)
+public class MethodArgumentsUberspectorTest
+{
+    public enum TestEnum
+    {
+        VALUE
+    }
+
+    public static class TestObject
+    {
+        public String method(TestEnum value)
+        {
+            return "method";
+        }
+
+        public String overload(String value1, TestEnum value2)
+        {
+            return "overload1";
+        }
+
+        public String overload(TestEnum value1, TestEnum value2)
+        {
+            return "overload2";
+        }
+    }
+
+    /**
+     * Finds the methods whose parameter types match exactly the passed arguments.
+     */
+    private class ExactUberspector extends UberspectImpl
+    {
+        @Override
+        public VelMethod getMethod(Object obj, String methodName, Object[] args, Info i) throws Exception
+        {
+            for (Method method : obj.getClass().getMethods()) {
+                if (method.getName().equals(methodName) && matches(method.getParameterTypes(), args)) {
+                    return velMethod;
+                }
+            }
+
+            return null;
+        }
+
+        private boolean matches(Class< ? >[] parameterTypes, Object[] args)
+        {
+            if (parameterTypes.length != args.length) {
+                return false;
+            }
+
+            for (int i = 0; i < args.length; ++i) {
+                if (!parameterTypes[i].isInstance(args[i])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private Mockery mockery = new JUnit4Mockery();
+
+    private ConverterManager converterManager;
+
+    private VelMethod velMethod;
+
+    private MethodArgumentsUberspector uberspector;
+
+    private TestObject object = new TestObject();
+
+    public Mockery getMockery()
+    {
+        return this.mockery;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.converterManager = getMockery().mock(ConverterManager.class);
+        this.velMethod = getMockery().mock(VelMethod.class);
+
+        this.uberspector = new MethodArgumentsUberspector();
+        this.uberspector.wrap(new ExactUberspector());
+        ReflectionUtils.setFieldValue(this.uberspector, "converterManager", this.converterManager);
+    }
+
+    @Test
+    public void testGetMethodConvertsArguments() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                exactly(2).of(converterManager).convert(TestEnum.class, "VALUE");
+                will(returnValue(TestEnum.VALUE));
+            }
+        });
+
+        // The second call uses the cached candidates.
+        for (int i = 0; i < 2; ++i) {
+            Object[] args = new Object[] {"VALUE"};
+            Assert.assertSame(this.velMethod, this.uberspector.getMethod(this.object, "method", args, null));
+            Assert.assertSame(TestEnum.VALUE, args[0]);
+        }
+    }
+
+    @Test
+    public void testGetMethodWhenNoCandidate() throws Exception
+    {
+        // No conversion is attempted since there's no method with the passed name and number of parameters.
+        for (int i = 0; i < 2; ++i) {
+            Assert.assertNull(this.uberspector.getMethod(this.object, "unknown", new Object[] {"VALUE"}, null));
+            Assert.assertNull(this.uberspector.getMethod(this.object, "method", new Object[] {"VALUE", "VALUE"},
+                null));
+        }
+    }
+
+    @Test
+    public void testGetMethodWhenConversionFails() throws Exception
+    {
+        getMockery().checking(new Expectations()
+        {
+            {
+                oneOf(converterManager).convert(TestEnum.class, "OTHER");
+                will(throwException(new ConversionException("Unknown value")));
+            }
+        });
+
+        Object[] args = new Object[] {"OTHER"};
+        Assert.assertNull(this.uberspector.getMethod(this.object, "method", args, null));
+        Assert.assertEquals("OTHER", args[0]);
+    }
+
+    @Test
+    public void testGetMethodWithOverloads() throws Exception
+    {
+        // overload(TestEnum, TestEnum) would require converting the first argument too so it's never tried.
+        getMockery().checking(new Expectations()
+        {
+            {
+                exactly(3).of(converterManager).convert(TestEnum.class, "VALUE");
+                will(returnValue(TestEnum.VALUE));
+            }
+        });
+
+        Object[] args = new Object[] {"value", "VALUE"};
+        Assert.assertSame(this.velMethod, this.uberspector.getMethod(this.object, "overload", args, null));
+        Assert.assertEquals("value", args[0]);
+        Assert.assertSame(TestEnum.VALUE, args[1]);
+
+        // Picking another method for other argument types doesn't change the method picked for the first call.
+        args = new Object[] {TestEnum.VALUE, "VALUE"};
+        Assert.assertSame(this.velMethod, this.uberspector.getMethod(this.object, "overload", args, null));
+        Assert.assertSame(TestEnum.VALUE, args[1]);
+
+        args = new Object[] {"value", "VALUE"};
+        Assert.assertSame(this.velMethod, this.uberspector.getMethod(this.object, "overload", args, null));
+        Assert.assertEquals("value", args[0]);
+    }
+}
@@ -21,6 +21,7 @@
 package org.xwiki.velocity.tools;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -530,4 +531,55 @@ public void testSort()
         list = null;
         Assert.assertFalse("Sorted a null list?", this.tool.sort(list));
     }
+
+    @Test
+    public void testReversed()
+    {
+        List<String> list = this.tool.getLinkedList();
+        list.add("one");
+        list.add("two");
+        List<String> reversed = this.tool.reversed(list);
+        Assert.assertEquals(Arrays.asList("two", "one"), reversed);
+        list.add("three");
+        Assert.assertEquals("Changes of the list should be visible", "three", reversed.get(0));
+        Assert.assertEquals("one", list.get(0));
+        Assert.assertNull(this.tool.reversed(null));
+    }
+
+    @Test
+    public void testSorted()
+    {
+        List<String> list = Arrays.asList("one", "two", "three");
+        Assert.assertEquals(Arrays.asList("one", "three", "two"), this.tool.sorted(list));
+        Assert.assertEquals("The collection shouldn't be modified", "two", list.get(1));
+    }
+
+    @Test
+    public void testAsSet()
+    {
+        Set<String> set = this.tool.asSet(Arrays.asList("one", "two", "one"));
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.contains("one"));
+        Assert.assertTrue(set.contains("two"));
+    }
+
+    @Test
+    public void testAsQueue()
+    {
+        List<String> list = Arrays.asList("one", "two");
+        Queue<String> queue = this.tool.asQueue(list);
+        Assert.assertEquals("one", queue.peek());
+        Assert.assertEquals("one", queue.poll());
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals("two", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testAsList()
+    {
+        Assert.assertEquals(Arrays.<Object> asList(1, 2, 3), this.tool.asList(new int[] {1, 2, 3}));
+        Assert.assertNull(this.tool.asList("not an array"));
+    }
 }
@@ -19,6 +19,8 @@
  */
 package org.xwiki.velocity.tools;
 
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -69,6 +71,63 @@ public Map<String, String> getParameters()
         }
     }
 
+    public static class NullBean
+    {
+        public String[] getArray()
+        {
+            return null;
+        }
+
+        public Boolean getBool()
+        {
+            return null;
+        }
+
+        public Character getChar()
+        {
+            return null;
+        }
+
+        public List<String> getList()
+        {
+            return null;
+        }
+
+        public Map<String, String> getMap()
+        {
+            return null;
+        }
+
+        public Integer getNumber()
+        {
+            return null;
+        }
+
+        public String getString()
+        {
+            return null;
+        }
+    }
+
+    public interface NamedBean
+    {
+        String getName();
+    }
+
+    private static class PrivateBean implements NamedBean
+    {
+        @Override
+        public String getName()
+        {
+            return "XWiki";
+        }
+
+        public String getHidden()
+        {
+            return "hidden";
+        }
+    }
+
     /**
      * The object being tested.
      */
@@ -136,4 +195,60 @@ public void testSerializeBean()
         Assert.assertTrue(json.contains("\"name\":\"XWiki\""));
         Assert.assertTrue(json.contains("\"parameters\":{\"foo\":\"bar\"}"));
     }
+
+    @Test
+    public void testSerializeBeanWithNullProperties()
+    {
+        // Same default values as json-lib
+        Assert.assertEquals("{\"array\":[],\"bool\":false,\"char\":\"\",\"list\":[],\"map\":null,\"number\":0,"
+            + "\"string\":\"\"}", tool.serialize(new NullBean()));
+    }
+
+    @Test
+    public void testSerializeBeanWithPrivateClass()
+    {
+        // Only the properties which can be read through a public type are serialized.
+        Assert.assertEquals("{\"name\":\"XWiki\"}", tool.serialize(new PrivateBean()));
+    }
+
+    @Test
+    public void testSerializeToWriter() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        tool.serialize(Arrays.asList(new MockBean(), null, 'c'), writer);
+
+        Assert.assertEquals("[{\"age\":28,\"enabled\":true,\"grade\":9.48,\"items\":[\"one\"],\"name\":\"XWiki\","
+            + "\"parameters\":{\"foo\":\"bar\"}},null,\"c\"]", writer.toString());
+    }
+
+    @Test
+    public void testSerializeEscapedString()
+    {
+        Assert.assertEquals("\"a\\\\b\\n\\u0001<\\/script>\"", tool.serialize("a\\b\n\u0001</script>"));
+    }
+
+    @Test
+    public void testSerializeUnicodeEscapedString()
+    {
+        // Same escaping as json-lib
+        Assert.assertEquals("\"a\\u0085b\\u2028c\u00e9\"", tool.serialize("a\u0085b\u2028c\u00e9"));
+    }
+
+    @Test
+    public void testSerializePrimitiveArrays()
+    {
+        Assert.assertEquals("[1,2]", tool.serialize(new long[] {1, 2}));
+        Assert.assertEquals("[1,2.5]", tool.serialize(new double[] {1.0, 2.50}));
+        Assert.assertEquals("[true,false]", tool.serialize(new boolean[] {true, false}));
+        Assert.assertEquals("[]", tool.serialize(new int[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSerializeCycle()
+    {
+        List<Object> list = new ArrayList<Object>();
+        list.add(list);
+
+        tool.serialize(list);
+    }
 }